@@ -0,0 +1,116 @@
+package info.freelibrary.iiiftool.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import info.freelibrary.iiiftool.DownloadEngine;
+import info.freelibrary.iiiftool.DownloadReport;
+import info.freelibrary.iiiftool.EngineType;
+import info.freelibrary.iiiftool.HttpProfile;
+import info.freelibrary.iiiftool.HttpResult;
+import info.freelibrary.iiiftool.HttpTransport;
+import info.freelibrary.iiiftool.RequestType;
+import info.freelibrary.iiiftool.StandInServer;
+import info.freelibrary.iiiftool.ViewerSession;
+
+/**
+ * Benchmarks the download path end to end against an in-process stand-in server that adds no latency, so what's
+ * measured is the client's own overhead (plus the loopback and the server's).
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    private static final int DOWNLOADER_COUNT = 10;
+
+    /** The engine the downloads are run on */
+    @Param({ "pool", "async" })
+    public String myEngineType;
+
+    /** The HTTP profile the downloads are made with (<code>no-reuse</code> needs the <code>pool</code> engine) */
+    @Param({ "browser" })
+    public String myHttpProfile;
+
+    private StandInServer myServer;
+
+    private DownloadEngine myEngine;
+
+    private HttpTransport mySession;
+
+    private ViewerSession myViewerSession;
+
+    private String myTileURL;
+
+    /**
+     * Starts the stand-in server and the download engine.
+     *
+     * @throws IOException If the server can't be started
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        final EngineType type = EngineType.fromName(myEngineType);
+        final HttpProfile profile = HttpProfile.fromName(myHttpProfile);
+
+        myServer = new StandInServer(0).start();
+        myServer.getSettings(RequestType.TILE).setBodySize(64 * 1024);
+        myEngine = type.newEngine(DOWNLOADER_COUNT, profile);
+        mySession = myEngine.getTransport().newSession();
+        myViewerSession = new ViewerSession(myServer.getURL() + "/benchmark/manifest", DOWNLOADER_COUNT, false);
+        myTileURL = myServer.getURL() + "/benchmark-0/0,0,1024,1024/1024,/0/default.jpg";
+    }
+
+    /**
+     * Stops the download engine and the stand-in server.
+     *
+     * @throws Exception If the engine can't be closed
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mySession.close();
+        myEngine.close();
+        myServer.close();
+    }
+
+    /**
+     * Downloads a single 64 KB tile.
+     *
+     * @return The result of the download
+     */
+    @Benchmark
+    public HttpResult downloadTile() {
+        return myEngine.request(mySession, myTileURL, false).join();
+    }
+
+    /**
+     * Runs a whole viewer session: the manifest, its twenty thumbnails, an info.json file and four tiles.
+     *
+     * @return The session's report
+     */
+    @Benchmark
+    public DownloadReport viewerSession() {
+        final DownloadReport report = new DownloadReport();
+
+        myViewerSession.start(myEngine, report, System.nanoTime()).join();
+        return report;
+    }
+}
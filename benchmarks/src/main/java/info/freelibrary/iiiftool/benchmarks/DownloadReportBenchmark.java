@@ -0,0 +1,74 @@
+package info.freelibrary.iiiftool.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import info.freelibrary.iiiftool.DownloadReport;
+import info.freelibrary.iiiftool.HistogramSnapshot;
+import info.freelibrary.iiiftool.RequestType;
+
+/**
+ * Benchmarks recording downloads into a report that many downloader threads share, and taking a snapshot of it.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadReportBenchmark {
+
+    /* Downloads are recorded with latencies between 1 ms and 1 s */
+    private static final long MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long MAX_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final DownloadReport myReport = new DownloadReport();
+
+    /**
+     * Records a download from a single thread.
+     */
+    @Benchmark
+    @Threads(1)
+    public void addDownload() {
+        record();
+    }
+
+    /**
+     * Records downloads from as many threads as the tool's default downloader count.
+     */
+    @Benchmark
+    @Threads(10)
+    public void addDownloadContended() {
+        record();
+    }
+
+    /**
+     * Takes a snapshot of a type of request's latencies, as the report does at the end of a run.
+     *
+     * @return A snapshot of the latencies
+     */
+    @Benchmark
+    @Threads(1)
+    public HistogramSnapshot getTimes() {
+        return myReport.getTimes(RequestType.TILE);
+    }
+
+    private void record() {
+        final long nanos = ThreadLocalRandom.current().nextLong(MIN_NANOS, MAX_NANOS);
+        myReport.addDownload(RequestType.TILE, nanos, 150 * 1024, 200);
+    }
+}
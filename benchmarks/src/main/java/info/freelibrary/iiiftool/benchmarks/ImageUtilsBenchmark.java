@@ -0,0 +1,118 @@
+package info.freelibrary.iiiftool.benchmarks;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import info.freelibrary.iiiftool.ImageUtils;
+import info.freelibrary.iiiftool.ManifestIndex;
+import info.freelibrary.iiiftool.TilePyramid;
+
+/**
+ * Benchmarks working out an image's tiles, both the old way (building every tile's path up front) and with a tile
+ * pyramid, for a small image and a gigapixel one.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageUtilsBenchmark {
+
+    private static final String SERVICE = "https://iiif.example.edu/iiif";
+
+    private static final String ID = "ark:/21198/z1";
+
+    private static final int TILE_SIZE = 1024;
+
+    /** The width and height of the image: a page scan or a gigapixel map */
+    @Param({ "4000x3000", "40000x30000" })
+    public String myImageSize;
+
+    private int myWidth;
+
+    private int myHeight;
+
+    private String myInfo;
+
+    private TilePyramid myPyramid;
+
+    /**
+     * Sets up the benchmark's image.
+     *
+     * @throws IOException If the image's info.json file can't be parsed
+     */
+    @Setup
+    public void setup() throws IOException {
+        final String[] size = myImageSize.split("x");
+
+        myWidth = Integer.parseInt(size[0]);
+        myHeight = Integer.parseInt(size[1]);
+        myInfo = "{\"width\":" + myWidth + ",\"height\":" + myHeight + "}";
+        myPyramid = createTilePyramid();
+    }
+
+    /**
+     * Builds the paths of all the image's tiles up front.
+     *
+     * @return The tile paths
+     */
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public List<String> getTilePaths() {
+        return ImageUtils.getTilePaths(SERVICE, ID, TILE_SIZE, myWidth, myHeight);
+    }
+
+    /**
+     * Creates the URLs of all the image's tiles as they're iterated over.
+     *
+     * @param aBlackhole A sink for the tile URLs
+     */
+    @Benchmark
+    public void iterateTilePyramid(final Blackhole aBlackhole) {
+        final Iterator<String> iterator = myPyramid.iterator();
+
+        while (iterator.hasNext()) {
+            aBlackhole.consume(iterator.next());
+        }
+    }
+
+    /**
+     * Creates the tile pyramid from the image's info.json file, which is all that's needed before the first tile's
+     * URL.
+     *
+     * @return A tile pyramid
+     * @throws IOException If the image's info.json file can't be parsed
+     */
+    @Benchmark
+    public TilePyramid createTilePyramid() throws IOException {
+        return TilePyramid.fromInfo(SERVICE + "/" + ID, ManifestIndex.parse(myInfo), TILE_SIZE);
+    }
+
+    /**
+     * Works out the image's aspect ratio.
+     *
+     * @return The image's aspect ratio
+     */
+    @Benchmark
+    public String ratio() {
+        return ImageUtils.ratio(myWidth, myHeight);
+    }
+}
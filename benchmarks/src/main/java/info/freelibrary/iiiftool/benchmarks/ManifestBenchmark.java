@@ -0,0 +1,118 @@
+package info.freelibrary.iiiftool.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import info.freelibrary.iiiftool.ManifestIndex;
+import info.freelibrary.iiiftool.ManifestReader;
+import info.freelibrary.iiiftool.XQueryUtils;
+
+/**
+ * Benchmarks reading the thumbnails and first image service from small and very large manifests: with XQuery, with a
+ * parsed manifest index and with the streaming manifest reader.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManifestBenchmark {
+
+    /** The number of canvases in the manifest */
+    @Param({ "10", "50000" })
+    public int myCanvasCount;
+
+    private String myJSON;
+
+    private byte[] myBytes;
+
+    private ManifestIndex myIndex;
+
+    /**
+     * Sets up the benchmark's manifest.
+     *
+     * @throws IOException If the manifest can't be parsed
+     */
+    @Setup
+    public void setup() throws IOException {
+        myJSON = Manifests.create(myCanvasCount);
+        myBytes = myJSON.getBytes(StandardCharsets.UTF_8);
+        myIndex = ManifestIndex.parse(myJSON);
+    }
+
+    /**
+     * Selects the thumbnails with XQuery.
+     *
+     * @return The thumbnails
+     */
+    @Benchmark
+    public List<String> xqueryGetList() {
+        return XQueryUtils.getList(myJSON, Manifests.THUMBNAIL_QUERY);
+    }
+
+    /**
+     * Selects the first image service with XQuery.
+     *
+     * @return The image service's ID
+     */
+    @Benchmark
+    public String xqueryGetValue() {
+        return XQueryUtils.getValue(myJSON, Manifests.SERVICE_QUERY);
+    }
+
+    /**
+     * Parses the manifest into an index and selects the thumbnails and first image service from it.
+     *
+     * @param aBlackhole A sink for the selected values
+     * @throws IOException If the manifest can't be parsed
+     */
+    @Benchmark
+    public void indexParseAndQuery(final Blackhole aBlackhole) throws IOException {
+        final ManifestIndex index = ManifestIndex.parse(myJSON);
+
+        aBlackhole.consume(index.getList(Manifests.THUMBNAIL_QUERY));
+        aBlackhole.consume(index.getValue(Manifests.SERVICE_QUERY));
+    }
+
+    /**
+     * Selects the thumbnails from an index that's already been parsed, as happens when a manifest is cached; the
+     * index keeps its results, so this is the cost of a repeated query.
+     *
+     * @return The thumbnails
+     */
+    @Benchmark
+    public List<String> indexQuery() {
+        return myIndex.getList(Manifests.THUMBNAIL_QUERY);
+    }
+
+    /**
+     * Reads the thumbnails and first image service as the manifest is streamed.
+     *
+     * @param aBlackhole A sink for the read values
+     * @throws IOException If the manifest can't be read
+     */
+    @Benchmark
+    public void streamingRead(final Blackhole aBlackhole) throws IOException {
+        new ManifestReader().on(Manifests.THUMBNAIL_QUERY, aBlackhole::consume).on(Manifests.SERVICE_QUERY,
+                aBlackhole::consume).read(new ByteArrayInputStream(myBytes));
+    }
+}
@@ -0,0 +1,51 @@
+package info.freelibrary.iiiftool.benchmarks;
+
+/**
+ * Synthetic manifests, shaped like the ones our IIIF server produces, for the benchmarks to parse.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class Manifests {
+
+    /** The query that selects a manifest's thumbnails */
+    static final String THUMBNAIL_QUERY = "?sequences?*?canvases?*?thumbnail";
+
+    /** The query that selects the image service of a manifest's first canvas */
+    static final String SERVICE_QUERY = "?sequences?*?canvases?1?images?1?resource?item?1?service?('@id')";
+
+    private static final String SERVER = "https://iiif.example.edu/iiif/";
+
+    private Manifests() {
+    }
+
+    /**
+     * Creates a manifest with the supplied number of canvases.
+     *
+     * @param aCanvasCount The number of canvases in the manifest
+     * @return The JSON of the manifest
+     */
+    static String create(final int aCanvasCount) {
+        final StringBuilder json = new StringBuilder(256 + aCanvasCount * 600);
+
+        json.append("{\"@context\":\"http://iiif.io/api/presentation/2/context.json\",\"@id\":\"").append(SERVER)
+                .append("ark%3A%2F21198%2Fz1/manifest\",\"@type\":\"sc:Manifest\",\"label\":\"Benchmark\",")
+                .append("\"sequences\":[{\"@type\":\"sc:Sequence\",\"canvases\":[");
+
+        for (int index = 0; index < aCanvasCount; index++) {
+            final String service = SERVER + "ark%3A%2F21198%2Fz1-" + index;
+
+            if (index > 0) {
+                json.append(',');
+            }
+
+            json.append("{\"@id\":\"").append(service).append("/canvas\",\"@type\":\"sc:Canvas\",\"label\":\"")
+                    .append(index + 1).append("\",\"width\":6000,\"height\":4000,\"thumbnail\":\"").append(service)
+                    .append("/full/150,/0/default.jpg\",\"images\":[{\"@type\":\"oa:Annotation\",\"resource\":{")
+                    .append("\"@type\":\"oa:Choice\",\"item\":[{\"@id\":\"").append(service).append(
+                            "/full/full/0/default.jpg\",\"@type\":\"dctypes:Image\",\"service\":{\"@id\":\"").append(
+                                    service).append("\",\"profile\":\"http://iiif.io/api/image/2/level1.json\"}}]}}]}");
+        }
+
+        return json.append("]}]}").toString();
+    }
+}
@@ -0,0 +1,92 @@
+package info.freelibrary.iiiftool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A reader of the requests in a web or image server's access log, in the Common or Combined Log Format that Apache,
+ * nginx and Jetty (and so Cantaloupe) write. Each client (its address and, in the Combined Log Format, its user
+ * agent) is a session. The log is read a line at a time, and lines that can't be parsed are skipped.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class AccessLogReader implements TraceReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLogReader.class);
+
+    /* The client, time, method and path, and (in the Combined Log Format) the user agent of a request */
+    private static final Pattern LINE = Pattern.compile(
+            "^(\\S+) \\S+ \\S+ \\[([^\\]]+)\\] \"(\\S+) (\\S+)[^\"]*\" \\d{3} \\S+(?: \"[^\"]*\" \"([^\"]*)\")?.*");
+
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+
+    private final BufferedReader myReader;
+
+    private final Matcher myMatcher;
+
+    /* Logs record many requests in each second, so the last time that was parsed is kept */
+    private String myLastTimestamp;
+
+    private long myLastTime;
+
+    private long mySkippedCount;
+
+    /**
+     * Creates a new access log reader.
+     *
+     * @param aReader The source of the access log
+     */
+    AccessLogReader(final BufferedReader aReader) {
+        myReader = aReader;
+        myMatcher = LINE.matcher("");
+    }
+
+    @Override
+    public TraceEntry next() throws IOException {
+        String line;
+
+        while ((line = myReader.readLine()) != null) {
+            if (!myMatcher.reset(line).matches()) {
+                mySkippedCount += 1;
+            } else if ("GET".equals(myMatcher.group(3))) {
+                final String agent = myMatcher.group(5);
+                final String client = agent == null ? myMatcher.group(1) : myMatcher.group(1) + ' ' + agent;
+
+                try {
+                    return new TraceEntry(parseTime(myMatcher.group(2)), client, myMatcher.group(4));
+                } catch (final DateTimeParseException details) {
+                    mySkippedCount += 1;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mySkippedCount > 0) {
+            LOGGER.warn("Skipped {} access log lines that couldn't be parsed", mySkippedCount);
+        }
+
+        myReader.close();
+    }
+
+    private long parseTime(final String aTimestamp) {
+        if (!aTimestamp.equals(myLastTimestamp)) {
+            myLastTime = OffsetDateTime.parse(aTimestamp, TIME).toInstant().toEpochMilli();
+            myLastTimestamp = aTimestamp;
+        }
+
+        return myLastTime;
+    }
+}
@@ -0,0 +1,119 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A table for drawing indexes in proportion to their weights, in constant time however many there are (Vose's alias
+ * method). Each index gets a column of equal height, holding its own probability and, on top of that, an alias
+ * that's filled from an index with more weight than a column can hold; a draw picks a column and then one of its two
+ * indexes. The table is built once, in linear time, and is safe to draw from on any number of threads.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class AliasTable {
+
+    private final double[] myProbabilities;
+
+    private final int[] myAliases;
+
+    /**
+     * Creates a new alias table.
+     *
+     * @param aWeights The weights of the indexes, which don't need to add up to one
+     * @throws IllegalArgumentException If there are no weights, a weight is negative or they're all zero
+     */
+    AliasTable(final double... aWeights) {
+        final int count = aWeights.length;
+        final double[] scaled = new double[count];
+        final Deque<Integer> small = new ArrayDeque<>();
+        final Deque<Integer> large = new ArrayDeque<>();
+
+        double total = 0;
+
+        for (final double weight : aWeights) {
+            if (weight < 0 || Double.isNaN(weight)) {
+                throw new IllegalArgumentException("Weights can't be negative: " + weight);
+            }
+
+            total += weight;
+        }
+
+        if (count == 0 || total <= 0) {
+            throw new IllegalArgumentException("At least one weight should be greater than zero");
+        }
+
+        myProbabilities = new double[count];
+        myAliases = new int[count];
+
+        // Scaled so that an index with an average weight exactly fills its column
+        for (int index = 0; index < count; index++) {
+            scaled[index] = aWeights[index] * count / total;
+            (scaled[index] < 1 ? small : large).add(index);
+        }
+
+        while (!small.isEmpty() && !large.isEmpty()) {
+            final int less = small.poll();
+            final int more = large.poll();
+
+            myProbabilities[less] = scaled[less];
+            myAliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1;
+            (scaled[more] < 1 ? small : large).add(more);
+        }
+
+        // What's left fills its own column, give or take rounding errors
+        while (!large.isEmpty()) {
+            myProbabilities[large.poll()] = 1;
+        }
+
+        while (!small.isEmpty()) {
+            myProbabilities[small.poll()] = 1;
+        }
+    }
+
+    /**
+     * Gets a table whose indexes follow Zipf's law: the weight of the index at each rank, from one, is one over the
+     * rank raised to the supplied exponent, so a few indexes get most of the draws and the rest make a long tail.
+     *
+     * @param aCount The number of indexes
+     * @param aExponent The exponent of the distribution, where zero draws every index equally
+     * @return A new alias table
+     * @throws IllegalArgumentException If the count isn't positive or the exponent is negative
+     */
+    static AliasTable zipf(final int aCount, final double aExponent) {
+        final double[] weights = new double[aCount];
+
+        if (aExponent < 0) {
+            throw new IllegalArgumentException("Zipf exponent can't be negative: " + aExponent);
+        }
+
+        for (int index = 0; index < aCount; index++) {
+            weights[index] = 1 / Math.pow(index + 1, aExponent);
+        }
+
+        return new AliasTable(weights);
+    }
+
+    /**
+     * Draws an index.
+     *
+     * @return An index, drawn in proportion to its weight
+     */
+    int sample() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int column = random.nextInt(myProbabilities.length);
+
+        return random.nextDouble() < myProbabilities[column] ? column : myAliases[column];
+    }
+
+    /**
+     * Gets the number of indexes that can be drawn.
+     *
+     * @return The number of indexes
+     */
+    int size() {
+        return myProbabilities.length;
+    }
+}
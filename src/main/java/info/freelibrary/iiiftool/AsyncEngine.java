@@ -0,0 +1,62 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A download engine that runs downloads on the JDK's non-blocking HTTP client. No thread is held while a download is
+ * waiting on the server, so a small number of threads can keep a very large number of downloads in flight. Streamed
+ * requests are the exception: their readers block, so they're run on a fixed size pool of reader threads. Streamed
+ * requests that find every reader busy wait for one, rather than each pinning a new thread.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class AsyncEngine implements DownloadEngine {
+
+    private final HttpTransport myTransport;
+
+    private final ExecutorService myReaderExecutor;
+
+    /**
+     * Creates a new non-blocking download engine.
+     *
+     * @param aTransport A non-blocking transport from which each viewer session's transport is created
+     * @param aReaderCount The number of threads on which streamed requests are read
+     */
+    public AsyncEngine(final JdkTransport aTransport, final int aReaderCount) {
+        myTransport = aTransport;
+        myReaderExecutor = Executors.newFixedThreadPool(aReaderCount);
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> request(final HttpTransport aTransport, final String aURL,
+            final boolean aBodyKept) {
+        return aTransport.getAsync(aURL, aBodyKept);
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> stream(final HttpTransport aTransport, final String aURL,
+            final HttpTransport.BodyReader aReader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return aTransport.get(aURL, aReader);
+            } catch (final IOException details) {
+                throw new UncheckedIOException(details);
+            }
+        }, myReaderExecutor);
+    }
+
+    @Override
+    public HttpTransport getTransport() {
+        return myTransport;
+    }
+
+    @Override
+    public void close() {
+        myReaderExecutor.shutdown();
+        myTransport.close();
+    }
+}
@@ -0,0 +1,67 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A non-blocking semaphore: a permit is handed out through a future that completes when the permit is available, so
+ * nothing waits on a thread.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class AsyncLimiter {
+
+    private final Queue<CompletableFuture<Void>> myWaiters = new ArrayDeque<>();
+
+    private int myPermitCount;
+
+    /**
+     * Creates a new non-blocking semaphore.
+     *
+     * @param aPermitCount The number of permits that can be held at the same time
+     */
+    AsyncLimiter(final int aPermitCount) {
+        myPermitCount = aPermitCount;
+    }
+
+    /**
+     * Acquires a permit.
+     *
+     * @return A future that completes when the permit has been acquired
+     */
+    CompletableFuture<Void> acquire() {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+
+        synchronized (myWaiters) {
+            if (myPermitCount == 0) {
+                myWaiters.add(permit);
+                return permit;
+            }
+
+            myPermitCount -= 1;
+        }
+
+        permit.complete(null);
+        return permit;
+    }
+
+    /**
+     * Releases a permit, handing it to the longest waiting acquirer if there is one.
+     */
+    void release() {
+        final CompletableFuture<Void> waiter;
+
+        synchronized (myWaiters) {
+            waiter = myWaiters.poll();
+
+            if (waiter == null) {
+                myPermitCount += 1;
+                return;
+            }
+        }
+
+        // Completed outside the lock since the waiter's work runs on this thread
+        waiter.complete(null);
+    }
+}
@@ -0,0 +1,70 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A download engine that runs blocking requests on an executor service.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+abstract class BlockingEngine implements DownloadEngine {
+
+    private final ExecutorService myExecutor;
+
+    private final ExecutorService myReaderExecutor;
+
+    private final HttpTransport myTransport;
+
+    /**
+     * Creates a new blocking download engine.
+     *
+     * @param aExecutor The executor service on which requests are run
+     * @param aReaderExecutor The executor service on which streamed requests are run
+     * @param aTransport The transport from which each viewer session's transport is created
+     */
+    BlockingEngine(final ExecutorService aExecutor, final ExecutorService aReaderExecutor,
+            final HttpTransport aTransport) {
+        myExecutor = aExecutor;
+        myReaderExecutor = aReaderExecutor;
+        myTransport = aTransport;
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> request(final HttpTransport aTransport, final String aURL,
+            final boolean aBodyKept) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return aTransport.get(aURL, aBodyKept);
+            } catch (final IOException details) {
+                throw new UncheckedIOException(details);
+            }
+        }, myExecutor);
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> stream(final HttpTransport aTransport, final String aURL,
+            final HttpTransport.BodyReader aReader) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return aTransport.get(aURL, aReader);
+            } catch (final IOException details) {
+                throw new UncheckedIOException(details);
+            }
+        }, myReaderExecutor);
+    }
+
+    @Override
+    public HttpTransport getTransport() {
+        return myTransport;
+    }
+
+    @Override
+    public void close() {
+        myExecutor.shutdown();
+        myReaderExecutor.shutdown();
+        myTransport.close();
+    }
+}
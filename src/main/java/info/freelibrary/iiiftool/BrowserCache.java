@@ -0,0 +1,510 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A simulated browser cache for a single visitor. Responses are kept in memory, least recently used first out, up to
+ * a number of bytes; those pushed out can be spilled to disk, which has its own limit, and are brought back into
+ * memory when they're used again. Freshness follows the response's <code>Cache-Control</code> (<code>max-age</code>,
+ * <code>no-cache</code> and <code>no-store</code>), then its <code>Expires</code> header and then, like browsers, a
+ * tenth of the time since it was last modified. A stale response that has an <code>ETag</code> or a
+ * <code>Last-Modified</code> date can be revalidated with a conditional request.
+ * <p>
+ * The cache has its own clock, which can be moved forward to age its responses as if the visitor had been away,
+ * without the run having to wait.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class BrowserCache implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BrowserCache.class);
+
+    /* Browsers give responses without explicit freshness a tenth of the time since they were last modified */
+    private static final int HEURISTIC_FRACTION = 10;
+
+    /* Headers that describe the body of a 304 response rather than the stored response, so aren't updated from it */
+    private static final List<String> BODY_HEADERS = List.of("content-length", "transfer-encoding");
+
+    private final long myMemoryLimit;
+
+    private final Path mySpillRoot;
+
+    private final long mySpillLimit;
+
+    /* Both tiers are kept in access order, so the least recently used response is first */
+    private final LinkedHashMap<String, Entry> myMemory = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Entry> mySpilled = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long myMemoryBytes;
+
+    private long mySpilledBytes;
+
+    private Path mySpillDir;
+
+    private long myFileCount;
+
+    private long myClockOffset;
+
+    /**
+     * Creates a new browser cache.
+     *
+     * @param aMemoryLimit The number of body bytes that are kept in memory
+     * @param aSpillRoot The directory in which the cache's own spill directory is made, or null if responses that
+     *        are pushed out of memory are dropped
+     * @param aSpillLimit The number of body bytes that are kept on disk
+     */
+    BrowserCache(final long aMemoryLimit, final Path aSpillRoot, final long aSpillLimit) {
+        myMemoryLimit = aMemoryLimit;
+        mySpillRoot = aSpillRoot;
+        mySpillLimit = aSpillRoot == null ? 0 : aSpillLimit;
+    }
+
+    /**
+     * Gets the cached response for a URL, whether it's fresh or not. A response that was spilled to disk is read
+     * back into memory.
+     *
+     * @param aURL A URL
+     * @return The cached response, or null if the URL's response isn't cached
+     */
+    synchronized Entry get(final String aURL) {
+        final Entry spilled;
+
+        Entry entry = myMemory.get(aURL);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        spilled = mySpilled.remove(aURL);
+
+        if (spilled == null) {
+            return null;
+        }
+
+        mySpilledBytes -= spilled.mySize;
+
+        try {
+            entry = spilled.withBody(Files.readAllBytes(spilled.myFile));
+        } catch (final IOException details) {
+            LOGGER.debug("Couldn't read spilled response for {} [{}]", aURL, details.getMessage());
+            return null;
+        } finally {
+            delete(spilled.myFile);
+        }
+
+        putInMemory(entry);
+        return entry;
+    }
+
+    /**
+     * Stores a response, if its headers allow it to be stored.
+     *
+     * @param aURL The URL that was requested
+     * @param aHeaders The response's headers, keyed by their lower-case names
+     * @param aBody The response's body, or null if it wasn't kept because it couldn't be stored
+     * @return The stored response, or null if it couldn't be stored
+     */
+    synchronized Entry put(final String aURL, final Map<String, List<String>> aHeaders, final byte[] aBody) {
+        final Map<String, String> directives = getDirectives(aHeaders);
+        final Entry entry;
+
+        // Whether or not the new response can be stored, it replaces the old one
+        remove(aURL);
+
+        if (aBody == null || directives.containsKey("no-store") || aBody.length > myMemoryLimit) {
+            return null;
+        }
+
+        entry = new Entry(aURL, aHeaders, aBody, null, now(), directives);
+        putInMemory(entry);
+        return entry;
+    }
+
+    /**
+     * Returns whether a response with the supplied headers might be stored, so that the body of one that can't be
+     * needn't be kept while it's read. A response whose length isn't known might still turn out to be too large.
+     *
+     * @param aHeaders The response's headers, keyed by their lower-case names
+     * @return True if the response might be stored; else, false
+     */
+    boolean isStorable(final Map<String, List<String>> aHeaders) {
+        final String length = getHeader(aHeaders, "content-length");
+
+        if (getDirectives(aHeaders).containsKey("no-store")) {
+            return false;
+        }
+
+        try {
+            return length == null || Long.parseLong(length) <= myMemoryLimit;
+        } catch (final NumberFormatException details) {
+            return true;
+        }
+    }
+
+    /**
+     * Gets the number of body bytes that are kept in memory, which is also the size of the largest body that can be
+     * stored.
+     *
+     * @return The cache's memory limit
+     */
+    long getMemoryLimit() {
+        return myMemoryLimit;
+    }
+
+    /**
+     * Updates a stored response with the headers of the 304 response that revalidated it, which makes it fresh
+     * again.
+     *
+     * @param aEntry The stored response that was revalidated
+     * @param aHeaders The headers of the 304 response, keyed by their lower-case names
+     * @return The updated response
+     */
+    synchronized Entry revalidate(final Entry aEntry, final Map<String, List<String>> aHeaders) {
+        final Map<String, List<String>> headers = new HashMap<>(aEntry.myHeaders);
+        final Entry entry;
+
+        aHeaders.forEach((name, values) -> {
+            if (!BODY_HEADERS.contains(name)) {
+                headers.put(name, values);
+            }
+        });
+
+        entry = new Entry(aEntry.myURL, headers, aEntry.myBody, null, now(), getDirectives(headers));
+
+        // The response may have been pushed out, or replaced, while it was being revalidated
+        if (myMemory.get(aEntry.myURL) == aEntry) {
+            myMemory.put(aEntry.myURL, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns whether a stored response can still be used without asking the server.
+     *
+     * @param aEntry A stored response
+     * @return True if the response is fresh; else, false
+     */
+    boolean isFresh(final Entry aEntry) {
+        return aEntry.myAge + now() - aEntry.myResponseTime < aEntry.myFreshness;
+    }
+
+    /**
+     * Moves the cache's clock forward, aging every stored response as if the visitor had been away.
+     *
+     * @param aMillis The number of milliseconds to move the clock
+     */
+    synchronized void advance(final long aMillis) {
+        myClockOffset += aMillis;
+    }
+
+    /**
+     * Empties the cache, deleting its spill directory.
+     */
+    @Override
+    public synchronized void close() {
+        for (final Entry entry : mySpilled.values()) {
+            delete(entry.myFile);
+        }
+
+        myMemory.clear();
+        mySpilled.clear();
+        myMemoryBytes = 0;
+        mySpilledBytes = 0;
+
+        if (mySpillDir != null) {
+            delete(mySpillDir);
+            mySpillDir = null;
+        }
+    }
+
+    private synchronized long now() {
+        return System.currentTimeMillis() + myClockOffset;
+    }
+
+    private void remove(final String aURL) {
+        final Entry entry = myMemory.remove(aURL);
+        final Entry spilled = mySpilled.remove(aURL);
+
+        if (entry != null) {
+            myMemoryBytes -= entry.mySize;
+        }
+
+        if (spilled != null) {
+            mySpilledBytes -= spilled.mySize;
+            delete(spilled.myFile);
+        }
+    }
+
+    /**
+     * Puts a response in memory, pushing out the least recently used responses to make room for it.
+     */
+    private void putInMemory(final Entry aEntry) {
+        final Iterator<Entry> iterator;
+
+        myMemory.put(aEntry.myURL, aEntry);
+        myMemoryBytes += aEntry.mySize;
+        iterator = myMemory.values().iterator();
+
+        while (myMemoryBytes > myMemoryLimit && iterator.hasNext()) {
+            final Entry eldest = iterator.next();
+
+            iterator.remove();
+            myMemoryBytes -= eldest.mySize;
+            spill(eldest);
+        }
+    }
+
+    /**
+     * Writes a response that was pushed out of memory to disk, if there's a spill directory and room for it.
+     */
+    private void spill(final Entry aEntry) {
+        final Iterator<Entry> iterator;
+        final Path file;
+
+        if (aEntry.mySize > mySpillLimit) {
+            return;
+        }
+
+        try {
+            if (mySpillDir == null) {
+                mySpillDir = Files.createTempDirectory(Files.createDirectories(mySpillRoot), "cache-");
+            }
+
+            file = mySpillDir.resolve(Long.toString(++myFileCount));
+            Files.write(file, aEntry.myBody);
+        } catch (final IOException details) {
+            LOGGER.debug("Couldn't spill response for {} [{}]", aEntry.myURL, details.getMessage());
+            return;
+        }
+
+        mySpilled.put(aEntry.myURL, aEntry.withFile(file));
+        mySpilledBytes += aEntry.mySize;
+        iterator = mySpilled.values().iterator();
+
+        while (mySpilledBytes > mySpillLimit && iterator.hasNext()) {
+            final Entry eldest = iterator.next();
+
+            iterator.remove();
+            mySpilledBytes -= eldest.mySize;
+            delete(eldest.myFile);
+        }
+    }
+
+    private static void delete(final Path aPath) {
+        try {
+            Files.deleteIfExists(aPath);
+        } catch (final IOException details) {
+            LOGGER.debug("Couldn't delete {} [{}]", aPath, details.getMessage());
+        }
+    }
+
+    /**
+     * Gets the directives of a response's <code>Cache-Control</code> headers, keyed by their lower-case names.
+     */
+    private static Map<String, String> getDirectives(final Map<String, List<String>> aHeaders) {
+        final List<String> values = aHeaders.get("cache-control");
+        final Map<String, String> directives = new HashMap<>();
+
+        if (values != null) {
+            for (final String value : values) {
+                for (final String directive : value.split(",")) {
+                    final int index = directive.indexOf('=');
+
+                    if (index == -1) {
+                        directives.put(directive.trim().toLowerCase(Locale.US), "");
+                    } else {
+                        directives.put(directive.substring(0, index).trim().toLowerCase(Locale.US), directive
+                                .substring(index + 1).trim().replace("\"", ""));
+                    }
+                }
+            }
+        }
+
+        return directives;
+    }
+
+    /**
+     * Gets a response's date header as milliseconds since the epoch, or -1 if it's missing or can't be parsed.
+     */
+    private static long getDate(final Map<String, List<String>> aHeaders, final String aName) {
+        final List<String> values = aHeaders.get(aName);
+
+        if (values == null || values.isEmpty()) {
+            return -1;
+        }
+
+        try {
+            return ZonedDateTime.parse(values.get(0), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant()
+                    .toEpochMilli();
+        } catch (final DateTimeParseException details) {
+            return -1;
+        }
+    }
+
+    private static String getHeader(final Map<String, List<String>> aHeaders, final String aName) {
+        final List<String> values = aHeaders.get(aName);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * A stored response. Entries are immutable; a response that's spilled or revalidated is replaced by a new one.
+     */
+    static final class Entry {
+
+        private final String myURL;
+
+        private final Map<String, List<String>> myHeaders;
+
+        /* The body, or null if the response has been spilled to disk */
+        private final byte[] myBody;
+
+        private final Path myFile;
+
+        private final long mySize;
+
+        /* When the response was received or last revalidated, on the cache's clock */
+        private final long myResponseTime;
+
+        /* How old the response was when it was received, from its Age header, and how long it stays fresh */
+        private final long myAge;
+
+        private final long myFreshness;
+
+        private Entry(final String aURL, final Map<String, List<String>> aHeaders, final byte[] aBody,
+                final Path aFile, final long aResponseTime, final Map<String, String> aDirectives) {
+            myURL = aURL;
+            myHeaders = aHeaders;
+            myBody = aBody;
+            myFile = aFile;
+            mySize = aBody.length;
+            myResponseTime = aResponseTime;
+            myAge = getAge(aHeaders);
+            myFreshness = getFreshness(aHeaders, aDirectives);
+        }
+
+        private Entry(final Entry aEntry, final byte[] aBody, final Path aFile) {
+            myURL = aEntry.myURL;
+            myHeaders = aEntry.myHeaders;
+            myBody = aBody;
+            myFile = aFile;
+            mySize = aEntry.mySize;
+            myResponseTime = aEntry.myResponseTime;
+            myAge = aEntry.myAge;
+            myFreshness = aEntry.myFreshness;
+        }
+
+        /**
+         * Gets the stored response's headers.
+         *
+         * @return The response headers, keyed by their lower-case names
+         */
+        Map<String, List<String>> getHeaders() {
+            return myHeaders;
+        }
+
+        /**
+         * Gets the stored response's body.
+         *
+         * @return The response body
+         */
+        byte[] getBody() {
+            return myBody;
+        }
+
+        /**
+         * Gets the size of the stored response's body.
+         *
+         * @return The number of bytes in the body
+         */
+        long getSize() {
+            return mySize;
+        }
+
+        /**
+         * Gets the headers of a conditional request that revalidates the stored response, which are empty if it has
+         * no validators.
+         *
+         * @return The request headers, keyed by their names
+         */
+        Map<String, String> getValidators() {
+            final Map<String, String> validators = new HashMap<>(2);
+            final String etag = getHeader(myHeaders, "etag");
+            final String lastModified = getHeader(myHeaders, "last-modified");
+
+            if (etag != null) {
+                validators.put("If-None-Match", etag);
+            }
+
+            if (lastModified != null) {
+                validators.put("If-Modified-Since", lastModified);
+            }
+
+            return validators;
+        }
+
+        private Entry withBody(final byte[] aBody) {
+            return new Entry(this, aBody, null);
+        }
+
+        private Entry withFile(final Path aFile) {
+            return new Entry(this, null, aFile);
+        }
+
+        private static long getAge(final Map<String, List<String>> aHeaders) {
+            final String age = getHeader(aHeaders, "age");
+
+            try {
+                return age == null ? 0 : TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(age.trim()), 0));
+            } catch (final NumberFormatException details) {
+                return 0;
+            }
+        }
+
+        /**
+         * Works out how long, in milliseconds, a response stays fresh.
+         */
+        private static long getFreshness(final Map<String, List<String>> aHeaders,
+                final Map<String, String> aDirectives) {
+            final String maxAge = aDirectives.get("max-age");
+            final long date = getDate(aHeaders, "date");
+            final long lastModified = getDate(aHeaders, "last-modified");
+
+            if (aDirectives.containsKey("no-cache")) {
+                return 0;
+            } else if (maxAge != null) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Math.max(Long.parseLong(maxAge), 0));
+                } catch (final NumberFormatException details) {
+                    return 0;
+                }
+            } else if (aHeaders.containsKey("expires")) {
+                final long expires = getDate(aHeaders, "expires");
+
+                // An invalid date, such as 0, means the response has already expired
+                return expires == -1 || date == -1 ? 0 : Math.max(expires - date, 0);
+            } else if (lastModified != -1 && date != -1) {
+                return Math.max(date - lastModified, 0) / HEURISTIC_FRACTION;
+            }
+
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package info.freelibrary.iiiftool;
+
+/**
+ * How a request was answered when it went through a viewer session's simulated browser cache.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum CacheOutcome {
+
+    /** A fresh copy was in the cache, so no request was made */
+    HIT("hits"),
+
+    /** A stale copy was in the cache and the server confirmed, with a 304, that it could still be used */
+    REVALIDATED("revalidated"),
+
+    /** The response had to be downloaded, because nothing usable was in the cache */
+    MISS("misses");
+
+    private final String myLabel;
+
+    CacheOutcome(final String aLabel) {
+        myLabel = aLabel;
+    }
+
+    @Override
+    public String toString() {
+        return myLabel;
+    }
+}
@@ -0,0 +1,74 @@
+package info.freelibrary.iiiftool;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * How big each viewer session's simulated browser cache is: the bytes it keeps in memory and, optionally, the bytes
+ * it spills to disk. Each session gets its own cache, as each visitor has their own browser.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class CacheProfile {
+
+    /** Sessions have no browser cache */
+    public static final CacheProfile NONE = new CacheProfile(0, null, 0);
+
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final long myMemoryLimit;
+
+    private final Path mySpillDir;
+
+    private final long mySpillLimit;
+
+    /**
+     * Creates a new cache profile.
+     *
+     * @param aMemoryLimit The number of body bytes each cache keeps in memory, or zero for no cache
+     * @param aSpillDir The directory in which caches spill responses that are pushed out of memory, or null if
+     *        they're dropped
+     * @param aSpillLimit The number of body bytes each cache keeps on disk
+     * @throws IllegalArgumentException If either limit is negative
+     */
+    public CacheProfile(final long aMemoryLimit, final Path aSpillDir, final long aSpillLimit) {
+        if (aMemoryLimit < 0 || aSpillLimit < 0) {
+            throw new IllegalArgumentException("Cache sizes can't be negative: " + aMemoryLimit + ", " +
+                    aSpillLimit);
+        }
+
+        myMemoryLimit = aMemoryLimit;
+        mySpillDir = aSpillDir;
+        mySpillLimit = aSpillLimit;
+    }
+
+    /**
+     * Returns whether sessions have a browser cache at all.
+     *
+     * @return True if sessions have a cache; else, false
+     */
+    public boolean isEnabled() {
+        return myMemoryLimit > 0;
+    }
+
+    /**
+     * Creates the browser cache for a single viewer session.
+     *
+     * @return A new browser cache, or null if sessions don't have one
+     */
+    BrowserCache newCache() {
+        return isEnabled() ? new BrowserCache(myMemoryLimit, mySpillDir, mySpillLimit) : null;
+    }
+
+    @Override
+    public String toString() {
+        final String memory = String.format(Locale.US, "%.1f MB in memory", myMemoryLimit / BYTES_PER_MB);
+
+        if (mySpillDir == null) {
+            return memory;
+        }
+
+        return memory + String.format(Locale.US, ", %.1f MB spilled to %s", mySpillLimit / BYTES_PER_MB,
+                mySpillDir);
+    }
+}
@@ -0,0 +1,393 @@
+package info.freelibrary.iiiftool;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A cache warmer, which requests every thumbnail and every tile of every image in a manifest (or in all the manifests
+ * of a collection) so that an image server's or CDN's cache is full before viewers arrive. Within each manifest, the
+ * thumbnails are warmed first, then the info.json files and then the tiles, a pyramid level at a time from the lowest
+ * resolution up; that way the images that viewers see first are warmed first. Requests are limited both in number
+ * and in rate, and progress is checkpointed so that a long run that's stopped can be resumed. The metadata of the
+ * images that have been warmed is cached, so an image that's shared by many manifests is only warmed once a run.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class CacheWarmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheWarmer.class);
+
+    /* Where thumbnails are found in version 2 and version 3 manifests */
+    private static final String[] THUMBNAIL_PATHS = { "?sequences?*?canvases?*?thumbnail", "?items?*?thumbnail?*" };
+
+    private static final long CHECKPOINT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /* Positions order the requests within a manifest: the stage, then the image, then the tile within the image */
+    private static final int STAGE_SHIFT = 56;
+
+    private static final int IMAGE_SHIFT = 32;
+
+    private final DownloadEngine myEngine;
+
+    private final HttpTransport[] mySessions;
+
+    private final CollectionReader myCollections;
+
+    private final int myConcurrency;
+
+    private final Semaphore myPermits;
+
+    private final long myInterval;
+
+    private final WarmCheckpoint myCheckpoint;
+
+    private final int myTileSize;
+
+    private final WarmReport myReport;
+
+    /* The metadata of the images that have been warmed in this run */
+    private final InfoCache myInfos;
+
+    /* The positions of the requests in flight; everything before the first of them has been warmed */
+    private final NavigableSet<Long> myInFlight;
+
+    private LiveMetrics myLiveMetrics;
+
+    private long myNextDispatchTime;
+
+    private long myCheckpointTime;
+
+    /* The position the current manifest was started (or resumed) from; a checkpoint never goes back before it */
+    private long myStartPosition;
+
+    private long myDispatchCount;
+
+    /**
+     * Creates a new cache warmer.
+     *
+     * @param aEngine The download engine that the requests are run on
+     * @param aConcurrency The maximum number of requests in flight at a time
+     * @param aRate The maximum number of requests to start each second, or zero for no limit
+     * @param aCheckpoint The file in which progress is checkpointed
+     * @param aTileSize The size of the tiles to request for images whose info.json files don't advertise any
+     * @throws IllegalArgumentException If the concurrency isn't positive or the rate is negative
+     */
+    public CacheWarmer(final DownloadEngine aEngine, final int aConcurrency, final double aRate,
+            final Path aCheckpoint, final int aTileSize) {
+        if (aConcurrency < 1 || aRate < 0) {
+            throw new IllegalArgumentException("Concurrency must be positive and rate can't be negative");
+        }
+
+        myEngine = aEngine;
+        myConcurrency = aConcurrency;
+        myPermits = new Semaphore(aConcurrency);
+        myInterval = aRate == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / aRate);
+        myCheckpoint = new WarmCheckpoint(aCheckpoint);
+        myTileSize = aTileSize;
+        myReport = new WarmReport();
+        myInfos = new InfoCache();
+        myInFlight = new ConcurrentSkipListSet<>();
+
+        // Each session has a browser's per-host connection limit, so enough are used to reach the concurrency
+        mySessions = new HttpTransport[(aConcurrency + HttpProfile.CONNECTIONS_PER_HOST - 1) /
+                HttpProfile.CONNECTIONS_PER_HOST];
+
+        for (int index = 0; index < mySessions.length; index++) {
+            mySessions[index] = aEngine.getTransport().newSession();
+        }
+
+        myCollections = new CollectionReader(aEngine, mySessions[0]);
+    }
+
+    /**
+     * Sets the live metrics that the warming requests are recorded in.
+     *
+     * @param aLiveMetrics Live metrics
+     * @return This cache warmer
+     */
+    public CacheWarmer setLiveMetrics(final LiveMetrics aLiveMetrics) {
+        myLiveMetrics = aLiveMetrics;
+        return this;
+    }
+
+    /**
+     * Warms the manifest or collection at the supplied URL, resuming an earlier run if it was checkpointed.
+     *
+     * @param aURL The URL of a manifest or collection
+     * @return A report of the warming run
+     * @throws IOException If the manifest or collection can't be read
+     * @throws InterruptedException If interrupted while warming
+     */
+    public WarmReport warm(final String aURL) throws IOException, InterruptedException {
+        final ManifestIndex root = myCollections.fetch(aURL);
+        final List<String> manifests = CollectionReader.isCollection(root) ? myCollections.findManifests(aURL, root)
+                : List.of(aURL);
+        final int first;
+        final long position;
+
+        if (myCheckpoint.load(aURL)) {
+            first = myCheckpoint.getManifest();
+            position = myCheckpoint.getPosition();
+
+            LOGGER.info("Resuming warm of {} at manifest {} of {}", aURL, first + 1, manifests.size());
+        } else {
+            first = 0;
+            position = 0;
+
+            LOGGER.info("Warming {} manifest(s) from {}", manifests.size(), aURL);
+        }
+
+        myCheckpointTime = System.nanoTime();
+
+        try {
+            for (int index = first; index < manifests.size(); index++) {
+                final String url = manifests.get(index);
+
+                LOGGER.info("Warming manifest {} of {}: {}", index + 1, manifests.size(), url);
+
+                try {
+                    warmManifest(index, url.equals(aURL) ? root : myCollections.fetch(url), index == first ? position
+                            : 0);
+                } catch (final IOException details) {
+                    LOGGER.warn("Skipping manifest that couldn't be read: {} [{}]", url, details.getMessage());
+                }
+
+                saveCheckpoint(index + 1, 0);
+            }
+
+            myCheckpoint.delete();
+            LOGGER.info("Image metadata cache: {}", myInfos);
+        } finally {
+            for (final HttpTransport session : mySessions) {
+                session.close();
+            }
+        }
+
+        return myReport;
+    }
+
+    /**
+     * Warms a manifest's thumbnails, info.json files and tile pyramids, skipping everything before the supplied
+     * position.
+     */
+    private void warmManifest(final int aIndex, final ManifestIndex aManifest, final long aStart)
+            throws InterruptedException {
+        final List<String> thumbnails = getAll(aManifest, THUMBNAIL_PATHS);
+        final List<String> services = ImageInfo.getServiceIDs(aManifest);
+        final AtomicReferenceArray<TilePyramid> pyramids = new AtomicReferenceArray<>(services.size());
+
+        int levelCount = 0;
+
+        myStartPosition = aStart;
+
+        for (int image = 0; image < thumbnails.size(); image++) {
+            final long position = getPosition(0, image, 0);
+
+            if (position >= aStart) {
+                dispatch(aIndex, position, thumbnails.get(image), WarmReport.THUMBNAILS, null);
+            }
+        }
+
+        // The info.json files are always requested, since the tiles can't be found without them, unless an earlier
+        // manifest shared the image, in which case its info.json file and tiles have been warmed already
+        for (int image = 0; image < services.size(); image++) {
+            final String service = services.get(image);
+            final int index = image;
+
+            if (myInfos.getIfPresent(service) != null) {
+                continue;
+            }
+
+            dispatch(aIndex, getPosition(1, image, 0), service + "/info.json", WarmReport.INFO_JSON, result -> {
+                final ImageInfo info = ImageInfo.read(service, new ByteArrayInputStream(result.getBody()));
+
+                myInfos.put(service, info);
+                pyramids.set(index, TilePyramid.fromInfo(info, myTileSize));
+            });
+        }
+
+        awaitInFlight();
+
+        for (int image = 0; image < services.size(); image++) {
+            if (pyramids.get(image) != null) {
+                levelCount = Math.max(levelCount, pyramids.get(image).getLevelCount());
+            }
+        }
+
+        for (int level = 0; level < levelCount; level++) {
+            for (int image = 0; image < services.size(); image++) {
+                final TilePyramid pyramid = pyramids.get(image);
+
+                if (pyramid == null || level >= pyramid.getLevelCount()) {
+                    continue;
+                }
+
+                final int columns = pyramid.getColumnCount(level);
+                final int rows = pyramid.getRowCount(level);
+
+                for (int row = 0; row < rows; row++) {
+                    for (int column = 0; column < columns; column++) {
+                        final long position = getPosition(2 + level, image, (long) row * columns + column);
+
+                        if (position >= aStart) {
+                            dispatch(aIndex, position, pyramid.getURL(level, column, row), level, null);
+                        }
+                    }
+                }
+            }
+        }
+
+        awaitInFlight();
+    }
+
+    /**
+     * Starts a request once there's room for it and the rate limit allows it.
+     */
+    private void dispatch(final int aManifest, final long aPosition, final String aURL, final int aStage,
+            final ResultHandler aHandler) throws InterruptedException {
+        final HttpTransport session = mySessions[(int) (myDispatchCount++ % mySessions.length)];
+        final LiveMetrics metrics = myLiveMetrics;
+        final RequestType type = getType(aStage);
+        final long startTime;
+
+        myPermits.acquire();
+        pace();
+        myInFlight.add(aPosition);
+        startTime = System.nanoTime();
+
+        if (metrics != null) {
+            metrics.start(type);
+        }
+
+        myEngine.request(session, aURL, aHandler != null).whenComplete((result, error) -> {
+            try {
+                if (error != null) {
+                    LOGGER.debug("Failed to warm {} [{}]", aURL, error.getMessage());
+                    myReport.addFailure(aStage, startTime);
+
+                    if (metrics != null) {
+                        metrics.addError(type);
+                    }
+                } else {
+                    myReport.addRequest(aStage, startTime, result.getElapsedTime(), result.getByteCount(), result
+                            .getStatus());
+
+                    if (metrics != null) {
+                        metrics.add(type, result.getElapsedTime(), result.getByteCount(), result.getStatus());
+                    }
+
+                    if (aHandler != null) {
+                        aHandler.handle(result);
+                    }
+                }
+            } catch (final IOException | RuntimeException details) {
+                LOGGER.warn("Failed to read {} [{}]", aURL, details.getMessage());
+            } finally {
+                myInFlight.remove(aPosition);
+                myPermits.release();
+            }
+        });
+
+        checkpoint(aManifest);
+    }
+
+    /**
+     * Waits for the rate limit to allow another request. Time that's lost (while waiting for room, say) isn't made
+     * up with a burst of requests.
+     */
+    private void pace() throws InterruptedException {
+        long now = System.nanoTime();
+
+        if (myInterval == 0) {
+            return;
+        }
+
+        while (myNextDispatchTime > now) {
+            LockSupport.parkNanos(myNextDispatchTime - now);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            now = System.nanoTime();
+        }
+
+        myNextDispatchTime = Math.max(myNextDispatchTime, now) + myInterval;
+    }
+
+    private void checkpoint(final int aManifest) {
+        final long now = System.nanoTime();
+
+        if (now - myCheckpointTime >= CHECKPOINT_INTERVAL) {
+            final Long first = myInFlight.isEmpty() ? null : myInFlight.first();
+
+            myCheckpointTime = now;
+
+            // A resumed manifest's info.json files are requested again, but what came after them is still warm
+            if (first != null) {
+                saveCheckpoint(aManifest, Math.max(first, myStartPosition));
+            }
+        }
+    }
+
+    /**
+     * Saves the checkpoint; a checkpoint that can't be saved is skipped rather than stopping the run.
+     */
+    private void saveCheckpoint(final int aManifest, final long aPosition) {
+        try {
+            myCheckpoint.save(aManifest, aPosition);
+        } catch (final IOException details) {
+            LOGGER.warn("Couldn't save checkpoint to {} [{}]", myCheckpoint.getPath(), details.getMessage());
+        }
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        myPermits.acquire(myConcurrency);
+        myPermits.release(myConcurrency);
+    }
+
+    private static List<String> getAll(final ManifestIndex aManifest, final String... aPaths) {
+        final Set<String> values = new LinkedHashSet<>();
+
+        for (final String path : aPaths) {
+            values.addAll(aManifest.getList(path));
+        }
+
+        return new ArrayList<>(values);
+    }
+
+    private static RequestType getType(final int aStage) {
+        if (aStage == WarmReport.THUMBNAILS) {
+            return RequestType.THUMBNAIL;
+        }
+
+        return aStage == WarmReport.INFO_JSON ? RequestType.INFO_JSON : RequestType.TILE;
+    }
+
+    private static long getPosition(final int aStage, final int aImage, final long aTile) {
+        return (long) aStage << STAGE_SHIFT | (long) aImage << IMAGE_SHIFT | aTile;
+    }
+
+    /**
+     * A handler for the result of a request.
+     */
+    @FunctionalInterface
+    private interface ResultHandler {
+
+        void handle(HttpResult aResult) throws IOException;
+    }
+}
@@ -0,0 +1,308 @@
+package info.freelibrary.iiiftool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A transport that puts a simulated browser cache in front of another transport. A fresh cached response is answered
+ * from the cache without a request; a stale one is revalidated with a conditional request, and a 304 is answered with
+ * the cached body. Every result is marked with its {@link CacheOutcome} and the body bytes the cache saved. Response
+ * bodies are read into memory, so that they can be cached, even if the caller doesn't keep them; streamed bodies are
+ * only copied if their headers allow them to be stored, and only until they outgrow the cache.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class CachingTransport implements HttpTransport {
+
+    private final HttpTransport myTransport;
+
+    private final BrowserCache myCache;
+
+    /**
+     * Creates a new caching transport.
+     *
+     * @param aTransport The transport that requests are made through
+     * @param aCache The browser cache
+     */
+    public CachingTransport(final HttpTransport aTransport, final BrowserCache aCache) {
+        myTransport = aTransport;
+        myCache = aCache;
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final boolean aBodyKept)
+            throws IOException {
+        final long startTime = System.nanoTime();
+        final BrowserCache.Entry entry = myCache.get(aURL);
+
+        if (entry != null && myCache.isFresh(entry)) {
+            return hit(aURL, entry, aBodyKept, startTime);
+        }
+
+        return complete(aURL, entry, myTransport.get(aURL, getHeaders(aHeaders, entry), true), aBodyKept);
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final BodyReader aReader)
+            throws IOException {
+        final long startTime = System.nanoTime();
+        final BrowserCache.Entry entry = myCache.get(aURL);
+        final BodyCopy copy;
+        final HttpResult result;
+
+        if (entry != null && myCache.isFresh(entry)) {
+            aReader.read(new ByteArrayInputStream(entry.getBody()));
+            return hit(aURL, entry, false, startTime);
+        }
+
+        copy = new BodyCopy(myCache.getMemoryLimit());
+        result = myTransport.get(aURL, getHeaders(aHeaders, entry), new BodyReader() {
+
+            @Override
+            public void read(final InputStream aBody) throws IOException {
+                read(aBody, Map.of());
+            }
+
+            @Override
+            public void read(final InputStream aBody, final Map<String, List<String>> aResponseHeaders)
+                    throws IOException {
+                final InputStream tee;
+
+                // A body that can't be stored is passed straight through, so a large manifest still isn't buffered
+                if (!myCache.isStorable(aResponseHeaders)) {
+                    copy.discard();
+                    aReader.read(aBody, aResponseHeaders);
+                    return;
+                }
+
+                tee = new TeeInputStream(aBody, copy);
+                aReader.read(tee, aResponseHeaders);
+
+                // Whatever the reader leaves unread is still part of the response that's cached
+                tee.transferTo(OutputStream.nullOutputStream());
+            }
+        });
+
+        if (entry != null && result.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            final BrowserCache.Entry revalidated = myCache.revalidate(entry, result.getHeaders());
+
+            aReader.read(new ByteArrayInputStream(revalidated.getBody()));
+            return fromCache(aURL, revalidated, result, false);
+        }
+
+        if (result.getStatus() == HttpURLConnection.HTTP_OK) {
+            myCache.put(aURL, result.getHeaders(), copy.getBytes());
+        }
+
+        result.setCacheOutcome(CacheOutcome.MISS, 0);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> getAsync(final String aURL, final Map<String, String> aHeaders,
+            final boolean aBodyKept) {
+        final long startTime = System.nanoTime();
+        final BrowserCache.Entry entry = myCache.get(aURL);
+
+        if (entry != null && myCache.isFresh(entry)) {
+            return CompletableFuture.completedFuture(hit(aURL, entry, aBodyKept, startTime));
+        }
+
+        return myTransport.getAsync(aURL, getHeaders(aHeaders, entry), true).thenApply(result -> complete(aURL,
+                entry, result, aBodyKept));
+    }
+
+    /**
+     * Creates a transport with its own connections that shares this transport's cache, as another tab of the same
+     * browser would.
+     */
+    @Override
+    public HttpTransport newSession() {
+        return new CachingTransport(myTransport.newSession(), myCache);
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return myTransport.getStats();
+    }
+
+    /**
+     * Closes the transport's idle connections; its cache is kept, for the visitor's next visit.
+     */
+    @Override
+    public void close() {
+        myTransport.close();
+    }
+
+    /**
+     * Completes a request that went to the server, using the cached body if the server revalidated it, or caching
+     * the new response if it didn't.
+     */
+    private HttpResult complete(final String aURL, final BrowserCache.Entry aEntry, final HttpResult aResult,
+            final boolean aBodyKept) {
+        if (aEntry != null && aResult.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return fromCache(aURL, myCache.revalidate(aEntry, aResult.getHeaders()), aResult, aBodyKept);
+        }
+
+        if (aResult.getStatus() == HttpURLConnection.HTTP_OK) {
+            myCache.put(aURL, aResult.getHeaders(), aResult.getBody());
+        }
+
+        aResult.setCacheOutcome(CacheOutcome.MISS, 0);
+        return aResult;
+    }
+
+    private HttpResult hit(final String aURL, final BrowserCache.Entry aEntry, final boolean aBodyKept,
+            final long aStartTime) {
+        final HttpResult result = fromCache(aURL, aEntry, null, aBodyKept);
+
+        result.setElapsedTime(System.nanoTime() - aStartTime);
+        return result;
+    }
+
+    /**
+     * Creates the result of a request that was answered with a cached body, after a revalidation if the supplied
+     * result of the server's 304 isn't null.
+     */
+    private static HttpResult fromCache(final String aURL, final BrowserCache.Entry aEntry,
+            final HttpResult aRevalidation, final boolean aBodyKept) {
+        final long byteCount = aRevalidation == null ? 0 : aRevalidation.getByteCount();
+        final HttpResult result = new HttpResult(aURL, HttpURLConnection.HTTP_OK, aEntry.getHeaders(), byteCount,
+                aBodyKept ? aEntry.getBody() : null);
+
+        if (aRevalidation == null) {
+            result.setCacheOutcome(CacheOutcome.HIT, aEntry.getSize());
+        } else {
+            result.setElapsedTime(aRevalidation.getElapsedTime());
+            result.addPhaseTimes(aRevalidation);
+            result.setCacheOutcome(CacheOutcome.REVALIDATED, Math.max(aEntry.getSize() - byteCount, 0));
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the validators of a stale cached response, if there is one, to a request's headers.
+     */
+    private static Map<String, String> getHeaders(final Map<String, String> aHeaders,
+            final BrowserCache.Entry aEntry) {
+        final Map<String, String> headers;
+
+        if (aEntry == null) {
+            return aHeaders;
+        }
+
+        headers = new HashMap<>(aHeaders);
+        headers.putAll(aEntry.getValidators());
+        return headers;
+    }
+
+    /**
+     * A copy of a response body that's dropped, and stops growing, once the body is too large to be cached.
+     */
+    private static final class BodyCopy extends OutputStream {
+
+        private final long myLimit;
+
+        private ByteArrayOutputStream myBytes = new ByteArrayOutputStream();
+
+        private BodyCopy(final long aLimit) {
+            myLimit = aLimit;
+        }
+
+        @Override
+        public void write(final int aByte) {
+            if (myBytes == null) {
+                return;
+            }
+
+            if (myBytes.size() + 1L > myLimit) {
+                discard();
+            } else {
+                myBytes.write(aByte);
+            }
+        }
+
+        @Override
+        public void write(final byte[] aBuffer, final int aOffset, final int aLength) {
+            if (myBytes == null) {
+                return;
+            }
+
+            if (myBytes.size() + (long) aLength > myLimit) {
+                discard();
+            } else {
+                myBytes.write(aBuffer, aOffset, aLength);
+            }
+        }
+
+        private void discard() {
+            myBytes = null;
+        }
+
+        /**
+         * Gets the copied body, or null if it was dropped.
+         */
+        private byte[] getBytes() {
+            return myBytes == null ? null : myBytes.toByteArray();
+        }
+    }
+
+    /**
+     * A response body that copies what's read from it.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+
+        private final OutputStream myCopy;
+
+        private TeeInputStream(final InputStream aInStream, final OutputStream aCopy) {
+            super(aInStream);
+            myCopy = aCopy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+
+            if (read != -1) {
+                myCopy.write(read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset, final int aLength) throws IOException {
+            final int read = super.read(aBuffer, aOffset, aLength);
+
+            if (read > 0) {
+                myCopy.write(aBuffer, aOffset, read);
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(final long aCount) throws IOException {
+            // Skipped bytes are read, so that they're copied too
+            final byte[] buffer = new byte[(int) Math.min(aCount, 8192)];
+            final int read = read(buffer, 0, buffer.length);
+
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public void close() {
+            // The body is closed by the transport, once the reader's done with it
+        }
+    }
+}
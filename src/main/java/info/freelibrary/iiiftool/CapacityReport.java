@@ -0,0 +1,312 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A report of a capacity search: the throughput, latency and errors measured at each step of load, why the search
+ * stopped, and the two loads that are used to size a server. The knee is the step at which the throughput gained
+ * stops paying for the latency it costs (the step with the most throughput per unit of median latency); the maximum
+ * sustainable load is the highest step that met the latency objective and the error limit (and, when sessions arrive
+ * at a rate, kept up with the arrivals).
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class CapacityReport {
+
+    private static final double MICROS_PER_MILLI = 1000d;
+
+    private final List<Step> mySteps;
+
+    private final LoadModel myModel;
+
+    private String myStopReason;
+
+    /**
+     * Creates a new capacity report.
+     *
+     * @param aModel The load model that the search stepped through
+     */
+    CapacityReport(final LoadModel aModel) {
+        mySteps = new ArrayList<>();
+        myModel = aModel;
+    }
+
+    /**
+     * Gets the steps of the search, in the order they were run.
+     *
+     * @return The search's steps
+     */
+    public List<Step> getSteps() {
+        return Collections.unmodifiableList(mySteps);
+    }
+
+    /**
+     * Gets the load model that the search stepped through.
+     *
+     * @return The search's load model
+     */
+    public LoadModel getModel() {
+        return myModel;
+    }
+
+    /**
+     * Gets why the search stopped.
+     *
+     * @return The reason the search stopped
+     */
+    public String getStopReason() {
+        return myStopReason;
+    }
+
+    /**
+     * Gets the knee of the throughput/latency curve: the step with the most throughput per unit of median latency,
+     * past which more load mostly buys more latency.
+     *
+     * @return The knee's step, or null if no step completed any requests
+     */
+    public Step getKnee() {
+        Step knee = null;
+        double kneePower = 0;
+
+        for (final Step step : mySteps) {
+            final long median = step.getLatency().getValueAtPercentile(50);
+            final double power = median == 0 ? 0 : step.getRequestRate() / median;
+
+            if (power > kneePower) {
+                knee = step;
+                kneePower = power;
+            }
+        }
+
+        return knee;
+    }
+
+    /**
+     * Gets the highest step that met the latency objective and the error limit.
+     *
+     * @return The maximum sustainable step, or null if no step was sustainable
+     */
+    public Step getMaxSustainable() {
+        Step max = null;
+
+        for (final Step step : mySteps) {
+            if (step.isSustainable() && (max == null || step.getLoad() > max.getLoad())) {
+                max = step;
+            }
+        }
+
+        return max;
+    }
+
+    /**
+     * Adds a step to the report.
+     *
+     * @param aStep A step of the search
+     */
+    void addStep(final Step aStep) {
+        mySteps.add(aStep);
+    }
+
+    /**
+     * Sets why the search stopped.
+     *
+     * @param aReason The reason the search stopped
+     */
+    void setStopReason(final String aReason) {
+        myStopReason = aReason;
+    }
+
+    /**
+     * Formats a load, which is often a whole number, for display.
+     *
+     * @param aLoad A load
+     * @return The load, formatted for display
+     */
+    static String formatLoad(final double aLoad) {
+        return aLoad == Math.rint(aLoad) ? Long.toString((long) aLoad) : String.format(Locale.US, "%.2f", aLoad);
+    }
+
+    /**
+     * A step of a capacity search: a level of load and what was measured at it, in its last measurement window.
+     */
+    public static final class Step {
+
+        private final LoadModel myModel;
+
+        private final double myLoad;
+
+        private final double mySessionRate;
+
+        private final double myRequestRate;
+
+        private final double myErrorRate;
+
+        private final RequestType myType;
+
+        private final double myPercentile;
+
+        private final HistogramSnapshot myLatency;
+
+        private final HistogramSnapshot myPageLoad;
+
+        private final int myWindowCount;
+
+        private final boolean myStepIsStable;
+
+        private boolean myStepIsSustainable;
+
+        /**
+         * Creates a new step from the report of one of its measurement windows.
+         *
+         * @param aModel The load model of the search
+         * @param aLoad The step's load, in the model's unit
+         * @param aReport The download report of the measurement window
+         * @param aElapsedTime The length of the measurement window in nanoseconds
+         * @param aType The type of request that the latency objective is set for
+         * @param aPercentile The percentile of latency that the objective is set for
+         * @param aWindowCount The number of measurement windows that the step was held for
+         * @param aStability Whether the last two windows agreed
+         */
+        Step(final LoadModel aModel, final double aLoad, final DownloadReport aReport, final long aElapsedTime,
+                final RequestType aType, final double aPercentile, final int aWindowCount, final boolean aStability) {
+            final double seconds = Math.max(aElapsedTime, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+
+            long requestCount = 0;
+            long errorCount = 0;
+
+            for (final RequestType type : RequestType.values()) {
+                requestCount += aReport.getTimes(type).getCount();
+                errorCount += aReport.getErrorCount(type);
+            }
+
+            myModel = aModel;
+            myLoad = aLoad;
+            myType = aType;
+            myPercentile = aPercentile;
+            myLatency = aReport.getTimes(aType);
+            myPageLoad = aReport.getTimes(Phase.PAGE_LOAD);
+            mySessionRate = myPageLoad.getCount() / seconds;
+            myRequestRate = requestCount / seconds;
+            // Responses with an error status are both timed and counted as errors, so this slightly understates
+            myErrorRate = requestCount + errorCount == 0 ? 0 : (double) errorCount / (requestCount + errorCount);
+            myWindowCount = aWindowCount;
+            myStepIsStable = aStability;
+        }
+
+        /**
+         * Gets the step's load, in the unit of the search's load model.
+         *
+         * @return The step's load
+         */
+        public double getLoad() {
+            return myLoad;
+        }
+
+        /**
+         * Gets the number of viewer sessions completed per second.
+         *
+         * @return The step's session throughput
+         */
+        public double getSessionRate() {
+            return mySessionRate;
+        }
+
+        /**
+         * Gets the number of requests completed per second.
+         *
+         * @return The step's request throughput
+         */
+        public double getRequestRate() {
+            return myRequestRate;
+        }
+
+        /**
+         * Gets the fraction of requests that failed or got an error status.
+         *
+         * @return The step's error rate, between zero and one
+         */
+        public double getErrorRate() {
+            return myErrorRate;
+        }
+
+        /**
+         * Gets the latencies of the type of request that the latency objective is set for.
+         *
+         * @return A snapshot of the latencies, expressed in microseconds
+         */
+        public HistogramSnapshot getLatency() {
+            return myLatency;
+        }
+
+        /**
+         * Gets the latency, at the objective's percentile, of the type of request that the objective is set for.
+         *
+         * @return The latency at the objective's percentile in microseconds
+         */
+        public long getObjectiveLatency() {
+            return myLatency.getValueAtPercentile(myPercentile);
+        }
+
+        /**
+         * Gets the times of the viewer sessions' page loads.
+         *
+         * @return A snapshot of the page load times, expressed in microseconds
+         */
+        public HistogramSnapshot getPageLoad() {
+            return myPageLoad;
+        }
+
+        /**
+         * Gets the number of measurement windows that the step was held for.
+         *
+         * @return The step's number of windows
+         */
+        public int getWindowCount() {
+            return myWindowCount;
+        }
+
+        /**
+         * Returns whether the step's last two measurement windows agreed.
+         *
+         * @return True if the step's measurements stabilized; else, false
+         */
+        public boolean isStable() {
+            return myStepIsStable;
+        }
+
+        /**
+         * Returns whether the step met the latency objective and the error limit.
+         *
+         * @return True if the step's load is sustainable; else, false
+         */
+        public boolean isSustainable() {
+            return myStepIsSustainable;
+        }
+
+        /**
+         * Sets whether the step met the latency objective and the error limit.
+         *
+         * @param aSustainability Whether the step's load is sustainable
+         */
+        void setSustainable(final boolean aSustainability) {
+            myStepIsSustainable = aSustainability;
+        }
+
+        @Override
+        public String toString() {
+            final String percentile = HistogramSnapshot.format(myPercentile);
+
+            return String.format(Locale.US,
+                    "%s %s: %.2f sessions/s, %.1f req/s, %s p%s=%.1f ms, page load p%s=%.1f ms, %.2f%% errors (%s " +
+                            "after %d windows)",
+                    formatLoad(myLoad), myModel.getUnit(), mySessionRate, myRequestRate, myType, percentile,
+                    getObjectiveLatency() / MICROS_PER_MILLI, percentile, myPageLoad.getValueAtPercentile(
+                            myPercentile) / MICROS_PER_MILLI, myErrorRate * 100, myStepIsStable ? "stable"
+                                    : "not stable", myWindowCount);
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A search for a server's capacity. The load (either the rate at which viewer sessions arrive or the number that run
+ * at once) is raised in steps, and each step is held, a measurement window at a time, until two windows in a row
+ * agree. The search stops at the first step that misses the latency objective (e.g., a tile p99 under 500 ms), that
+ * has too many errors or (when sessions arrive at a rate) whose sessions finish more slowly than they arrive, or once
+ * it reaches the maximum load.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class CapacitySearch {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CapacitySearch.class);
+
+    /* A step is never judged stable on a single window */
+    private static final int MIN_WINDOW_COUNT = 2;
+
+    private final Supplier<ViewerSession> mySessions;
+
+    private final DownloadEngine myEngine;
+
+    private final LoadModel myModel;
+
+    private double myStart = 1;
+
+    private double myStep = 1;
+
+    private double myMax;
+
+    private long myWindow = 30;
+
+    private int myMaxWindowCount = 5;
+
+    private double myTolerance = 0.1;
+
+    private RequestType myObjectiveType = RequestType.TILE;
+
+    private double myObjectivePercentile = 99;
+
+    private long myObjective = TimeUnit.MILLISECONDS.toMicros(500);
+
+    private double myMaxErrorRate = 0.01;
+
+    private LiveMetrics myLiveMetrics;
+
+    /**
+     * Creates a new capacity search.
+     *
+     * @param aSession The viewer session that's started, again and again, to put load on the server
+     * @param aEngine The download engine that the sessions' downloads are run on
+     * @param aModel How load is put on the server: by session arrival rate or by session concurrency
+     */
+    public CapacitySearch(final ViewerSession aSession, final DownloadEngine aEngine, final LoadModel aModel) {
+        this(() -> aSession, aEngine, aModel);
+    }
+
+    /**
+     * Creates a new capacity search that starts a different viewer session, from the supplied sessions, each time
+     * (e.g., sessions drawn from a {@link Scenario}).
+     *
+     * @param aSessions Supplies the viewer sessions that put load on the server
+     * @param aEngine The download engine that the sessions' downloads are run on
+     * @param aModel How load is put on the server: by session arrival rate or by session concurrency
+     */
+    public CapacitySearch(final Supplier<ViewerSession> aSessions, final DownloadEngine aEngine,
+            final LoadModel aModel) {
+        mySessions = aSessions;
+        myEngine = aEngine;
+        myModel = aModel;
+    }
+
+    /**
+     * Sets the loads that the search steps through. With the concurrency model, loads are rounded to whole sessions.
+     *
+     * @param aStart The load of the first step
+     * @param aStep How much the load is raised at each step
+     * @param aMax The highest load to try, or zero to keep going until the objective or error limit is missed
+     * @return This capacity search
+     * @throws IllegalArgumentException If the start or step isn't positive or the maximum is negative
+     */
+    public CapacitySearch setSteps(final double aStart, final double aStep, final double aMax) {
+        if (aStart <= 0 || aStep <= 0 || aMax < 0) {
+            throw new IllegalArgumentException("Start and step must be positive and maximum can't be negative");
+        }
+
+        myStart = aStart;
+        myStep = aStep;
+        myMax = aMax;
+        return this;
+    }
+
+    /**
+     * Sets how each step is held: for measurement windows of a set length, until two in a row agree.
+     *
+     * @param aWindow The number of seconds in a measurement window
+     * @param aMaxWindowCount The most windows a step is held for, even if they don't agree
+     * @param aTolerance How far apart (as a fraction) two windows' throughput and latency can be and still agree
+     * @return This capacity search
+     * @throws IllegalArgumentException If the window isn't positive, fewer than two windows are allowed or the
+     *         tolerance isn't positive
+     */
+    public CapacitySearch setWindows(final long aWindow, final int aMaxWindowCount, final double aTolerance) {
+        if (aWindow <= 0 || aMaxWindowCount < MIN_WINDOW_COUNT || aTolerance <= 0) {
+            throw new IllegalArgumentException("Window and tolerance must be positive and at least " +
+                    MIN_WINDOW_COUNT + " windows must be allowed");
+        }
+
+        myWindow = aWindow;
+        myMaxWindowCount = aMaxWindowCount;
+        myTolerance = aTolerance;
+        return this;
+    }
+
+    /**
+     * Sets the latency objective: a type of request whose latency, at a percentile, must stay under a limit.
+     *
+     * @param aType A type of request
+     * @param aPercentile A percentile between zero and one hundred
+     * @param aMillis The latency limit in milliseconds
+     * @return This capacity search
+     * @throws IllegalArgumentException If the percentile isn't between zero and one hundred or the limit isn't
+     *         positive
+     */
+    public CapacitySearch setObjective(final RequestType aType, final double aPercentile, final double aMillis) {
+        if (aPercentile <= 0 || aPercentile > 100 || aMillis <= 0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100 and the limit must be positive");
+        }
+
+        myObjectiveType = aType;
+        myObjectivePercentile = aPercentile;
+        myObjective = (long) (aMillis * TimeUnit.MILLISECONDS.toMicros(1));
+        return this;
+    }
+
+    /**
+     * Sets the largest fraction of requests that can fail, or get an error status, at a sustainable load.
+     *
+     * @param aMaxErrorRate An error rate between zero and one
+     * @return This capacity search
+     * @throws IllegalArgumentException If the error rate isn't between zero and one
+     */
+    public CapacitySearch setMaxErrorRate(final double aMaxErrorRate) {
+        if (aMaxErrorRate < 0 || aMaxErrorRate > 1) {
+            throw new IllegalArgumentException("Error rate must be between 0 and 1");
+        }
+
+        myMaxErrorRate = aMaxErrorRate;
+        return this;
+    }
+
+    /**
+     * Sets the live metrics that the sessions' requests are recorded in.
+     *
+     * @param aLiveMetrics Live metrics
+     * @return This capacity search
+     */
+    public CapacitySearch setLiveMetrics(final LiveMetrics aLiveMetrics) {
+        myLiveMetrics = aLiveMetrics;
+        return this;
+    }
+
+    /**
+     * Runs the search.
+     *
+     * @return A report of the search
+     * @throws InterruptedException If interrupted while waiting for a step's sessions to finish
+     */
+    public CapacityReport run() throws InterruptedException {
+        final CapacityReport report = new CapacityReport(myModel);
+
+        LOGGER.info("Searching for capacity from {} {} in steps of {}, holding each for {} sec windows",
+                CapacityReport.formatLoad(myStart), myModel.getUnit(), CapacityReport.formatLoad(myStep), myWindow);
+
+        for (int index = 0;; index++) {
+            final double load = getLoad(index);
+            final CapacityReport.Step step;
+
+            if (myMax > 0 && load > myMax) {
+                report.setStopReason("Reached the maximum load of " + CapacityReport.formatLoad(myMax) + " " + myModel
+                        .getUnit());
+                return report;
+            }
+
+            step = runStep(load);
+            report.addStep(step);
+            LOGGER.info("{}", step);
+
+            if (step.getObjectiveLatency() > myObjective) {
+                report.setStopReason(String.format(Locale.US, "%s p%s of %.1f ms missed the objective of %.1f ms",
+                        myObjectiveType, HistogramSnapshot.format(myObjectivePercentile), step.getObjectiveLatency() /
+                                1000d, myObjective / 1000d));
+                return report;
+            } else if (step.getErrorRate() > myMaxErrorRate) {
+                report.setStopReason(String.format(Locale.US, "Error rate of %.2f%% exceeded the limit of %.2f%%",
+                        step.getErrorRate() * 100, myMaxErrorRate * 100));
+                return report;
+            } else if (myModel == LoadModel.RATE && step.getSessionRate() < load * (1 - myTolerance)) {
+                // Sessions are finishing more slowly than they're arriving, so a backlog is building
+                report.setStopReason(String.format(Locale.US, "Throughput of %.2f sessions/s fell short of the " +
+                        "offered %s sessions/s", step.getSessionRate(), CapacityReport.formatLoad(load)));
+                return report;
+            }
+
+            step.setSustainable(true);
+        }
+    }
+
+    /**
+     * Holds a step's load, a window at a time, until two windows in a row agree or the most windows have been run.
+     */
+    private CapacityReport.Step runStep(final double aLoad) throws InterruptedException {
+        CapacityReport.Step last = null;
+
+        for (int count = 1; count <= myMaxWindowCount; count++) {
+            final DownloadReport report;
+            final long elapsedTime;
+
+            CapacityReport.Step current;
+
+            if (myModel == LoadModel.RATE) {
+                final long startTime = System.nanoTime();
+
+                // Throughput is over the time it took the window's sessions to finish, so it falls at saturation
+                report = new LoadGenerator(mySessions, myEngine, aLoad, myWindow, 0, 0).setLiveMetrics(myLiveMetrics)
+                        .run();
+                elapsedTime = System.nanoTime() - startTime;
+            } else {
+                report = new DownloadReport(null, myLiveMetrics);
+                elapsedTime = runConcurrency((int) aLoad, report);
+            }
+
+            current = newStep(aLoad, report, elapsedTime, count, false);
+
+            if (last != null && isClose(last.getRequestRate(), current.getRequestRate()) && isClose(last
+                    .getObjectiveLatency(), current.getObjectiveLatency())) {
+                return newStep(aLoad, report, elapsedTime, count, true);
+            }
+
+            last = current;
+        }
+
+        return last;
+    }
+
+    private CapacityReport.Step newStep(final double aLoad, final DownloadReport aReport, final long aElapsedTime,
+            final int aWindowCount, final boolean aStability) {
+        return new CapacityReport.Step(myModel, aLoad, aReport, aElapsedTime, myObjectiveType, myObjectivePercentile,
+                aWindowCount, aStability);
+    }
+
+    /**
+     * Runs a fixed number of sessions at once for a window, each session starting as soon as the one before it
+     * finishes, and returns the time until the last of them finished in nanoseconds.
+     */
+    private long runConcurrency(final int aCount, final DownloadReport aReport) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(aCount);
+        final long startTime = System.nanoTime();
+        final long endTime = startTime + TimeUnit.SECONDS.toNanos(myWindow);
+
+        for (int index = 0; index < aCount; index++) {
+            runSessions(aReport, endTime, finished);
+        }
+
+        finished.await();
+        return System.nanoTime() - startTime;
+    }
+
+    /**
+     * Runs sessions back to back until the end of the window. The next session is started on another thread, since
+     * a session that fails at once (e.g., when the server refuses connections) would otherwise start the next one on
+     * the same stack, and so on until the window ends or the stack overflows.
+     */
+    private void runSessions(final DownloadReport aReport, final long aEndTime, final CountDownLatch aFinished) {
+        mySessions.get().start(myEngine, aReport, System.nanoTime()).whenCompleteAsync((result, error) -> {
+            if (System.nanoTime() < aEndTime) {
+                runSessions(aReport, aEndTime, aFinished);
+            } else {
+                aFinished.countDown();
+            }
+        });
+    }
+
+    /**
+     * Returns whether two measurements are within the tolerance of each other.
+     */
+    private boolean isClose(final double aFirst, final double aSecond) {
+        return Math.abs(aFirst - aSecond) <= myTolerance * Math.max(aFirst, aSecond);
+    }
+
+    private double getLoad(final int aIndex) {
+        final double load = myStart + aIndex * myStep;
+        return myModel == LoadModel.CONCURRENCY ? Math.max(1, Math.round(load)) : load;
+    }
+}
@@ -0,0 +1,138 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A reader of IIIF documents that finds all the manifests in a collection, and in the collections it contains, in
+ * either version 2 or version 3 of the Presentation API.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class CollectionReader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectionReader.class);
+
+    private final DownloadEngine myEngine;
+
+    private final HttpTransport myTransport;
+
+    /**
+     * Creates a new collection reader.
+     *
+     * @param aEngine The download engine that documents are requested on
+     * @param aTransport The transport that documents are requested through
+     */
+    CollectionReader(final DownloadEngine aEngine, final HttpTransport aTransport) {
+        myEngine = aEngine;
+        myTransport = aTransport;
+    }
+
+    /**
+     * Downloads and parses a manifest or collection.
+     *
+     * @param aURL The URL of a manifest or collection
+     * @return The document's index
+     * @throws IOException If the document can't be downloaded or parsed
+     */
+    ManifestIndex fetch(final String aURL) throws IOException {
+        try {
+            return ManifestIndex.parse(myEngine.request(myTransport, aURL, true).join().getJSON());
+        } catch (final CompletionException details) {
+            if (details.getCause() instanceof IOException) {
+                throw (IOException) details.getCause();
+            }
+
+            throw new IOException(details.getCause());
+        }
+    }
+
+    /**
+     * Finds the manifests at a URL: all the manifests of a collection, or just the URL itself if it's a manifest.
+     *
+     * @param aURL The URL of a manifest or collection
+     * @return The URLs of the manifests
+     * @throws IOException If the manifest or collection can't be read
+     */
+    List<String> findManifests(final String aURL) throws IOException {
+        final ManifestIndex document = fetch(aURL);
+        return isCollection(document) ? findManifests(aURL, document) : List.of(aURL);
+    }
+
+    /**
+     * Finds all the manifests in a collection and in the collections it contains. Collections that can't be read are
+     * skipped.
+     *
+     * @param aURL The URL of the collection
+     * @param aCollection The collection's index
+     * @return The URLs of the manifests, in the order they were found
+     * @throws IOException If interrupted while reading the collections
+     */
+    List<String> findManifests(final String aURL, final ManifestIndex aCollection) throws IOException {
+        final Set<String> manifests = new LinkedHashSet<>();
+        final Deque<String> collections = new ArrayDeque<>(List.of(aURL));
+        final Set<String> seen = new HashSet<>();
+
+        String url;
+
+        while ((url = collections.poll()) != null) {
+            final ManifestIndex collection;
+
+            if (!seen.add(url)) {
+                continue;
+            } else if (url.equals(aURL)) {
+                collection = aCollection;
+            } else {
+                try {
+                    collection = fetch(url);
+                } catch (final InterruptedIOException details) {
+                    throw details;
+                } catch (final IOException details) {
+                    LOGGER.warn("Skipping collection that couldn't be read: {} [{}]", url, details.getMessage());
+                    continue;
+                }
+            }
+
+            final List<String> ids = collection.getList("?items?*?id");
+            final List<String> types = collection.getList("?items?*?type");
+
+            manifests.addAll(collection.getList("?manifests?*"));
+            collections.addAll(collection.getList("?collections?*"));
+
+            // Version 3 collections list their manifests and collections together
+            if (ids.size() == types.size()) {
+                for (int index = 0; index < ids.size(); index++) {
+                    if ("Collection".equals(types.get(index))) {
+                        collections.add(ids.get(index));
+                    } else {
+                        manifests.add(ids.get(index));
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<>(manifests);
+    }
+
+    /**
+     * Returns whether a document is a collection, rather than a manifest.
+     *
+     * @param aDocument A document's index
+     * @return True if the document is a collection; else, false
+     */
+    static boolean isCollection(final ManifestIndex aDocument) {
+        return "sc:Collection".equals(aDocument.getValue("?('@type')")) || "Collection".equals(aDocument.getValue(
+                "?type"));
+    }
+}
@@ -0,0 +1,142 @@
+package info.freelibrary.iiiftool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about the connections that a transport has made and reused. A transport that manages its own pool
+ * records its pool hits and misses directly; one that can only see when new connections are made has its pool hits
+ * and misses inferred from the number of new connections.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ConnectionStats {
+
+    private final LongAdder myRequestCount = new LongAdder();
+
+    private final LongAdder myPoolHitCount = new LongAdder();
+
+    private final LongAdder myPoolMissCount = new LongAdder();
+
+    private final LongAdder myNewConnectionCount = new LongAdder();
+
+    private final LongAdder myUntrackedCount = new LongAdder();
+
+    private final boolean myPoolIsVisible;
+
+    /**
+     * Creates new connection statistics.
+     *
+     * @param aPoolVisible Whether the transport records its pool hits and misses directly
+     */
+    public ConnectionStats(final boolean aPoolVisible) {
+        myPoolIsVisible = aPoolVisible;
+    }
+
+    /**
+     * Records a request that was made on a pooled connection.
+     */
+    void addPoolHit() {
+        myRequestCount.increment();
+        myPoolHitCount.increment();
+    }
+
+    /**
+     * Records a request for which there was no pooled connection to use.
+     */
+    void addPoolMiss() {
+        myRequestCount.increment();
+        myPoolMissCount.increment();
+    }
+
+    /**
+     * Records a request whose pool hit or miss is inferred from the number of new connections.
+     */
+    void addRequest() {
+        myRequestCount.increment();
+    }
+
+    /**
+     * Records a request whose connection can't be seen by the transport.
+     */
+    void addUntrackedRequest() {
+        myUntrackedCount.increment();
+    }
+
+    /**
+     * Records a new connection.
+     */
+    void addNewConnection() {
+        myNewConnectionCount.increment();
+    }
+
+    /**
+     * Gets the number of requests whose connections were tracked.
+     *
+     * @return The number of tracked requests
+     */
+    public long getRequestCount() {
+        return myRequestCount.sum();
+    }
+
+    /**
+     * Gets the number of requests that were made on an existing connection.
+     *
+     * @return The number of pool hits
+     */
+    public long getPoolHitCount() {
+        if (myPoolIsVisible) {
+            return myPoolHitCount.sum();
+        }
+
+        return Math.max(0, getRequestCount() - getNewConnectionCount());
+    }
+
+    /**
+     * Gets the number of requests for which there was no existing connection to use.
+     *
+     * @return The number of pool misses
+     */
+    public long getPoolMissCount() {
+        if (myPoolIsVisible) {
+            return myPoolMissCount.sum();
+        }
+
+        return Math.min(getRequestCount(), getNewConnectionCount());
+    }
+
+    /**
+     * Gets the number of new connections that were made, including any that replaced stale pooled connections.
+     *
+     * @return The number of new connections
+     */
+    public long getNewConnectionCount() {
+        return myNewConnectionCount.sum();
+    }
+
+    /**
+     * Gets the number of requests whose connections couldn't be seen by the transport.
+     *
+     * @return The number of untracked requests
+     */
+    public long getUntrackedCount() {
+        return myUntrackedCount.sum();
+    }
+
+    @Override
+    public String toString() {
+        final long requestCount = getRequestCount();
+        final long hitCount = getPoolHitCount();
+        final StringBuilder builder = new StringBuilder();
+
+        builder.append(requestCount).append(" requests, ").append(hitCount).append(" pool hits (");
+        builder.append(requestCount == 0 ? 0 : Math.round(100d * hitCount / requestCount)).append("%), ");
+        builder.append(getPoolMissCount()).append(" pool misses, ");
+        builder.append(getNewConnectionCount()).append(" new connections");
+
+        if (getUntrackedCount() > 0) {
+            builder.append(", ").append(getUntrackedCount()).append(" untracked requests");
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package info.freelibrary.iiiftool;
+
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * An SSL context that counts the client connections that are created with it. The JDK's HTTP client creates one SSL
+ * engine for each new TLS connection, so this lets us see when it opens a connection rather than reusing one.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class CountingSSLContext extends SSLContext {
+
+    /**
+     * Creates a new counting SSL context.
+     *
+     * @param aContext An initialized SSL context to which all the work is delegated
+     * @param aStats The statistics in which new connections are recorded
+     */
+    CountingSSLContext(final SSLContext aContext, final ConnectionStats aStats) {
+        super(new CountingSpi(aContext, aStats), aContext.getProvider(), aContext.getProtocol());
+    }
+
+    /**
+     * A service provider that delegates to an initialized SSL context.
+     */
+    private static final class CountingSpi extends SSLContextSpi {
+
+        private final SSLContext myContext;
+
+        private final ConnectionStats myStats;
+
+        CountingSpi(final SSLContext aContext, final ConnectionStats aStats) {
+            myContext = aContext;
+            myStats = aStats;
+        }
+
+        @Override
+        protected void engineInit(final KeyManager[] aKeyManagers, final TrustManager[] aTrustManagers,
+                final SecureRandom aRandom) throws KeyManagementException {
+            // The delegate has already been initialized
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return myContext.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return myContext.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            myStats.addNewConnection();
+            return myContext.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(final String aHost, final int aPort) {
+            myStats.addNewConnection();
+            return myContext.createSSLEngine(aHost, aPort);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return myContext.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return myContext.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return myContext.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return myContext.getSupportedSSLParameters();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An engine that executes downloads. Engines differ in how the downloads are run (on a fixed pool of platform
+ * threads, on a virtual thread per download or on non-blocking I/O) but they all record their downloads in the same
+ * way, so their results can be compared.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public interface DownloadEngine extends AutoCloseable {
+
+    /**
+     * Starts a request for the supplied URL.
+     *
+     * @param aTransport The transport through which the request is made
+     * @param aURL The URL to request
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return A future that completes with the result of the request
+     */
+    CompletableFuture<HttpResult> request(HttpTransport aTransport, String aURL, boolean aBodyKept);
+
+    /**
+     * Starts a request for the supplied URL, streaming the body of a successful response to the supplied reader.
+     * Since a reader may block while it waits on whatever it's feeding, readers are run on their own threads rather
+     * than on those that run the engine's downloads.
+     *
+     * @param aTransport The transport through which the request is made
+     * @param aURL The URL to request
+     * @param aReader A reader for the body of a successful response
+     * @return A future that completes with the result of the request once the body has been read
+     */
+    CompletableFuture<HttpResult> stream(HttpTransport aTransport, String aURL, HttpTransport.BodyReader aReader);
+
+    /**
+     * Gets the transport from which each viewer session's transport is created.
+     *
+     * @return The engine's HTTP transport
+     */
+    HttpTransport getTransport();
+
+    /**
+     * Starts the supplied download.
+     *
+     * @param aDownload A download
+     * @return A future that completes, with the download, once the download has been recorded
+     */
+    default CompletableFuture<DownloadThread> download(final DownloadThread aDownload) {
+        aDownload.start();
+
+        return request(aDownload.getTransport(), aDownload.getURL(), aDownload.isValidated()).handle((result,
+                error) -> {
+            if (error == null) {
+                aDownload.complete(result);
+            } else {
+                aDownload.fail(error instanceof CompletionException && error.getCause() != null ? error.getCause()
+                        : error);
+            }
+
+            return aDownload;
+        });
+    }
+
+    /**
+     * Starts the download of a JSON document (e.g., a manifest or an info.json file).
+     *
+     * @param aTransport The transport through which the request is made
+     * @param aURL The URL of the JSON document
+     * @param aType The type of request being made
+     * @param aReport The report into which the download time is recorded
+     * @return A future that completes with the JSON document
+     */
+    default CompletableFuture<String> getJSON(final HttpTransport aTransport, final String aURL,
+            final RequestType aType, final DownloadReport aReport) {
+        aReport.startRequest(aType);
+
+        return request(aTransport, aURL, true).handle((result, error) -> {
+            if (error != null) {
+                aReport.addError(aType, aURL, error);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(
+                        error);
+            }
+
+            aReport.addDownload(aType, result);
+
+            try {
+                return result.getJSON();
+            } catch (final IOException details) {
+                throw new CompletionException(details);
+            }
+        });
+    }
+
+    /**
+     * Shuts down the engine, letting downloads that have already been started finish.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,87 @@
+package info.freelibrary.iiiftool;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded queue of downloads that are found while something (like a manifest) is still being read. The reader
+ * blocks when the queue is full, which stops it reading from its connection until the downloads catch up; that keeps
+ * the memory that's used flat no matter how many downloads are found. The queue is drained by a
+ * {@link DownloadWindow}, which is told as each download is added.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class DownloadQueue {
+
+    private static final Runnable NO_LISTENER = () -> {
+        // Nothing is draining the queue yet
+    };
+
+    private final BlockingQueue<DownloadThread> myDownloads;
+
+    private volatile Runnable myListener = NO_LISTENER;
+
+    private volatile boolean myQueueIsFinished;
+
+    /**
+     * Creates a new download queue.
+     *
+     * @param aCapacity The maximum number of downloads that can be waiting in the queue
+     */
+    public DownloadQueue(final int aCapacity) {
+        myDownloads = new ArrayBlockingQueue<>(Math.max(1, aCapacity));
+    }
+
+    /**
+     * Adds a download to the queue, waiting for there to be room for it if the queue is full.
+     *
+     * @param aDownload A download
+     * @throws InterruptedIOException If the thread is interrupted while waiting for room in the queue
+     */
+    public void put(final DownloadThread aDownload) throws InterruptedIOException {
+        try {
+            myDownloads.put(aDownload);
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to queue: " + aDownload);
+        }
+
+        myListener.run();
+    }
+
+    /**
+     * Marks the queue as finished; no more downloads will be added to it.
+     */
+    public void finish() {
+        myQueueIsFinished = true;
+        myListener.run();
+    }
+
+    /**
+     * Gets the next download from the queue, without waiting for one to be added.
+     *
+     * @return The next download or null if the queue is empty
+     */
+    DownloadThread poll() {
+        return myDownloads.poll();
+    }
+
+    /**
+     * Returns whether the queue is finished and all its downloads have been taken.
+     *
+     * @return True if the queue is finished and empty; else, false
+     */
+    boolean isDone() {
+        return myQueueIsFinished && myDownloads.isEmpty();
+    }
+
+    /**
+     * Sets what's to be told when a download is added or the queue is finished.
+     *
+     * @param aListener A listener for changes to the queue
+     */
+    void setListener(final Runnable aListener) {
+        myListener = aListener;
+    }
+}
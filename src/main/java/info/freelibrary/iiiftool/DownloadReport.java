@@ -1,84 +1,498 @@
-
 package info.freelibrary.iiiftool;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A simple reporting of the timing of the download tasks.
+ * A simple reporting of the timing of the download tasks. Each type of request has its own latency histogram, as
+ * does each phase (DNS, connect, TLS, time to first byte and transfer) of each type of request, so recording a
+ * download is lock-free and doesn't allocate, regardless of how many downloads are recorded. A report can be written
+ * in a compact binary form and merged into another, so that the reports of several processes can be combined.
  *
  * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
  */
 public class DownloadReport {
 
-    private long myManifestTime;
+    private final Map<RequestType, LatencyHistogram> myHistograms;
+
+    private final Map<RequestType, LongAdder> myByteCounts;
+
+    private final Map<RequestType, LongAdder> myErrorCounts;
+
+    private final Map<RequestType, LatencyHistogram[]> myRequestPhaseHistograms;
+
+    private final Map<Phase, LatencyHistogram> myPhaseHistograms;
+
+    /* How the sessions' browser caches answered each type of request, by outcome, and the body bytes they saved */
+    private final Map<RequestType, LongAdder[]> myCacheCounts;
+
+    private final Map<RequestType, LongAdder> mySavedByteCounts;
+
+    /* The times to a sharp image after each of the viewer script's interactions, by the interaction's number */
+    private final NavigableMap<Integer, LatencyHistogram> myInteractionHistograms;
+
+    private final LongAdder myFailedSessionCount;
+
+    private final EventLog myEventLog;
 
-    private final CopyOnWriteArrayList<Long> myThumbnailTimes;
+    private final LiveMetrics myLiveMetrics;
 
-    private final CopyOnWriteArrayList<Long> myTileTimes;
+    private final long mySession;
+
+    /* The number of stripes the report's histograms have; a report that's only merged into needs just one */
+    private final int myStripeCount;
 
     /**
      * Creates a new download report.
      */
     public DownloadReport() {
-        myThumbnailTimes = new CopyOnWriteArrayList<>();
-        myTileTimes = new CopyOnWriteArrayList<>();
+        this(null);
+    }
+
+    /**
+     * Creates a new download report that also writes each request to the supplied event log.
+     *
+     * @param aEventLog An event log, or null if requests shouldn't be logged
+     */
+    public DownloadReport(final EventLog aEventLog) {
+        this(aEventLog, null);
+    }
+
+    /**
+     * Creates a new download report that also writes each request to the supplied event log and records it in the
+     * supplied live metrics.
+     *
+     * @param aEventLog An event log, or null if requests shouldn't be logged
+     * @param aLiveMetrics Live metrics, or null if there are none
+     */
+    public DownloadReport(final EventLog aEventLog, final LiveMetrics aLiveMetrics) {
+        this(aEventLog, aLiveMetrics, LatencyHistogram.STRIPE_COUNT);
     }
 
     /**
-     * Sets the time it took the manifest to download.
+     * Creates a new download report whose histograms have the supplied number of stripes. A report that's recorded
+     * into by only a few threads at a time, or that's only merged into, needs just one.
      *
-     * @param aTime The number of milliseconds it took the manifest to download.
+     * @param aEventLog An event log, or null if requests shouldn't be logged
+     * @param aLiveMetrics Live metrics, or null if there are none
+     * @param aStripeCount The number of stripes that the report's histograms have
      */
-    public void setManifestTime(final long aTime) {
-        myManifestTime = aTime;
+    DownloadReport(final EventLog aEventLog, final LiveMetrics aLiveMetrics, final int aStripeCount) {
+        myHistograms = new EnumMap<>(RequestType.class);
+        myByteCounts = new EnumMap<>(RequestType.class);
+        myErrorCounts = new EnumMap<>(RequestType.class);
+        myRequestPhaseHistograms = new EnumMap<>(RequestType.class);
+        myPhaseHistograms = new EnumMap<>(Phase.class);
+        myCacheCounts = new EnumMap<>(RequestType.class);
+        mySavedByteCounts = new EnumMap<>(RequestType.class);
+        myInteractionHistograms = new ConcurrentSkipListMap<>();
+        myFailedSessionCount = new LongAdder();
+        myEventLog = aEventLog;
+        myLiveMetrics = aLiveMetrics;
+        mySession = 0;
+        myStripeCount = aStripeCount;
+
+        // The maps are fully populated up front so that they're only ever read after construction
+        for (final RequestType type : RequestType.values()) {
+            myHistograms.put(type, new LatencyHistogram(aStripeCount));
+            myByteCounts.put(type, new LongAdder());
+            myErrorCounts.put(type, new LongAdder());
+            myRequestPhaseHistograms.put(type, newHistograms(RequestPhase.values().length, aStripeCount));
+            myCacheCounts.put(type, newCounters(CacheOutcome.values().length));
+            mySavedByteCounts.put(type, new LongAdder());
+        }
+
+        for (final Phase phase : Phase.values()) {
+            myPhaseHistograms.put(phase, new LatencyHistogram(aStripeCount));
+        }
+    }
+
+    private DownloadReport(final DownloadReport aReport, final long aSession) {
+        myHistograms = aReport.myHistograms;
+        myByteCounts = aReport.myByteCounts;
+        myErrorCounts = aReport.myErrorCounts;
+        myRequestPhaseHistograms = aReport.myRequestPhaseHistograms;
+        myPhaseHistograms = aReport.myPhaseHistograms;
+        myCacheCounts = aReport.myCacheCounts;
+        mySavedByteCounts = aReport.mySavedByteCounts;
+        myInteractionHistograms = aReport.myInteractionHistograms;
+        myFailedSessionCount = aReport.myFailedSessionCount;
+        myEventLog = aReport.myEventLog;
+        myLiveMetrics = aReport.myLiveMetrics;
+        mySession = aSession;
+        myStripeCount = aReport.myStripeCount;
     }
 
     /**
-     * Gets the time it took the manifest to download.
+     * Creates a new download report that's only merged into, such as one that combines workers' reports. Its
+     * histograms have a single stripe, so it takes a small part of the memory of a report that's recorded into.
      *
-     * @return The number of milliseconds it took the manifest to download.
+     * @return A new download report
      */
-    public long getManifestTime() {
-        return myManifestTime;
+    static DownloadReport forMerging() {
+        return new DownloadReport(null, null, 1);
     }
 
     /**
-     * Add a download time for a thumbnail request.
+     * Gets a view of this report for a single viewer session. Everything that's recorded through it is recorded in
+     * this report, but the requests it writes to the event log are marked with the session's ID.
      *
-     * @param aTime The number of milliseconds it took to download a thumbnail.
-     * @return True if the download time could be recorded; else, false
+     * @param aSession The ID of a viewer session
+     * @return A view of this report for the session
+     */
+    public DownloadReport forSession(final long aSession) {
+        return myEventLog == null ? this : new DownloadReport(this, aSession);
+    }
+
+    /**
+     * Notes the start of a request, which the live metrics count as in flight until its download or error is added.
+     *
+     * @param aType The type of request that was started
+     */
+    public void startRequest(final RequestType aType) {
+        if (myLiveMetrics != null) {
+            myLiveMetrics.start(aType);
+        }
+    }
+
+    /**
+     * Adds a completed download to the report.
+     *
+     * @param aType The type of request that was made
+     * @param aNanos The number of nanoseconds the download took
+     * @param aByteCount The number of bytes that were downloaded
+     * @param aStatus The HTTP status code of the response
+     */
+    public void addDownload(final RequestType aType, final long aNanos, final long aByteCount, final int aStatus) {
+        myHistograms.get(aType).recordNanos(aNanos);
+        myByteCounts.get(aType).add(aByteCount);
+
+        if (aStatus < 200 || aStatus >= 400) {
+            myErrorCounts.get(aType).increment();
+        }
+    }
+
+    /**
+     * Adds a completed download, and the times of the phases of its request, to the report. If the download went
+     * through a browser cache, its outcome is counted too; one that the cache answered without a request isn't
+     * counted as a request.
+     *
+     * @param aType The type of request that was made
+     * @param aResult The result of the download's request
+     */
+    public void addDownload(final RequestType aType, final HttpResult aResult) {
+        final LatencyHistogram[] histograms = myRequestPhaseHistograms.get(aType);
+        final CacheOutcome outcome = aResult.getCacheOutcome();
+
+        if (outcome != null) {
+            myCacheCounts.get(aType)[outcome.ordinal()].increment();
+            mySavedByteCounts.get(aType).add(aResult.getBytesSaved());
+
+            if (outcome == CacheOutcome.HIT) {
+                if (myLiveMetrics != null) {
+                    myLiveMetrics.addCacheHit(aType);
+                }
+
+                return;
+            }
+        }
+
+        addDownload(aType, aResult.getElapsedTime(), aResult.getByteCount(), aResult.getStatus());
+
+        for (final RequestPhase phase : RequestPhase.values()) {
+            final long nanos = aResult.getPhaseTime(phase);
+
+            if (nanos >= 0) {
+                histograms[phase.ordinal()].recordNanos(nanos);
+            }
+        }
+
+        if (myEventLog != null) {
+            myEventLog.add(mySession, aType, aResult);
+        }
+
+        if (myLiveMetrics != null) {
+            myLiveMetrics.add(aType, aResult.getElapsedTime(), aResult.getByteCount(), aResult.getStatus());
+        }
+    }
+
+    /**
+     * Adds a failed download, one for which no response was received, to the report.
+     *
+     * @param aType The type of request that was made
+     */
+    public void addError(final RequestType aType) {
+        myErrorCounts.get(aType).increment();
+    }
+
+    /**
+     * Adds a failed download, one for which no response was received, to the report and to the event log.
+     *
+     * @param aType The type of request that was made
+     * @param aURL The URL that was requested
+     * @param aError The cause of the failure
+     */
+    public void addError(final RequestType aType, final String aURL, final Throwable aError) {
+        addError(aType);
+
+        if (myEventLog != null) {
+            myEventLog.addError(mySession, aType, aURL, aError);
+        }
+
+        if (myLiveMetrics != null) {
+            myLiveMetrics.addError(aType);
+        }
+    }
+
+    /**
+     * Adds the time that a phase of a viewer session took to the report.
+     *
+     * @param aPhase The phase of the viewer session
+     * @param aNanos The number of nanoseconds the phase took
+     */
+    public void addPhaseTime(final Phase aPhase, final long aNanos) {
+        myPhaseHistograms.get(aPhase).recordNanos(aNanos);
+    }
+
+    /**
+     * Adds the time that it took, after an interaction with the image viewer, for the image to be sharp again.
+     *
+     * @param aInteraction The number of the interaction, from one, in the viewer script
+     * @param aNanos The number of nanoseconds until the image was sharp
+     */
+    public void addInteractionTime(final int aInteraction, final long aNanos) {
+        myInteractionHistograms.computeIfAbsent(aInteraction, interaction -> new LatencyHistogram(myStripeCount))
+                .recordNanos(aNanos);
+    }
+
+    /**
+     * Adds a viewer session that couldn't be completed to the report.
      */
-    public boolean addThumbnailTime(final long aTime) {
-        return myThumbnailTimes.add(aTime);
+    public void addFailedSession() {
+        myFailedSessionCount.increment();
     }
 
     /**
-     * Gets the download times for the thumbnails.
+     * Gets a snapshot of the download times for the supplied type of request.
      *
-     * @return The thumbnail download times expressed in milliseconds
+     * @param aType A type of request
+     * @return A snapshot of the download times, expressed in microseconds
      */
-    public List<Long> getThumbnailTimes() {
-        return myThumbnailTimes;
+    public HistogramSnapshot getTimes(final RequestType aType) {
+        return myHistograms.get(aType).snapshot();
     }
 
     /**
-     * Add a download time for a tile request.
+     * Gets the number of bytes downloaded for the supplied type of request.
      *
-     * @param aTime The number of milliseconds it took to download a tile.
-     * @return True if the download time could be recorded; else, false
+     * @param aType A type of request
+     * @return The number of bytes downloaded
      */
-    public boolean addTileTime(final long aTime) {
-        return myTileTimes.add(aTime);
+    public long getByteCount(final RequestType aType) {
+        return myByteCounts.get(aType).sum();
     }
 
     /**
-     * Gets the download times for the tiles.
+     * Gets the number of failed downloads for the supplied type of request.
      *
-     * @return The tile download times expressed in milliseconds
+     * @param aType A type of request
+     * @return The number of failed downloads
      */
-    public List<Long> getTileTimes() {
-        return myTileTimes;
+    public long getErrorCount(final RequestType aType) {
+        return myErrorCounts.get(aType).sum();
     }
 
+    /**
+     * Gets a snapshot of the times of a phase of the supplied type of request.
+     *
+     * @param aType A type of request
+     * @param aPhase A phase of an HTTP request
+     * @return A snapshot of the phase times, expressed in microseconds
+     */
+    public HistogramSnapshot getTimes(final RequestType aType, final RequestPhase aPhase) {
+        return myRequestPhaseHistograms.get(aType)[aPhase.ordinal()].snapshot();
+    }
+
+    /**
+     * Gets the rate at which the bodies of the supplied type of request were transferred: the bytes downloaded over
+     * the total transfer time. Unlike throughput over the whole run, it leaves out connecting and waiting for the
+     * server, so it shows the bandwidth that each download got.
+     *
+     * @param aType A type of request
+     * @return The effective transfer rate in bytes per second, or zero if no transfers were timed
+     */
+    public double getTransferRate(final RequestType aType) {
+        final long micros = getTimes(aType, RequestPhase.TRANSFER).getSum();
+        return micros == 0 ? 0 : getByteCount(aType) / (micros / (double) TimeUnit.SECONDS.toMicros(1));
+    }
+
+    /**
+     * Gets the number of requests of the supplied type that the sessions' browser caches answered in a given way.
+     *
+     * @param aType A type of request
+     * @param aOutcome How the cache answered
+     * @return The number of requests
+     */
+    public long getCacheCount(final RequestType aType, final CacheOutcome aOutcome) {
+        return myCacheCounts.get(aType)[aOutcome.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of body bytes of the supplied type of request that the sessions' browser caches saved from
+     * being downloaded, by answering from the cache or by revalidating what they had.
+     *
+     * @param aType A type of request
+     * @return The number of body bytes saved
+     */
+    public long getBytesSaved(final RequestType aType) {
+        return mySavedByteCounts.get(aType).sum();
+    }
+
+    /**
+     * Gets a snapshot of the times for the supplied phase of a viewer session.
+     *
+     * @param aPhase A phase of a viewer session
+     * @return A snapshot of the phase times, expressed in microseconds
+     */
+    public HistogramSnapshot getTimes(final Phase aPhase) {
+        return myPhaseHistograms.get(aPhase).snapshot();
+    }
+
+    /**
+     * Gets the interactions with the image viewer that have been reported on, in the order of the viewer script.
+     *
+     * @return The numbers of the reported interactions
+     */
+    public Iterable<Integer> getInteractions() {
+        return myInteractionHistograms.keySet();
+    }
+
+    /**
+     * Gets a snapshot of the times to a sharp image after the supplied interaction with the image viewer.
+     *
+     * @param aInteraction The number of an interaction, from one, in the viewer script
+     * @return A snapshot of the times to a sharp image, expressed in microseconds
+     */
+    public HistogramSnapshot getInteractionTimes(final int aInteraction) {
+        final LatencyHistogram histogram = myInteractionHistograms.get(aInteraction);
+        return histogram == null ? new HistogramSnapshot() : histogram.snapshot();
+    }
+
+    /**
+     * Gets the number of viewer sessions that couldn't be completed.
+     *
+     * @return The number of failed viewer sessions
+     */
+    public long getFailedSessionCount() {
+        return myFailedSessionCount.sum();
+    }
+
+    /**
+     * Writes a snapshot of the report in a compact binary form, which can be merged into another report with
+     * {@link #merge(DataInput)}. Both ends must be running the same version of the tool.
+     *
+     * @param aOutput The output to write to
+     * @throws IOException If the report can't be written
+     */
+    void write(final DataOutput aOutput) throws IOException {
+        for (final RequestType type : RequestType.values()) {
+            getTimes(type).write(aOutput);
+            aOutput.writeLong(getByteCount(type));
+            aOutput.writeLong(getErrorCount(type));
+
+            for (final RequestPhase phase : RequestPhase.values()) {
+                getTimes(type, phase).write(aOutput);
+            }
+
+            for (final CacheOutcome outcome : CacheOutcome.values()) {
+                aOutput.writeLong(getCacheCount(type, outcome));
+            }
+
+            aOutput.writeLong(getBytesSaved(type));
+        }
+
+        for (final Phase phase : Phase.values()) {
+            getTimes(phase).write(aOutput);
+        }
+
+        aOutput.writeInt(myInteractionHistograms.size());
+
+        for (final Map.Entry<Integer, LatencyHistogram> entry : myInteractionHistograms.entrySet()) {
+            aOutput.writeInt(entry.getKey());
+            entry.getValue().snapshot().write(aOutput);
+        }
+
+        aOutput.writeLong(getFailedSessionCount());
+    }
+
+    /**
+     * Merges a report that was written with {@link #write(DataOutput)} into this report. The merged downloads aren't
+     * written to the event log or recorded in the live metrics.
+     *
+     * @param aInput The input to read from
+     * @throws IOException If the report can't be read
+     */
+    void merge(final DataInput aInput) throws IOException {
+        final int interactionCount;
+
+        for (final RequestType type : RequestType.values()) {
+            final LatencyHistogram[] histograms = myRequestPhaseHistograms.get(type);
+
+            myHistograms.get(type).add(HistogramSnapshot.read(aInput));
+            myByteCounts.get(type).add(aInput.readLong());
+            myErrorCounts.get(type).add(aInput.readLong());
+
+            for (final RequestPhase phase : RequestPhase.values()) {
+                histograms[phase.ordinal()].add(HistogramSnapshot.read(aInput));
+            }
+
+            for (final LongAdder count : myCacheCounts.get(type)) {
+                count.add(aInput.readLong());
+            }
+
+            mySavedByteCounts.get(type).add(aInput.readLong());
+        }
+
+        for (final Phase phase : Phase.values()) {
+            myPhaseHistograms.get(phase).add(HistogramSnapshot.read(aInput));
+        }
+
+        interactionCount = aInput.readInt();
+
+        for (int index = 0; index < interactionCount; index++) {
+            final int interaction = aInput.readInt();
+
+            myInteractionHistograms.computeIfAbsent(interaction, key -> new LatencyHistogram(myStripeCount)).add(
+                    HistogramSnapshot.read(aInput));
+        }
+
+        myFailedSessionCount.add(aInput.readLong());
+    }
+
+    private static LongAdder[] newCounters(final int aCount) {
+        final LongAdder[] counters = new LongAdder[aCount];
+
+        for (int index = 0; index < aCount; index++) {
+            counters[index] = new LongAdder();
+        }
+
+        return counters;
+    }
+
+    private static LatencyHistogram[] newHistograms(final int aCount, final int aStripeCount) {
+        final LatencyHistogram[] histograms = new LatencyHistogram[aCount];
+
+        for (int index = 0; index < aCount; index++) {
+            histograms[index] = new LatencyHistogram(aStripeCount);
+        }
+
+        return histograms;
+    }
 }
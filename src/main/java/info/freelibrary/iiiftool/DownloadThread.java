@@ -1,21 +1,20 @@
-
 package info.freelibrary.iiiftool;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.URL;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
-import org.apache.commons.lang3.time.StopWatch;
-
-import info.freelibrary.util.FileUtils;
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
 
 /**
- * A downloader thread that downloads requested URLs, recording how long the download took.
+ * A downloader thread that downloads requested URLs, recording how long the download took. The response body is
+ * streamed into a reused buffer and discarded so that only the transfer is timed; decoding the image is an opt-in
+ * validation step that happens after the timer has been stopped.
  *
  * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
  */
@@ -25,50 +24,186 @@ public class DownloadThread implements Runnable {
 
     private final String myURL;
 
+    private final RequestType myType;
+
     private final DownloadReport myReport;
 
+    private final HttpTransport myTransport;
+
+    private final boolean myImageIsValidated;
+
+    private int myStatus;
+
+    private String myContentType;
+
+    private long myByteCount;
+
     /**
      * Creates a new downloader thread.
      *
-     * @param aURL
-     * @param aReport
+     * @param aURL The URL to download
+     * @param aType The type of request being made
+     * @param aReport The report into which the download time is recorded
+     * @param aTransport The transport through which the download is made
      */
-    public DownloadThread(final String aURL, final DownloadReport aReport) {
+    public DownloadThread(final String aURL, final RequestType aType, final DownloadReport aReport,
+            final HttpTransport aTransport) {
+        this(aURL, aType, aReport, aTransport, false);
+    }
+
+    /**
+     * Creates a new downloader thread.
+     *
+     * @param aURL The URL to download
+     * @param aType The type of request being made
+     * @param aReport The report into which the download time is recorded
+     * @param aTransport The transport through which the download is made
+     * @param aValidation Whether the downloaded image should be decoded to confirm it's valid
+     */
+    public DownloadThread(final String aURL, final RequestType aType, final DownloadReport aReport,
+            final HttpTransport aTransport, final boolean aValidation) {
+        myImageIsValidated = aValidation;
+        myTransport = aTransport;
         myReport = aReport;
+        myType = aType;
         myURL = aURL;
     }
 
     @Override
     public void run() {
-        final StopWatch stopWatch = new StopWatch();
-
         LOGGER.debug("Downloading: {}", myURL);
-
-        stopWatch.start();
+        start();
 
         try {
-            final URL url = new URL(myURL);
-            final BufferedImage image = ImageIO.read(url);
-            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-            final long time;
+            complete(myTransport.get(myURL, myImageIsValidated));
+        } catch (final IOException details) {
+            fail(details);
+        }
+    }
 
-            // We need to write the image into memory in order to get its size
-            ImageIO.write(image, FileUtils.getExt(myURL), bytes);
-            bytes.close();
+    /**
+     * Starts the download, noting in the report that its request is in flight.
+     */
+    void start() {
+        myReport.startRequest(myType);
+    }
+
+    /**
+     * Completes the download, recording it in the report. This is called once the whole response has been read.
+     *
+     * @param aResult The result of the download's request
+     */
+    void complete(final HttpResult aResult) {
+        myStatus = aResult.getStatus();
+        myContentType = aResult.getContentType();
+        myByteCount = aResult.getByteCount();
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Downloaded '{}' bytes [{}; {}] in '{}' ms", myByteCount, myStatus, myContentType,
+                    TimeUnit.NANOSECONDS.toMillis(aResult.getElapsedTime()));
+        }
 
-            stopWatch.stop();
-            time = stopWatch.getTime();
+        if (myStatus != HttpURLConnection.HTTP_OK) {
+            LOGGER.warn("Unexpected response status '{}' for: {}", myStatus, myURL);
+        }
 
-            LOGGER.debug("Downloaded '{}' bytes in '{}' ms", bytes.size(), time);
+        myReport.addDownload(myType, aResult);
 
-            myReport.addThumbnailTime(new Long(time));
-        } catch (final IOException details) {
-            throw new RuntimeException(details);
+        // Decoding isn't part of the download, so it happens after the download has been timed
+        if (aResult.getBody() != null && myImageIsValidated) {
+            validate(aResult.getBody());
         }
     }
 
+    /**
+     * Fails the download, recording it in the report as an error.
+     *
+     * @param aError The cause of the failure
+     */
+    void fail(final Throwable aError) {
+        LOGGER.warn("Failed to download {} [{}]", myURL, aError.getMessage());
+        myReport.addError(myType, myURL, aError);
+    }
+
+    /**
+     * Gets the URL that's downloaded.
+     *
+     * @return The URL that's downloaded
+     */
+    public String getURL() {
+        return myURL;
+    }
+
+    /**
+     * Gets the transport through which the download is made.
+     *
+     * @return The download's transport
+     */
+    public HttpTransport getTransport() {
+        return myTransport;
+    }
+
+    /**
+     * Returns whether the downloaded image is decoded to confirm it's valid.
+     *
+     * @return True if the downloaded image is validated; else, false
+     */
+    public boolean isValidated() {
+        return myImageIsValidated;
+    }
+
+    /**
+     * Gets the HTTP status code of the download's response.
+     *
+     * @return The HTTP status code
+     */
+    public int getStatus() {
+        return myStatus;
+    }
+
+    /**
+     * Gets the content type of the download's response.
+     *
+     * @return The content type or null if the server didn't send one
+     */
+    public String getContentType() {
+        return myContentType;
+    }
+
+    /**
+     * Gets the number of body bytes that were read from the wire.
+     *
+     * @return The number of bytes that were downloaded
+     */
+    public long getByteCount() {
+        return myByteCount;
+    }
+
+    /**
+     * Gets the type of request being made.
+     *
+     * @return The type of request
+     */
+    public RequestType getType() {
+        return myType;
+    }
+
     @Override
     public String toString() {
         return myURL;
     }
+
+    private void validate(final byte[] aBody) {
+        try {
+            final BufferedImage image = ImageIO.read(new ByteArrayInputStream(aBody));
+
+            if (image == null) {
+                LOGGER.warn("Downloaded image could not be decoded: {}", myURL);
+            } else if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Validated {}x{} image: {}", image.getWidth(), image.getHeight(), myURL);
+            }
+        } catch (final IOException details) {
+            LOGGER.warn("Downloaded image is not valid: {} [{}]", myURL, details.getMessage());
+        }
+    }
 }
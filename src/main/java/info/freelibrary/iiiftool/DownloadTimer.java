@@ -1,20 +1,22 @@
-
 package info.freelibrary.iiiftool;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
-
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.lang3.time.StopWatch;
+import java.util.function.Supplier;
 
 import info.freelibrary.util.Logger;
 import info.freelibrary.util.LoggerFactory;
@@ -27,129 +29,1059 @@ import info.freelibrary.util.LoggerFactory;
  */
 public class DownloadTimer {
 
+    static final int DEFAULT_DOWNLOADER_COUNT = 10;
+
+    static final int DEFAULT_TILE_SIZE = 1024;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloadTimer.class);
 
-    private static final int DEFAULT_DOWNLOADER_COUNT = 10;
+    /* Mode that runs viewer sessions at a fixed arrival rate for a set duration */
+    private static final String LOAD_MODE = "load";
+
+    /* Mode that requests every thumbnail and tile of a manifest or collection to warm the server's cache */
+    private static final String WARM_MODE = "warm";
+
+    /* Mode that runs a stand-in IIIF server with synthetic content and injectable latency and errors */
+    private static final String SERVE_MODE = "serve";
+
+    /* Mode that compares the event logs of two runs and reports whether the second regressed */
+    private static final String COMPARE_MODE = "compare";
+
+    /* Mode that raises the load in steps to find the most that the server can sustain */
+    private static final String CAPACITY_MODE = "capacity";
+
+    /* Mode that replays a recorded HAR file or access log */
+    private static final String REPLAY_MODE = "replay";
+
+    /* Mode that compares tile sizes, formats and qualities */
+    private static final String MATRIX_MODE = "matrix";
+
+    /* Modes for distributed load: a worker that runs shards of load, and the coordinator that hands them out */
+    private static final String WORKER_MODE = "worker";
+
+    private static final String COORDINATOR_MODE = "coordinator";
+
+    /* Option that turns on decoding of downloaded images, after they've been timed */
+    private static final String VALIDATE = "validate";
+
+    /* Option that downloads and parses the whole manifest before any thumbnails are requested */
+    private static final String WHOLE_MANIFEST = "whole-manifest";
+
+    /* Options that select the download engine and, for the thread pool engine, its number of threads */
+    private static final String ENGINE = "engine";
+
+    private static final String THREADS = "threads";
+
+    /* Option that sets the number of threads that streamed manifests and info.json files are read on */
+    private static final String READER_THREADS = "reader-threads";
+
+    /* Options for the simulated image viewer: its viewport's size, the screen's pixel ratio and its interactions */
+    private static final String VIEWPORT = "viewport";
+
+    private static final String PIXEL_RATIO = "pixel-ratio";
+
+    private static final String SCRIPT = "script";
+
+    /* Option that prefetches the other canvases' info.json files, so many at a time, once the first view is sharp */
+    private static final String PREFETCH_INFO = "prefetch-info";
+
+    /* Option for the load modes: a scenario file of weighted manifest pools, session kinds and think times */
+    private static final String SCENARIO = "scenario";
+
+    /* Option that selects the HTTP profile: browser, http2 or no-reuse */
+    private static final String HTTP = "http";
+
+    /* Options for shaping connections to a slower network: a named profile, and its bandwidth and round trip time */
+    private static final String NETWORK = "network";
+
+    private static final String NETWORK_BANDWIDTH = "network-bandwidth";
+
+    private static final String NETWORK_RTT = "network-rtt";
+
+    /* Options for each session's browser cache (sizes in MB) and for returning visitors' visits and time away */
+    private static final String CACHE_SIZE = "cache-size";
+
+    private static final String CACHE_DIR = "cache-dir";
+
+    private static final String CACHE_DISK_SIZE = "cache-disk-size";
+
+    private static final String VISITS = "visits";
+
+    private static final String REVISIT_AFTER = "revisit-after";
+
+    private static final double DEFAULT_CACHE_DISK_SIZE = 256;
+
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    /* The file each request is written to, for later analysis or comparison */
+    private static final String EVENTS = "events";
+
+    /* Options for the live metrics: seconds between progress reports, the scrape port and the sliding window */
+    private static final String PROGRESS = "progress";
+
+    private static final String METRICS_PORT = "metrics-port";
+
+    private static final String METRICS_WINDOW = "metrics-window";
+
+    private static final int DEFAULT_PROGRESS = 10;
+
+    private static final int DEFAULT_METRICS_WINDOW = 60;
+
+    /* Options for the compare mode: how much worse a metric can get before it's a regression */
+    private static final String THRESHOLD = "threshold";
+
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    /* The exit status when the compare mode finds a regression, which is different from that of a failed run */
+    private static final int REGRESSION_STATUS = 2;
+
+    /* Options for the capacity mode: the load model and steps, how steps are held, and the limits that end it */
+    private static final String MODEL = "model";
+
+    private static final String START = "start";
+
+    private static final String STEP = "step";
+
+    private static final String MAX = "max";
+
+    private static final String WINDOW = "window";
+
+    private static final String MAX_WINDOWS = "max-windows";
+
+    private static final String TOLERANCE = "tolerance";
+
+    private static final String SLO = "slo";
 
-    private static final int DEFAULT_TILE_SIZE = 1024;
+    private static final String SLO_TYPE = "slo-type";
 
-    private static final int OSD_INITIAL_TILE_COUNT = 4;
+    private static final String SLO_PERCENTILE = "slo-percentile";
+
+    private static final String MAX_ERRORS = "max-errors";
+
+    private static final int DEFAULT_WINDOW = 30;
+
+    private static final int DEFAULT_MAX_WINDOWS = 5;
+
+    private static final double DEFAULT_TOLERANCE = 10;
+
+    private static final double DEFAULT_SLO = 500;
+
+    private static final double DEFAULT_SLO_PERCENTILE = 99;
+
+    private static final double DEFAULT_MAX_ERRORS = 1;
+
+    /* Options for the replay mode: the speed multiplier (or "max"), the target server and the most pending requests */
+    private static final String SPEED = "speed";
+
+    private static final String TARGET = "target";
+
+    private static final String MAX_PENDING = "max-pending";
+
+    private static final String MAX_SPEED = "max";
+
+    private static final int DEFAULT_MAX_PENDING = 1024;
+
+    /* Options for the matrix mode: the tile sizes, formats and qualities to compare, and the rounds to run */
+    private static final String TILE_SIZES = "tile-sizes";
+
+    private static final String FORMATS = "formats";
+
+    private static final String QUALITIES = "qualities";
+
+    private static final String ROUNDS = "rounds";
+
+    private static final int DEFAULT_ROUNDS = 5;
+
+    /* Options for distributed load: the coordinator's workers, as host:port, and the address a worker listens on */
+    private static final String WORKERS = "workers";
+
+    private static final String BIND = "bind";
+
+    private static final int DEFAULT_WORKER_PORT = 9500;
+
+    /* The thread pool engine's default number of threads in load mode, where many sessions share the pool */
+    private static final int DEFAULT_LOAD_THREAD_COUNT = 200;
+
+    /* Options for the load mode: the session arrival rate and the measured, ramp-up and warm-up windows */
+    private static final String RATE = "rate";
+
+    private static final String DURATION = "duration";
+
+    private static final String RAMP_UP = "ramp-up";
+
+    private static final String WARM_UP = "warm-up";
+
+    private static final double DEFAULT_RATE = 1;
+
+    /* Options for the warm mode: the maximum requests in flight and the file progress is checkpointed to */
+    private static final String CONCURRENCY = "concurrency";
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private static final int DEFAULT_CONCURRENCY = 16;
+
+    private static final String DEFAULT_CHECKPOINT = "warm-checkpoint.properties";
+
+    /* Options for the serve mode; each route's options are prefixed with its name (e.g., --tile-latency) */
+    private static final String PORT = "port";
+
+    private static final String CANVASES = "canvases";
+
+    private static final String IMAGE_SIZE = "image-size";
+
+    private static final String CONNECTIONS = "connections";
+
+    private static final String LATENCY = "-latency";
+
+    private static final String BANDWIDTH = "-bandwidth";
+
+    private static final String ERRORS = "-errors";
+
+    private static final String ERROR_STATUS = "-error-status";
+
+    private static final String SIZE = "-size";
+
+    private static final String MAX_AGE = "-max-age";
+
+    private static final int DEFAULT_PORT = 8888;
+
+    private static final int DEFAULT_DURATION = 60;
+
+    private static final int DEFAULT_RAMP_UP = 10;
+
+    private static final int DEFAULT_WARM_UP = 10;
 
     /**
-     * A timed downloader that downloads what the first view within Mirador downloads.
+     * A timed downloader that downloads what the first view within Mirador downloads. If the first argument is
+     * <code>load</code>, it instead starts simulated viewer sessions at a fixed rate for a set duration; if it's
+     * <code>capacity</code>, it raises the load in steps until the server misses a latency objective; if it's
+     * <code>coordinator</code>, it spreads a load run across <code>worker</code> processes and merges their reports;
+     * if it's <code>warm</code>, it requests every thumbnail and tile of a manifest or collection to warm the server's
+     * cache; if it's <code>replay</code>, it replays a recorded HAR file or access log; if it's <code>matrix</code>,
+     * it compares tile sizes, formats and qualities; if it's <code>serve</code>, it runs a stand-in IIIF server with
+     * synthetic content; and if it's <code>compare</code>, it compares the event logs of two runs, exiting with a
+     * status of 2 if the second regressed.
      *
      * @param args The arguments to the downloader
      * @throws MalformedURLException If the supplied IIIF server URL is invalid
      * @throws IOException If there is trouble reading the manifest from the IIIF server
      */
     public static void main(final String[] args) throws MalformedURLException, IOException {
-        final DownloadReport report = new DownloadReport();
-        final StopWatch stopWatch = new StopWatch();
+        final String mode = args.length > 0 && Arrays.asList(LOAD_MODE, CAPACITY_MODE, WARM_MODE, REPLAY_MODE,
+                MATRIX_MODE, WORKER_MODE, COORDINATOR_MODE, SERVE_MODE, COMPARE_MODE).contains(args[0]) ? args[0]
+                        : null;
+        final boolean loadMode = LOAD_MODE.equals(mode) || CAPACITY_MODE.equals(mode);
+        final Options options = new Options(mode != null ? Arrays.copyOfRange(args, 1, args.length) : args);
+
+        if (SERVE_MODE.equals(mode)) {
+            runServer(options);
+        } else if (COMPARE_MODE.equals(mode)) {
+            runCompare(options);
+        } else if (REPLAY_MODE.equals(mode)) {
+            runReplay(options);
+        } else if (WORKER_MODE.equals(mode)) {
+            runWorker(options);
+        } else if (options.size() < 2 && !(options.has(SCENARIO) && (loadMode || COORDINATOR_MODE.equals(mode)))) {
+            // We need at least IIIF server URL and ID as arguments; can also supply number of threads to use
+            LOGGER.error("Please supply a IIIF server and manifest ID (or, for a load run, a --scenario file)");
+            System.exit(1);
+        } else if (WARM_MODE.equals(mode)) {
+            runWarm(getURL(options.getArg(0), options.getArg(1)), options);
+        } else if (COORDINATOR_MODE.equals(mode)) {
+            runCoordinator(Arrays.asList(args).subList(1, args.length), options);
+        } else if (MATRIX_MODE.equals(mode)) {
+            runMatrix(getURL(options.getArg(0), options.getArg(1)), options);
+        } else {
+            final int dlCount = getDownloaderCount(options);
+            final Scenario scenario = loadMode ? getScenario(options) : null;
+
+            try (DownloadEngine engine = getEngine(options, loadMode ? DEFAULT_LOAD_THREAD_COUNT : dlCount);
+                    EventLog events = options.has(EVENTS) ? new EventLog(Paths.get(options.get(EVENTS, null))) : null;
+                    LiveMetrics metrics = getLiveMetrics(options, loadMode)) {
+                final Scenario expanded = scenario == null ? null : expandScenario(scenario, engine);
+                final ViewerSession session = getViewerSession(expanded == null ? getURL(options.getArg(0), options
+                        .getArg(1)) : null, dlCount, expanded, options);
+
+                if (CAPACITY_MODE.equals(mode)) {
+                    runCapacity(session, expanded, engine, metrics, options);
+                } else if (loadMode) {
+                    runLoad(session, expanded, engine, events, metrics, options);
+                } else {
+                    final DownloadReport report = new DownloadReport(events, metrics);
+                    final long startTime = System.nanoTime();
 
-        ExecutorService executor;
-        long totalTime;
+                    session.start(engine, report, startTime).join();
 
-        // We need at least IIIF server URL and ID as arguments; can also supply number of threads to use
-        if (args.length < 2) {
-            LOGGER.error("Please supply a IIIF server and manifest ID");
+                    LOGGER.debug("Generating download report");
+                    logReport(report, System.nanoTime() - startTime);
+                    logInteractions(report, session.getScript());
+                }
+
+                LOGGER.info("Connections [{}]: {}", options.get(HTTP, HttpProfile.BROWSER.toString()), engine
+                        .getTransport().getStats());
+            } catch (final InterruptedException | CompletionException details) {
+                System.err.println(details.getMessage());
+                System.exit(1);
+            }
+        }
+    }
+
+    /**
+     * Runs viewer sessions at a fixed arrival rate and logs the report of the measured sessions.
+     *
+     * @param aSession A viewer session, or the template of a scenario's sessions
+     * @param aScenario The scenario that sessions are drawn from, or null if every session is the same
+     * @param aEngine The download engine to run the sessions' downloads on
+     * @param aEvents The event log the measured sessions' requests are written to, or null
+     * @param aMetrics The live metrics all the sessions' requests are recorded in
+     * @param aOptions The load mode's options
+     * @throws InterruptedException If interrupted while waiting for the sessions to finish
+     */
+    private static void runLoad(final ViewerSession aSession, final Scenario aScenario, final DownloadEngine aEngine,
+            final EventLog aEvents, final LiveMetrics aMetrics, final Options aOptions) throws InterruptedException {
+        final LoadGenerator generator;
+        final DownloadReport report;
+
+        try {
+            generator = newLoadGenerator(aSession, aScenario, aEngine, aOptions);
+        } catch (final IllegalArgumentException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        report = generator.setEventLog(aEvents).setLiveMetrics(aMetrics).run();
+        logReport(report, TimeUnit.SECONDS.toNanos(generator.getDuration()));
+        logInteractions(report, aSession.getScript());
+    }
+
+    /**
+     * Runs a load run's sessions across worker processes and logs the merged report of their measured sessions.
+     *
+     * @param aArgs The coordinator mode's arguments, which are passed on to the workers
+     * @param aOptions The coordinator mode's options
+     */
+    private static void runCoordinator(final List<String> aArgs, final Options aOptions) {
+        final List<String> job = new ArrayList<>();
+
+        // Everything but the list of workers is the job
+        for (final String arg : aArgs) {
+            if (!arg.startsWith("--" + WORKERS + "=")) {
+                job.add(arg);
+            }
+        }
+
+        // The job is checked here so that a bad job fails before it's sent; workers read its scenario themselves
+        final Scenario scenario = getScenario(aOptions);
+
+        try {
+            newLoadGenerator(getViewerSession(scenario == null ? getURL(aOptions.getArg(0), aOptions.getArg(1)) : null,
+                    getDownloaderCount(aOptions), scenario, aOptions), scenario, null, aOptions);
+
+            final LoadCoordinator coordinator = new LoadCoordinator(getList(aOptions, WORKERS)).setProgress(aOptions
+                    .getInt(PROGRESS, DEFAULT_PROGRESS));
+            final DownloadReport report = coordinator.run(job, aOptions.getDouble(RATE, DEFAULT_RATE));
+
+            logReport(report, TimeUnit.SECONDS.toNanos(aOptions.getInt(DURATION, DEFAULT_DURATION)));
+            logInteractions(report, getScript(scenario, aOptions));
+        } catch (final IllegalArgumentException | IOException | InterruptedException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs a worker that waits for a coordinator and runs the shards of load that it's given, until it's stopped.
+     * The worker's own options choose its download engine, HTTP profile and network shaping.
+     *
+     * @param aOptions The worker mode's options
+     */
+    private static void runWorker(final Options aOptions) {
+        try (DownloadEngine engine = getEngine(aOptions, DEFAULT_LOAD_THREAD_COUNT);
+                LiveMetrics metrics = getLiveMetrics(aOptions, true)) {
+            final String host = aOptions.get(BIND, InetAddress.getLoopbackAddress().getHostAddress());
+            final LoadWorker worker = new LoadWorker(new InetSocketAddress(host, aOptions.getInt(PORT,
+                    DEFAULT_WORKER_PORT)), job -> newJob(job, engine).setLiveMetrics(metrics));
+
+            worker.run();
+        } catch (final IllegalArgumentException | IOException | InterruptedException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Creates the load generator for a worker's job, reading and expanding the job's scenario if it has one.
+     *
+     * @param aJob The job's options
+     * @param aEngine The download engine to run the sessions' downloads on
+     * @return A new load generator
+     * @throws IllegalArgumentException If the job's options are invalid
+     * @throws UncheckedIOException If the job's scenario can't be read
+     */
+    private static LoadGenerator newJob(final Options aJob, final DownloadEngine aEngine) {
+        final Scenario scenario;
+
+        try {
+            scenario = aJob.has(SCENARIO) ? Scenario.parse(Paths.get(aJob.get(SCENARIO, null))).expand(aEngine) : null;
+        } catch (final IOException details) {
+            throw new UncheckedIOException(details);
+        }
+
+        return newLoadGenerator(newViewerSession(scenario == null ? getURL(aJob.getArg(0), aJob.getArg(1)) : null,
+                aJob.size() > 2 ? Integer.parseInt(aJob.getArg(2)) : DEFAULT_DOWNLOADER_COUNT, scenario, aJob),
+                scenario, aEngine, aJob);
+    }
+
+    /**
+     * Creates the load generator configured by the options.
+     *
+     * @param aSession A viewer session, or the template of a scenario's sessions
+     * @param aScenario The scenario that sessions are drawn from, or null if every session is the same
+     * @param aEngine The download engine to run the sessions' downloads on
+     * @param aOptions The load mode's options
+     * @return A new load generator
+     * @throws IllegalArgumentException If the rate, duration or windows are invalid
+     */
+    private static LoadGenerator newLoadGenerator(final ViewerSession aSession, final Scenario aScenario,
+            final DownloadEngine aEngine, final Options aOptions) {
+        return new LoadGenerator(getSessions(aSession, aScenario), aEngine, aOptions.getDouble(RATE, DEFAULT_RATE),
+                aOptions.getInt(DURATION, DEFAULT_DURATION), aOptions.getInt(RAMP_UP, DEFAULT_RAMP_UP), aOptions
+                        .getInt(WARM_UP, DEFAULT_WARM_UP));
+    }
+
+    /**
+     * Searches for the most load that the server can sustain and logs the report of the search.
+     *
+     * @param aSession A viewer session, or the template of a scenario's sessions
+     * @param aScenario The scenario that sessions are drawn from, or null if every session is the same
+     * @param aEngine The download engine to run the sessions' downloads on
+     * @param aMetrics The live metrics the sessions' requests are recorded in
+     * @param aOptions The capacity mode's options
+     * @throws InterruptedException If interrupted while waiting for the sessions to finish
+     */
+    private static void runCapacity(final ViewerSession aSession, final Scenario aScenario,
+            final DownloadEngine aEngine, final LiveMetrics aMetrics, final Options aOptions)
+            throws InterruptedException {
+        final CapacitySearch search;
+
+        try {
+            final double start = aOptions.getDouble(START, 1);
+
+            search = new CapacitySearch(getSessions(aSession, aScenario), aEngine, LoadModel.fromName(aOptions.get(
+                    MODEL, LoadModel.RATE.name()))).setSteps(start, aOptions.getDouble(STEP, start), aOptions
+                            .getDouble(MAX, 0))
+                    .setWindows(aOptions.getInt(WINDOW, DEFAULT_WINDOW), aOptions.getInt(MAX_WINDOWS,
+                            DEFAULT_MAX_WINDOWS), aOptions.getDouble(TOLERANCE, DEFAULT_TOLERANCE) / 100)
+                    .setObjective(RequestType.fromName(aOptions.get(SLO_TYPE, RequestType.TILE.toString())), aOptions
+                            .getDouble(SLO_PERCENTILE, DEFAULT_SLO_PERCENTILE), aOptions.getDouble(SLO, DEFAULT_SLO))
+                    .setMaxErrorRate(aOptions.getDouble(MAX_ERRORS, DEFAULT_MAX_ERRORS) / 100).setLiveMetrics(
+                            aMetrics);
+        } catch (final IllegalArgumentException details) {
+            LOGGER.error(details.getMessage());
             System.exit(1);
+            return;
+        }
+
+        logCapacityReport(search.run());
+    }
+
+    /**
+     * Logs the capacity report: why the search stopped, the knee of the throughput/latency curve and the maximum
+     * sustainable load.
+     *
+     * @param aReport A capacity report
+     */
+    private static void logCapacityReport(final CapacityReport aReport) {
+        final CapacityReport.Step knee = aReport.getKnee();
+        final CapacityReport.Step max = aReport.getMaxSustainable();
+
+        LOGGER.info("Search stopped: {}", aReport.getStopReason());
+
+        if (knee != null) {
+            LOGGER.info("Knee: {}", knee);
+        }
+
+        if (max == null) {
+            LOGGER.warn("No step met the latency objective and error limit");
         } else {
-            final String dlURL = getURL(args[0], args[1]);
-            final int dlCount = getDownloaderCount(args);
-            final double height;
-            final double width;
+            LOGGER.info("Maximum sustainable load: {}", max);
+        }
+    }
 
-            Iterator<Long> iterator;
-            List<String> results;
-            String infoID;
-            String json;
+    /**
+     * Compares the event logs of a baseline and a candidate run, exiting with a distinct status if the candidate
+     * regressed.
+     *
+     * @param aOptions The compare mode's options
+     */
+    private static void runCompare(final Options aOptions) {
+        final RunComparison comparison;
+
+        if (aOptions.size() < 2) {
+            LOGGER.error("Please supply the event logs of a baseline run and a candidate run");
+            System.exit(1);
+            return;
+        }
 
-            LOGGER.debug("Getting manifest: {}", dlURL);
+        try {
+            comparison = RunComparison.compare(Paths.get(aOptions.getArg(0)), Paths.get(aOptions.getArg(1)), aOptions
+                    .getDouble(THRESHOLD, DEFAULT_THRESHOLD) / 100);
+        } catch (final IllegalArgumentException | IOException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+            return;
+        }
 
-            stopWatch.start();
-            json = IOUtils.toString(new URL(dlURL), StandardCharsets.UTF_8);
-            stopWatch.stop();
-            report.setManifestTime(stopWatch.getTime());
-            stopWatch.reset();
+        for (final RunComparison.Difference difference : comparison.getDifferences()) {
+            LOGGER.info("{}", difference);
+        }
 
-            // Not timing because we're interested in download times, not parsing times
-            results = XQueryUtils.getList(json, "?sequences?*?canvases?*?thumbnail");
+        if (comparison.isRegression()) {
+            LOGGER.error("Candidate run regressed by more than {}%", aOptions.getDouble(THRESHOLD,
+                    DEFAULT_THRESHOLD));
+            System.exit(REGRESSION_STATUS);
+        }
+    }
 
-            LOGGER.debug("Requesting {} thumbnail images", results.size());
+    /**
+     * Starts a stand-in IIIF server, configured by the options, which runs until the tool is stopped.
+     *
+     * @param aOptions The serve mode's options
+     */
+    private static void runServer(final Options aOptions) {
+        try {
+            final StandInServer server = new StandInServer(aOptions.getInt(PORT, DEFAULT_PORT), aOptions.getInt(
+                    CONNECTIONS, 0));
+            final String[] size = aOptions.get(IMAGE_SIZE, "").split("x");
 
-            stopWatch.start();
-            executor = Executors.newFixedThreadPool(dlCount);
+            server.setCanvasCount(aOptions.getInt(CANVASES, server.getCanvasCount()));
 
-            for (int thumbCount = 0; thumbCount < results.size(); thumbCount += dlCount) {
-                for (int index = 0; index < dlCount; index++) {
-                    final int tnIndex = thumbCount + index;
+            if (size.length == 2) {
+                server.setImageSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+            }
 
-                    if (tnIndex >= results.size()) {
-                        break;
-                    }
+            for (final RequestType type : RequestType.values()) {
+                final String route = type.name().toLowerCase(Locale.US).replace('_', '-');
+                final RouteSettings settings = server.getSettings(type);
 
-                    executor.execute(new DownloadThread(results.get(tnIndex), report));
+                if (aOptions.has(route + LATENCY)) {
+                    settings.setLatency(LatencyModel.parse(aOptions.get(route + LATENCY, null)));
                 }
+
+                settings.setBandwidth((long) (aOptions.getDouble(route + BANDWIDTH, 0) * 1024));
+                settings.setErrorRate(aOptions.getDouble(route + ERRORS, 0));
+                settings.setErrorStatus(aOptions.getInt(route + ERROR_STATUS, settings.getErrorStatus()));
+                settings.setBodySize(aOptions.getInt(route + SIZE, settings.getBodySize()));
+                settings.setMaxAge(aOptions.getInt(route + MAX_AGE, settings.getMaxAge()));
             }
 
-            try {
-                executor.shutdown();
-                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
-            } catch (final InterruptedException details) {
-                System.err.println(details.getMessage());
-                System.exit(1);
+            server.start();
+        } catch (final IllegalArgumentException | IOException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Warms the cache of the server behind a manifest or collection and logs the report of the run.
+     *
+     * @param aURL The URL of the manifest or collection
+     * @param aOptions The warm mode's options
+     */
+    private static void runWarm(final String aURL, final Options aOptions) {
+        final int concurrency = aOptions.getInt(CONCURRENCY, DEFAULT_CONCURRENCY);
+
+        try (DownloadEngine engine = getEngine(aOptions, concurrency);
+                LiveMetrics metrics = getLiveMetrics(aOptions, true)) {
+            final CacheWarmer warmer = new CacheWarmer(engine, concurrency, aOptions.getDouble(RATE, 0), Paths.get(
+                    aOptions.get(CHECKPOINT, DEFAULT_CHECKPOINT)), DEFAULT_TILE_SIZE);
+
+            logWarmReport(warmer.setLiveMetrics(metrics).warm(aURL));
+        } catch (final IllegalArgumentException | IOException | InterruptedException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares tile sizes, formats and qualities on the first image of a manifest and logs a table of the results.
+     *
+     * @param aURL The URL of the manifest
+     * @param aOptions The matrix mode's options
+     */
+    private static void runMatrix(final String aURL, final Options aOptions) {
+        try (DownloadEngine engine = getEngine(aOptions, HttpProfile.CONNECTIONS_PER_HOST);
+                LiveMetrics metrics = getLiveMetrics(aOptions, false)) {
+            final TileMatrix matrix = new TileMatrix(engine, getViewport(aOptions)).setRounds(aOptions.getInt(ROUNDS,
+                    DEFAULT_ROUNDS)).setLiveMetrics(metrics);
+            final List<Integer> sizes = new ArrayList<>();
+
+            for (final String size : getList(aOptions, TILE_SIZES)) {
+                sizes.add(Integer.parseInt(size));
+            }
+
+            if (!sizes.isEmpty()) {
+                matrix.setTileSizes(sizes);
+            }
+
+            if (aOptions.has(FORMATS)) {
+                matrix.setFormats(getList(aOptions, FORMATS));
+            }
+
+            if (aOptions.has(QUALITIES)) {
+                matrix.setQualities(getList(aOptions, QUALITIES));
+            }
+
+            logMatrix(matrix.run(aURL));
+        } catch (final IllegalArgumentException | IOException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Replays a recorded HAR file or access log and logs the report of the replayed requests.
+     *
+     * @param aOptions The replay mode's options
+     */
+    private static void runReplay(final Options aOptions) {
+        final String speed = aOptions.get(SPEED, "1");
+
+        if (aOptions.size() < 1) {
+            LOGGER.error("Please supply a HAR file or access log to replay");
+            System.exit(1);
+            return;
+        }
+
+        try (DownloadEngine engine = getEngine(aOptions, DEFAULT_LOAD_THREAD_COUNT);
+                EventLog events = aOptions.has(EVENTS) ? new EventLog(Paths.get(aOptions.get(EVENTS, null))) : null;
+                LiveMetrics metrics = getLiveMetrics(aOptions, true)) {
+            final TraceReplayer replayer = new TraceReplayer(engine, MAX_SPEED.equalsIgnoreCase(speed) ? 0 : Double
+                    .parseDouble(speed), aOptions.getInt(MAX_PENDING, DEFAULT_MAX_PENDING));
+            final long startTime = System.nanoTime();
+
+            if (aOptions.has(TARGET)) {
+                replayer.setTarget(aOptions.get(TARGET, null));
+            }
+
+            logReport(replayer.setEventLog(events).setLiveMetrics(metrics).replay(Paths.get(aOptions.getArg(0))),
+                    System.nanoTime() - startTime);
+            LOGGER.info("Connections [{}]: {}", aOptions.get(HTTP, HttpProfile.BROWSER.toString()), engine
+                    .getTransport().getStats());
+        } catch (final IllegalArgumentException | IOException | InterruptedException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Logs the warm report: the number, throughput and latency percentiles of the requests of each stage.
+     *
+     * @param aReport A warm report
+     */
+    private static void logWarmReport(final WarmReport aReport) {
+        for (final int stage : aReport.getStages()) {
+            final HistogramSnapshot times = aReport.getTimes(stage);
+            final double seconds = Math.max(aReport.getElapsedTime(stage), 1) / (double) TimeUnit.SECONDS.toNanos(1);
+            final String throughput = String.format(Locale.US, "%.1f req/s, %.1f KB/s", times.getCount() / seconds,
+                    aReport.getByteCount(stage) / 1024d / seconds);
+
+            LOGGER.info("{}: {} requests ({} failures), {} | {}", WarmReport.getLabel(stage), times.getCount(),
+                    aReport.getFailureCount(stage), throughput, times);
+        }
+    }
+
+    /**
+     * Logs the matrix's results as a table, with a row for each combination of tile size, quality and format.
+     *
+     * @param aCells The results of each combination
+     */
+    private static void logMatrix(final List<TileMatrix.Cell> aCells) {
+        LOGGER.info(TileMatrix.Cell.HEADER);
+
+        for (final TileMatrix.Cell cell : aCells) {
+            LOGGER.info("{}", cell);
+        }
+    }
+
+    /**
+     * Logs the download report: the latency percentiles and throughput of each phase of the viewer sessions and of
+     * each type of request (with the times of each phase of its requests), followed by the actual and perceived
+     * totals.
+     *
+     * @param aReport A download report
+     * @param aElapsedTime The wall clock time, in nanoseconds, over which the downloads were made
+     */
+    private static void logReport(final DownloadReport aReport, final long aElapsedTime) {
+        final double seconds = Math.max(aElapsedTime, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        long totalTime = 0;
+
+        for (final Phase phase : Phase.values()) {
+            final HistogramSnapshot times = aReport.getTimes(phase);
+
+            if (times.getCount() > 0) {
+                LOGGER.info("{}: {} sessions, {} | {}", phase, times.getCount(), String.format(Locale.US,
+                        "%.2f sessions/s", times.getCount() / seconds), times);
             }
+        }
 
-            // We also want to load the initial tiles for the image that OSD will load
-            infoID = XQueryUtils.getValue(json, "?sequences?*?canvases?1?images?1?resource?item?1?service?('@id')");
-            json = IOUtils.toString(new URL(infoID + "/info.json"), StandardCharsets.UTF_8);
-            width = Double.parseDouble(XQueryUtils.getValue(json, "?width"));
-            height = Double.parseDouble(XQueryUtils.getValue(json, "?height"));
-            infoID = infoID.substring(infoID.lastIndexOf('/') + 1);
-            results = ImageUtils.getTilePaths(args[0], infoID, DEFAULT_TILE_SIZE, width, height);
+        if (aReport.getFailedSessionCount() > 0) {
+            LOGGER.info("Failed sessions: {}", aReport.getFailedSessionCount());
+        }
 
-            LOGGER.debug("Requesting {} tile images from: {}", OSD_INITIAL_TILE_COUNT, infoID);
+        for (final RequestType type : RequestType.values()) {
+            final HistogramSnapshot times = aReport.getTimes(type);
+            final long errors = aReport.getErrorCount(type);
 
-            // We just want the ones that OpenSeadragon loads first, not all of them
-            results = results.subList(0, OSD_INITIAL_TILE_COUNT);
-            executor = Executors.newFixedThreadPool(OSD_INITIAL_TILE_COUNT);
+            if (times.getCount() > 0 || errors > 0 || aReport.getCacheCount(type, CacheOutcome.HIT) > 0) {
+                final String throughput = String.format(Locale.US, "%.1f req/s, %.1f KB/s", times.getCount() / seconds,
+                        aReport.getByteCount(type) / 1024d / seconds);
 
-            for (int index = 0; index < OSD_INITIAL_TILE_COUNT; index++) {
-                executor.execute(new DownloadThread(results.get(index), report));
+                LOGGER.info("{}: {} requests ({} errors), {} | {}", type, times.getCount(), errors, throughput, times);
+                logRequestPhases(aReport, type);
+                logCache(aReport, type);
             }
 
+            totalTime += TimeUnit.MICROSECONDS.toMillis(times.getSum());
+        }
+
+        // The actual time is longer than perceived time because our URL requests are threaded
+        LOGGER.info("Total actual time: {} secs ({} ms)", TimeUnit.SECONDS.convert(totalTime,
+                TimeUnit.MILLISECONDS), totalTime);
+
+        totalTime = TimeUnit.NANOSECONDS.toMillis(aElapsedTime);
+        LOGGER.info("Total perceived time: {} secs ({} ms)", TimeUnit.SECONDS.convert(totalTime,
+                TimeUnit.MILLISECONDS), totalTime);
+    }
+
+    /**
+     * Logs the times to a sharp image after each of the viewer script's interactions.
+     *
+     * @param aReport A download report
+     * @param aScript The viewer script that the sessions played
+     */
+    private static void logInteractions(final DownloadReport aReport, final ViewerScript aScript) {
+        for (final int interaction : aReport.getInteractions()) {
+            final HistogramSnapshot times = aReport.getInteractionTimes(interaction);
+
+            LOGGER.info("Interaction {} ({}) to sharp image: {} sessions | {}", interaction, aScript.getSteps().get(
+                    interaction - 1), times.getCount(), times);
+        }
+    }
+
+    /**
+     * Logs the times of each phase of the supplied type of request, and the effective rate of its transfers.
+     *
+     * @param aReport A download report
+     * @param aType A type of request
+     */
+    private static void logRequestPhases(final DownloadReport aReport, final RequestType aType) {
+        for (final RequestPhase phase : RequestPhase.values()) {
+            final HistogramSnapshot times = aReport.getTimes(aType, phase);
+
+            if (times.getCount() > 0) {
+                LOGGER.info("  {} {}: {} | {}", aType, phase, times.getCount(), times);
+            }
+        }
+
+        if (aReport.getTransferRate(aType) > 0) {
+            LOGGER.info("  {} effective transfer rate: {}", aType, String.format(Locale.US, "%.1f KB/s", aReport
+                    .getTransferRate(aType) / 1024));
+        }
+    }
+
+    /**
+     * Logs how the sessions' browser caches answered the supplied type of request, if they had caches, and the
+     * bytes that they saved.
+     *
+     * @param aReport A download report
+     * @param aType A type of request
+     */
+    private static void logCache(final DownloadReport aReport, final RequestType aType) {
+        final StringBuilder outcomes = new StringBuilder();
+
+        long total = 0;
+
+        for (final CacheOutcome outcome : CacheOutcome.values()) {
+            total += aReport.getCacheCount(aType, outcome);
+        }
+
+        if (total == 0) {
+            return;
+        }
+
+        for (final CacheOutcome outcome : CacheOutcome.values()) {
+            final long count = aReport.getCacheCount(aType, outcome);
+
+            outcomes.append(outcomes.length() == 0 ? "" : ", ").append(String.format(Locale.US, "%d %s (%.1f%%)",
+                    count, outcome, count * 100d / total));
+        }
+
+        LOGGER.info("  {} cache: {} | {} saved", aType, outcomes, String.format(Locale.US, "%.1f KB", aReport
+                .getBytesSaved(aType) / 1024d));
+    }
+
+    /**
+     * Creates the live metrics configured by the options, which log the run's progress as it goes and, if the
+     * options ask for it, are served so they can be scraped. A short run only gets them if it asks for them.
+     *
+     * @param aOptions The command line options
+     * @param aLongRunning Whether the run is long enough that its progress is logged by default
+     * @return New live metrics, or null if the run doesn't need them
+     */
+    private static LiveMetrics getLiveMetrics(final Options aOptions, final boolean aLongRunning) {
+        final LiveMetrics metrics;
+
+        if (!aLongRunning && !aOptions.has(PROGRESS) && !aOptions.has(METRICS_PORT)) {
+            return null;
+        }
+
+        try {
+            metrics = new LiveMetrics(aOptions.getInt(METRICS_WINDOW, DEFAULT_METRICS_WINDOW), aOptions.getInt(
+                    PROGRESS, DEFAULT_PROGRESS));
+        } catch (final IllegalArgumentException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+            throw details;
+        }
+
+        if (aOptions.has(METRICS_PORT)) {
             try {
-                executor.shutdown();
-                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MINUTES);
-            } catch (final InterruptedException details) {
-                System.err.println(details.getMessage());
+                metrics.serve(aOptions.getInt(METRICS_PORT, 0));
+            } catch (final IOException details) {
+                LOGGER.error("Couldn't serve live metrics: {}", details.getMessage());
+                metrics.close();
                 System.exit(1);
             }
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Creates the viewer session configured by the options.
+     *
+     * @param aURL The URL of the manifest that the viewer loads, or null for the template of a scenario's sessions
+     * @param aDownloaderCount The number of thumbnails that are downloaded at the same time
+     * @param aScenario The scenario whose sessions are made from the new session, or null
+     * @param aOptions The command line options
+     * @return A new viewer session
+     */
+    private static ViewerSession getViewerSession(final String aURL, final int aDownloaderCount,
+            final Scenario aScenario, final Options aOptions) {
+        try {
+            return newViewerSession(aURL, aDownloaderCount, aScenario, aOptions);
+        } catch (final IllegalArgumentException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+            throw details;
+        }
+    }
+
+    /**
+     * Creates the viewer session configured by the options.
+     *
+     * @param aURL The URL of the manifest that the viewer loads, or null for the template of a scenario's sessions
+     * @param aDownloaderCount The number of thumbnails that are downloaded at the same time
+     * @param aScenario The scenario whose sessions are made from the new session, or null
+     * @param aOptions The command line options
+     * @return A new viewer session
+     * @throws IllegalArgumentException If the viewport, viewer script, cache or visits are invalid
+     */
+    private static ViewerSession newViewerSession(final String aURL, final int aDownloaderCount,
+            final Scenario aScenario, final Options aOptions) {
+        final ManifestCache manifests = aScenario == null ? new ManifestCache() : aScenario.newManifestCache();
+        final LatencyModel thinkTime = aScenario == null ? LatencyModel.NONE : aScenario.getThinkTime();
+
+        return new ViewerSession(aURL, aDownloaderCount, aOptions.getBoolean(VALIDATE), !aOptions.getBoolean(
+                WHOLE_MANIFEST), manifests).setViewport(getViewport(aOptions)).setScript(getScript(aScenario,
+                        aOptions)).setThinkTime(thinkTime).setInfoPrefetch(aOptions.getInt(PREFETCH_INFO, 0))
+                .setCache(getCacheProfile(aOptions)).setVisits(aOptions.getInt(VISITS, 1), aOptions.getInt(
+                        REVISIT_AFTER, 0));
+    }
+
+    /**
+     * Gets the viewer script: the scenario's, if it has one, or else the one that's configured by the options.
+     *
+     * @param aScenario A scenario, or null
+     * @param aOptions The command line options
+     * @return A viewer script
+     * @throws IllegalArgumentException If the options' viewer script can't be parsed
+     */
+    private static ViewerScript getScript(final Scenario aScenario, final Options aOptions) {
+        if (aScenario != null && aScenario.getScript() != null) {
+            return aScenario.getScript();
+        }
+
+        return ViewerScript.parse(aOptions.get(SCRIPT, ""));
+    }
+
+    /**
+     * Reads the scenario file that's named by the options.
+     *
+     * @param aOptions The command line options
+     * @return The scenario, whose collections haven't been expanded yet, or null if the options don't name one
+     */
+    private static Scenario getScenario(final Options aOptions) {
+        if (!aOptions.has(SCENARIO)) {
+            return null;
+        }
+
+        try {
+            return Scenario.parse(Paths.get(aOptions.get(SCENARIO, null)));
+        } catch (final IOException | IllegalArgumentException details) {
+            LOGGER.error("Couldn't read scenario: {}", details.getMessage());
+            System.exit(1);
+            throw new IllegalStateException(details);
+        }
+    }
+
+    /**
+     * Expands a scenario's collections into the manifests they contain.
+     *
+     * @param aScenario A scenario
+     * @param aEngine The download engine that the collections are requested on
+     * @return The expanded scenario
+     */
+    private static Scenario expandScenario(final Scenario aScenario, final DownloadEngine aEngine) {
+        try {
+            return aScenario.expand(aEngine);
+        } catch (final IOException | IllegalArgumentException details) {
+            LOGGER.error("Couldn't expand scenario: {}", details.getMessage());
+            System.exit(1);
+            throw new IllegalStateException(details);
+        }
+    }
+
+    /**
+     * Gets the sessions that a load run starts: the supplied session every time or, with a scenario, sessions drawn
+     * from the scenario and configured like the supplied session.
+     *
+     * @param aSession A viewer session, or the template of a scenario's sessions
+     * @param aScenario A scenario, or null
+     * @return The sessions of a load run
+     */
+    private static Supplier<ViewerSession> getSessions(final ViewerSession aSession, final Scenario aScenario) {
+        return aScenario == null ? () -> aSession : () -> aScenario.sample(aSession);
+    }
+
+    /**
+     * Gets the size of each session's browser cache that's configured by the options.
+     *
+     * @param aOptions The command line options
+     * @return A cache profile, which has no cache if the options don't ask for one
+     * @throws IllegalArgumentException If a cache size is negative
+     */
+    private static CacheProfile getCacheProfile(final Options aOptions) {
+        final CacheProfile cache;
+
+        if (!aOptions.has(CACHE_SIZE)) {
+            return CacheProfile.NONE;
+        }
+
+        cache = new CacheProfile((long) (aOptions.getDouble(CACHE_SIZE, 0) * BYTES_PER_MB), aOptions.has(CACHE_DIR)
+                ? Paths.get(aOptions.get(CACHE_DIR, null)) : null, (long) (aOptions.getDouble(CACHE_DISK_SIZE,
+                        DEFAULT_CACHE_DISK_SIZE) * BYTES_PER_MB));
+
+        if (cache.isEnabled()) {
+            LOGGER.info("Each session has a browser cache of {}", cache);
+        }
+
+        return cache;
+    }
+
+    /**
+     * Gets the viewport of the simulated image viewer that's configured by the options.
+     *
+     * @param aOptions The command line options
+     * @return A viewport
+     * @throws IllegalArgumentException If the viewport's size or pixel ratio is invalid
+     */
+    private static Viewport getViewport(final Options aOptions) {
+        return Viewport.parse(aOptions.get(VIEWPORT, Viewport.DEFAULT.getWidth() + "x" + Viewport.DEFAULT
+                .getHeight()), aOptions.getDouble(PIXEL_RATIO, Viewport.DEFAULT.getPixelRatio()));
+    }
+
+    /**
+     * Gets the comma separated values of an option.
+     *
+     * @param aOptions The command line options
+     * @param aName The name of an option
+     * @return The option's values, which are empty if the option wasn't supplied
+     */
+    private static List<String> getList(final Options aOptions, final String aName) {
+        final List<String> values = new ArrayList<>();
+
+        for (final String value : aOptions.get(aName, "").split(",")) {
+            if (!value.isBlank()) {
+                values.add(value.trim());
+            }
+        }
 
-            LOGGER.debug("Generating download report");
+        return values;
+    }
 
-            stopWatch.stop();
-            totalTime = report.getManifestTime();
-            iterator = report.getThumbnailTimes().iterator();
+    /**
+     * Creates the download engine selected by the options.
+     *
+     * @param aOptions The command line options
+     * @param aThreadCount The default number of threads for the thread pool engine
+     * @return A new download engine
+     */
+    private static DownloadEngine getEngine(final Options aOptions, final int aThreadCount) {
+        try {
+            final EngineType type = EngineType.fromName(aOptions.get(ENGINE, EngineType.POOL.name()));
+            final HttpProfile profile = HttpProfile.fromName(aOptions.get(HTTP, HttpProfile.BROWSER.name()));
+            final NetworkProfile network = getNetwork(aOptions);
+            final int threadCount = aOptions.getInt(THREADS, aThreadCount);
+            final DownloadEngine engine = type.newEngine(threadCount, aOptions.getInt(READER_THREADS, threadCount),
+                    profile, network);
 
-            while (iterator.hasNext()) {
-                totalTime += iterator.next().longValue();
+            if (network.isShaped()) {
+                LOGGER.info("Shaping each session's connections to a {} network", network);
             }
 
-            iterator = report.getTileTimes().iterator();
+            return engine;
+        } catch (final IllegalArgumentException | UnsupportedOperationException details) {
+            LOGGER.error(details.getMessage());
+            System.exit(1);
+            throw details;
+        }
+    }
 
-            // The actual time is longer than perceived time because our URL requests are threaded
-            LOGGER.info("Total actual time: {} secs ({} ms)", TimeUnit.SECONDS.convert(totalTime,
-                    TimeUnit.MILLISECONDS), totalTime);
+    /**
+     * Gets the network profile selected by the options, with any bandwidth or round trip time they override.
+     *
+     * @param aOptions The command line options
+     * @return A network profile
+     * @throws IllegalArgumentException If the profile is unknown or the bandwidth or round trip time is negative
+     */
+    private static NetworkProfile getNetwork(final Options aOptions) {
+        final NetworkProfile network = NetworkProfile.fromName(aOptions.get(NETWORK, NetworkProfile.NONE.getName()));
 
-            // We restarted the time after the manifest retrieval, so we need to add that to our total
-            totalTime = stopWatch.getTime() + report.getManifestTime();
-            LOGGER.info("Total perceived time: {} secs ({} ms)", TimeUnit.SECONDS.convert(totalTime,
-                    TimeUnit.MILLISECONDS), totalTime);
+        if (aOptions.has(NETWORK_BANDWIDTH) || aOptions.has(NETWORK_RTT)) {
+            return network.with(aOptions.getInt(NETWORK_BANDWIDTH, (int) network.getKbps()), aOptions.getInt(
+                    NETWORK_RTT, (int) TimeUnit.NANOSECONDS.toMillis(network.getRoundTripTime())));
         }
+
+        return network;
     }
 
-    private static String getURL(final String aServer, final String aID) {
+    /**
+     * Gets the URL of a manifest from the server's URL and the manifest's ID, or the ID itself if it's a URL.
+     *
+     * @param aServer The IIIF server's URL
+     * @param aID The manifest's ID or URL
+     * @return The manifest's URL
+     */
+    static String getURL(final String aServer, final String aID) {
+        // A full URL can be supplied instead of an ID, as collections don't follow the manifest's URL pattern
+        if (aID.startsWith("http://") || aID.startsWith("https://")) {
+            return aID;
+        }
+
         try {
             final String iiifServer = new URL(aServer).toExternalForm();
             final String iiifID = URLEncoder.encode(aID, StandardCharsets.UTF_8.name());
@@ -167,10 +1099,10 @@ public class DownloadTimer {
         }
     }
 
-    private static int getDownloaderCount(final String... args) {
-        if (args.length == 3) {
+    private static int getDownloaderCount(final Options aOptions) {
+        if (aOptions.size() == 3) {
             try {
-                return Integer.parseInt(args[2]);
+                return Integer.parseInt(aOptions.getArg(2));
             } catch (final NumberFormatException details) {
                 LOGGER.error("Third argument should be an integer for thread count");
                 System.exit(1);
@@ -0,0 +1,164 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A window of downloads that keeps up to a fixed number of downloads in flight, starting the next as soon as one
+ * finishes. This is how a browser limits the requests a single page has outstanding. Downloads are pulled from their
+ * iterator (or queue) only as they're started, so the iterator may be lazy and the queue may still be filling. No
+ * thread is blocked while waiting on the window.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class DownloadWindow {
+
+    private final DownloadEngine myEngine;
+
+    private final Source myDownloads;
+
+    private final Consumer<? super DownloadThread> myListener;
+
+    private final int myLimit;
+
+    private final CompletableFuture<Void> myCompletion;
+
+    private final AtomicInteger myActiveCount;
+
+    /* Counts requests to start more downloads so that only one thread at a time pulls from the iterator */
+    private final AtomicInteger myWorkCount;
+
+    private DownloadWindow(final DownloadEngine aEngine, final Source aDownloads, final int aLimit,
+            final Consumer<? super DownloadThread> aListener) {
+        myEngine = aEngine;
+        myDownloads = aDownloads;
+        myListener = aListener;
+        myLimit = Math.max(1, aLimit);
+        myCompletion = new CompletableFuture<>();
+        myActiveCount = new AtomicInteger();
+        myWorkCount = new AtomicInteger();
+    }
+
+    /**
+     * Downloads everything from the supplied iterator, keeping no more than the supplied number in flight at a time.
+     *
+     * @param aEngine The download engine to use
+     * @param aDownloads The downloads to make
+     * @param aLimit The maximum number of downloads in flight at a time
+     * @return A future that completes once all the downloads have finished
+     */
+    public static CompletableFuture<Void> downloadAll(final DownloadEngine aEngine,
+            final Iterator<? extends DownloadThread> aDownloads, final int aLimit) {
+        return downloadAll(aEngine, aDownloads, aLimit, download -> {
+            // Nothing to do for each download
+        });
+    }
+
+    /**
+     * Downloads everything from the supplied iterator, keeping no more than the supplied number in flight at a time.
+     *
+     * @param aEngine The download engine to use
+     * @param aDownloads The downloads to make
+     * @param aLimit The maximum number of downloads in flight at a time
+     * @param aListener A listener that's passed each download once it's been recorded
+     * @return A future that completes once all the downloads have finished
+     */
+    public static CompletableFuture<Void> downloadAll(final DownloadEngine aEngine,
+            final Iterator<? extends DownloadThread> aDownloads, final int aLimit,
+            final Consumer<? super DownloadThread> aListener) {
+        final DownloadWindow window = new DownloadWindow(aEngine, new Source() {
+
+            @Override
+            public DownloadThread poll() {
+                return aDownloads.hasNext() ? aDownloads.next() : null;
+            }
+
+            @Override
+            public boolean isDone() {
+                return !aDownloads.hasNext();
+            }
+        }, aLimit, aListener);
+
+        window.fill();
+        return window.myCompletion;
+    }
+
+    /**
+     * Downloads everything that's added to the supplied queue, keeping no more than the supplied number in flight at
+     * a time. The returned future completes once the queue has been finished and all its downloads have finished.
+     *
+     * @param aEngine The download engine to use
+     * @param aDownloads A queue of the downloads to make
+     * @param aLimit The maximum number of downloads in flight at a time
+     * @param aListener A listener that's passed each download once it's been recorded
+     * @return A future that completes once all the downloads have finished
+     */
+    public static CompletableFuture<Void> downloadAll(final DownloadEngine aEngine, final DownloadQueue aDownloads,
+            final int aLimit, final Consumer<? super DownloadThread> aListener) {
+        final DownloadWindow window = new DownloadWindow(aEngine, new Source() {
+
+            @Override
+            public DownloadThread poll() {
+                return aDownloads.poll();
+            }
+
+            @Override
+            public boolean isDone() {
+                return aDownloads.isDone();
+            }
+        }, aLimit, aListener);
+
+        aDownloads.setListener(window::fill);
+        window.fill();
+        return window.myCompletion;
+    }
+
+    /**
+     * Starts downloads until the window is full. If another thread is already filling the window, it's asked to make
+     * another pass instead; this keeps downloads that complete immediately from recursing back into this method. A
+     * queue calls this as downloads are added to it, so nothing that's added is missed.
+     */
+    private void fill() {
+        if (myWorkCount.getAndIncrement() != 0) {
+            return;
+        }
+
+        do {
+            DownloadThread next;
+
+            while (myActiveCount.get() < myLimit && (next = myDownloads.poll()) != null) {
+                myActiveCount.incrementAndGet();
+                myEngine.download(next).whenComplete((download, error) -> {
+                    if (download != null) {
+                        myListener.accept(download);
+                    }
+
+                    myActiveCount.decrementAndGet();
+                    fill();
+                });
+            }
+
+            if (myActiveCount.get() == 0 && myDownloads.isDone()) {
+                myCompletion.complete(null);
+            }
+        } while (myWorkCount.decrementAndGet() != 0);
+    }
+
+    /**
+     * Where the window's downloads come from.
+     */
+    private interface Source {
+
+        /**
+         * Gets the next download, if there's one ready to be started.
+         */
+        DownloadThread poll();
+
+        /**
+         * Returns whether there are no more downloads to come.
+         */
+        boolean isDone();
+    }
+}
@@ -0,0 +1,93 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+
+/**
+ * The types of download engine that can be used.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum EngineType {
+
+    /** Downloads are run on a fixed size pool of platform threads */
+    POOL,
+
+    /** Each download is run on its own virtual thread (needs a JDK 21 runtime) */
+    VIRTUAL,
+
+    /** Downloads are run on the JDK's non-blocking HTTP client */
+    ASYNC;
+
+    /**
+     * Creates a new download engine of this type.
+     *
+     * @param aThreadCount The number of threads for an engine that uses a fixed size thread pool
+     * @param aProfile The HTTP profile for the engine's connections
+     * @return A new download engine
+     * @throws UnsupportedOperationException If the engine or profile isn't supported by the current runtime
+     */
+    public DownloadEngine newEngine(final int aThreadCount, final HttpProfile aProfile) {
+        return newEngine(aThreadCount, aProfile, NetworkProfile.NONE);
+    }
+
+    /**
+     * Creates a new download engine of this type, whose connections are shaped to the supplied network.
+     *
+     * @param aThreadCount The number of threads for an engine that uses a fixed size thread pool
+     * @param aProfile The HTTP profile for the engine's connections
+     * @param aNetwork The network that the engine's connections are shaped to
+     * @return A new download engine
+     * @throws UnsupportedOperationException If the engine or profile isn't supported by the current runtime, or
+     *         can't shape its connections to the network
+     */
+    public DownloadEngine newEngine(final int aThreadCount, final HttpProfile aProfile,
+            final NetworkProfile aNetwork) {
+        return newEngine(aThreadCount, aThreadCount, aProfile, aNetwork);
+    }
+
+    /**
+     * Creates a new download engine of this type, whose connections are shaped to the supplied network and whose
+     * streamed requests are read on a fixed number of threads.
+     *
+     * @param aThreadCount The number of threads for an engine that uses a fixed size thread pool
+     * @param aReaderCount The number of threads on which streamed requests are read, for an engine that doesn't
+     *        read them on virtual threads
+     * @param aProfile The HTTP profile for the engine's connections
+     * @param aNetwork The network that the engine's connections are shaped to
+     * @return A new download engine
+     * @throws UnsupportedOperationException If the engine or profile isn't supported by the current runtime, or
+     *         can't shape its connections to the network
+     * @throws IllegalArgumentException If the number of reader threads isn't positive
+     */
+    public DownloadEngine newEngine(final int aThreadCount, final int aReaderCount, final HttpProfile aProfile,
+            final NetworkProfile aNetwork) {
+        if (aReaderCount < 1) {
+            throw new IllegalArgumentException("Reader threads must be positive: " + aReaderCount);
+        }
+
+        switch (this) {
+            case VIRTUAL:
+                return new VirtualThreadEngine(aProfile.newTransport(aNetwork));
+            case ASYNC:
+                HttpProfile.checkUnshaped(aNetwork);
+                return new AsyncEngine(new JdkTransport(aProfile), aReaderCount);
+            default:
+                return new ThreadPoolEngine(aThreadCount, aReaderCount, aProfile.newTransport(aNetwork));
+        }
+    }
+
+    /**
+     * Gets the engine type with the supplied name.
+     *
+     * @param aName The name of an engine type (e.g., <code>pool</code>, <code>virtual</code>, or <code>async</code>)
+     * @return The engine type with the supplied name
+     * @throws IllegalArgumentException If there isn't an engine type with the supplied name
+     */
+    public static EngineType fromName(final String aName) {
+        try {
+            return valueOf(aName.toUpperCase(Locale.US));
+        } catch (final IllegalArgumentException details) {
+            throw new IllegalArgumentException("Unknown download engine: " + aName, details);
+        }
+    }
+}
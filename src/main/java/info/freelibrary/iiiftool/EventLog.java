@@ -0,0 +1,280 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A log of every request, written as newline-delimited JSON so that runs can be compared or analyzed afterwards. Each
+ * line records a request's time, session, type, URL, status, byte count, elapsed time and the times of its phases
+ * (all times are in microseconds); requests that got no response record an error instead of a status.
+ * <p>
+ * Events are handed to a background writer through a bounded queue, so download threads never wait on the disk. If
+ * the writer falls so far behind that the queue fills, events are dropped and the number dropped is logged.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class EventLog implements AutoCloseable {
+
+    /** The names of an event's fields */
+    static final String TIME = "time";
+
+    static final String SESSION = "session";
+
+    static final String TYPE = "type";
+
+    static final String URL = "url";
+
+    static final String STATUS = "status";
+
+    static final String BYTES = "bytes";
+
+    static final String ELAPSED = "elapsed";
+
+    static final String ERROR = "error";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLog.class);
+
+    private static final int QUEUE_SIZE = 64 * 1024;
+
+    /* The most events the writer takes from the queue at a time */
+    private static final int BATCH_SIZE = 1024;
+
+    private final BlockingQueue<Event> myQueue;
+
+    private final Writer myWriter;
+
+    private final Thread myThread;
+
+    private final LongAdder myDroppedCount;
+
+    private final Path myPath;
+
+    private volatile boolean myLogIsClosed;
+
+    private IOException myError;
+
+    /**
+     * Creates a new event log, replacing the file at the supplied path if there is one.
+     *
+     * @param aPath The file that events are written to
+     * @throws IOException If the file can't be created
+     */
+    public EventLog(final Path aPath) throws IOException {
+        myPath = aPath;
+        myQueue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        myWriter = Files.newBufferedWriter(aPath, StandardCharsets.UTF_8);
+        myDroppedCount = new LongAdder();
+        myThread = new Thread(this::write, "event-log");
+        myThread.setDaemon(true);
+        myThread.start();
+    }
+
+    /**
+     * Adds a completed request to the log.
+     *
+     * @param aSession The ID of the viewer session that made the request
+     * @param aType The type of request that was made
+     * @param aResult The result of the request
+     */
+    public void add(final long aSession, final RequestType aType, final HttpResult aResult) {
+        final long[] phases = new long[RequestPhase.values().length];
+
+        for (final RequestPhase phase : RequestPhase.values()) {
+            phases[phase.ordinal()] = aResult.getPhaseTime(phase);
+        }
+
+        offer(new Event(aSession, aType, aResult.getURL(), aResult.getStatus(), aResult.getByteCount(), aResult
+                .getElapsedTime(), phases, null));
+    }
+
+    /**
+     * Adds a request that got no response to the log.
+     *
+     * @param aSession The ID of the viewer session that made the request
+     * @param aType The type of request that was made
+     * @param aURL The URL that was requested
+     * @param aError The cause of the failure
+     */
+    public void addError(final long aSession, final RequestType aType, final String aURL, final Throwable aError) {
+        final Throwable cause = aError instanceof CompletionException && aError.getCause() != null ? aError
+                .getCause() : aError;
+
+        offer(new Event(aSession, aType, aURL, 0, 0, -1, null, String.valueOf(cause)));
+    }
+
+    /**
+     * Gets the number of events that were dropped because the writer couldn't keep up.
+     *
+     * @return The number of dropped events
+     */
+    public long getDroppedCount() {
+        return myDroppedCount.sum();
+    }
+
+    /**
+     * Writes the events that are still queued and closes the log.
+     *
+     * @throws IOException If the events couldn't be written
+     */
+    @Override
+    public void close() throws IOException {
+        myLogIsClosed = true;
+
+        try {
+            myThread.join();
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        }
+
+        myWriter.close();
+
+        if (getDroppedCount() > 0) {
+            LOGGER.warn("Event log couldn't keep up; {} events were dropped from: {}", getDroppedCount(), myPath);
+        }
+
+        if (myError != null) {
+            throw myError;
+        }
+    }
+
+    private void offer(final Event aEvent) {
+        if (myLogIsClosed || !myQueue.offer(aEvent)) {
+            myDroppedCount.increment();
+        }
+    }
+
+    /**
+     * Writes events as they're queued until the log is closed and the queue is empty.
+     */
+    private void write() {
+        final List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        final StringBuilder line = new StringBuilder(512);
+
+        try {
+            while (!myLogIsClosed || !myQueue.isEmpty()) {
+                final Event event = myQueue.poll(100, TimeUnit.MILLISECONDS);
+
+                if (event != null) {
+                    batch.add(event);
+                    myQueue.drainTo(batch, BATCH_SIZE - 1);
+
+                    for (final Event queued : batch) {
+                        line.setLength(0);
+                        myWriter.write(queued.toJSON(line).append('\n').toString());
+                    }
+
+                    batch.clear();
+                } else {
+                    // The queue is idle, so what's been written so far can be made visible
+                    myWriter.flush();
+                }
+            }
+        } catch (final IOException details) {
+            LOGGER.error("Couldn't write event log {}: {}", myPath, details.getMessage());
+            myError = details;
+            myLogIsClosed = true;
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Appends a JSON string, escaping the characters that JSON requires.
+     */
+    private static void appendString(final StringBuilder aBuilder, final String aString) {
+        aBuilder.append('"');
+
+        for (int index = 0; index < aString.length(); index++) {
+            final char character = aString.charAt(index);
+
+            if (character == '"' || character == '\\') {
+                aBuilder.append('\\').append(character);
+            } else if (character < 0x20) {
+                aBuilder.append(String.format("\\u%04x", (int) character));
+            } else {
+                aBuilder.append(character);
+            }
+        }
+
+        aBuilder.append('"');
+    }
+
+    /**
+     * A request that's waiting to be written.
+     */
+    private static final class Event {
+
+        private final long myTime;
+
+        private final long mySession;
+
+        private final RequestType myType;
+
+        private final String myURL;
+
+        private final int myStatus;
+
+        private final long myByteCount;
+
+        private final long myElapsedTime;
+
+        private final long[] myPhaseTimes;
+
+        private final String myError;
+
+        private Event(final long aSession, final RequestType aType, final String aURL, final int aStatus,
+                final long aByteCount, final long aElapsedTime, final long[] aPhaseTimes, final String aError) {
+            myTime = System.currentTimeMillis();
+            mySession = aSession;
+            myType = aType;
+            myURL = aURL;
+            myStatus = aStatus;
+            myByteCount = aByteCount;
+            myElapsedTime = aElapsedTime;
+            myPhaseTimes = aPhaseTimes;
+            myError = aError;
+        }
+
+        private StringBuilder toJSON(final StringBuilder aBuilder) {
+            aBuilder.append("{\"").append(TIME).append("\":").append(myTime).append(",\"").append(SESSION).append(
+                    "\":").append(mySession).append(",\"").append(TYPE).append("\":");
+            appendString(aBuilder, myType.toString());
+            aBuilder.append(",\"").append(URL).append("\":");
+            appendString(aBuilder, myURL == null ? "" : myURL);
+
+            if (myError != null) {
+                aBuilder.append(",\"").append(ERROR).append("\":");
+                appendString(aBuilder, myError);
+                return aBuilder.append('}');
+            }
+
+            aBuilder.append(",\"").append(STATUS).append("\":").append(myStatus).append(",\"").append(BYTES).append(
+                    "\":").append(myByteCount).append(",\"").append(ELAPSED).append("\":").append(TimeUnit.NANOSECONDS
+                            .toMicros(myElapsedTime));
+
+            for (final RequestPhase phase : RequestPhase.values()) {
+                final long nanos = myPhaseTimes[phase.ordinal()];
+
+                if (nanos >= 0) {
+                    aBuilder.append(",\"").append(phase).append("\":").append(TimeUnit.NANOSECONDS.toMicros(nanos));
+                }
+            }
+
+            return aBuilder.append('}');
+        }
+    }
+}
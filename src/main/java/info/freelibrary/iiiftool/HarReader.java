@@ -0,0 +1,134 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A reader of the requests in a HAR (HTTP Archive) file, as exported by a browser's developer tools. The file is
+ * parsed as it's read and only the fields of each entry that are needed are kept, so response bodies that were
+ * saved in the archive are skipped rather than read into memory. Each of the archive's pages is a session.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class HarReader implements TraceReader {
+
+    /* The session of entries that don't belong to a page */
+    private static final String NO_PAGE = "har";
+
+    private final JsonReader myReader;
+
+    private boolean myEntriesAreFound;
+
+    /**
+     * Creates a new HAR reader.
+     *
+     * @param aReader The source of the HAR file
+     */
+    HarReader(final Reader aReader) {
+        myReader = new JsonReader(aReader);
+    }
+
+    @Override
+    public TraceEntry next() throws IOException {
+        JsonReader.Token token;
+
+        if (!myEntriesAreFound) {
+            findEntries();
+            myEntriesAreFound = true;
+        }
+
+        while ((token = myReader.next()) == JsonReader.Token.BEGIN_OBJECT) {
+            final TraceEntry entry = readEntry();
+
+            if (entry != null) {
+                return entry;
+            }
+        }
+
+        if (token != JsonReader.Token.END_ARRAY) {
+            throw new IOException("Expected a HAR entry but found: " + token);
+        }
+
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        myReader.close();
+    }
+
+    /**
+     * Reads up to the start of the archive's <code>log.entries</code> array.
+     */
+    private void findEntries() throws IOException {
+        if (myReader.next() != JsonReader.Token.BEGIN_OBJECT || !findName("log") || myReader
+                .next() != JsonReader.Token.BEGIN_OBJECT || !findName("entries") || myReader
+                        .next() != JsonReader.Token.BEGIN_ARRAY) {
+            throw new IOException("HAR file has no log.entries");
+        }
+    }
+
+    /**
+     * Skips the members of the current object until the one with the supplied name is found.
+     */
+    private boolean findName(final String aName) throws IOException {
+        for (JsonReader.Token token = myReader.next(); token == JsonReader.Token.NAME; token = myReader.next()) {
+            if (myReader.textEquals(aName)) {
+                return true;
+            }
+
+            myReader.skipValue(myReader.next());
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads an entry, returning null if it's not a GET request.
+     */
+    private TraceEntry readEntry() throws IOException {
+        String time = null;
+        String page = NO_PAGE;
+        String method = null;
+        String url = null;
+
+        for (JsonReader.Token token = myReader.next(); token == JsonReader.Token.NAME; token = myReader.next()) {
+            if (myReader.textEquals("startedDateTime")) {
+                time = readString();
+            } else if (myReader.textEquals("pageref")) {
+                page = readString();
+            } else if (myReader.textEquals("request") && myReader.next() == JsonReader.Token.BEGIN_OBJECT) {
+                for (token = myReader.next(); token == JsonReader.Token.NAME; token = myReader.next()) {
+                    if (myReader.textEquals("method")) {
+                        method = readString();
+                    } else if (myReader.textEquals("url")) {
+                        url = readString();
+                    } else {
+                        myReader.skipValue(myReader.next());
+                    }
+                }
+            } else {
+                myReader.skipValue(myReader.next());
+            }
+        }
+
+        if (time == null || url == null || !"GET".equals(method)) {
+            return null;
+        }
+
+        try {
+            return new TraceEntry(OffsetDateTime.parse(time).toInstant().toEpochMilli(), page, url);
+        } catch (final DateTimeParseException details) {
+            throw new IOException("HAR entry has an invalid startedDateTime: " + time, details);
+        }
+    }
+
+    private String readString() throws IOException {
+        final JsonReader.Token token = myReader.next();
+
+        myReader.skipValue(token);
+        return token == JsonReader.Token.STRING ? myReader.getText() : null;
+    }
+}
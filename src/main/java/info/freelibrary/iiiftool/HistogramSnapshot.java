@@ -0,0 +1,266 @@
+package info.freelibrary.iiiftool;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * An immutable, point-in-time copy of a {@link LatencyHistogram}. Values are expressed in microseconds. A snapshot
+ * can be written in a compact binary form, which only includes the buckets that have values, so that snapshots can be
+ * sent between processes and merged.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class HistogramSnapshot {
+
+    /* The bits of each byte of a variable-length number that hold its value, and the bit that says more follow */
+    private static final int VARINT_BITS = 7;
+
+    private static final int VARINT_MASK = (1 << VARINT_BITS) - 1;
+
+    private static final int VARINT_MORE = 1 << VARINT_BITS;
+
+    /* The percentiles that are included in a snapshot's summary */
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private static final double MICROS_PER_MILLI = 1000d;
+
+    private final long[] myCounts;
+
+    private final long myCount;
+
+    private final long mySum;
+
+    private final long myMax;
+
+    /**
+     * Creates a new histogram snapshot.
+     *
+     * @param aCounts The bucket counts, which become owned by the snapshot
+     * @param aSum The sum of all the recorded values
+     * @param aMax The largest recorded value
+     */
+    HistogramSnapshot(final long[] aCounts, final long aSum, final long aMax) {
+        long count = 0;
+
+        for (final long bucketCount : aCounts) {
+            count += bucketCount;
+        }
+
+        myCounts = aCounts;
+        myCount = count;
+        mySum = aSum;
+        myMax = aMax;
+    }
+
+    /**
+     * Creates an empty histogram snapshot.
+     */
+    public HistogramSnapshot() {
+        this(new long[LatencyHistogram.BUCKET_COUNT], 0, 0);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return The number of recorded values
+     */
+    public long getCount() {
+        return myCount;
+    }
+
+    /**
+     * Gets the sum of the recorded values.
+     *
+     * @return The sum of the recorded values in microseconds
+     */
+    public long getSum() {
+        return mySum;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The largest recorded value in microseconds
+     */
+    public long getMax() {
+        return myMax;
+    }
+
+    /**
+     * Gets the mean of the recorded values.
+     *
+     * @return The mean of the recorded values in microseconds
+     */
+    public double getMean() {
+        return myCount == 0 ? 0 : (double) mySum / myCount;
+    }
+
+    /**
+     * Gets the value at the supplied percentile. The value returned is the highest value that's equivalent (within the
+     * histogram's precision) to the value at that percentile.
+     *
+     * @param aPercentile A percentile between zero and one hundred
+     * @return The value at the supplied percentile in microseconds
+     */
+    public long getValueAtPercentile(final double aPercentile) {
+        final long target;
+
+        long total = 0;
+
+        if (myCount == 0) {
+            return 0;
+        }
+
+        target = Math.max(1, (long) Math.ceil(Math.min(aPercentile, 100d) / 100d * myCount));
+
+        for (int index = 0; index < myCounts.length; index++) {
+            total += myCounts[index];
+
+            if (total >= target) {
+                return Math.min(LatencyHistogram.highestValueAt(index), myMax);
+            }
+        }
+
+        return myMax;
+    }
+
+    /**
+     * Returns a new snapshot that combines this snapshot's values with those of the supplied snapshot.
+     *
+     * @param aSnapshot A snapshot to merge with this one
+     * @return A new, merged snapshot
+     */
+    public HistogramSnapshot merge(final HistogramSnapshot aSnapshot) {
+        final long[] counts = myCounts.clone();
+
+        for (int index = 0; index < counts.length; index++) {
+            counts[index] += aSnapshot.myCounts[index];
+        }
+
+        return new HistogramSnapshot(counts, mySum + aSnapshot.mySum, Math.max(myMax, aSnapshot.myMax));
+    }
+
+    /**
+     * Gets a copy of the snapshot's bucket counts.
+     *
+     * @return The snapshot's bucket counts
+     */
+    long[] getCounts() {
+        return myCounts.clone();
+    }
+
+    /**
+     * Writes the snapshot in its compact form: the number of buckets with values, then each of those buckets' gap from
+     * the one before it and its count, then the sum and the maximum, all as variable-length numbers.
+     *
+     * @param aOutput The output to write to
+     * @throws IOException If the snapshot can't be written
+     */
+    void write(final DataOutput aOutput) throws IOException {
+        int bucketCount = 0;
+        int previous = 0;
+
+        for (final long count : myCounts) {
+            bucketCount += count == 0 ? 0 : 1;
+        }
+
+        writeNumber(aOutput, bucketCount);
+
+        for (int index = 0; index < myCounts.length; index++) {
+            if (myCounts[index] != 0) {
+                writeNumber(aOutput, index - previous);
+                writeNumber(aOutput, myCounts[index]);
+                previous = index;
+            }
+        }
+
+        writeNumber(aOutput, mySum);
+        writeNumber(aOutput, myMax);
+    }
+
+    /**
+     * Reads a snapshot that was written in its compact form.
+     *
+     * @param aInput The input to read from
+     * @return The snapshot that was read
+     * @throws IOException If the snapshot can't be read or isn't valid
+     */
+    static HistogramSnapshot read(final DataInput aInput) throws IOException {
+        final long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        final long bucketCount = readNumber(aInput);
+
+        int index = 0;
+
+        if (bucketCount > counts.length) {
+            throw new IOException("Histogram has too many buckets: " + bucketCount);
+        }
+
+        for (long bucket = 0; bucket < bucketCount; bucket++) {
+            index += (int) Math.min(readNumber(aInput), counts.length);
+
+            if (index >= counts.length) {
+                throw new IOException("Histogram bucket is out of range: " + index);
+            }
+
+            counts[index] = readNumber(aInput);
+        }
+
+        return new HistogramSnapshot(counts, readNumber(aInput), readNumber(aInput));
+    }
+
+    /**
+     * Writes a non-negative number seven bits at a time, lowest bits first, so that small numbers take a single byte.
+     */
+    private static void writeNumber(final DataOutput aOutput, final long aNumber) throws IOException {
+        long number = aNumber;
+
+        while ((number & ~VARINT_MASK) != 0) {
+            aOutput.writeByte((int) (number & VARINT_MASK) | VARINT_MORE);
+            number >>>= VARINT_BITS;
+        }
+
+        aOutput.writeByte((int) number);
+    }
+
+    private static long readNumber(final DataInput aInput) throws IOException {
+        long number = 0;
+
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+            final int value = aInput.readUnsignedByte();
+
+            number |= (long) (value & VARINT_MASK) << shift;
+
+            if ((value & VARINT_MORE) == 0) {
+                return number;
+            }
+        }
+
+        throw new IOException("Histogram has a malformed number");
+    }
+
+    /**
+     * Returns a one line summary of the recorded latencies, in milliseconds.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+
+        for (final double percentile : PERCENTILES) {
+            builder.append(String.format(Locale.US, "p%s=%.1f ms, ", format(percentile), toMillis(
+                    getValueAtPercentile(percentile))));
+        }
+
+        return builder.append(String.format(Locale.US, "max=%.1f ms", toMillis(myMax))).toString();
+    }
+
+    static String format(final double aPercentile) {
+        return aPercentile == Math.rint(aPercentile) ? Long.toString((long) aPercentile) : Double.toString(
+                aPercentile);
+    }
+
+    private static double toMillis(final long aMicros) {
+        return aMicros / MICROS_PER_MILLI;
+    }
+}
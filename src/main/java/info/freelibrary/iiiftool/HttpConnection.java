@@ -0,0 +1,529 @@
+package info.freelibrary.iiiftool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A single HTTP/1.1 connection, over which requests can be made one after another. A connection can be shaped to a
+ * slower network, in which case its handshakes and requests take the network's round trip time and its response
+ * bodies are read no faster than the network's bandwidth.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class HttpConnection implements Closeable {
+
+    private static final String HTTPS = "https";
+
+    private static final String CRLF = "\r\n";
+
+    private static final String USER_AGENT = "iiif-tool";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /* Each thread reuses the same buffer for reading the bodies it doesn't keep */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /* The indices of the connection's setup times */
+    private static final int DNS = 0;
+
+    private static final int CONNECT = 1;
+
+    private static final int TLS = 2;
+
+    private final Socket mySocket;
+
+    private final InputStream myInStream;
+
+    private final OutputStream myOutStream;
+
+    /* How long each phase of setting up the connection took, or -1 for phases that didn't happen */
+    private final long[] mySetupTimes;
+
+    /* The link that the connection's reads are shaped to, or null if they aren't shaped */
+    private final NetworkShaper myShaper;
+
+    private boolean myConnectionIsReusable;
+
+    private boolean myResponseHasStarted;
+
+    private long myLastUseTime;
+
+    /* The connection's setup is reported as part of the first request that's made on it */
+    private boolean mySetupIsReported;
+
+    private HttpConnection(final Socket aSocket, final long[] aSetupTimes, final NetworkShaper aShaper)
+            throws IOException {
+        mySocket = aSocket;
+        mySetupTimes = aSetupTimes;
+        myShaper = aShaper;
+        myInStream = new BufferedInputStream(aSocket.getInputStream(), BUFFER_SIZE);
+        myOutStream = new BufferedOutputStream(aSocket.getOutputStream());
+        myLastUseTime = System.nanoTime();
+    }
+
+    /**
+     * Opens a new connection to the host of the supplied URL.
+     *
+     * @param aURL The URL whose host should be connected to
+     * @param aConnectTimeout The number of milliseconds to wait for the connection to be made
+     * @param aReadTimeout The number of milliseconds to wait for a read to complete
+     * @param aShaper The link that the connection is shaped to, or null if it isn't shaped
+     * @return A new connection
+     * @throws IOException If the connection can't be made
+     */
+    static HttpConnection open(final URL aURL, final int aConnectTimeout, final int aReadTimeout,
+            final NetworkShaper aShaper) throws IOException {
+        final String host = aURL.getHost();
+        final int port = aURL.getPort() == -1 ? aURL.getDefaultPort() : aURL.getPort();
+        final long dnsTime = System.nanoTime();
+        final InetAddress address = InetAddress.getByName(host);
+        final long[] setupTimes = { System.nanoTime() - dnsTime, -1, -1 };
+        final Socket socket = new Socket();
+
+        try {
+            final long connectTime = System.nanoTime();
+
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address, port), aConnectTimeout);
+            socket.setSoTimeout(aReadTimeout);
+
+            if (aShaper != null) {
+                aShaper.roundTrip();
+            }
+
+            setupTimes[CONNECT] = System.nanoTime() - connectTime;
+
+            if (HTTPS.equalsIgnoreCase(aURL.getProtocol())) {
+                final SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                final SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, host, port, true);
+                final SSLParameters parameters = sslSocket.getSSLParameters();
+
+                // Plain SSL sockets don't check that the certificate matches the host unless asked
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+
+                final long handshakeTime = System.nanoTime();
+
+                sslSocket.startHandshake();
+
+                // A TLS 1.3 handshake takes one round trip
+                if (aShaper != null) {
+                    aShaper.roundTrip();
+                }
+
+                setupTimes[TLS] = System.nanoTime() - handshakeTime;
+
+                return new HttpConnection(sslSocket, setupTimes, aShaper);
+            }
+
+            return new HttpConnection(socket, setupTimes, aShaper);
+        } catch (final IOException details) {
+            socket.close();
+            throw details;
+        }
+    }
+
+    /**
+     * Makes a GET request on this connection and reads the whole response.
+     *
+     * @param aURL The URL to request
+     * @param aKeepAlive Whether the connection should be kept open for another request
+     * @param aHeaders Extra request headers, keyed by their names
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return The result of the request
+     * @throws IOException If the request fails
+     */
+    HttpResult exchange(final URL aURL, final boolean aKeepAlive, final Map<String, String> aHeaders,
+            final boolean aBodyKept) throws IOException {
+        return exchange(aURL, aKeepAlive, aHeaders, aBodyKept, null);
+    }
+
+    /**
+     * Makes a GET request on this connection, handing the body of a successful response to the supplied reader.
+     *
+     * @param aURL The URL to request
+     * @param aKeepAlive Whether the connection should be kept open for another request
+     * @param aHeaders Extra request headers, keyed by their names
+     * @param aReader A reader for the body of a successful response
+     * @return The result of the request, without its body
+     * @throws IOException If the request fails or the reader can't read the body
+     */
+    HttpResult exchange(final URL aURL, final boolean aKeepAlive, final Map<String, String> aHeaders,
+            final HttpTransport.BodyReader aReader) throws IOException {
+        return exchange(aURL, aKeepAlive, aHeaders, false, aReader);
+    }
+
+    private HttpResult exchange(final URL aURL, final boolean aKeepAlive, final Map<String, String> aHeaders,
+            final boolean aBodyKept, final HttpTransport.BodyReader aReader) throws IOException {
+        final Map<String, List<String>> headers = new HashMap<>();
+        final boolean http11;
+        final String connection;
+        final Body body;
+
+        final long startTime = System.nanoTime();
+        final HttpResult result;
+
+        String statusLine;
+        int status;
+        byte[] bytes = null;
+        long firstByteTime = 0;
+
+        myConnectionIsReusable = false;
+        myResponseHasStarted = false;
+
+        // The request takes half a round trip to reach the server and the response half a round trip to come back
+        if (myShaper != null) {
+            myShaper.halfTrip();
+        }
+
+        writeRequest(aURL, aKeepAlive, aHeaders);
+
+        // Informational responses (e.g. 100 Continue) are followed by the real response
+        do {
+            headers.clear();
+            statusLine = readLine();
+
+            if (!myResponseHasStarted) {
+                if (myShaper != null) {
+                    myShaper.halfTrip();
+                }
+
+                firstByteTime = System.nanoTime();
+                myResponseHasStarted = true;
+            }
+
+            status = parseStatus(statusLine);
+
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                final int index = line.indexOf(':');
+
+                if (index > 0) {
+                    headers.computeIfAbsent(line.substring(0, index).trim().toLowerCase(Locale.US),
+                            key -> new ArrayList<>(1)).add(line.substring(index + 1).trim());
+                }
+            }
+        } while (status >= 100 && status < 200);
+
+        http11 = statusLine.startsWith("HTTP/1.1");
+        connection = getHeader(headers, "connection");
+        body = newBody(status, headers);
+
+        if (aReader != null && status == HttpURLConnection.HTTP_OK) {
+            aReader.read(body, headers);
+        } else if (aBodyKept) {
+            bytes = body.readAll();
+        }
+
+        body.discard();
+
+        // The body must have had a known length for another response to follow it on the same connection
+        myConnectionIsReusable = aKeepAlive && myConnectionIsReusable && (http11 ? !"close".equalsIgnoreCase(
+                connection) : "keep-alive".equalsIgnoreCase(connection));
+        myLastUseTime = System.nanoTime();
+
+        result = new HttpResult(aURL.toExternalForm(), status, headers, body.getCount(), bytes);
+        result.setPhaseTime(RequestPhase.TTFB, firstByteTime - startTime);
+        result.setPhaseTime(RequestPhase.TRANSFER, myLastUseTime - firstByteTime);
+
+        if (!mySetupIsReported) {
+            result.setPhaseTime(RequestPhase.DNS, mySetupTimes[DNS]);
+            result.setPhaseTime(RequestPhase.CONNECT, mySetupTimes[CONNECT]);
+            result.setPhaseTime(RequestPhase.TLS, mySetupTimes[TLS]);
+            mySetupIsReported = true;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns whether another request can be made on this connection.
+     *
+     * @return True if the connection can be reused; else, false
+     */
+    boolean isReusable() {
+        return myConnectionIsReusable && !mySocket.isClosed();
+    }
+
+    /**
+     * Returns whether any of the response to the last request was read. A request that fails before its response
+     * starts on a reused connection can be safely retried on a new connection, since the server closed the old one.
+     *
+     * @return True if the response started; else, false
+     */
+    boolean hasResponseStarted() {
+        return myResponseHasStarted;
+    }
+
+    /**
+     * Gets how long the connection has been idle.
+     *
+     * @return The number of nanoseconds since the connection was last used
+     */
+    long getIdleTime() {
+        return System.nanoTime() - myLastUseTime;
+    }
+
+    @Override
+    public void close() {
+        try {
+            mySocket.close();
+        } catch (final IOException details) {
+            // Nothing more we can do with it
+        }
+    }
+
+    private void writeRequest(final URL aURL, final boolean aKeepAlive, final Map<String, String> aHeaders)
+            throws IOException {
+        final String file = aURL.getFile();
+        final int port = aURL.getPort();
+        final StringBuilder request = new StringBuilder(256);
+
+        request.append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1").append(CRLF);
+        request.append("Host: ").append(aURL.getHost());
+
+        if (port != -1 && port != aURL.getDefaultPort()) {
+            request.append(':').append(port);
+        }
+
+        request.append(CRLF).append("User-Agent: ").append(USER_AGENT).append(CRLF);
+        request.append("Accept: */*").append(CRLF);
+
+        for (final Map.Entry<String, String> header : aHeaders.entrySet()) {
+            request.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+        }
+
+        request.append("Connection: ").append(aKeepAlive ? "keep-alive" : "close").append(CRLF).append(CRLF);
+
+        myOutStream.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+        myOutStream.flush();
+    }
+
+    private Body newBody(final int aStatus, final Map<String, List<String>> aHeaders) throws IOException {
+        final String encoding = getHeader(aHeaders, "transfer-encoding");
+        final String length = getHeader(aHeaders, "content-length");
+
+        myConnectionIsReusable = true;
+
+        if (aStatus == 204 || aStatus == 304) {
+            return new Body(false, 0);
+        } else if (encoding != null && encoding.toLowerCase(Locale.US).contains("chunked")) {
+            return new Body(true, 0);
+        } else if (length != null) {
+            try {
+                return new Body(false, Long.parseLong(length));
+            } catch (final NumberFormatException details) {
+                throw new IOException("Invalid content length: " + length, details);
+            }
+        }
+
+        // Without a length, the body runs until the server closes the connection
+        myConnectionIsReusable = false;
+        return new Body(false, -1);
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder line = new StringBuilder(64);
+
+        int next;
+
+        while ((next = myInStream.read()) != '\n') {
+            if (next == -1) {
+                throw new EOFException("Connection closed by server");
+            } else if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Response line is too long");
+            }
+
+            line.append((char) next);
+        }
+
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+
+        return line.toString();
+    }
+
+    private static int parseStatus(final String aStatusLine) throws IOException {
+        final String[] parts = aStatusLine.split(" ", 3);
+
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Invalid status line: " + aStatusLine);
+        }
+
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (final NumberFormatException details) {
+            throw new IOException("Invalid status line: " + aStatusLine, details);
+        }
+    }
+
+    private static String getHeader(final Map<String, List<String>> aHeaders, final String aName) {
+        final List<String> values = aHeaders.get(aName);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * A response body, which is read straight off the connection. It counts the bytes that are read from it.
+     */
+    private final class Body extends InputStream {
+
+        private final boolean myBodyIsChunked;
+
+        /* Whether the body runs until the server closes the connection */
+        private final boolean myLengthIsUnknown;
+
+        /* The number of bytes left in the body (or, if it's chunked, in the current chunk) */
+        private long myRemaining;
+
+        private boolean myBodyIsRead;
+
+        private boolean myChunkIsStarted;
+
+        private long myCount;
+
+        /**
+         * Creates a body of the supplied length, or of an unknown length if it's negative.
+         */
+        private Body(final boolean aChunked, final long aLength) {
+            myBodyIsChunked = aChunked;
+            myLengthIsUnknown = aLength < 0;
+            myRemaining = myLengthIsUnknown ? Long.MAX_VALUE : aLength;
+            myBodyIsRead = !aChunked && aLength == 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] buffer = new byte[1];
+            return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset, final int aLength) throws IOException {
+            final int read;
+
+            if (myBodyIsRead || myRemaining == 0 && !nextChunk()) {
+                return -1;
+            } else if (aLength == 0) {
+                return 0;
+            }
+
+            read = myInStream.read(aBuffer, aOffset, (int) Math.min(aLength, myRemaining));
+
+            if (read == -1) {
+                myBodyIsRead = true;
+
+                if (myLengthIsUnknown) {
+                    return -1;
+                }
+
+                throw new EOFException("Connection closed after " + myCount + " bytes of the body");
+            }
+
+            if (!myLengthIsUnknown) {
+                myRemaining -= read;
+            }
+
+            myCount += read;
+
+            if (myShaper != null) {
+                myShaper.transfer(read);
+            }
+
+            if (myRemaining == 0 && !myBodyIsChunked) {
+                myBodyIsRead = true;
+            }
+
+            return read;
+        }
+
+        /**
+         * Reads the rest of the body into memory.
+         */
+        byte[] readAll() throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = BUFFER.get();
+
+            for (int read = read(buffer, 0, buffer.length); read != -1; read = read(buffer, 0, buffer.length)) {
+                bytes.write(buffer, 0, read);
+            }
+
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Reads and discards the rest of the body, so that the next response on the connection can be read.
+         */
+        void discard() throws IOException {
+            final byte[] buffer = BUFFER.get();
+
+            while (read(buffer, 0, buffer.length) != -1) {
+                // The bytes are only counted
+            }
+        }
+
+        long getCount() {
+            return myCount;
+        }
+
+        private boolean nextChunk() throws IOException {
+            final String line;
+            final int extension;
+            final long size;
+
+            if (!myBodyIsChunked) {
+                return false;
+            }
+
+            // Each chunk's data is followed by a line break
+            if (myChunkIsStarted) {
+                readLine();
+            }
+
+            line = readLine();
+            extension = line.indexOf(';');
+            myChunkIsStarted = true;
+
+            try {
+                size = Long.parseLong((extension == -1 ? line : line.substring(0, extension)).trim(), 16);
+            } catch (final NumberFormatException details) {
+                throw new IOException("Invalid chunk size: " + line, details);
+            }
+
+            if (size == 0) {
+                // Skip any trailers
+                while (!readLine().isEmpty()) {
+                    // Trailers aren't used
+                }
+
+                myBodyIsRead = true;
+                return false;
+            }
+
+            myRemaining = size;
+            return true;
+        }
+    }
+}
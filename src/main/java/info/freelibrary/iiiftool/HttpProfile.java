@@ -0,0 +1,83 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+
+/**
+ * The profiles that describe how the tool's HTTP connections are made and reused.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum HttpProfile {
+
+    /** HTTP/1.1 with keep-alive and, like a browser, no more than six connections per host for each viewer */
+    BROWSER,
+
+    /** HTTP/2, with all requests to a host multiplexed on a single connection */
+    HTTP2,
+
+    /** HTTP/1.1 with a new connection for every request */
+    NO_REUSE;
+
+    /* The number of connections a browser opens to a single host */
+    static final int CONNECTIONS_PER_HOST = 6;
+
+    /**
+     * Creates a new transport for this profile. HTTP/1.1 profiles get a transport that manages its own connections;
+     * HTTP/2 gets the JDK's HTTP client.
+     *
+     * @return A new HTTP transport
+     */
+    public HttpTransport newTransport() {
+        return newTransport(NetworkProfile.NONE);
+    }
+
+    /**
+     * Creates a new transport for this profile, whose connections are shaped to the supplied network.
+     *
+     * @param aNetwork The network that connections are shaped to
+     * @return A new HTTP transport
+     * @throws UnsupportedOperationException If the network is shaped and this profile uses the JDK's HTTP client,
+     *         whose connections can't be shaped
+     */
+    public HttpTransport newTransport(final NetworkProfile aNetwork) {
+        if (this == HTTP2) {
+            checkUnshaped(aNetwork);
+            return new JdkTransport(this);
+        }
+
+        return new PooledTransport(this, aNetwork);
+    }
+
+    /**
+     * Checks that the supplied network isn't shaped, for transports that can't shape their connections.
+     *
+     * @param aNetwork A network profile
+     * @throws UnsupportedOperationException If the network is shaped
+     */
+    static void checkUnshaped(final NetworkProfile aNetwork) {
+        if (aNetwork.isShaped()) {
+            throw new UnsupportedOperationException("The JDK's HTTP client (used by the http2 profile and the async " +
+                    "engine) can't shape its connections to the " + aNetwork + " network");
+        }
+    }
+
+    /**
+     * Gets the profile with the supplied name.
+     *
+     * @param aName The name of a profile (e.g., <code>browser</code>, <code>http2</code>, or <code>no-reuse</code>)
+     * @return The profile with the supplied name
+     * @throws IllegalArgumentException If there isn't a profile with the supplied name
+     */
+    public static HttpProfile fromName(final String aName) {
+        try {
+            return valueOf(aName.toUpperCase(Locale.US).replace('-', '_'));
+        } catch (final IllegalArgumentException details) {
+            throw new IllegalArgumentException("Unknown HTTP profile: " + aName, details);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.US).replace('_', '-');
+    }
+}
@@ -0,0 +1,231 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The result of an HTTP request.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class HttpResult {
+
+    private static final String CONTENT_TYPE = "content-type";
+
+    private static final int PHASE_COUNT = RequestPhase.values().length;
+
+    private final String myURL;
+
+    private final int myStatus;
+
+    private final Map<String, List<String>> myHeaders;
+
+    private final long myByteCount;
+
+    private final byte[] myBody;
+
+    /* The time each phase took, or -1 if it wasn't part of the request */
+    private final long[] myPhaseTimes;
+
+    private long myElapsedTime;
+
+    /* How a browser cache answered the request, or null if it didn't go through one */
+    private CacheOutcome myCacheOutcome;
+
+    private long myBytesSaved;
+
+    /**
+     * Creates a new HTTP result.
+     *
+     * @param aURL The URL that was requested
+     * @param aStatus The HTTP status code of the response
+     * @param aHeaders The response headers, keyed by their lower-case names
+     * @param aByteCount The number of body bytes that were read from the wire
+     * @param aBody The response body, or null if it wasn't kept
+     */
+    public HttpResult(final String aURL, final int aStatus, final Map<String, List<String>> aHeaders,
+            final long aByteCount, final byte[] aBody) {
+        myURL = aURL;
+        myStatus = aStatus;
+        myHeaders = aHeaders;
+        myByteCount = aByteCount;
+        myBody = aBody;
+        myPhaseTimes = new long[PHASE_COUNT];
+
+        Arrays.fill(myPhaseTimes, -1);
+    }
+
+    /**
+     * Gets the URL that was requested.
+     *
+     * @return The URL that was requested
+     */
+    public String getURL() {
+        return myURL;
+    }
+
+    /**
+     * Gets the HTTP status code of the response.
+     *
+     * @return The HTTP status code
+     */
+    public int getStatus() {
+        return myStatus;
+    }
+
+    /**
+     * Gets the first value of the named response header.
+     *
+     * @param aName The name of a header
+     * @return The header's first value or null if the response didn't have that header
+     */
+    public String getHeader(final String aName) {
+        final List<String> values = myHeaders.get(aName.toLowerCase(Locale.US));
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Gets the response headers.
+     *
+     * @return The response headers, keyed by their lower-case names
+     */
+    public Map<String, List<String>> getHeaders() {
+        return Collections.unmodifiableMap(myHeaders);
+    }
+
+    /**
+     * Gets the content type of the response.
+     *
+     * @return The content type or null if the server didn't send one
+     */
+    public String getContentType() {
+        return getHeader(CONTENT_TYPE);
+    }
+
+    /**
+     * Gets the number of body bytes that were read from the wire.
+     *
+     * @return The number of body bytes
+     */
+    public long getByteCount() {
+        return myByteCount;
+    }
+
+    /**
+     * Gets the response body.
+     *
+     * @return The response body or null if it wasn't kept
+     */
+    public byte[] getBody() {
+        return myBody;
+    }
+
+    /**
+     * Gets how long the request took, from when it was sent (or from when it started waiting for a connection to be
+     * made) until the whole response had been read.
+     *
+     * @return The number of nanoseconds the request took
+     */
+    public long getElapsedTime() {
+        return myElapsedTime;
+    }
+
+    /**
+     * Sets how long the request took.
+     *
+     * @param aNanos The number of nanoseconds the request took
+     */
+    void setElapsedTime(final long aNanos) {
+        myElapsedTime = aNanos;
+    }
+
+    /**
+     * Gets how the request was answered by the viewer session's simulated browser cache.
+     *
+     * @return The cache's outcome, or null if the request didn't go through a cache
+     */
+    public CacheOutcome getCacheOutcome() {
+        return myCacheOutcome;
+    }
+
+    /**
+     * Gets the number of body bytes that didn't have to be downloaded because they were in the browser cache.
+     *
+     * @return The number of body bytes saved
+     */
+    public long getBytesSaved() {
+        return myBytesSaved;
+    }
+
+    /**
+     * Sets how the request was answered by the browser cache.
+     *
+     * @param aOutcome The cache's outcome
+     * @param aBytesSaved The number of body bytes saved
+     */
+    void setCacheOutcome(final CacheOutcome aOutcome, final long aBytesSaved) {
+        myCacheOutcome = aOutcome;
+        myBytesSaved = aBytesSaved;
+    }
+
+    /**
+     * Gets how long a phase of the request took. If the request followed redirects, the times of each of its
+     * requests are added together.
+     *
+     * @param aPhase A phase of an HTTP request
+     * @return The number of nanoseconds the phase took, or -1 if the phase wasn't part of the request (e.g., because
+     *         no new connection was made or the transport can't observe it)
+     */
+    public long getPhaseTime(final RequestPhase aPhase) {
+        return myPhaseTimes[aPhase.ordinal()];
+    }
+
+    /**
+     * Sets how long a phase of the request took.
+     *
+     * @param aPhase A phase of an HTTP request
+     * @param aNanos The number of nanoseconds the phase took
+     */
+    void setPhaseTime(final RequestPhase aPhase, final long aNanos) {
+        myPhaseTimes[aPhase.ordinal()] = aNanos;
+    }
+
+    /**
+     * Adds the phase times of an earlier request, one that redirected to this request, to this request's.
+     *
+     * @param aResult The result of an earlier request
+     */
+    void addPhaseTimes(final HttpResult aResult) {
+        for (int index = 0; index < PHASE_COUNT; index++) {
+            final long nanos = aResult.myPhaseTimes[index];
+
+            if (nanos >= 0) {
+                myPhaseTimes[index] = Math.max(myPhaseTimes[index], 0) + nanos;
+            }
+        }
+    }
+
+    /**
+     * Gets the response body as a JSON document.
+     *
+     * @return The response body as a string
+     * @throws IOException If the response wasn't successful or its body wasn't kept
+     */
+    public String getJSON() throws IOException {
+        if (myStatus != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response status '" + myStatus + "' for: " + myURL);
+        }
+
+        if (myBody == null) {
+            throw new IOException("Response body wasn't kept for: " + myURL);
+        }
+
+        return new String(myBody, StandardCharsets.UTF_8);
+    }
+}
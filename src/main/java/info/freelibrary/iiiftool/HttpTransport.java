@@ -0,0 +1,136 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The HTTP layer that all the tool's requests go through. A transport owns its connections, so how they're made and
+ * reused is explicit and can be reported on.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public interface HttpTransport extends AutoCloseable {
+
+    /**
+     * Gets the supplied URL, blocking until the whole response has been read.
+     *
+     * @param aURL The URL to get
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return The result of the request
+     * @throws IOException If the request fails
+     */
+    default HttpResult get(final String aURL, final boolean aBodyKept) throws IOException {
+        return get(aURL, Map.of(), aBodyKept);
+    }
+
+    /**
+     * Gets the supplied URL with extra request headers (e.g., the validators of a conditional request), blocking
+     * until the whole response has been read.
+     *
+     * @param aURL The URL to get
+     * @param aHeaders Extra request headers, keyed by their names
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return The result of the request
+     * @throws IOException If the request fails
+     */
+    HttpResult get(String aURL, Map<String, String> aHeaders, boolean aBodyKept) throws IOException;
+
+    /**
+     * Gets the supplied URL, handing the body of a successful response to the supplied reader as it arrives, so that
+     * it can be read without being held in memory. The bodies of other responses (e.g., redirects and errors) are
+     * counted and discarded. Whatever the reader leaves unread is discarded once it returns.
+     *
+     * @param aURL The URL to get
+     * @param aReader A reader for the response body
+     * @return The result of the request, without its body
+     * @throws IOException If the request fails or the reader can't read the body
+     */
+    default HttpResult get(final String aURL, final BodyReader aReader) throws IOException {
+        return get(aURL, Map.of(), aReader);
+    }
+
+    /**
+     * Gets the supplied URL with extra request headers, handing the body of a successful response to the supplied
+     * reader as it arrives.
+     *
+     * @param aURL The URL to get
+     * @param aHeaders Extra request headers, keyed by their names
+     * @param aReader A reader for the response body
+     * @return The result of the request, without its body
+     * @throws IOException If the request fails or the reader can't read the body
+     */
+    HttpResult get(String aURL, Map<String, String> aHeaders, BodyReader aReader) throws IOException;
+
+    /**
+     * Gets the supplied URL, without blocking if the transport supports non-blocking I/O.
+     *
+     * @param aURL The URL to get
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return A future that completes with the result of the request
+     */
+    default CompletableFuture<HttpResult> getAsync(final String aURL, final boolean aBodyKept) {
+        return getAsync(aURL, Map.of(), aBodyKept);
+    }
+
+    /**
+     * Gets the supplied URL with extra request headers, without blocking if the transport supports non-blocking I/O.
+     *
+     * @param aURL The URL to get
+     * @param aHeaders Extra request headers, keyed by their names
+     * @param aBodyKept Whether the response body should be kept; if not, it's counted and discarded
+     * @return A future that completes with the result of the request
+     */
+    CompletableFuture<HttpResult> getAsync(String aURL, Map<String, String> aHeaders, boolean aBodyKept);
+
+    /**
+     * Creates a transport for a single viewer session. Like a browser, a session has its own per-host connection
+     * limits and, where the transport can isolate them, its own connections, but it shares this transport's
+     * configuration and statistics.
+     *
+     * @return A transport for a single viewer session
+     */
+    HttpTransport newSession();
+
+    /**
+     * Gets the statistics of the connections that have been made.
+     *
+     * @return The transport's connection statistics
+     */
+    ConnectionStats getStats();
+
+    /**
+     * Closes the transport's idle connections.
+     */
+    @Override
+    void close();
+
+    /**
+     * A reader of a response body that's streamed off the wire.
+     */
+    @FunctionalInterface
+    interface BodyReader {
+
+        /**
+         * Reads a response body. The body shouldn't be closed by the reader.
+         *
+         * @param aBody The response body
+         * @throws IOException If the body can't be read
+         */
+        void read(InputStream aBody) throws IOException;
+
+        /**
+         * Reads a response body, given the response's headers. Readers that don't need the headers needn't
+         * implement this.
+         *
+         * @param aBody The response body
+         * @param aHeaders The response's headers, keyed by their lower-case names
+         * @throws IOException If the body can't be read
+         */
+        default void read(final InputStream aBody, final Map<String, List<String>> aHeaders) throws IOException {
+            read(aBody);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * What a viewer needs to know about an image from its info.json file: its dimensions, the tiles and whole-image sizes
+ * it's offered in, and the compliance profile of its image service. Nothing else in the info.json file is kept, and
+ * when it's read as it's downloaded nothing else is even parsed, so an image's metadata is small enough that those of
+ * every canvas in a large manifest can be cached.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class ImageInfo {
+
+    /* Where images' services are found in version 2 (plain and oa:Choice) and version 3 manifests */
+    static final String[] SERVICE_PATHS = { "?sequences?*?canvases?*?images?*?resource?service",
+        "?sequences?*?canvases?*?images?*?resource?item?*?service", "?items?*?items?*?items?*?body?service?*" };
+
+    private static final String V2_ID = "?('@id')";
+
+    private static final String V3_ID = "?id";
+
+    private static final String WIDTH = "?width";
+
+    private static final String HEIGHT = "?height";
+
+    private static final String TILE_WIDTH = "?tiles?1?width";
+
+    private static final String TILE_HEIGHT = "?tiles?1?height";
+
+    private static final String SCALE_FACTORS = "?tiles?1?scaleFactors?*";
+
+    private static final String SIZE_WIDTHS = "?sizes?*?width";
+
+    private static final String SIZE_HEIGHTS = "?sizes?*?height";
+
+    /* A version 3 profile is a string; a version 2 profile is a list that starts with the compliance level's URI */
+    private static final String V3_PROFILE = "?profile";
+
+    private static final String V2_PROFILE = "?profile?1";
+
+    private final String myServiceID;
+
+    private final int myWidth;
+
+    private final int myHeight;
+
+    private final int myTileWidth;
+
+    private final int myTileHeight;
+
+    private final int[] myScaleFactors;
+
+    private final List<int[]> mySizes;
+
+    private final String myProfile;
+
+    private ImageInfo(final Fields aFields, final String aServiceID) {
+        final String id = aFields.myV2ID != null ? aFields.myV2ID : aFields.myV3ID;
+
+        if (aFields.myWidth == null || aFields.myHeight == null) {
+            throw new NoSuchElementException("info.json doesn't have the image's width and height: " + aServiceID);
+        }
+
+        myServiceID = id != null ? id : aServiceID;
+        myWidth = (int) Double.parseDouble(aFields.myWidth);
+        myHeight = (int) Double.parseDouble(aFields.myHeight);
+        myScaleFactors = aFields.myScaleFactors.stream().mapToInt(factor -> (int) Double.parseDouble(factor))
+                .toArray();
+        myProfile = aFields.myProfile;
+
+        if (myScaleFactors.length > 0 && aFields.myTileWidth != null) {
+            myTileWidth = (int) Double.parseDouble(aFields.myTileWidth);
+
+            // A tile's height is the same as its width, unless it's given
+            myTileHeight = aFields.myTileHeight == null ? myTileWidth : (int) Double.parseDouble(
+                    aFields.myTileHeight);
+        } else {
+            myTileWidth = 0;
+            myTileHeight = 0;
+        }
+
+        if (aFields.mySizeWidths.size() == aFields.mySizeHeights.size()) {
+            final List<int[]> sizes = new ArrayList<>(aFields.mySizeWidths.size());
+
+            for (int index = 0; index < aFields.mySizeWidths.size(); index++) {
+                sizes.add(new int[] { (int) Double.parseDouble(aFields.mySizeWidths.get(index)), (int) Double
+                        .parseDouble(aFields.mySizeHeights.get(index)) });
+            }
+
+            mySizes = Collections.unmodifiableList(sizes);
+        } else {
+            mySizes = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Gets an image's metadata from its parsed info.json file.
+     *
+     * @param aServiceID The ID of the image's IIIF image service, which is used if the info.json file doesn't have one
+     * @param aInfo The image's parsed info.json file
+     * @return The image's metadata
+     * @throws NoSuchElementException If the info.json file doesn't have the image's width and height
+     * @throws NumberFormatException If a dimension isn't a number
+     */
+    public static ImageInfo parse(final String aServiceID, final ManifestIndex aInfo) {
+        final Fields fields = new Fields();
+
+        fields.myV2ID = aInfo.getValue(V2_ID);
+        fields.myV3ID = aInfo.getValue(V3_ID);
+        fields.myWidth = aInfo.getValue(WIDTH);
+        fields.myHeight = aInfo.getValue(HEIGHT);
+        fields.myTileWidth = aInfo.getValue(TILE_WIDTH);
+        fields.myTileHeight = aInfo.getValue(TILE_HEIGHT);
+        fields.myScaleFactors.addAll(aInfo.getList(SCALE_FACTORS));
+        fields.mySizeWidths.addAll(aInfo.getList(SIZE_WIDTHS));
+        fields.mySizeHeights.addAll(aInfo.getList(SIZE_HEIGHTS));
+        fields.myProfile = aInfo.getValue(V2_PROFILE) != null ? aInfo.getValue(V2_PROFILE) : aInfo.getValue(
+                V3_PROFILE);
+
+        return new ImageInfo(fields, aServiceID);
+    }
+
+    /**
+     * Reads an image's metadata from its info.json file as it's downloaded, parsing only the fields that are kept.
+     *
+     * @param aServiceID The ID of the image's IIIF image service, which is used if the info.json file doesn't have one
+     * @param aBody The body of the info.json file
+     * @return The image's metadata
+     * @throws IOException If the info.json file can't be read, isn't valid JSON or doesn't have the image's
+     *         dimensions
+     */
+    public static ImageInfo read(final String aServiceID, final InputStream aBody) throws IOException {
+        final Fields fields = new Fields();
+
+        new ManifestReader().on(V2_ID, id -> fields.myV2ID = id).on(V3_ID, id -> fields.myV3ID = id).on(WIDTH,
+                width -> fields.myWidth = width).on(HEIGHT, height -> fields.myHeight = height).on(TILE_WIDTH,
+                        width -> fields.myTileWidth = width).on(TILE_HEIGHT, height -> fields.myTileHeight = height)
+                .on(SCALE_FACTORS, fields.myScaleFactors::add).on(SIZE_WIDTHS, fields.mySizeWidths::add).on(
+                        SIZE_HEIGHTS, fields.mySizeHeights::add).on(V3_PROFILE, profile -> fields.myProfile =
+                                profile).on(V2_PROFILE, profile -> fields.myProfile = profile).read(aBody);
+
+        try {
+            return new ImageInfo(fields, aServiceID);
+        } catch (final NoSuchElementException | NumberFormatException details) {
+            throw new IOException(details.getMessage(), details);
+        }
+    }
+
+    /**
+     * Gets the IDs of the image services of all a manifest's canvases, in the order they're listed.
+     *
+     * @param aManifest A parsed manifest
+     * @return The IDs of the manifest's image services
+     */
+    public static List<String> getServiceIDs(final ManifestIndex aManifest) {
+        final Set<String> services = new LinkedHashSet<>();
+
+        for (final String path : SERVICE_PATHS) {
+            services.addAll(aManifest.getList(path));
+        }
+
+        return new ArrayList<>(services);
+    }
+
+    /**
+     * Gets the ID of the image's IIIF image service.
+     *
+     * @return The image service's ID
+     */
+    public String getServiceID() {
+        return myServiceID;
+    }
+
+    /**
+     * Gets the full width of the image.
+     *
+     * @return The image's width
+     */
+    public int getWidth() {
+        return myWidth;
+    }
+
+    /**
+     * Gets the full height of the image.
+     *
+     * @return The image's height
+     */
+    public int getHeight() {
+        return myHeight;
+    }
+
+    /**
+     * Returns whether the image service advertises tiles.
+     *
+     * @return True if the image is offered in tiles; else, false
+     */
+    public boolean hasTiles() {
+        return myScaleFactors.length > 0 && myTileWidth > 0;
+    }
+
+    /**
+     * Gets the width of the image's tiles.
+     *
+     * @return The tiles' width, or zero if no tiles are advertised
+     */
+    public int getTileWidth() {
+        return myTileWidth;
+    }
+
+    /**
+     * Gets the height of the image's tiles.
+     *
+     * @return The tiles' height, or zero if no tiles are advertised
+     */
+    public int getTileHeight() {
+        return myTileHeight;
+    }
+
+    /**
+     * Gets the scale factors at which the image's tiles are offered.
+     *
+     * @return The tiles' scale factors, which are empty if no tiles are advertised
+     */
+    public int[] getScaleFactors() {
+        return myScaleFactors.clone();
+    }
+
+    /**
+     * Gets the whole-image sizes that the image is offered in.
+     *
+     * @return The widths and heights, as pairs, of the advertised sizes
+     */
+    public List<int[]> getSizes() {
+        return mySizes;
+    }
+
+    /**
+     * Gets the compliance profile of the image's service (e.g., <code>level2</code> or
+     * <code>http://iiif.io/api/image/2/level2.json</code>).
+     *
+     * @return The service's profile, or null if it doesn't have one
+     */
+    public String getProfile() {
+        return myProfile;
+    }
+
+    @Override
+    public String toString() {
+        return myServiceID + " (" + myWidth + "x" + myHeight + (hasTiles() ? ", " + myTileWidth + "x" +
+                myTileHeight + " tiles" : "") + (myProfile == null ? "" : ", " + myProfile) + ")";
+    }
+
+    /**
+     * The fields of an info.json file, as they're read.
+     */
+    private static final class Fields {
+
+        private final List<String> myScaleFactors = new ArrayList<>();
+
+        private final List<String> mySizeWidths = new ArrayList<>();
+
+        private final List<String> mySizeHeights = new ArrayList<>();
+
+        private String myV2ID;
+
+        private String myV3ID;
+
+        private String myWidth;
+
+        private String myHeight;
+
+        private String myTileWidth;
+
+        private String myTileHeight;
+
+        private String myProfile;
+    }
+}
@@ -33,7 +33,10 @@ public class ImageUtils {
      * Return a list of derivative images to be pre-generated so that the OpenSeadragon viewer can use them.
      *
      * @return A list of derivative images to be pre-generated
+     * @deprecated This builds the path of every tile up front and ignores the tiles that the server advertises; use a
+     *             {@link TilePyramid}, which creates tile URLs as they're needed, instead
      */
+    @Deprecated
     public static List<String> getTilePaths(final String aService, final String aID, final int aTileSize,
             final double aWidth, final double aHeight) {
         return getTilePaths(aService, aID, aTileSize, (int) aWidth, (int) aHeight);
@@ -43,7 +46,10 @@ public class ImageUtils {
      * Return a list of derivative images to be pre-generated so that the OpenSeadragon viewer can use them.
      *
      * @return A list of derivative images to be pre-generated
+     * @deprecated This builds the path of every tile up front and ignores the tiles that the server advertises; use a
+     *             {@link TilePyramid}, which creates tile URLs as they're needed, instead
      */
+    @Deprecated
     public static List<String> getTilePaths(final String aService, final String aID, final int aTileSize,
             final int aWidth, final int aHeight) {
         final ArrayList<String> list = new ArrayList<>();
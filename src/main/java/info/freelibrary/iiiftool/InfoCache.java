@@ -0,0 +1,194 @@
+package info.freelibrary.iiiftool;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A bounded cache of images' metadata, keyed by the IDs of their image services. An image's info.json file is only
+ * requested once, however many manifests or canvases share the image: a request for metadata that's already on its
+ * way waits for it rather than starting another. Failed requests aren't cached, so they're tried again the next time
+ * they're asked for. When the cache is full, the least recently used image is dropped.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class InfoCache {
+
+    /** The default maximum number of images whose metadata is kept */
+    public static final int DEFAULT_SIZE = 10_000;
+
+    private final Map<String, CompletableFuture<ImageInfo>> myEntries;
+
+    private final AtomicLong myHitCount = new AtomicLong();
+
+    private final AtomicLong myMissCount = new AtomicLong();
+
+    /* Requests that found the metadata still on its way, and so waited for it rather than starting another */
+    private final AtomicLong mySharedCount = new AtomicLong();
+
+    /**
+     * Creates a new metadata cache with the default size.
+     */
+    public InfoCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a new metadata cache.
+     *
+     * @param aSize The maximum number of images whose metadata is kept
+     * @throws IllegalArgumentException If the size isn't greater than zero
+     */
+    public InfoCache(final int aSize) {
+        if (aSize < 1) {
+            throw new IllegalArgumentException("Cache size should be greater than zero: " + aSize);
+        }
+
+        myEntries = new LinkedHashMap<String, CompletableFuture<ImageInfo>>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CompletableFuture<ImageInfo>> aEldest) {
+                return size() > aSize;
+            }
+        };
+    }
+
+    /**
+     * Gets an image's metadata, loading it only if it's neither in the cache nor already being loaded.
+     *
+     * @param aServiceID The ID of the image's IIIF image service
+     * @param aLoader Starts the loading of an image's metadata, given its service ID
+     * @return A future that completes with the image's metadata
+     */
+    public CompletableFuture<ImageInfo> get(final String aServiceID,
+            final Function<String, CompletableFuture<ImageInfo>> aLoader) {
+        final CompletableFuture<ImageInfo> cached;
+        final CompletableFuture<ImageInfo> loaded = new CompletableFuture<>();
+
+        synchronized (myEntries) {
+            cached = myEntries.get(aServiceID);
+
+            if (cached == null) {
+                myEntries.put(aServiceID, loaded);
+            }
+        }
+
+        if (cached != null) {
+            (cached.isDone() ? myHitCount : mySharedCount).incrementAndGet();
+            return cached;
+        }
+
+        myMissCount.incrementAndGet();
+        load(aServiceID, aLoader).whenComplete((info, error) -> {
+            if (error != null) {
+                synchronized (myEntries) {
+                    myEntries.remove(aServiceID, loaded);
+                }
+
+                loaded.completeExceptionally(error);
+            } else {
+                loaded.complete(info);
+            }
+        });
+
+        return loaded;
+    }
+
+    /**
+     * Starts the loading of an image's metadata. It's started outside the cache's lock, since it may complete on the
+     * calling thread.
+     */
+    private static CompletableFuture<ImageInfo> load(final String aServiceID,
+            final Function<String, CompletableFuture<ImageInfo>> aLoader) {
+        try {
+            return aLoader.apply(aServiceID);
+        } catch (final RuntimeException details) {
+            return CompletableFuture.failedFuture(details);
+        }
+    }
+
+    /**
+     * Gets an image's metadata if it's already been loaded.
+     *
+     * @param aServiceID The ID of the image's IIIF image service
+     * @return The image's metadata, or null if it isn't in the cache or is still being loaded
+     */
+    public ImageInfo getIfPresent(final String aServiceID) {
+        final CompletableFuture<ImageInfo> cached;
+
+        synchronized (myEntries) {
+            cached = myEntries.get(aServiceID);
+        }
+
+        if (cached == null || !cached.isDone() || cached.isCompletedExceptionally()) {
+            return null;
+        }
+
+        myHitCount.incrementAndGet();
+        return cached.join();
+    }
+
+    /**
+     * Puts an image's metadata, which was loaded some other way, in the cache.
+     *
+     * @param aServiceID The ID of the image's IIIF image service
+     * @param aInfo The image's metadata
+     */
+    public void put(final String aServiceID, final ImageInfo aInfo) {
+        synchronized (myEntries) {
+            myEntries.put(aServiceID, CompletableFuture.completedFuture(aInfo));
+        }
+
+        myMissCount.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of images whose metadata is in the cache, or is being loaded into it.
+     *
+     * @return The number of cached images
+     */
+    public int size() {
+        synchronized (myEntries) {
+            return myEntries.size();
+        }
+    }
+
+    /**
+     * Gets the number of times that an image's metadata was found in the cache.
+     *
+     * @return The number of cache hits
+     */
+    public long getHitCount() {
+        return myHitCount.get();
+    }
+
+    /**
+     * Gets the number of times that an image's metadata had to be loaded.
+     *
+     * @return The number of cache misses
+     */
+    public long getMissCount() {
+        return myMissCount.get();
+    }
+
+    /**
+     * Gets the number of times that an image's metadata was already being loaded, and so was waited for rather than
+     * being loaded again.
+     *
+     * @return The number of requests that shared another's load
+     */
+    public long getSharedCount() {
+        return mySharedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d images, %d hits, %d misses, %d shared while loading", size(),
+                getHitCount(), getMissCount(), getSharedCount());
+    }
+}
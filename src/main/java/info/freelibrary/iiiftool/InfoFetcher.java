@@ -0,0 +1,126 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fetcher of images' info.json files that keeps no more than a fixed number of them in flight at a time, however
+ * many are asked for at once, so that the info.json files of every canvas in a manifest can be fetched in parallel
+ * without flooding the server. Each info.json file is read as it's downloaded, and only the metadata that a viewer
+ * needs is parsed. If the fetcher has a metadata cache, an image that's already been fetched, or that's being
+ * fetched, isn't requested again. No thread is blocked while waiting for room.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class InfoFetcher {
+
+    private static final String INFO_JSON = "/info.json";
+
+    private final DownloadEngine myEngine;
+
+    private final AsyncLimiter myLimiter;
+
+    private final InfoCache myCache;
+
+    /**
+     * Creates a new info.json fetcher.
+     *
+     * @param aEngine The download engine that the info.json files are requested on
+     * @param aConcurrency The maximum number of info.json files in flight at a time
+     * @param aCache The cache of images' metadata, or null if every image is requested
+     * @throws IllegalArgumentException If the concurrency isn't positive
+     */
+    public InfoFetcher(final DownloadEngine aEngine, final int aConcurrency, final InfoCache aCache) {
+        if (aConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + aConcurrency);
+        }
+
+        myEngine = aEngine;
+        myLimiter = new AsyncLimiter(aConcurrency);
+        myCache = aCache;
+    }
+
+    /**
+     * Fetches an image's metadata, recording the request, if one is made, in the supplied report.
+     *
+     * @param aTransport The transport through which the request is made
+     * @param aServiceID The ID of the image's IIIF image service
+     * @param aReport The report into which the request is recorded
+     * @return A future that completes with the image's metadata
+     */
+    public CompletableFuture<ImageInfo> fetch(final HttpTransport aTransport, final String aServiceID,
+            final DownloadReport aReport) {
+        if (myCache == null) {
+            return request(aTransport, aServiceID, aReport);
+        }
+
+        return myCache.get(aServiceID, serviceID -> request(aTransport, serviceID, aReport));
+    }
+
+    /**
+     * Fetches the metadata of many images, in parallel up to the fetcher's concurrency. Images whose info.json files
+     * can't be fetched are recorded in the report as errors and left out of the results.
+     *
+     * @param aTransport The transport through which the requests are made
+     * @param aServiceIDs The IDs of the images' IIIF image services
+     * @param aReport The report into which the requests are recorded
+     * @return A future that completes, with the metadata of the images that could be fetched in the order they were
+     *         asked for, once every request has finished
+     */
+    public CompletableFuture<List<ImageInfo>> fetchAll(final HttpTransport aTransport, final List<String> aServiceIDs,
+            final DownloadReport aReport) {
+        final List<CompletableFuture<ImageInfo>> infos = new ArrayList<>(aServiceIDs.size());
+
+        for (final String serviceID : aServiceIDs) {
+            infos.add(fetch(aTransport, serviceID, aReport).exceptionally(error -> null));
+        }
+
+        return CompletableFuture.allOf(infos.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            final List<ImageInfo> results = new ArrayList<>(infos.size());
+
+            for (final CompletableFuture<ImageInfo> info : infos) {
+                if (info.join() != null) {
+                    results.add(info.join());
+                }
+            }
+
+            return results;
+        });
+    }
+
+    /**
+     * Requests an image's info.json file once there's room for it, reading its metadata as it's downloaded.
+     */
+    private CompletableFuture<ImageInfo> request(final HttpTransport aTransport, final String aServiceID,
+            final DownloadReport aReport) {
+        final String url = aServiceID + INFO_JSON;
+        final AtomicReference<ImageInfo> info = new AtomicReference<>();
+
+        return myLimiter.acquire().thenCompose(permit -> {
+            aReport.startRequest(RequestType.INFO_JSON);
+            return myEngine.stream(aTransport, url, body -> info.set(ImageInfo.read(aServiceID, body)));
+        }).handle((result, error) -> {
+            myLimiter.release();
+
+            if (error != null) {
+                aReport.addError(RequestType.INFO_JSON, url, error);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(
+                        error);
+            }
+
+            aReport.addDownload(RequestType.INFO_JSON, result);
+
+            if (result.getStatus() != HttpURLConnection.HTTP_OK || info.get() == null) {
+                throw new CompletionException(new IOException("Unexpected response status '" + result.getStatus() +
+                        "' for: " + url));
+            }
+
+            return info.get();
+        });
+    }
+}
@@ -0,0 +1,368 @@
+package info.freelibrary.iiiftool;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A transport that uses the JDK's non-blocking HTTP client. It's used for HTTP/2, which multiplexes all the requests
+ * to a host on a single connection, and by the non-blocking download engine. Each session has per-host connection
+ * limits of its own, but all the sessions share one client, and so its connections: a client has a selector thread
+ * and a connection pool of its own and, before Java 21, can't be closed, so a client per session wouldn't scale to
+ * the number of sessions that the non-blocking engine can run. So, unlike with the other transports, a session isn't
+ * isolated from the others' connections, and a returning visitor's connections aren't new. The JDK's client manages
+ * its own connections, so new connections are counted as TLS connections are created; requests over plain HTTP are
+ * reported as untracked. For the same reason, the DNS, connect and TLS phases of its requests can't be timed, and are
+ * part of their time to first byte.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class JdkTransport implements HttpTransport {
+
+    private static final String HTTPS = "https";
+
+    private static final String USER_AGENT = "iiif-tool";
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpProfile myProfile;
+
+    private final HttpClient myClient;
+
+    /* The executor that the sessions' shared client runs on; it's only shut down by the transport that created it */
+    private final ExecutorService myExecutor;
+
+    private final boolean myExecutorIsOwned;
+
+    private final ConnectionStats myStats;
+
+    /* Browsers limit their HTTP/1.1 connections per host; HTTP/2 requests are multiplexed instead */
+    private final ConcurrentMap<String, AsyncLimiter> myHostLimits;
+
+    /**
+     * Creates a new JDK transport.
+     *
+     * @param aProfile The HTTP profile that determines which version of HTTP is used
+     * @throws UnsupportedOperationException If the profile needs a connection per request
+     */
+    public JdkTransport(final HttpProfile aProfile) {
+        if (aProfile == HttpProfile.NO_REUSE) {
+            throw new UnsupportedOperationException("The " + aProfile + " profile needs a blocking download engine");
+        }
+
+        myProfile = aProfile;
+        myStats = new ConnectionStats(false);
+        myExecutor = Executors.newCachedThreadPool();
+        myExecutorIsOwned = true;
+        myClient = newClient(aProfile, myStats, myExecutor);
+        myHostLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a session, with per-host connection limits of its own, that shares the supplied transport's client and
+     * statistics.
+     */
+    private JdkTransport(final JdkTransport aTransport) {
+        myProfile = aTransport.myProfile;
+        myStats = aTransport.myStats;
+        myExecutor = aTransport.myExecutor;
+        myExecutorIsOwned = false;
+        myClient = aTransport.myClient;
+        myHostLimits = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates an HTTP client for the supplied profile.
+     */
+    private static HttpClient newClient(final HttpProfile aProfile, final ConnectionStats aStats,
+            final ExecutorService aExecutor) {
+        try {
+            return HttpClient.newBuilder().version(aProfile == HttpProfile.HTTP2 ? HttpClient.Version.HTTP_2
+                    : HttpClient.Version.HTTP_1_1).followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(
+                            CONNECT_TIMEOUT).sslContext(new CountingSSLContext(SSLContext.getDefault(), aStats))
+                    .executor(aExecutor).build();
+        } catch (final NoSuchAlgorithmException details) {
+            throw new IllegalStateException(details);
+        }
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final boolean aBodyKept)
+            throws IOException {
+        try {
+            return getAsync(aURL, aHeaders, aBodyKept).join();
+        } catch (final CompletionException details) {
+            if (details.getCause() instanceof IOException) {
+                throw (IOException) details.getCause();
+            }
+
+            throw new IOException(details.getCause());
+        }
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final BodyReader aReader)
+            throws IOException {
+        final HttpRequest request = newRequest(aURL, aHeaders);
+        final AsyncLimiter limit = getLimit(request.uri());
+
+        if (limit != null) {
+            limit.acquire().join();
+        }
+
+        try {
+            final long startTime = System.nanoTime();
+            final HttpResponse<InputStream> response = myClient.send(request, HttpResponse.BodyHandlers
+                    .ofInputStream());
+            final long headersTime = System.nanoTime();
+
+            try (CountingInputStream body = new CountingInputStream(response.body())) {
+                if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                    aReader.read(body, getHeaders(response.headers()));
+                }
+
+                body.transferTo(OutputStream.nullOutputStream());
+                return newResult(request.uri().toString(), response, body.getCount(), null, startTime, headersTime);
+            }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while getting: " + aURL);
+        } finally {
+            if (limit != null) {
+                limit.release();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> getAsync(final String aURL, final Map<String, String> aHeaders,
+            final boolean aBodyKept) {
+        final HttpRequest request;
+        final AsyncLimiter limit;
+
+        try {
+            request = newRequest(aURL, aHeaders);
+        } catch (final IOException details) {
+            return CompletableFuture.failedFuture(details);
+        }
+
+        limit = getLimit(request.uri());
+
+        if (limit == null) {
+            return send(request, aBodyKept);
+        }
+
+        return limit.acquire().thenCompose(permit -> send(request, aBodyKept)).whenComplete((result, error) -> limit
+                .release());
+    }
+
+    @Override
+    public HttpTransport newSession() {
+        return new JdkTransport(this);
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return myStats;
+    }
+
+    @Override
+    public void close() {
+        // The JDK's HTTP client releases its connections once it's no longer referenced, so a session has nothing to
+        // close; the transport that created the client stops its executor
+        if (myExecutorIsOwned) {
+            myExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Creates a request for the supplied URL, with the supplied extra headers, counting it in the transport's
+     * statistics.
+     */
+    private HttpRequest newRequest(final String aURL, final Map<String, String> aHeaders) throws IOException {
+        final HttpRequest.Builder request;
+        final URI uri;
+
+        try {
+            uri = URI.create(aURL);
+            request = HttpRequest.newBuilder(uri).timeout(READ_TIMEOUT).header("User-Agent", USER_AGENT);
+            aHeaders.forEach(request::header);
+        } catch (final IllegalArgumentException details) {
+            throw new IOException("Invalid URL: " + aURL, details);
+        }
+
+        if (HTTPS.equalsIgnoreCase(uri.getScheme())) {
+            myStats.addRequest();
+        } else {
+            myStats.addUntrackedRequest();
+        }
+
+        return request.build();
+    }
+
+    /**
+     * Gets the limit on connections to the supplied URI's host, or null if the transport's requests aren't limited.
+     */
+    private AsyncLimiter getLimit(final URI aURI) {
+        if (myProfile == HttpProfile.HTTP2) {
+            return null;
+        }
+
+        return myHostLimits.computeIfAbsent(aURI.getScheme() + "://" + aURI.getAuthority(),
+                key -> new AsyncLimiter(HttpProfile.CONNECTIONS_PER_HOST));
+    }
+
+    private CompletableFuture<HttpResult> send(final HttpRequest aRequest, final boolean aBodyKept) {
+        final String url = aRequest.uri().toString();
+        final long startTime = System.nanoTime();
+        // The body handler is called as the response's headers arrive, which is as close to its first byte as we get
+        final long[] headersTime = new long[1];
+
+        if (aBodyKept) {
+            return myClient.sendAsync(aRequest, responseInfo -> {
+                headersTime[0] = System.nanoTime();
+                return HttpResponse.BodySubscribers.ofByteArray();
+            }).thenApply(response -> {
+                return newResult(url, response, response.body().length, response.body(), startTime, headersTime[0]);
+            });
+        }
+
+        // The body is counted and discarded as it arrives, so it's never held in memory
+        return myClient.sendAsync(aRequest, responseInfo -> {
+            headersTime[0] = System.nanoTime();
+            return new DiscardingSubscriber();
+        }).thenApply(response -> {
+            return newResult(url, response, response.body(), null, startTime, headersTime[0]);
+        });
+    }
+
+    private static HttpResult newResult(final String aURL, final HttpResponse<?> aResponse, final long aByteCount,
+            final byte[] aBody, final long aStartTime, final long aHeadersTime) {
+        final HttpResult result = new HttpResult(aURL, aResponse.statusCode(), getHeaders(aResponse.headers()),
+                aByteCount, aBody);
+        final long endTime = System.nanoTime();
+
+        result.setElapsedTime(endTime - aStartTime);
+        result.setPhaseTime(RequestPhase.TTFB, aHeadersTime - aStartTime);
+        result.setPhaseTime(RequestPhase.TRANSFER, endTime - aHeadersTime);
+        return result;
+    }
+
+    private static Map<String, List<String>> getHeaders(final HttpHeaders aHeaders) {
+        final Map<String, List<String>> headers = new HashMap<>();
+
+        aHeaders.map().forEach((name, values) -> headers.put(name.toLowerCase(Locale.US), values));
+        return headers;
+    }
+
+    /**
+     * A body subscriber that counts the bytes of the response body without keeping them.
+     */
+    private static final class DiscardingSubscriber implements BodySubscriber<Long> {
+
+        private final CompletableFuture<Long> myByteCount = new CompletableFuture<>();
+
+        private long myCount;
+
+        @Override
+        public CompletionStage<Long> getBody() {
+            return myByteCount;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription aSubscription) {
+            aSubscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final List<ByteBuffer> aBuffers) {
+            for (final ByteBuffer buffer : aBuffers) {
+                myCount += buffer.remaining();
+            }
+        }
+
+        @Override
+        public void onError(final Throwable aError) {
+            myByteCount.completeExceptionally(aError);
+        }
+
+        @Override
+        public void onComplete() {
+            myByteCount.complete(myCount);
+        }
+    }
+
+    /**
+     * A response body that counts the bytes that are read from it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long myCount;
+
+        private CountingInputStream(final InputStream aInStream) {
+            super(aInStream);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+
+            if (read != -1) {
+                myCount += 1;
+            }
+
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] aBuffer, final int aOffset, final int aLength) throws IOException {
+            final int read = super.read(aBuffer, aOffset, aLength);
+
+            if (read > 0) {
+                myCount += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(final long aCount) throws IOException {
+            final long skipped = super.skip(aCount);
+
+            myCount += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return myCount;
+        }
+    }
+}
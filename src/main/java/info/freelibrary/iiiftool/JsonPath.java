@@ -0,0 +1,180 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled path into a parsed JSON document. Paths use the XQuery lookup syntax that the tool's queries were
+ * written in: a series of <code>?name</code>, <code>?('name')</code>, <code>?*</code> and <code>?1</code> (a one-based
+ * array position) steps, as in <code>?sequences?*?canvases?*?thumbnail</code>. Compiled paths are immutable, so they
+ * are cached and shared between threads.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class JsonPath {
+
+    private static final Map<String, JsonPath> CACHE = new ConcurrentHashMap<>();
+
+    private static final String WILDCARD = "*";
+
+    private final String myPath;
+
+    /* Each step is a key (a String), a position (an Integer) or the wildcard */
+    private final Object[] mySteps;
+
+    private JsonPath(final String aPath, final Object[] aSteps) {
+        myPath = aPath;
+        mySteps = aSteps;
+    }
+
+    /**
+     * Compiles a path, or gets it from the cache of paths that have already been compiled.
+     *
+     * @param aPath A path in the XQuery lookup syntax
+     * @return The compiled path
+     * @throws IllegalArgumentException If the path can't be compiled
+     */
+    static JsonPath compile(final String aPath) {
+        return CACHE.computeIfAbsent(aPath, path -> new JsonPath(path, parse(path)));
+    }
+
+    /**
+     * Selects the values at the end of this path.
+     *
+     * @param aRoot The root of a parsed JSON document
+     * @return The selected values, in document order
+     */
+    List<Object> select(final Object aRoot) {
+        List<Object> current = Collections.singletonList(aRoot);
+
+        for (final Object step : mySteps) {
+            final List<Object> next = new ArrayList<>();
+
+            for (final Object value : current) {
+                select(step, value, next);
+            }
+
+            current = next;
+        }
+
+        return current;
+    }
+
+    /**
+     * Returns whether a value at the supplied location in a document is at the end of this path. A location is the
+     * series of keys and (one-based) array positions that lead to a value; it's how a value that's being streamed is
+     * matched, since the document it's in hasn't been parsed.
+     *
+     * @param aLocation The keys and array positions that lead to a value
+     * @param aLength The number of steps in the location
+     * @return True if the value is selected by this path; else, false
+     */
+    boolean matches(final Object[] aLocation, final int aLength) {
+        return aLength == mySteps.length && startsWith(aLocation, aLength);
+    }
+
+    /**
+     * Returns whether a value at the supplied location in a document might contain a value that's selected by this
+     * path. Values that can't are skipped without being looked at.
+     *
+     * @param aLocation The keys and array positions that lead to a value
+     * @param aLength The number of steps in the location
+     * @return True if the value could contain a value that's selected by this path; else, false
+     */
+    boolean isBelow(final Object[] aLocation, final int aLength) {
+        return aLength < mySteps.length && startsWith(aLocation, aLength);
+    }
+
+    @Override
+    public String toString() {
+        return myPath;
+    }
+
+    private boolean startsWith(final Object[] aLocation, final int aLength) {
+        for (int index = 0; index < aLength; index++) {
+            if (mySteps[index] != WILDCARD && !mySteps[index].equals(aLocation[index])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void select(final Object aStep, final Object aValue, final List<Object> aResults) {
+        if (aStep == WILDCARD) {
+            if (aValue instanceof Map) {
+                for (final Object member : ((Map<?, ?>) aValue).values()) {
+                    add(member, aResults);
+                }
+            } else if (aValue instanceof List) {
+                for (final Object member : (List<?>) aValue) {
+                    add(member, aResults);
+                }
+            }
+        } else if (aStep instanceof Integer) {
+            final int index = (Integer) aStep - 1;
+
+            if (aValue instanceof List && index >= 0 && index < ((List<?>) aValue).size()) {
+                add(((List<?>) aValue).get(index), aResults);
+            }
+        } else if (aValue instanceof Map) {
+            add(((Map<?, ?>) aValue).get(aStep), aResults);
+        }
+    }
+
+    private static void add(final Object aValue, final List<Object> aResults) {
+        if (aValue != null) {
+            aResults.add(aValue);
+        }
+    }
+
+    private static Object[] parse(final String aPath) {
+        final List<Object> steps = new ArrayList<>();
+        int index = 0;
+
+        while (index < aPath.length()) {
+            if (aPath.charAt(index) != '?') {
+                throw new IllegalArgumentException("Expected '?' at position " + index + " of path: " + aPath);
+            }
+
+            index += 1;
+
+            if (index < aPath.length() && aPath.charAt(index) == '(') {
+                // A quoted key, like ?('@id')
+                final int end = aPath.indexOf(')', index);
+
+                if (end == -1 || end - index < 3) {
+                    throw new IllegalArgumentException("Unclosed key at position " + index + " of path: " + aPath);
+                }
+
+                steps.add(aPath.substring(index + 2, end - 1));
+                index = end + 1;
+            } else {
+                final int next = aPath.indexOf('?', index);
+                final int end = next == -1 ? aPath.length() : next;
+                final String step = aPath.substring(index, end).trim();
+
+                if (step.isEmpty()) {
+                    throw new IllegalArgumentException("Empty step at position " + index + " of path: " + aPath);
+                } else if (WILDCARD.equals(step)) {
+                    steps.add(WILDCARD);
+                } else if (Character.isDigit(step.charAt(0))) {
+                    try {
+                        steps.add(Integer.valueOf(step));
+                    } catch (final NumberFormatException details) {
+                        throw new IllegalArgumentException("Invalid position in path: " + aPath, details);
+                    }
+                } else {
+                    steps.add(step);
+                }
+
+                index = end;
+            }
+        }
+
+        return steps.toArray();
+    }
+}
@@ -0,0 +1,288 @@
+package info.freelibrary.iiiftool;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.BitSet;
+
+/**
+ * A small, streaming pull parser for JSON. It reads from its source a buffer at a time and hands back one token at a
+ * time, so a document never needs to be held in memory to be read. It's lenient about the separators between values,
+ * but not about the values themselves.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class JsonReader implements Closeable {
+
+    /**
+     * The tokens that a JSON document is made of.
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader myReader;
+
+    private final char[] myBuffer = new char[BUFFER_SIZE];
+
+    private final StringBuilder myText = new StringBuilder();
+
+    /* Whether each open container is an object (set) or an array (clear), indexed by depth */
+    private final BitSet myObjects = new BitSet();
+
+    private int myPosition;
+
+    private int myLimit;
+
+    private int myDepth;
+
+    private boolean myNameIsExpected;
+
+    /**
+     * Creates a new JSON reader.
+     *
+     * @param aReader The source of the JSON document
+     */
+    JsonReader(final Reader aReader) {
+        myReader = aReader;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return The next token
+     * @throws IOException If the document can't be read or isn't valid JSON
+     */
+    Token next() throws IOException {
+        while (true) {
+            final int next = read();
+
+            switch (next) {
+                case -1:
+                    return Token.END_DOCUMENT;
+                case ' ':
+                case '\t':
+                case '\n':
+                case '\r':
+                    break;
+                case ',':
+                    myNameIsExpected = myDepth > 0 && myObjects.get(myDepth);
+                    break;
+                case ':':
+                    myNameIsExpected = false;
+                    break;
+                case '{':
+                    myObjects.set(++myDepth);
+                    myNameIsExpected = true;
+                    return Token.BEGIN_OBJECT;
+                case '[':
+                    myObjects.clear(++myDepth);
+                    myNameIsExpected = false;
+                    return Token.BEGIN_ARRAY;
+                case '}':
+                case ']':
+                    myDepth -= 1;
+                    myNameIsExpected = false;
+                    return next == '}' ? Token.END_OBJECT : Token.END_ARRAY;
+                case '"':
+                    readString();
+
+                    if (myNameIsExpected) {
+                        myNameIsExpected = false;
+                        return Token.NAME;
+                    }
+
+                    return Token.STRING;
+                case 't':
+                    expect("rue");
+                    return Token.TRUE;
+                case 'f':
+                    expect("alse");
+                    return Token.FALSE;
+                case 'n':
+                    expect("ull");
+                    return Token.NULL;
+                default:
+                    if (next == '-' || next >= '0' && next <= '9') {
+                        readNumber((char) next);
+                        return Token.NUMBER;
+                    }
+
+                    throw new IOException("Unexpected character in JSON: " + (char) next);
+            }
+        }
+    }
+
+    /**
+     * Gets the text of the last name, string or number token.
+     *
+     * @return The text of the last token
+     */
+    String getText() {
+        return myText.toString();
+    }
+
+    /**
+     * Returns whether the text of the last token is equal to the supplied string, without creating a new string.
+     *
+     * @param aString A string to compare to the last token's text
+     * @return True if the last token's text is equal to the supplied string; else, false
+     */
+    boolean textEquals(final String aString) {
+        if (myText.length() != aString.length()) {
+            return false;
+        }
+
+        for (int index = 0; index < aString.length(); index++) {
+            if (myText.charAt(index) != aString.charAt(index)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the depth of the last token; the document's root value is at a depth of one.
+     *
+     * @return The depth of the last token
+     */
+    int getDepth() {
+        return myDepth;
+    }
+
+    /**
+     * Skips the rest of the value that the supplied token begins.
+     *
+     * @param aToken The first token of the value to skip
+     * @throws IOException If the document can't be read
+     */
+    void skipValue(final Token aToken) throws IOException {
+        if (aToken == Token.BEGIN_OBJECT || aToken == Token.BEGIN_ARRAY) {
+            final int depth = myDepth;
+
+            while (myDepth >= depth) {
+                if (next() == Token.END_DOCUMENT) {
+                    throw new EOFException("JSON document ended inside a value");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        myReader.close();
+    }
+
+    private int read() throws IOException {
+        if (myPosition == myLimit) {
+            myLimit = myReader.read(myBuffer, 0, myBuffer.length);
+            myPosition = 0;
+
+            if (myLimit <= 0) {
+                myLimit = 0;
+                return -1;
+            }
+        }
+
+        return myBuffer[myPosition++];
+    }
+
+    private void readString() throws IOException {
+        myText.setLength(0);
+
+        while (true) {
+            final int next = read();
+
+            if (next == '"') {
+                return;
+            } else if (next == -1) {
+                throw new EOFException("JSON document ended inside a string");
+            } else if (next == '\\') {
+                final int escaped = read();
+
+                switch (escaped) {
+                    case 'n':
+                        myText.append('\n');
+                        break;
+                    case 't':
+                        myText.append('\t');
+                        break;
+                    case 'r':
+                        myText.append('\r');
+                        break;
+                    case 'b':
+                        myText.append('\b');
+                        break;
+                    case 'f':
+                        myText.append('\f');
+                        break;
+                    case 'u':
+                        myText.append((char) Integer.parseInt(new String(new char[] { readChar(), readChar(),
+                            readChar(), readChar() }), 16));
+                        break;
+                    case -1:
+                        throw new EOFException("JSON document ended inside a string");
+                    default:
+                        myText.append((char) escaped);
+                }
+            } else {
+                myText.append((char) next);
+            }
+        }
+    }
+
+    private char readChar() throws IOException {
+        final int next = read();
+
+        if (next == -1) {
+            throw new EOFException("JSON document ended inside a string");
+        }
+
+        return (char) next;
+    }
+
+    private void readNumber(final char aFirst) throws IOException {
+        myText.setLength(0);
+        myText.append(aFirst);
+
+        while (true) {
+            if (myPosition == myLimit && peekFill() == -1) {
+                return;
+            }
+
+            final char next = myBuffer[myPosition];
+
+            if (next >= '0' && next <= '9' || next == '.' || next == 'e' || next == 'E' || next == '-' ||
+                    next == '+') {
+                myText.append(next);
+                myPosition += 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int peekFill() throws IOException {
+        myLimit = myReader.read(myBuffer, 0, myBuffer.length);
+        myPosition = 0;
+
+        if (myLimit <= 0) {
+            myLimit = 0;
+            return -1;
+        }
+
+        return myLimit;
+    }
+
+    private void expect(final String aRest) throws IOException {
+        for (int index = 0; index < aRest.length(); index++) {
+            if (read() != aRest.charAt(index)) {
+                throw new IOException("Invalid literal in JSON");
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package info.freelibrary.iiiftool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free, allocation-free latency recorder. Values are recorded in microseconds into log-linear buckets (in the
+ * style of HdrHistogram): values below 128 are recorded exactly and each power of two above that is divided into 64
+ * sub-buckets, which keeps every recorded value within 1.6% of its true value. Counts are striped across a few
+ * arrays, of about 16 KB each, so that threads recording at the same time rarely touch the same cache line;
+ * histograms that are only merged into need just one.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LatencyHistogram {
+
+    /* The largest value that can be tracked, in microseconds (about nineteen hours); larger values are clamped */
+    static final long MAX_VALUE = (1L << 36) - 1;
+
+    /* The number of bits used to count the sub-buckets that each power of two is divided into */
+    static final int SUB_BUCKET_BITS = 6;
+
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /* The number of buckets needed to cover every value up to the maximum */
+    static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    /* The most stripes a histogram has, however many processors there are, since a report holds dozens of them */
+    static final int MAX_STRIPES = 8;
+
+    /* The number of stripes a histogram that's recorded into by many threads has */
+    static final int STRIPE_COUNT = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, Runtime.getRuntime()
+            .availableProcessors() - 1)) << 1);
+
+    private final AtomicLongArray[] myStripes;
+
+    private final int myStripeMask;
+
+    private final LongAdder mySum;
+
+    private final AtomicLong myMax;
+
+    /**
+     * Creates a new latency histogram.
+     */
+    public LatencyHistogram() {
+        this(STRIPE_COUNT);
+    }
+
+    /**
+     * Creates a new latency histogram with the supplied number of stripes, which is rounded down to a power of two.
+     * A histogram that's only recorded into by one thread at a time, or only merged into, needs just one.
+     *
+     * @param aStripeCount The number of stripes that the histogram's counts are spread across
+     * @throws IllegalArgumentException If the number of stripes isn't positive
+     */
+    LatencyHistogram(final int aStripeCount) {
+        final int stripeCount;
+
+        if (aStripeCount < 1) {
+            throw new IllegalArgumentException("Stripe count should be positive: " + aStripeCount);
+        }
+
+        stripeCount = Integer.highestOneBit(aStripeCount);
+        myStripes = new AtomicLongArray[stripeCount];
+        myStripeMask = stripeCount - 1;
+        mySum = new LongAdder();
+        myMax = new AtomicLong();
+
+        for (int index = 0; index < stripeCount; index++) {
+            myStripes[index] = new AtomicLongArray(BUCKET_COUNT);
+        }
+    }
+
+    /**
+     * Records a latency value.
+     *
+     * @param aMicros A latency expressed in microseconds
+     */
+    public void record(final long aMicros) {
+        final long value = Math.min(Math.max(aMicros, 0), MAX_VALUE);
+        final int stripe = (int) (Thread.currentThread().getId() & myStripeMask);
+
+        long max;
+
+        myStripes[stripe].incrementAndGet(indexOf(value));
+        mySum.add(value);
+
+        while (value > (max = myMax.get()) && !myMax.compareAndSet(max, value)) {
+            // Keep trying until we've set a new max or another thread has set a larger one
+        }
+    }
+
+    /**
+     * Records a latency value expressed in nanoseconds.
+     *
+     * @param aNanos A latency expressed in nanoseconds
+     */
+    public void recordNanos(final long aNanos) {
+        record(aNanos / 1000);
+    }
+
+    /**
+     * Gets a point-in-time copy of the recorded values. Values recorded while the snapshot is being taken may or may
+     * not be included in it.
+     *
+     * @return A snapshot of the histogram
+     */
+    public HistogramSnapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+
+        for (final AtomicLongArray stripe : myStripes) {
+            for (int index = 0; index < BUCKET_COUNT; index++) {
+                counts[index] += stripe.get(index);
+            }
+        }
+
+        return new HistogramSnapshot(counts, mySum.sum(), myMax.get());
+    }
+
+    /**
+     * Adds the values of a snapshot, such as one taken of another process' histogram, to this histogram.
+     *
+     * @param aSnapshot A histogram snapshot
+     */
+    void add(final HistogramSnapshot aSnapshot) {
+        final AtomicLongArray stripe = myStripes[(int) (Thread.currentThread().getId() & myStripeMask)];
+        final long[] counts = aSnapshot.getCounts();
+        final long value = aSnapshot.getMax();
+
+        long max;
+
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            if (counts[index] != 0) {
+                stripe.addAndGet(index, counts[index]);
+            }
+        }
+
+        mySum.add(aSnapshot.getSum());
+
+        while (value > (max = myMax.get()) && !myMax.compareAndSet(max, value)) {
+            // Keep trying until we've set a new max or another thread has set a larger one
+        }
+    }
+
+    /**
+     * Clears the recorded values. This isn't atomic, so values recorded while the histogram is being reset may or may
+     * not be cleared; it's meant for histograms that aren't being recorded into, like the retired slots of a sliding
+     * window.
+     */
+    void reset() {
+        for (final AtomicLongArray stripe : myStripes) {
+            for (int index = 0; index < BUCKET_COUNT; index++) {
+                stripe.set(index, 0);
+            }
+        }
+
+        mySum.reset();
+        myMax.set(0);
+    }
+
+    /**
+     * Gets the index of the bucket that the supplied value is counted in.
+     *
+     * @param aValue A value between zero and the maximum value
+     * @return The index of the value's bucket
+     */
+    static int indexOf(final long aValue) {
+        if (aValue < SUB_BUCKET_COUNT << 1) {
+            return (int) aValue;
+        }
+
+        // The number of low-order bits that are dropped at this value's magnitude
+        final int shift = Long.SIZE - SUB_BUCKET_BITS - 1 - Long.numberOfLeadingZeros(aValue);
+        return (shift << SUB_BUCKET_BITS) + (int) (aValue >>> shift);
+    }
+
+    /**
+     * Gets the lowest value that is counted in the supplied bucket.
+     *
+     * @param aIndex A bucket index
+     * @return The lowest value counted in the bucket
+     */
+    static long lowestValueAt(final int aIndex) {
+        if (aIndex < SUB_BUCKET_COUNT << 1) {
+            return aIndex;
+        }
+
+        return (long) ((aIndex & SUB_BUCKET_COUNT - 1) + SUB_BUCKET_COUNT) << shiftAt(aIndex);
+    }
+
+    /**
+     * Gets the highest value that is counted in the supplied bucket.
+     *
+     * @param aIndex A bucket index
+     * @return The highest value counted in the bucket
+     */
+    static long highestValueAt(final int aIndex) {
+        if (aIndex < SUB_BUCKET_COUNT << 1) {
+            return aIndex;
+        }
+
+        return lowestValueAt(aIndex) + (1L << shiftAt(aIndex)) - 1;
+    }
+
+    private static int shiftAt(final int aIndex) {
+        return (aIndex >> SUB_BUCKET_BITS) - 1;
+    }
+}
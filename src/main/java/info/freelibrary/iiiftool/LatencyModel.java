@@ -0,0 +1,113 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of latencies from which the stand-in server draws the delay it adds to each response.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+@FunctionalInterface
+public interface LatencyModel {
+
+    /** A model that adds no latency */
+    LatencyModel NONE = () -> 0;
+
+    /**
+     * Draws a latency from the distribution.
+     *
+     * @return A latency in nanoseconds
+     */
+    long sample();
+
+    /**
+     * Gets a model that always adds the same latency.
+     *
+     * @param aMillis The latency in milliseconds
+     * @return A fixed latency model
+     */
+    static LatencyModel fixed(final double aMillis) {
+        final long nanos = toNanos(aMillis);
+        return () -> nanos;
+    }
+
+    /**
+     * Gets a model whose latencies are spread evenly between a minimum and a maximum.
+     *
+     * @param aMinMillis The minimum latency in milliseconds
+     * @param aMaxMillis The maximum latency in milliseconds
+     * @return A uniform latency model
+     * @throws IllegalArgumentException If the maximum is less than the minimum
+     */
+    static LatencyModel uniform(final double aMinMillis, final double aMaxMillis) {
+        final long min = toNanos(aMinMillis);
+        final long max = toNanos(aMaxMillis);
+
+        if (max < min) {
+            throw new IllegalArgumentException("Maximum latency is less than the minimum: " + aMaxMillis);
+        }
+
+        return () -> min + (long) (ThreadLocalRandom.current().nextDouble() * (max - min));
+    }
+
+    /**
+     * Gets a model whose latencies are log-normally distributed, like those of most real servers: clustered around
+     * the median with a long tail.
+     *
+     * @param aMedianMillis The median latency in milliseconds
+     * @param aP99Millis The 99th percentile latency in milliseconds
+     * @return A log-normal latency model
+     * @throws IllegalArgumentException If the 99th percentile is less than the median
+     */
+    static LatencyModel logNormal(final double aMedianMillis, final double aP99Millis) {
+        if (aMedianMillis <= 0 || aP99Millis < aMedianMillis) {
+            throw new IllegalArgumentException("Log-normal latency needs 0 < median <= p99: " + aMedianMillis + ", " +
+                    aP99Millis);
+        }
+
+        final double median = toNanos(aMedianMillis);
+        // The 99th percentile of a standard normal distribution is 2.326 standard deviations above its mean
+        final double sigma = Math.log(aP99Millis / aMedianMillis) / 2.326;
+
+        return () -> (long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * Parses a latency model from a specification: a number of milliseconds (e.g., <code>50</code>), a uniform range
+     * (<code>uniform:20:80</code>) or a log-normal distribution's median and 99th percentile
+     * (<code>lognormal:50:400</code>).
+     *
+     * @param aSpec A latency model specification
+     * @return The specified latency model
+     * @throws IllegalArgumentException If the specification can't be parsed
+     */
+    static LatencyModel parse(final String aSpec) {
+        final String[] parts = aSpec.toLowerCase(Locale.US).split(":");
+
+        try {
+            if (parts.length == 1) {
+                return fixed(Double.parseDouble(parts[0]));
+            } else if (parts.length == 2 && "fixed".equals(parts[0])) {
+                return fixed(Double.parseDouble(parts[1]));
+            } else if (parts.length == 3 && "uniform".equals(parts[0])) {
+                return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            } else if (parts.length == 3 && "lognormal".equals(parts[0])) {
+                return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            }
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Latency should be in milliseconds: " + aSpec, details);
+        }
+
+        throw new IllegalArgumentException("Unknown latency model: " + aSpec);
+    }
+
+    private static long toNanos(final double aMillis) {
+        if (aMillis < 0) {
+            throw new IllegalArgumentException("Latency can't be negative: " + aMillis);
+        }
+
+        return (long) (aMillis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
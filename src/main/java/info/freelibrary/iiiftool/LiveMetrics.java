@@ -0,0 +1,413 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * Metrics that can be watched while a long run is still going: the requests in flight, running totals and, over a
+ * sliding window, the throughput, errors and latency percentiles of each type of request. They can be logged as
+ * periodic progress and scraped, in Prometheus' text format, through a {@link MetricsServer} that they start and stop.
+ * <p>
+ * Recording is lock-free and doesn't allocate. The window is divided into slots, each with its own histogram and
+ * counters, and a background thread retires the oldest slot at the end of each slot's time; requests are always
+ * recorded into the newest slot, so recording never waits on reporting.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LiveMetrics implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LiveMetrics.class);
+
+    /* The number of slots the sliding window is divided into */
+    private static final int SLOT_COUNT = 6;
+
+    /* The percentiles of the window's latencies that are exported */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final String PREFIX = "iiif_tool_";
+
+    private static final String DURATION = "request_duration_seconds";
+
+    private static final String GAUGE = "gauge";
+
+    private static final String COUNTER = "counter";
+
+    private static final String SUMMARY = "summary";
+
+    private static final double MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<RequestType, Counters> myCounters;
+
+    private final ScheduledExecutorService myScheduler;
+
+    /* When each slot started; the slot after the current one is the oldest */
+    private final AtomicLongArray mySlotStarts;
+
+    private final long myStartTime;
+
+    private volatile int mySlot;
+
+    private MetricsServer myServer;
+
+    /**
+     * Creates new live metrics.
+     *
+     * @param aWindow The number of seconds that the sliding window covers
+     * @param aProgressInterval The number of seconds between progress reports in the log, or zero for none
+     * @throws IllegalArgumentException If the window isn't positive or the progress interval is negative
+     */
+    public LiveMetrics(final long aWindow, final long aProgressInterval) {
+        final long slotLength = TimeUnit.SECONDS.toNanos(aWindow) / SLOT_COUNT;
+
+        if (aWindow <= 0 || aProgressInterval < 0) {
+            throw new IllegalArgumentException("Window must be positive and progress interval can't be negative");
+        }
+
+        myCounters = new EnumMap<>(RequestType.class);
+        myStartTime = System.nanoTime();
+        mySlotStarts = new AtomicLongArray(SLOT_COUNT);
+
+        for (final RequestType type : RequestType.values()) {
+            myCounters.put(type, new Counters());
+        }
+
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            mySlotStarts.set(slot, myStartTime);
+        }
+
+        myScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "live-metrics");
+
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        myScheduler.scheduleAtFixedRate(this::rotate, slotLength, slotLength, TimeUnit.NANOSECONDS);
+
+        if (aProgressInterval > 0) {
+            myScheduler.scheduleAtFixedRate(this::logProgress, aProgressInterval, aProgressInterval,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Notes the start of a request, which is counted as in flight until it's added or fails.
+     *
+     * @param aType The type of request that was started
+     */
+    public void start(final RequestType aType) {
+        myCounters.get(aType).myInFlight.increment();
+    }
+
+    /**
+     * Adds a completed request.
+     *
+     * @param aType The type of request that was made
+     * @param aNanos The number of nanoseconds the request took
+     * @param aByteCount The number of bytes that were downloaded
+     * @param aStatus The HTTP status code of the response
+     */
+    public void add(final RequestType aType, final long aNanos, final long aByteCount, final int aStatus) {
+        final Counters counters = myCounters.get(aType);
+        final int slot = mySlot;
+
+        counters.myInFlight.decrement();
+        counters.myRequests.increment();
+        counters.myNanos.add(aNanos);
+        counters.myBytes.add(aByteCount);
+        counters.myTimes[slot].recordNanos(aNanos);
+        counters.myWindowBytes[slot].add(aByteCount);
+
+        if (aStatus < 200 || aStatus >= 400) {
+            counters.myErrors.increment();
+            counters.myWindowErrors[slot].increment();
+        }
+    }
+
+    /**
+     * Adds a request that a browser cache answered, which never reached the server, so it's only no longer in flight.
+     *
+     * @param aType The type of request that was made
+     */
+    public void addCacheHit(final RequestType aType) {
+        myCounters.get(aType).myInFlight.decrement();
+    }
+
+    /**
+     * Adds a request that got no response.
+     *
+     * @param aType The type of request that was made
+     */
+    public void addError(final RequestType aType) {
+        final Counters counters = myCounters.get(aType);
+
+        counters.myInFlight.decrement();
+        counters.myErrors.increment();
+        counters.myWindowErrors[mySlot].increment();
+    }
+
+    /**
+     * Gets the number of requests of the supplied type that are in flight.
+     *
+     * @param aType A type of request
+     * @return The number of requests in flight
+     */
+    public long getInFlightCount(final RequestType aType) {
+        return myCounters.get(aType).myInFlight.sum();
+    }
+
+    /**
+     * Gets a snapshot of the latencies of the supplied type of request over the sliding window.
+     *
+     * @param aType A type of request
+     * @return A snapshot of the window's latencies, expressed in microseconds
+     */
+    public HistogramSnapshot getTimes(final RequestType aType) {
+        HistogramSnapshot snapshot = new HistogramSnapshot();
+
+        for (final LatencyHistogram histogram : myCounters.get(aType).myTimes) {
+            snapshot = snapshot.merge(histogram.snapshot());
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Gets the number of bytes per second downloaded for the supplied type of request over the sliding window.
+     *
+     * @param aType A type of request
+     * @return The window's download rate in bytes per second
+     */
+    public double getByteRate(final RequestType aType) {
+        return sum(myCounters.get(aType).myWindowBytes) / getWindowSeconds();
+    }
+
+    /**
+     * Gets the number of errors for the supplied type of request over the sliding window.
+     *
+     * @param aType A type of request
+     * @return The number of errors in the window
+     */
+    public long getWindowErrorCount(final RequestType aType) {
+        return sum(myCounters.get(aType).myWindowErrors);
+    }
+
+    /**
+     * Gets the metrics in Prometheus' text exposition format.
+     *
+     * @return The metrics as Prometheus text
+     */
+    public String toPrometheus() {
+        final Map<RequestType, HistogramSnapshot> times = new EnumMap<>(RequestType.class);
+        final double seconds = getWindowSeconds();
+        final StringBuilder builder = new StringBuilder();
+
+        for (final RequestType type : RequestType.values()) {
+            times.put(type, getTimes(type));
+        }
+
+        metric(builder, "requests_in_flight", GAUGE, "Requests that have been started but haven't finished",
+                this::getInFlightCount);
+        metric(builder, "requests_total", COUNTER, "Requests that have finished", type -> myCounters.get(type)
+                .myRequests.sum());
+        metric(builder, "errors_total", COUNTER, "Requests that failed or got an error status", type -> myCounters
+                .get(type).myErrors.sum());
+        metric(builder, "response_bytes_total", COUNTER, "Response body bytes downloaded", type -> myCounters.get(
+                type).myBytes.sum());
+        metric(builder, "requests_per_second", GAUGE, "Requests finished per second over the sliding window",
+                type -> times.get(type).getCount() / seconds);
+        metric(builder, "bytes_per_second", GAUGE, "Response body bytes per second over the sliding window",
+                this::getByteRate);
+
+        // A summary's quantiles are over the sliding window, but its sum and count are running totals
+        for (final double quantile : QUANTILES) {
+            metric(builder, DURATION + "{quantile=\"" + quantile + "\"}", SUMMARY,
+                    "Request latency, with percentiles over the sliding window", type -> times.get(type)
+                            .getValueAtPercentile(quantile * 100) / MICROS_PER_SECOND);
+        }
+
+        samples(builder, PREFIX + DURATION + "_sum", "", type -> myCounters.get(type).myNanos.sum() /
+                NANOS_PER_SECOND);
+        samples(builder, PREFIX + DURATION + "_count", "", type -> myCounters.get(type).myRequests.sum());
+
+        return builder.toString();
+    }
+
+    /**
+     * Logs the run's progress: the totals across all types of request and then the window's metrics for each type
+     * that's been active.
+     */
+    public void logProgress() {
+        final double seconds = getWindowSeconds();
+
+        long inFlight = 0;
+        long count = 0;
+        long errors = 0;
+        double byteRate = 0;
+
+        for (final RequestType type : RequestType.values()) {
+            inFlight += getInFlightCount(type);
+            count += getTimes(type).getCount();
+            errors += getWindowErrorCount(type);
+            byteRate += getByteRate(type);
+        }
+
+        LOGGER.info("Progress [{} s]: {} in flight, {} {} errors over the last {} s", TimeUnit.NANOSECONDS.toSeconds(
+                System.nanoTime() - myStartTime), inFlight, format(count / seconds, byteRate), errors, Math.round(
+                        seconds));
+
+        for (final RequestType type : RequestType.values()) {
+            final HistogramSnapshot times = getTimes(type);
+
+            if (times.getCount() > 0 || getInFlightCount(type) > 0 || getWindowErrorCount(type) > 0) {
+                LOGGER.info("  {}: {} in flight, {} {} errors | {}", type, getInFlightCount(type), format(times
+                        .getCount() / seconds, getByteRate(type)), getWindowErrorCount(type), times);
+            }
+        }
+    }
+
+    /**
+     * Serves the metrics, from a server that's stopped when the metrics are closed.
+     *
+     * @param aPort The port to serve the metrics on, or zero for any free port
+     * @return These live metrics
+     * @throws IOException If the server can't listen on the port
+     */
+    public LiveMetrics serve(final int aPort) throws IOException {
+        myServer = new MetricsServer(this, aPort).start();
+        return this;
+    }
+
+    /**
+     * Stops the background thread that slides the window and logs progress, and the server if the metrics are served.
+     */
+    @Override
+    public void close() {
+        myScheduler.shutdownNow();
+
+        if (myServer != null) {
+            myServer.close();
+        }
+    }
+
+    /**
+     * Retires the oldest slot, clearing it and making it the slot that requests are recorded into.
+     */
+    private void rotate() {
+        final int next = (mySlot + 1) % SLOT_COUNT;
+
+        // The oldest slot is cleared before it's current, so no request is recorded into it while it's cleared
+        for (final Counters counters : myCounters.values()) {
+            counters.myTimes[next].reset();
+            counters.myWindowBytes[next].reset();
+            counters.myWindowErrors[next].reset();
+        }
+
+        mySlotStarts.set(next, System.nanoTime());
+        mySlot = next;
+    }
+
+    /**
+     * Gets the number of seconds that the window's slots currently cover, which is less than the whole window until
+     * the run has gone on for as long as the window.
+     */
+    private double getWindowSeconds() {
+        final long start = mySlotStarts.get((mySlot + 1) % SLOT_COUNT);
+        return Math.max(System.nanoTime() - start, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static String format(final double aRequestRate, final double aByteRate) {
+        return String.format(Locale.US, "%.1f req/s, %.1f KB/s,", aRequestRate, aByteRate / 1024);
+    }
+
+    private static long sum(final LongAdder[] aAdders) {
+        long sum = 0;
+
+        for (final LongAdder adder : aAdders) {
+            sum += adder.sum();
+        }
+
+        return sum;
+    }
+
+    /**
+     * Writes a metric's samples, one for each type of request. A metric's header is only written for its first set
+     * of labels, so the metric can be written once for each value of another label (like a quantile).
+     */
+    private static void metric(final StringBuilder aBuilder, final String aName, final String aType,
+            final String aHelp, final ToDoubleFunction<RequestType> aValue) {
+        final int labelIndex = aName.indexOf('{');
+        final String name = PREFIX + (labelIndex == -1 ? aName : aName.substring(0, labelIndex));
+        final String labels = labelIndex == -1 ? "" : aName.substring(labelIndex + 1, aName.length() - 1) + ',';
+
+        if (aBuilder.indexOf("# TYPE " + name + ' ') == -1) {
+            aBuilder.append("# HELP ").append(name).append(' ').append(aHelp).append('\n');
+            aBuilder.append("# TYPE ").append(name).append(' ').append(aType).append('\n');
+        }
+
+        samples(aBuilder, name, labels, aValue);
+    }
+
+    /**
+     * Writes a sample for each type of request, with the supplied labels (each followed by a comma) ahead of the type.
+     */
+    private static void samples(final StringBuilder aBuilder, final String aName, final String aLabels,
+            final ToDoubleFunction<RequestType> aValue) {
+        for (final RequestType type : RequestType.values()) {
+            final double value = aValue.applyAsDouble(type);
+
+            aBuilder.append(aName).append('{').append(aLabels).append("type=\"").append(type).append("\"} ");
+
+            if (value == Math.rint(value)) {
+                aBuilder.append((long) value).append('\n');
+            } else {
+                aBuilder.append(String.format(Locale.US, "%.6f", value)).append('\n');
+            }
+        }
+    }
+
+    /**
+     * The counters for a type of request: running totals and, for each slot of the window, a histogram and counts.
+     */
+    private static final class Counters {
+
+        private final LongAdder myInFlight = new LongAdder();
+
+        private final LongAdder myRequests = new LongAdder();
+
+        /* The total time of the requests that have finished */
+        private final LongAdder myNanos = new LongAdder();
+
+        private final LongAdder myBytes = new LongAdder();
+
+        private final LongAdder myErrors = new LongAdder();
+
+        private final LatencyHistogram[] myTimes = new LatencyHistogram[SLOT_COUNT];
+
+        private final LongAdder[] myWindowBytes = new LongAdder[SLOT_COUNT];
+
+        private final LongAdder[] myWindowErrors = new LongAdder[SLOT_COUNT];
+
+        private Counters() {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                myTimes[slot] = new LatencyHistogram();
+                myWindowBytes[slot] = new LongAdder();
+                myWindowErrors[slot] = new LongAdder();
+            }
+        }
+    }
+}
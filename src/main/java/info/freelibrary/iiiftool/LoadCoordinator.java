@@ -0,0 +1,367 @@
+package info.freelibrary.iiiftool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * The coordinator of a distributed load run, which spreads a load run's sessions across {@link LoadWorker}s (in other
+ * processes, on this machine or others) so that the load isn't limited by what one process or one network card can
+ * do. Each worker gets an even shard of the arrival rate, which it prepares before the run starts, and, once every
+ * worker is ready, the same start time: the coordinator reads each worker's clock a few times and uses the reading
+ * with the shortest round trip to translate the start time to the worker's clock. The workers' report snapshots are
+ * merged as they arrive, to show progress, and their final reports are merged into a single report.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LoadCoordinator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadCoordinator.class);
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(10);
+
+    /* A worker that's silent for this long, though it sends snapshots every few seconds, is taken to be lost */
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(LoadWorker.SNAPSHOT_INTERVAL * 6);
+
+    /* A worker sends nothing while it prepares its job, which may mean expanding a large scenario's collections */
+    private static final int PREPARE_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(30);
+
+    private static final int CLOCK_READINGS = 8;
+
+    /* How far ahead the start time is set, so that every ready worker has it before the run starts */
+    private static final long START_LEAD = TimeUnit.SECONDS.toMillis(2);
+
+    private final List<InetSocketAddress> myWorkers;
+
+    private int myProgressInterval = 10;
+
+    /**
+     * Creates a new load coordinator.
+     *
+     * @param aWorkers The workers' addresses, as <code>host:port</code>
+     * @throws IllegalArgumentException If there are no workers or an address can't be parsed
+     */
+    public LoadCoordinator(final List<String> aWorkers) {
+        myWorkers = new ArrayList<>(aWorkers.size());
+
+        for (final String worker : aWorkers) {
+            final int index = worker.lastIndexOf(':');
+
+            try {
+                myWorkers.add(InetSocketAddress.createUnresolved(worker.substring(0, index), Integer.parseInt(worker
+                        .substring(index + 1))));
+            } catch (final IndexOutOfBoundsException | IllegalArgumentException details) {
+                throw new IllegalArgumentException("Worker address should be host:port: " + worker, details);
+            }
+        }
+
+        if (myWorkers.isEmpty()) {
+            throw new IllegalArgumentException("At least one worker is needed");
+        }
+    }
+
+    /**
+     * Sets the number of seconds between progress reports, which merge the workers' latest snapshots.
+     *
+     * @param aSeconds The number of seconds between progress reports
+     * @return This load coordinator
+     * @throws IllegalArgumentException If the interval isn't positive
+     */
+    public LoadCoordinator setProgress(final int aSeconds) {
+        if (aSeconds < 1) {
+            throw new IllegalArgumentException("Progress interval should be positive: " + aSeconds);
+        }
+
+        myProgressInterval = aSeconds;
+        return this;
+    }
+
+    /**
+     * Runs a load job across the workers, giving each an even shard of the arrival rate, and merges their reports.
+     *
+     * @param aJob The load mode's arguments, which each worker runs with its shard of the rate
+     * @param aRate The number of sessions to start each second, across all the workers
+     * @return The merged report of the workers' measured sessions
+     * @throws IOException If a worker can't be reached or fails
+     * @throws InterruptedException If interrupted while waiting for the workers
+     */
+    public DownloadReport run(final List<String> aJob, final double aRate) throws IOException,
+            InterruptedException {
+        final List<Worker> workers = new ArrayList<>(myWorkers.size());
+        final CountDownLatch finished = new CountDownLatch(myWorkers.size());
+        final DownloadReport report = DownloadReport.forMerging();
+        final long startTime;
+
+        try {
+            for (final InetSocketAddress address : myWorkers) {
+                workers.add(new Worker(address));
+            }
+
+            for (final Worker worker : workers) {
+                worker.prepare(aJob, aRate / workers.size());
+            }
+
+            for (final Worker worker : workers) {
+                worker.awaitReady();
+            }
+
+            startTime = System.currentTimeMillis() + START_LEAD;
+
+            for (final Worker worker : workers) {
+                worker.start(startTime);
+            }
+
+            LOGGER.info("Started {} workers at {} sessions/sec each", workers.size(), aRate / workers.size());
+
+            for (final Worker worker : workers) {
+                final Thread receiver = new Thread(() -> worker.receive(finished), "worker-" + worker);
+
+                receiver.setDaemon(true);
+                receiver.start();
+            }
+
+            while (!finished.await(myProgressInterval, TimeUnit.SECONDS)) {
+                logProgress(workers);
+            }
+
+            for (final Worker worker : workers) {
+                if (worker.myError != null) {
+                    throw new IOException("Worker " + worker + " failed: " + worker.myError);
+                }
+
+                worker.mergeInto(report);
+            }
+
+            return report;
+        } finally {
+            for (final Worker worker : workers) {
+                worker.close();
+            }
+        }
+    }
+
+    /**
+     * Logs the merged progress of the workers' latest snapshots.
+     */
+    private static void logProgress(final List<Worker> aWorkers) throws IOException {
+        final DownloadReport report = DownloadReport.forMerging();
+        final HistogramSnapshot pageLoads;
+        final HistogramSnapshot tiles;
+
+        int doneCount = 0;
+
+        for (final Worker worker : aWorkers) {
+            worker.mergeInto(report);
+            doneCount += worker.myReportIsFinal ? 1 : 0;
+        }
+
+        pageLoads = report.getTimes(Phase.PAGE_LOAD);
+        tiles = report.getTimes(RequestType.TILE);
+
+        LOGGER.info("Workers done: {} of {} | {} measured sessions, page load p99={} ms | {} tiles ({} errors), " +
+                "tile p99={} ms", doneCount, aWorkers.size(), pageLoads.getCount(), TimeUnit.MICROSECONDS.toMillis(
+                        pageLoads.getValueAtPercentile(99)), tiles.getCount(), report.getErrorCount(RequestType.TILE),
+                TimeUnit.MICROSECONDS.toMillis(tiles.getValueAtPercentile(99)));
+    }
+
+    /**
+     * A connection to a worker, and the latest report it's sent.
+     */
+    private static final class Worker {
+
+        private final InetSocketAddress myAddress;
+
+        private final Socket mySocket;
+
+        private final DataInputStream myInput;
+
+        private final DataOutputStream myOutput;
+
+        /* How far the worker's clock is ahead of this one, in milliseconds */
+        private long myClockOffset;
+
+        private volatile byte[] myReport;
+
+        private volatile boolean myReportIsFinal;
+
+        private volatile String myError;
+
+        /**
+         * Connects to a worker.
+         */
+        private Worker(final InetSocketAddress aAddress) throws IOException {
+            myAddress = aAddress;
+            mySocket = new Socket();
+
+            try {
+                mySocket.connect(new InetSocketAddress(aAddress.getHostString(), aAddress.getPort()),
+                        CONNECT_TIMEOUT);
+                mySocket.setSoTimeout(READ_TIMEOUT);
+                myInput = new DataInputStream(new BufferedInputStream(mySocket.getInputStream()));
+                myOutput = new DataOutputStream(new BufferedOutputStream(mySocket.getOutputStream()));
+
+                myOutput.writeInt(LoadWorker.MAGIC);
+                myOutput.writeInt(LoadWorker.VERSION);
+                myOutput.flush();
+
+                if (myInput.readInt() != LoadWorker.MAGIC || myInput.readInt() != LoadWorker.VERSION) {
+                    throw new IOException("Not a worker for this version of the tool");
+                }
+            } catch (final IOException details) {
+                mySocket.close();
+                throw new IOException("Couldn't connect to worker " + this + ": " + details.getMessage(), details);
+            }
+        }
+
+        /**
+         * Reads the worker's clock several times and, from the reading with the shortest round trip, works out how
+         * far its clock is ahead of this one, assuming the reading was taken halfway through the round trip.
+         */
+        private long readClock() throws IOException {
+            long bestRoundTrip = Long.MAX_VALUE;
+            long offset = 0;
+
+            for (int reading = 0; reading < CLOCK_READINGS; reading++) {
+                final long sendTime = System.nanoTime();
+                final long localTime = System.currentTimeMillis();
+                final long roundTrip;
+                final long remoteTime;
+
+                myOutput.writeByte(LoadWorker.CLOCK);
+                myOutput.flush();
+
+                if (myInput.readByte() != LoadWorker.CLOCK) {
+                    throw new IOException("Unexpected reply to a clock reading");
+                }
+
+                remoteTime = myInput.readLong();
+                roundTrip = System.nanoTime() - sendTime;
+
+                if (roundTrip < bestRoundTrip) {
+                    bestRoundTrip = roundTrip;
+                    offset = remoteTime - (localTime + TimeUnit.NANOSECONDS.toMillis(roundTrip) / 2);
+                }
+            }
+
+            LOGGER.info("Worker {} is ready (clock offset {} ms, round trip {} ms)", this, offset,
+                    String.format(Locale.US, "%.2f", bestRoundTrip / (double) TimeUnit.MILLISECONDS
+                            .toNanos(1)));
+            return offset;
+        }
+
+        /**
+         * Sends the worker its job, with its shard of the rate, for it to prepare.
+         */
+        private void prepare(final List<String> aJob, final double aRate) throws IOException {
+            myOutput.writeByte(LoadWorker.JOB);
+            myOutput.writeInt(aJob.size() + 1);
+
+            for (final String arg : aJob) {
+                myOutput.writeUTF(arg);
+            }
+
+            // Options that come later replace those that came before
+            myOutput.writeUTF("--rate=" + aRate);
+            myOutput.flush();
+        }
+
+        /**
+         * Waits for the worker to prepare its job and then reads its clock, which is read only now so that the
+         * offset is fresh when the start time is translated.
+         */
+        private void awaitReady() throws IOException {
+            final byte message;
+
+            mySocket.setSoTimeout(PREPARE_TIMEOUT);
+            message = myInput.readByte();
+            mySocket.setSoTimeout(READ_TIMEOUT);
+
+            if (message == LoadWorker.FAILED) {
+                throw new IOException("Worker " + this + " rejected the job: " + myInput.readUTF());
+            } else if (message != LoadWorker.READY) {
+                throw new IOException("Unexpected reply to a job from worker " + this + ": " + message);
+            }
+
+            myClockOffset = readClock();
+        }
+
+        /**
+         * Sends the worker the start time, on its own clock.
+         */
+        private void start(final long aStartTime) throws IOException {
+            myOutput.writeByte(LoadWorker.START);
+            myOutput.writeLong(aStartTime + myClockOffset);
+            myOutput.flush();
+        }
+
+        /**
+         * Receives the worker's snapshots until it sends its final report or fails.
+         */
+        private void receive(final CountDownLatch aFinished) {
+            try {
+                while (true) {
+                    final byte message = myInput.readByte();
+
+                    if (message == LoadWorker.SNAPSHOT || message == LoadWorker.DONE) {
+                        final byte[] report = new byte[myInput.readInt()];
+
+                        myInput.readFully(report);
+                        myReport = report;
+
+                        if (message == LoadWorker.DONE) {
+                            myReportIsFinal = true;
+                            return;
+                        }
+                    } else if (message == LoadWorker.FAILED) {
+                        myError = myInput.readUTF();
+                        return;
+                    } else {
+                        myError = "Unknown message from worker: " + message;
+                        return;
+                    }
+                }
+            } catch (final IOException details) {
+                myError = details.getMessage();
+            } finally {
+                aFinished.countDown();
+            }
+        }
+
+        /**
+         * Merges the worker's latest report, if it's sent one, into the supplied report.
+         */
+        private void mergeInto(final DownloadReport aReport) throws IOException {
+            final byte[] report = myReport;
+
+            if (report != null) {
+                aReport.merge(new DataInputStream(new ByteArrayInputStream(report)));
+            }
+        }
+
+        private void close() {
+            try {
+                mySocket.close();
+            } catch (final IOException details) {
+                LOGGER.debug("Couldn't close connection to worker {} [{}]", this, details.getMessage());
+            }
+        }
+
+        @Override
+        public String toString() {
+            return myAddress.getHostString() + ":" + myAddress.getPort();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package info.freelibrary.iiiftool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * An open-model load generator that starts viewer sessions at a fixed arrival rate, whether or not earlier sessions
+ * have finished. Each session is timed from when it was scheduled to start, rather than from when it actually
+ * started, so a saturated server can't hide its queueing delay by slowing down the arrival of new sessions (i.e., the
+ * results are corrected for coordinated omission).
+ * <p>
+ * The arrival rate ramps up linearly from zero during the ramp-up window and then holds steady through the warm-up
+ * window and the measured duration. Only sessions scheduled to start within the measured duration are reported.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final Supplier<ViewerSession> mySessions;
+
+    private final DownloadEngine myEngine;
+
+    private final double myRate;
+
+    private final long myRampUp;
+
+    private final long myWarmUp;
+
+    private final long myDuration;
+
+    private EventLog myEventLog;
+
+    private LiveMetrics myLiveMetrics;
+
+    private long myStartDelay;
+
+    /* The report of the measured sessions, once the run has started */
+    private volatile DownloadReport myReport;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param aSession The viewer session that's started at each arrival
+     * @param aEngine The download engine that the sessions' downloads are run on
+     * @param aRate The number of sessions to start each second
+     * @param aDuration The number of seconds over which results are measured
+     * @param aRampUp The number of seconds over which the arrival rate ramps up
+     * @param aWarmUp The number of seconds at full rate before results are measured
+     */
+    public LoadGenerator(final ViewerSession aSession, final DownloadEngine aEngine, final double aRate,
+            final long aDuration, final long aRampUp, final long aWarmUp) {
+        this(() -> aSession, aEngine, aRate, aDuration, aRampUp, aWarmUp);
+    }
+
+    /**
+     * Creates a new load generator that starts a different viewer session, from the supplied sessions, at each
+     * arrival (e.g., sessions drawn from a {@link Scenario}).
+     *
+     * @param aSessions Supplies the viewer session that's started at each arrival
+     * @param aEngine The download engine that the sessions' downloads are run on
+     * @param aRate The number of sessions to start each second
+     * @param aDuration The number of seconds over which results are measured
+     * @param aRampUp The number of seconds over which the arrival rate ramps up
+     * @param aWarmUp The number of seconds at full rate before results are measured
+     */
+    public LoadGenerator(final Supplier<ViewerSession> aSessions, final DownloadEngine aEngine, final double aRate,
+            final long aDuration, final long aRampUp, final long aWarmUp) {
+        if (aRate <= 0 || aDuration <= 0 || aRampUp < 0 || aWarmUp < 0) {
+            throw new IllegalArgumentException("Rate and duration must be positive and windows can't be negative");
+        }
+
+        mySessions = aSessions;
+        myEngine = aEngine;
+        myRate = aRate;
+        myDuration = TimeUnit.SECONDS.toNanos(aDuration);
+        myRampUp = TimeUnit.SECONDS.toNanos(aRampUp);
+        myWarmUp = TimeUnit.SECONDS.toNanos(aWarmUp);
+    }
+
+    /**
+     * Sets the event log that the requests of the measured sessions are written to.
+     *
+     * @param aEventLog An event log
+     * @return This load generator
+     */
+    public LoadGenerator setEventLog(final EventLog aEventLog) {
+        myEventLog = aEventLog;
+        return this;
+    }
+
+    /**
+     * Sets the live metrics that the requests of all the sessions, including those that aren't measured, are
+     * recorded in.
+     *
+     * @param aLiveMetrics Live metrics
+     * @return This load generator
+     */
+    public LoadGenerator setLiveMetrics(final LiveMetrics aLiveMetrics) {
+        myLiveMetrics = aLiveMetrics;
+        return this;
+    }
+
+    /**
+     * Sets how long the run waits, once it's been asked to run, before it starts its first session. This lets
+     * several load generators, in different processes, start at the same moment.
+     *
+     * @param aNanos The number of nanoseconds to wait before starting
+     * @return This load generator
+     */
+    public LoadGenerator setStartDelay(final long aNanos) {
+        myStartDelay = Math.max(0, aNanos);
+        return this;
+    }
+
+    /**
+     * Gets the report of the measured sessions while the run is going. The sessions that are still running haven't
+     * been added to it yet.
+     *
+     * @return The report of the measured sessions, or null if the run hasn't started
+     */
+    public DownloadReport getReport() {
+        return myReport;
+    }
+
+    /**
+     * Runs the load, returning a report of the sessions that started during the measured duration. Sessions that
+     * started during the ramp-up and warm-up windows are run but are not reported.
+     *
+     * @return A report of the measured sessions
+     * @throws InterruptedException If interrupted while waiting for the sessions to finish
+     */
+    public DownloadReport run() throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final DownloadReport warmUpReport = new DownloadReport(null, myLiveMetrics);
+        final DownloadReport report = new DownloadReport(myEventLog, myLiveMetrics);
+        final long measuredStart = myRampUp + myWarmUp;
+        final long end = measuredStart + myDuration;
+        final long startTime = System.nanoTime() + myStartDelay;
+
+        // The in-flight count starts at one, for the dispatcher, so it can't reach zero until dispatching is done
+        final AtomicLong inFlightCount = new AtomicLong(1);
+
+        long sessionCount = 0;
+        long offset;
+
+        myReport = report;
+
+        LOGGER.info("Starting {} sessions/sec for {} secs (after {} secs ramp-up and {} secs warm-up)", myRate,
+                TimeUnit.NANOSECONDS.toSeconds(myDuration), TimeUnit.NANOSECONDS.toSeconds(myRampUp),
+                TimeUnit.NANOSECONDS.toSeconds(myWarmUp));
+
+        while ((offset = getStartOffset(sessionCount++)) < end) {
+            final DownloadReport sessionReport = offset < measuredStart ? warmUpReport : report;
+            final long intendedStart = startTime + offset;
+
+            long wait;
+
+            // The dispatcher never waits on sessions, only on the schedule
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            inFlightCount.incrementAndGet();
+            mySessions.get().start(myEngine, sessionReport, intendedStart).whenComplete((result, error) -> {
+                if (inFlightCount.decrementAndGet() == 0) {
+                    finished.countDown();
+                }
+            });
+        }
+
+        LOGGER.info("Started {} sessions; waiting for them to finish", sessionCount - 1);
+
+        if (inFlightCount.decrementAndGet() == 0) {
+            finished.countDown();
+        }
+
+        finished.await();
+        return report;
+    }
+
+    /**
+     * Gets the number of seconds over which results are measured.
+     *
+     * @return The measured duration in seconds
+     */
+    public long getDuration() {
+        return TimeUnit.NANOSECONDS.toSeconds(myDuration);
+    }
+
+    /**
+     * Gets the intended start of the nth session, as an offset from the start of the run. During the ramp-up the
+     * number of sessions started by time t is rate * t^2 / (2 * ramp-up); after it, sessions start at the full rate.
+     *
+     * @param aSessionIndex The index of the session
+     * @return The session's intended start, in nanoseconds from the start of the run
+     */
+    private long getStartOffset(final long aSessionIndex) {
+        final double rampUpSessions = myRate * myRampUp / 2d / TimeUnit.SECONDS.toNanos(1);
+        final double seconds;
+
+        if (aSessionIndex < rampUpSessions) {
+            seconds = Math.sqrt(2d * aSessionIndex * myRampUp / TimeUnit.SECONDS.toNanos(1) / myRate);
+        } else {
+            seconds = (double) myRampUp / TimeUnit.SECONDS.toNanos(1) + (aSessionIndex - rampUpSessions) / myRate;
+        }
+
+        return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,48 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+
+/**
+ * The ways in which load can be put on a server: by the rate at which viewer sessions arrive or by the number of them
+ * that run at once.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum LoadModel {
+
+    /** Sessions start at a fixed rate, whether or not earlier sessions have finished (an open model) */
+    RATE("sessions/s"),
+
+    /** A fixed number of sessions run at once, each starting as soon as the one before it finishes (a closed model) */
+    CONCURRENCY("concurrent sessions");
+
+    private final String myUnit;
+
+    LoadModel(final String aUnit) {
+        myUnit = aUnit;
+    }
+
+    /**
+     * Gets the unit in which this model's load is expressed.
+     *
+     * @return The unit of the model's load
+     */
+    public String getUnit() {
+        return myUnit;
+    }
+
+    /**
+     * Gets the load model with the supplied name.
+     *
+     * @param aName The name of a load model (e.g., <code>rate</code> or <code>concurrency</code>)
+     * @return The load model with the supplied name
+     * @throws IllegalArgumentException If there isn't a load model with the supplied name
+     */
+    public static LoadModel fromName(final String aName) {
+        try {
+            return valueOf(aName.toUpperCase(Locale.US));
+        } catch (final IllegalArgumentException details) {
+            throw new IllegalArgumentException("Unknown load model: " + aName, details);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package info.freelibrary.iiiftool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A worker in a distributed load run. It waits for a {@link LoadCoordinator} to connect, answers the coordinator's
+ * clock readings so that the two clocks can be lined up, and prepares the shard of load that it's given, telling the
+ * coordinator when it's ready. Once every worker is ready, the coordinator sends the time to start at, which is the
+ * same for every worker, and the shard is run. While the shard runs, a snapshot of its report is sent to
+ * the coordinator every few seconds, and the final report is sent once it's done. Coordinators are served one at a
+ * time, until the worker is stopped.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LoadWorker {
+
+    /* Identifies the protocol, and its version, so that a mismatched coordinator and worker fail fast */
+    static final int MAGIC = 0x49494946;
+
+    static final int VERSION = 4;
+
+    /* Messages from the coordinator: a request for a clock reading, a job to prepare and the time to start it */
+    static final byte CLOCK = 'C';
+
+    static final byte JOB = 'J';
+
+    static final byte START = 'G';
+
+    /* Messages from a worker: its job is ready, a snapshot of its report while it runs, its final report and failure */
+    static final byte READY = 'R';
+
+    static final byte SNAPSHOT = 'S';
+
+    static final byte DONE = 'D';
+
+    static final byte FAILED = 'F';
+
+    /* The number of seconds between a worker's snapshots */
+    static final int SNAPSHOT_INTERVAL = 5;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadWorker.class);
+
+    private final InetSocketAddress myAddress;
+
+    private final Function<Options, LoadGenerator> myJobs;
+
+    /**
+     * Creates a new load worker.
+     *
+     * @param aAddress The address to listen on for coordinators
+     * @param aJobs Creates the load generator for a job's options, throwing an exception if they're invalid
+     */
+    public LoadWorker(final InetSocketAddress aAddress, final Function<Options, LoadGenerator> aJobs) {
+        myAddress = aAddress;
+        myJobs = aJobs;
+    }
+
+    /**
+     * Serves coordinators, one at a time, until the worker is interrupted.
+     *
+     * @throws IOException If the worker can't listen on its address
+     * @throws InterruptedException If interrupted while running a job
+     */
+    public void run() throws IOException, InterruptedException {
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(myAddress);
+            LOGGER.info("Waiting for a coordinator on {}:{}", server.getInetAddress().getHostAddress(), server
+                    .getLocalPort());
+
+            while (!Thread.currentThread().isInterrupted()) {
+                try (Socket socket = server.accept()) {
+                    LOGGER.info("Coordinator connected from {}", socket.getRemoteSocketAddress());
+                    serve(socket);
+                } catch (final EOFException details) {
+                    LOGGER.warn("Coordinator disconnected");
+                } catch (final IOException details) {
+                    LOGGER.warn("Lost the coordinator [{}]", details.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers a coordinator's clock readings until it sends a job, prepares the job and, once the coordinator sends
+     * the start time, runs it.
+     */
+    private void serve(final Socket aSocket) throws IOException, InterruptedException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(aSocket.getInputStream()));
+        final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(aSocket.getOutputStream()));
+
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Not a coordinator for this version of the tool");
+        }
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.flush();
+
+        LoadGenerator generator = null;
+
+        while (true) {
+            final byte message = input.readByte();
+
+            if (message == CLOCK) {
+                output.writeByte(CLOCK);
+                output.writeLong(System.currentTimeMillis());
+                output.flush();
+            } else if (message == JOB && generator == null) {
+                generator = prepareJob(output, input);
+
+                if (generator == null) {
+                    return;
+                }
+            } else if (message == START && generator != null) {
+                runJob(output, input.readLong(), generator);
+                return;
+            } else {
+                throw new IOException("Unexpected message from coordinator: " + message);
+            }
+        }
+    }
+
+    /**
+     * Reads a job and creates its load generator, which may take a while if the job's scenario has to be expanded,
+     * and then tells the coordinator that the job is ready or that it's been rejected.
+     *
+     * @return The job's load generator, or null if the job was rejected
+     */
+    private LoadGenerator prepareJob(final DataOutputStream aOutput, final DataInputStream aInput)
+            throws IOException {
+        final String[] args = new String[aInput.readInt()];
+        final LoadGenerator generator;
+
+        for (int index = 0; index < args.length; index++) {
+            args[index] = aInput.readUTF();
+        }
+
+        try {
+            generator = myJobs.apply(new Options(args));
+        } catch (final RuntimeException details) {
+            LOGGER.error("Rejected job: {}", details.getMessage());
+            sendFailure(aOutput, details);
+            return null;
+        }
+
+        aOutput.writeByte(READY);
+        aOutput.flush();
+        LOGGER.info("Job is ready; waiting for the coordinator's start time");
+        return generator;
+    }
+
+    /**
+     * Runs a job's load, starting at the supplied time on this worker's clock, and sends its report.
+     */
+    private void runJob(final DataOutputStream aOutput, final long aStartTime, final LoadGenerator aGenerator)
+            throws IOException, InterruptedException {
+        final ScheduledExecutorService snapshots;
+        final DownloadReport report;
+
+        aGenerator.setStartDelay(TimeUnit.MILLISECONDS.toNanos(aStartTime - System.currentTimeMillis()));
+        snapshots = Executors.newSingleThreadScheduledExecutor();
+        snapshots.scheduleAtFixedRate(() -> {
+            final DownloadReport snapshot = aGenerator.getReport();
+
+            try {
+                sendReport(aOutput, SNAPSHOT, snapshot == null ? DownloadReport.forMerging() : snapshot);
+            } catch (final IOException details) {
+                LOGGER.warn("Couldn't send a snapshot to the coordinator [{}]", details.getMessage());
+            }
+        }, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+
+        try {
+            report = aGenerator.run();
+        } catch (final RuntimeException details) {
+            LOGGER.error("Job failed: {}", details.getMessage());
+            sendFailure(aOutput, details);
+            return;
+        } finally {
+            snapshots.shutdownNow();
+            snapshots.awaitTermination(SNAPSHOT_INTERVAL, TimeUnit.SECONDS);
+        }
+
+        sendReport(aOutput, DONE, report);
+        LOGGER.info("Sent the final report to the coordinator");
+    }
+
+    /**
+     * Sends a report, as its length and then its compact form, so the coordinator can keep it without reading it.
+     */
+    private static void sendReport(final DataOutputStream aOutput, final byte aMessage, final DownloadReport aReport)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        aReport.write(new DataOutputStream(bytes));
+
+        synchronized (aOutput) {
+            aOutput.writeByte(aMessage);
+            aOutput.writeInt(bytes.size());
+            bytes.writeTo(aOutput);
+            aOutput.flush();
+        }
+    }
+
+    private static void sendFailure(final DataOutputStream aOutput, final Throwable aError) throws IOException {
+        synchronized (aOutput) {
+            aOutput.writeByte(FAILED);
+            aOutput.writeUTF(String.valueOf(aError.getMessage()));
+            aOutput.flush();
+        }
+    }
+}
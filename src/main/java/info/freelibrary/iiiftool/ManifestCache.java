@@ -0,0 +1,103 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed manifests, keyed by their URLs. A session still downloads its manifest every time, since
+ * that's part of what's being measured, but if the downloaded document is the same as the one that's in the cache its
+ * index is reused rather than being parsed again. When the cache is full, the least recently used manifest is dropped.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ManifestCache {
+
+    /** The default maximum number of manifests that are kept */
+    public static final int DEFAULT_SIZE = 100;
+
+    private final Map<String, CachedManifest> myEntries;
+
+    /**
+     * Creates a new manifest cache with the default size.
+     */
+    public ManifestCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    /**
+     * Creates a new manifest cache.
+     *
+     * @param aSize The maximum number of manifests that are kept
+     */
+    public ManifestCache(final int aSize) {
+        if (aSize < 1) {
+            throw new IllegalArgumentException("Cache size should be greater than zero: " + aSize);
+        }
+
+        myEntries = new LinkedHashMap<String, CachedManifest>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedManifest> aEldest) {
+                return size() > aSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the index of a downloaded manifest, parsing it only if it's not already in the cache.
+     *
+     * @param aURL The URL the manifest was downloaded from
+     * @param aJSON The downloaded manifest
+     * @return The manifest's index
+     * @throws IOException If the manifest isn't valid JSON
+     */
+    public ManifestIndex get(final String aURL, final String aJSON) throws IOException {
+        final CachedManifest cached;
+
+        synchronized (myEntries) {
+            cached = myEntries.get(aURL);
+        }
+
+        if (cached != null && cached.myJSON.equals(aJSON)) {
+            return cached.myIndex;
+        }
+
+        // Parsing happens outside the lock; if two sessions race to parse the same manifest, the last one wins
+        final CachedManifest manifest = new CachedManifest(aJSON, ManifestIndex.parse(aJSON));
+
+        synchronized (myEntries) {
+            myEntries.put(aURL, manifest);
+        }
+
+        return manifest.myIndex;
+    }
+
+    /**
+     * Gets the number of manifests that are in the cache.
+     *
+     * @return The number of cached manifests
+     */
+    public int size() {
+        synchronized (myEntries) {
+            return myEntries.size();
+        }
+    }
+
+    /**
+     * A manifest's index and the document it was parsed from.
+     */
+    private static final class CachedManifest {
+
+        private final String myJSON;
+
+        private final ManifestIndex myIndex;
+
+        private CachedManifest(final String aJSON, final ManifestIndex aIndex) {
+            myJSON = aJSON;
+            myIndex = aIndex;
+        }
+    }
+}
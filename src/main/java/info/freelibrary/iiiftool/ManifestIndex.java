@@ -0,0 +1,212 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A IIIF document (a manifest or an info.json file) that's been parsed, once, into memory so that it can be queried
+ * any number of times. Queries are compiled {@link JsonPath}s and their results are kept, so asking the same question
+ * of the same document is just a lookup. An index is never changed once it's been built, so it can be shared between
+ * threads and sessions.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class ManifestIndex {
+
+    private static final String V2_ID = "@id";
+
+    private static final String V3_ID = "id";
+
+    private final Object myRoot;
+
+    private final Map<String, List<String>> myResults = new ConcurrentHashMap<>();
+
+    private ManifestIndex(final Object aRoot) {
+        myRoot = aRoot;
+    }
+
+    /**
+     * Parses a JSON document into an index.
+     *
+     * @param aJSON A JSON document
+     * @return The document's index
+     * @throws IOException If the document isn't valid JSON
+     */
+    public static ManifestIndex parse(final String aJSON) throws IOException {
+        return parse(new StringReader(aJSON));
+    }
+
+    /**
+     * Parses a JSON document into an index, reading it from the supplied reader.
+     *
+     * @param aReader A reader from which a JSON document can be read
+     * @return The document's index
+     * @throws IOException If the document can't be read or isn't valid JSON
+     */
+    public static ManifestIndex parse(final Reader aReader) throws IOException {
+        final JsonReader reader = new JsonReader(aReader);
+        final Map<String, String> keys = new HashMap<>();
+        final JsonReader.Token token = reader.next();
+
+        if (token == JsonReader.Token.END_DOCUMENT) {
+            throw new IOException("JSON document is empty");
+        }
+
+        return new ManifestIndex(read(reader, token, keys));
+    }
+
+    /**
+     * Gets the values at the supplied path as strings. Numbers and booleans are returned as their JSON text and
+     * objects (like IIIF thumbnails that have more than just an ID) are returned as their <code>@id</code> or
+     * <code>id</code>.
+     *
+     * @param aPath A path in the XQuery lookup syntax, like <code>?sequences?*?canvases?*?thumbnail</code>
+     * @return The values at the supplied path
+     * @throws IllegalArgumentException If the path can't be compiled
+     */
+    public List<String> getList(final String aPath) {
+        return myResults.computeIfAbsent(aPath, path -> {
+            final List<Object> values = JsonPath.compile(path).select(myRoot);
+            final List<String> list = new ArrayList<>(values.size());
+
+            for (final Object value : values) {
+                final String string = asString(value);
+
+                if (string != null) {
+                    list.add(string);
+                }
+            }
+
+            return Collections.unmodifiableList(list);
+        });
+    }
+
+    /**
+     * Gets the first value at the supplied path as a string.
+     *
+     * @param aPath A path in the XQuery lookup syntax
+     * @return The first value at the supplied path or null if there isn't one
+     * @throws IllegalArgumentException If the path can't be compiled
+     */
+    public String getValue(final String aPath) {
+        final List<String> list = getList(aPath);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
+    /**
+     * Gets the first value at the supplied path as a number.
+     *
+     * @param aPath A path in the XQuery lookup syntax
+     * @return The first value at the supplied path
+     * @throws NoSuchElementException If there isn't a number at the supplied path
+     */
+    public double getNumber(final String aPath) {
+        final String value = getValue(aPath);
+
+        try {
+            if (value != null) {
+                return Double.parseDouble(value);
+            }
+        } catch (final NumberFormatException details) {
+            // Fall through to the exception below
+        }
+
+        throw new NoSuchElementException("No number found at: " + aPath);
+    }
+
+    /**
+     * Gets a value from a parsed document as a string, the way that {@link #getList(String)} returns it.
+     *
+     * @param aValue A value from a parsed document
+     * @return The value as a string, or null if it has no string form
+     */
+    static String asString(final Object aValue) {
+        if (aValue instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) aValue;
+            final Object id = map.containsKey(V2_ID) ? map.get(V2_ID) : map.get(V3_ID);
+
+            return id instanceof String ? (String) id : null;
+        } else if (aValue instanceof List) {
+            return null;
+        }
+
+        return aValue.toString();
+    }
+
+    /**
+     * Reads the value that the supplied token begins into memory.
+     *
+     * @param aReader A JSON reader
+     * @param aToken The first token of the value
+     * @param aKeys The keys that have already been read, so that each is only kept once
+     * @return The value
+     * @throws IOException If the value can't be read or isn't valid JSON
+     */
+    static Object read(final JsonReader aReader, final JsonReader.Token aToken, final Map<String, String> aKeys)
+            throws IOException {
+        switch (aToken) {
+            case BEGIN_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<>();
+
+                for (JsonReader.Token token = aReader.next(); token != JsonReader.Token.END_OBJECT; token =
+                        aReader.next()) {
+                    if (token != JsonReader.Token.NAME) {
+                        throw new IOException("Expected a name in JSON object but found: " + token);
+                    }
+
+                    // Manifests repeat the same few keys many thousands of times, so we only keep one copy of each
+                    final String key = aKeys.computeIfAbsent(aReader.getText(), name -> name);
+
+                    map.put(key, read(aReader, aReader.next(), aKeys));
+                }
+
+                return map;
+            case BEGIN_ARRAY:
+                final List<Object> list = new ArrayList<>();
+
+                for (JsonReader.Token token = aReader.next(); token != JsonReader.Token.END_ARRAY; token =
+                        aReader.next()) {
+                    list.add(read(aReader, token, aKeys));
+                }
+
+                return list;
+            case STRING:
+                return aReader.getText();
+            case NUMBER:
+                return toNumber(aReader.getText());
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case NULL:
+                return null;
+            default:
+                throw new IOException("Unexpected token in JSON: " + aToken);
+        }
+    }
+
+    private static Number toNumber(final String aNumber) throws IOException {
+        try {
+            if (aNumber.indexOf('.') == -1 && aNumber.indexOf('e') == -1 && aNumber.indexOf('E') == -1) {
+                try {
+                    return Long.valueOf(aNumber);
+                } catch (final NumberFormatException details) {
+                    // Too big for a long, so it's read as a double below
+                }
+            }
+
+            return Double.valueOf(aNumber);
+        } catch (final NumberFormatException details) {
+            throw new IOException("Invalid number in JSON: " + aNumber, details);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A reader that parses a manifest as it's downloaded, handing the values that are at the paths it's looking for to
+ * their handlers as soon as they're read. Nothing but the value that's being handed over is kept in memory, and
+ * parts of the manifest that can't contain a wanted value are skipped over without being parsed, so the memory that's
+ * used doesn't grow with the size of the manifest.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ManifestReader implements HttpTransport.BodyReader {
+
+    private final Map<JsonPath, ValueHandler> myHandlers;
+
+    /**
+     * Creates a new manifest reader.
+     */
+    public ManifestReader() {
+        myHandlers = new LinkedHashMap<>();
+    }
+
+    /**
+     * Adds a handler for the values at the supplied path.
+     *
+     * @param aPath A path in the XQuery lookup syntax, like <code>?sequences?*?canvases?*?thumbnail</code>
+     * @param aHandler A handler for the values at that path
+     * @return This manifest reader
+     * @throws IllegalArgumentException If the path can't be compiled
+     */
+    public ManifestReader on(final String aPath, final ValueHandler aHandler) {
+        myHandlers.put(JsonPath.compile(aPath), aHandler);
+        return this;
+    }
+
+    @Override
+    public void read(final InputStream aBody) throws IOException {
+        final JsonReader reader = new JsonReader(new InputStreamReader(aBody, StandardCharsets.UTF_8));
+        final Map<String, String> keys = new HashMap<>();
+
+        /* The keys and array positions that lead to the current value, and the next position in each open array */
+        Object[] location = new Object[16];
+        int[] positions = new int[16];
+        int depth = 0;
+
+        for (JsonReader.Token token = reader.next(); token != JsonReader.Token.END_DOCUMENT; token = reader.next()) {
+            if (token == JsonReader.Token.NAME) {
+                location[depth - 1] = keys.computeIfAbsent(reader.getText(), name -> name);
+                continue;
+            } else if (token == JsonReader.Token.END_OBJECT || token == JsonReader.Token.END_ARRAY) {
+                depth -= 1;
+                continue;
+            }
+
+            if (depth > 0 && positions[depth - 1] > 0) {
+                location[depth - 1] = positions[depth - 1]++;
+            }
+
+            if (!handle(reader, token, location, depth, keys)) {
+                if (token != JsonReader.Token.BEGIN_OBJECT && token != JsonReader.Token.BEGIN_ARRAY) {
+                    continue;
+                } else if (!isWanted(location, depth)) {
+                    reader.skipValue(token);
+                    continue;
+                }
+
+                if (depth == location.length) {
+                    location = Arrays.copyOf(location, depth * 2);
+                    positions = Arrays.copyOf(positions, depth * 2);
+                }
+
+                // Array members are numbered from one; an object's members are located by their keys instead
+                positions[depth++] = token == JsonReader.Token.BEGIN_ARRAY ? 1 : 0;
+            }
+        }
+    }
+
+    /**
+     * Hands the value that the supplied token begins to the handlers whose paths select it. Arrays have no string
+     * value to hand over, so they're left to be read into, in case other paths select their members.
+     *
+     * @return True if the value was handled (and so has been read); else, false
+     */
+    private boolean handle(final JsonReader aReader, final JsonReader.Token aToken, final Object[] aLocation,
+            final int aDepth, final Map<String, String> aKeys) throws IOException {
+        String value = null;
+        boolean handled = false;
+
+        if (aToken == JsonReader.Token.BEGIN_ARRAY) {
+            return false;
+        }
+
+        for (final Map.Entry<JsonPath, ValueHandler> entry : myHandlers.entrySet()) {
+            if (entry.getKey().matches(aLocation, aDepth)) {
+                if (!handled) {
+                    value = ManifestIndex.asString(ManifestIndex.read(aReader, aToken, aKeys));
+                    handled = true;
+                }
+
+                if (value != null) {
+                    entry.getValue().handle(value);
+                }
+            }
+        }
+
+        return handled;
+    }
+
+    private boolean isWanted(final Object[] aLocation, final int aDepth) {
+        for (final JsonPath path : myHandlers.keySet()) {
+            if (path.isBelow(aLocation, aDepth)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A handler for the values that are found at a path.
+     */
+    @FunctionalInterface
+    public interface ValueHandler {
+
+        /**
+         * Handles a value that was found at the handler's path. The reader doesn't read any more of the manifest until
+         * the handler returns.
+         *
+         * @param aValue A value, as a string
+         * @throws IOException If the value can't be handled
+         */
+        void handle(String aValue) throws IOException;
+    }
+}
@@ -0,0 +1,95 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A local HTTP endpoint, on the JDK's HTTP server, from which Prometheus (or anything else that reads its text format)
+ * can scrape a run's live metrics. It listens only on the loopback address and serves the metrics at
+ * <code>/metrics</code> on a single thread of its own, so scrapes never take threads from the downloads.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String PATH = "/metrics";
+
+    /* The content type of version 0.0.4 of Prometheus' text exposition format */
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer myServer;
+
+    private final LiveMetrics myMetrics;
+
+    /**
+     * Creates a new metrics server. It isn't started until {@link #start()} is called.
+     *
+     * @param aMetrics The live metrics that are served
+     * @param aPort The port to listen on, or zero for any free port
+     * @throws IOException If the server can't listen on the port
+     */
+    public MetricsServer(final LiveMetrics aMetrics, final int aPort) throws IOException {
+        myMetrics = aMetrics;
+        myServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), aPort), 0);
+        myServer.createContext(PATH, this::handle);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @return This server
+     */
+    public MetricsServer start() {
+        myServer.start();
+        LOGGER.info("Serving live metrics at: {}", getURL());
+        return this;
+    }
+
+    /**
+     * Gets the URL at which the metrics are served.
+     *
+     * @return The metrics' URL
+     */
+    public String getURL() {
+        return "http://localhost:" + getPort() + PATH;
+    }
+
+    /**
+     * Gets the port that the server is listening on.
+     *
+     * @return The server's port
+     */
+    public int getPort() {
+        return myServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public void close() {
+        myServer.stop(0);
+    }
+
+    private void handle(final HttpExchange aExchange) throws IOException {
+        try (OutputStream out = aExchange.getResponseBody()) {
+            final byte[] body = myMetrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+
+            aExchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            aExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A network that the tool's connections are shaped to, so that timings show what people on slower links see. Each
+ * viewer session gets its own link, with the profile's downstream bandwidth shared by all of its connections, and each
+ * round trip (connecting, the TLS handshake and every request) takes at least the profile's round trip time. The
+ * named profiles are WebPageTest's connectivity profiles.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class NetworkProfile {
+
+    /** The network isn't shaped */
+    public static final NetworkProfile NONE = new NetworkProfile("none", 0, 0);
+
+    /** A cable connection: 5 Mbps with a 28 ms round trip */
+    public static final NetworkProfile CABLE = new NetworkProfile("cable", 5_000, 28);
+
+    /** A 4G mobile connection: 9 Mbps with a 170 ms round trip */
+    public static final NetworkProfile FOUR_G = new NetworkProfile("4g", 9_000, 170);
+
+    /** A 3G mobile connection: 1.6 Mbps with a 300 ms round trip */
+    public static final NetworkProfile THREE_G = new NetworkProfile("3g", 1_600, 300);
+
+    /** A slow 3G mobile connection: 400 Kbps with a 400 ms round trip */
+    public static final NetworkProfile SLOW_THREE_G = new NetworkProfile("slow-3g", 400, 400);
+
+    private static final NetworkProfile[] PROFILES = { NONE, CABLE, FOUR_G, THREE_G, SLOW_THREE_G };
+
+    private static final int BITS_PER_KILOBIT = 1000;
+
+    private final String myName;
+
+    private final long myBandwidth;
+
+    private final long myRoundTripTime;
+
+    /**
+     * Creates a new network profile.
+     *
+     * @param aName The profile's name
+     * @param aKbps The downstream bandwidth in kilobits per second, or zero for no limit
+     * @param aRoundTripMillis The round trip time in milliseconds
+     * @throws IllegalArgumentException If the bandwidth or round trip time is negative
+     */
+    public NetworkProfile(final String aName, final long aKbps, final long aRoundTripMillis) {
+        if (aKbps < 0 || aRoundTripMillis < 0) {
+            throw new IllegalArgumentException("Bandwidth and round trip time can't be negative: " + aKbps + ", " +
+                    aRoundTripMillis);
+        }
+
+        myName = aName;
+        myBandwidth = aKbps * BITS_PER_KILOBIT / Byte.SIZE;
+        myRoundTripTime = TimeUnit.MILLISECONDS.toNanos(aRoundTripMillis);
+    }
+
+    /**
+     * Gets the network profile with the supplied name.
+     *
+     * @param aName The name of a profile (e.g., <code>cable</code>, <code>4g</code>, <code>3g</code> or
+     *        <code>slow-3g</code>)
+     * @return The profile with the supplied name
+     * @throws IllegalArgumentException If there isn't a profile with the supplied name
+     */
+    public static NetworkProfile fromName(final String aName) {
+        for (final NetworkProfile profile : PROFILES) {
+            if (profile.myName.equalsIgnoreCase(aName)) {
+                return profile;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown network profile: " + aName);
+    }
+
+    /**
+     * Gets a copy of this profile with a different bandwidth and round trip time.
+     *
+     * @param aKbps The downstream bandwidth in kilobits per second, or zero for no limit
+     * @param aRoundTripMillis The round trip time in milliseconds
+     * @return A new network profile
+     * @throws IllegalArgumentException If the bandwidth or round trip time is negative
+     */
+    public NetworkProfile with(final long aKbps, final long aRoundTripMillis) {
+        return new NetworkProfile(myName, aKbps, aRoundTripMillis);
+    }
+
+    /**
+     * Gets the profile's name.
+     *
+     * @return The profile's name
+     */
+    public String getName() {
+        return myName;
+    }
+
+    /**
+     * Gets the downstream bandwidth.
+     *
+     * @return The bandwidth in bytes per second, or zero if it's not limited
+     */
+    public long getBandwidth() {
+        return myBandwidth;
+    }
+
+    /**
+     * Gets the downstream bandwidth in kilobits per second.
+     *
+     * @return The bandwidth in kilobits per second, or zero if it's not limited
+     */
+    public long getKbps() {
+        return myBandwidth * Byte.SIZE / BITS_PER_KILOBIT;
+    }
+
+    /**
+     * Gets the round trip time.
+     *
+     * @return The round trip time in nanoseconds
+     */
+    public long getRoundTripTime() {
+        return myRoundTripTime;
+    }
+
+    /**
+     * Returns whether connections are shaped at all.
+     *
+     * @return True if the bandwidth or round trip time is limited; else, false
+     */
+    public boolean isShaped() {
+        return myBandwidth > 0 || myRoundTripTime > 0;
+    }
+
+    /**
+     * Creates the link for a single viewer session, which its connections share.
+     *
+     * @return A new network shaper, or null if connections aren't shaped
+     */
+    NetworkShaper newShaper() {
+        return isShaped() ? new NetworkShaper(myBandwidth, myRoundTripTime) : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s (%s, %d ms RTT)", myName, myBandwidth == 0 ? "unlimited" : getKbps() +
+                " Kbps", TimeUnit.NANOSECONDS.toMillis(myRoundTripTime));
+    }
+}
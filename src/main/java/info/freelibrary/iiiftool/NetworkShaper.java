@@ -0,0 +1,92 @@
+package info.freelibrary.iiiftool;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shaped link of a single viewer session, which all of the session's connections share. Bandwidth is limited by a
+ * token bucket: bytes that are read are paid for in time, and a read that's ahead of the link's rate waits until the
+ * link has caught up. A link that's been idle can only bank a short burst. Latency is added by waiting out the parts
+ * of a round trip that the network would take.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class NetworkShaper {
+
+    /* How much of the link's time an idle link can bank, and so how far a read can burst past the link's rate */
+    private static final long MAX_BURST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long myBandwidth;
+
+    private final long myRoundTripTime;
+
+    /* When the link will have finished sending everything that's been read from it */
+    private long myNextFreeTime;
+
+    /**
+     * Creates a new network shaper.
+     *
+     * @param aBandwidth The link's bandwidth in bytes per second, or zero for no limit
+     * @param aRoundTripTime The link's round trip time in nanoseconds
+     */
+    NetworkShaper(final long aBandwidth, final long aRoundTripTime) {
+        myBandwidth = aBandwidth;
+        myRoundTripTime = aRoundTripTime;
+        myNextFreeTime = System.nanoTime();
+    }
+
+    /**
+     * Waits out a whole round trip, as a TCP or TLS handshake takes.
+     *
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    void roundTrip() throws InterruptedIOException {
+        sleep(myRoundTripTime);
+    }
+
+    /**
+     * Waits out half a round trip, as a request takes to reach the server or a response takes to start arriving.
+     *
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    void halfTrip() throws InterruptedIOException {
+        sleep(myRoundTripTime / 2);
+    }
+
+    /**
+     * Pays for bytes that have been read, waiting until the link could have delivered them.
+     *
+     * @param aByteCount The number of bytes that were read
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    void transfer(final int aByteCount) throws InterruptedIOException {
+        final long now;
+        final long wait;
+
+        if (myBandwidth == 0 || aByteCount <= 0) {
+            return;
+        }
+
+        now = System.nanoTime();
+
+        synchronized (this) {
+            myNextFreeTime = Math.max(myNextFreeTime, now - MAX_BURST) + aByteCount * TimeUnit.SECONDS.toNanos(1) /
+                    myBandwidth;
+            wait = myNextFreeTime - now;
+        }
+
+        // Connections wait outside the lock, so they share the link's bandwidth in the order they read from it
+        sleep(wait);
+    }
+
+    private static void sleep(final long aNanos) throws InterruptedIOException {
+        if (aNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(aNanos);
+            } catch (final InterruptedException details) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while shaping the network");
+            }
+        }
+    }
+}
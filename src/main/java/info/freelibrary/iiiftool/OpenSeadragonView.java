@@ -0,0 +1,236 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The view of an image in OpenSeadragon, which works out the tiles that OpenSeadragon requests for each view, in the
+ * order that it requests them. This follows OpenSeadragon's defaults:
+ * <ul>
+ * <li>The home view fits the whole image in the viewport, and the view can't be zoomed out to less than 90% of it
+ * or zoomed in past the point where an image pixel is 1.1 CSS pixels</li>
+ * <li>The sharpest level drawn is the highest resolution level whose pixels are at least half a device pixel</li>
+ * <li>Every lower resolution level is drawn beneath it, down to the first level whose visible tiles have all been
+ * loaded already, so images go from blurry to sharp</li>
+ * <li>Lower resolution tiles are requested first and, within a level, tiles nearer the center of the viewport are
+ * requested first</li>
+ * </ul>
+ * A tile is only requested once; views that need tiles that have already been requested just request the rest. Views
+ * are changed immediately rather than animated, so the tiles of the frames in between aren't requested.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class OpenSeadragonView {
+
+    /* OpenSeadragon's minPixelRatio: how small, in device pixels, a level's pixels can be and still be drawn */
+    private static final double MIN_PIXEL_RATIO = 0.5;
+
+    /* OpenSeadragon's maxZoomPixelRatio: how large, in CSS pixels, an image pixel can be zoomed to */
+    private static final double MAX_ZOOM_PIXEL_RATIO = 1.1;
+
+    /* OpenSeadragon's minZoomImageRatio: how far, as a fraction of the home view, the image can be zoomed out */
+    private static final double MIN_ZOOM_IMAGE_RATIO = 0.9;
+
+    /* Orders tiles the way OpenSeadragon picks its next tile to load: lowest level first, then nearest the center */
+    private static final Comparator<Tile> LOAD_ORDER = Comparator.<Tile>comparingInt(tile -> tile.myLevel)
+            .thenComparingDouble(tile -> tile.myDistance);
+
+    private final TilePyramid myPyramid;
+
+    private final Viewport myViewport;
+
+    private final double myHomeScale;
+
+    private final double myMinScale;
+
+    private final double myMaxScale;
+
+    /* The tiles that have been requested, by level, column and row */
+    private final Set<Long> myRequestedTiles;
+
+    /* The center of the view, in full image pixels, and the number of device pixels in an image pixel */
+    private double myCenterX;
+
+    private double myCenterY;
+
+    private double myScale;
+
+    /**
+     * Creates a new OpenSeadragon view of an image, which starts at the home view.
+     *
+     * @param aPyramid The image's tile pyramid
+     * @param aViewport The viewport that the image is shown in
+     */
+    public OpenSeadragonView(final TilePyramid aPyramid, final Viewport aViewport) {
+        myPyramid = aPyramid;
+        myViewport = aViewport;
+        myHomeScale = Math.min(aViewport.getDeviceWidth() / aPyramid.getWidth(), aViewport.getDeviceHeight() /
+                aPyramid.getHeight());
+        myMinScale = myHomeScale * MIN_ZOOM_IMAGE_RATIO;
+        myMaxScale = Math.max(myHomeScale, MAX_ZOOM_PIXEL_RATIO * aViewport.getPixelRatio());
+        myRequestedTiles = new HashSet<>();
+        home();
+    }
+
+    /**
+     * Goes to the home view, with the whole image centered in the viewport.
+     *
+     * @return This view
+     */
+    public OpenSeadragonView home() {
+        myCenterX = myPyramid.getWidth() / 2d;
+        myCenterY = myPyramid.getHeight() / 2d;
+        myScale = myHomeScale;
+        return this;
+    }
+
+    /**
+     * Zooms about the center of the viewport, as far as OpenSeadragon allows.
+     *
+     * @param aFactor How much to zoom in by or, if it's less than one, out by
+     * @return This view
+     */
+    public OpenSeadragonView zoom(final double aFactor) {
+        myScale = Math.max(myMinScale, Math.min(myMaxScale, myScale * aFactor));
+        return this;
+    }
+
+    /**
+     * Pans the view, keeping its center on the image.
+     *
+     * @param aX The fraction of the viewport's width to pan right by (or, if it's negative, left by)
+     * @param aY The fraction of the viewport's height to pan down by (or, if it's negative, up by)
+     * @return This view
+     */
+    public OpenSeadragonView pan(final double aX, final double aY) {
+        myCenterX = Math.max(0, Math.min(myPyramid.getWidth(), myCenterX + aX * myViewport.getDeviceWidth() /
+                myScale));
+        myCenterY = Math.max(0, Math.min(myPyramid.getHeight(), myCenterY + aY * myViewport.getDeviceHeight() /
+                myScale));
+        return this;
+    }
+
+    /**
+     * Applies a step of a viewer script to the view. Waiting doesn't change the view.
+     *
+     * @param aStep A step of a viewer script
+     * @return This view
+     */
+    public OpenSeadragonView apply(final ViewerScript.Step aStep) {
+        switch (aStep.getAction()) {
+            case ZOOM:
+                return zoom(aStep.getX());
+            case PAN:
+                return pan(aStep.getX(), aStep.getY());
+            case HOME:
+                return home();
+            default:
+                return this;
+        }
+    }
+
+    /**
+     * Gets the sharpest level that's drawn in the current view.
+     *
+     * @return The sharpest level, from zero (the lowest resolution)
+     */
+    public int getLevel() {
+        for (int level = myPyramid.getLevelCount() - 1; level > 0; level--) {
+            if (myScale * myPyramid.getScaleFactor(level) >= MIN_PIXEL_RATIO) {
+                return level;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Gets the URLs of the tiles that OpenSeadragon would request for the current view, in the order it would request
+     * them, leaving out those that were requested for an earlier view. The tiles are then taken to have been
+     * requested.
+     *
+     * @return The URLs of the tiles to request, which is empty if the view is already sharp
+     */
+    public List<String> getTiles() {
+        final double viewWidth = myViewport.getDeviceWidth() / myScale;
+        final double viewHeight = myViewport.getDeviceHeight() / myScale;
+        final double left = myCenterX - viewWidth / 2;
+        final double top = myCenterY - viewHeight / 2;
+        final List<Tile> tiles = new ArrayList<>();
+        final List<String> urls;
+
+        // Levels are drawn from the sharpest down, stopping at the first whose visible tiles have all been loaded
+        for (int level = getLevel(); level >= 0; level--) {
+            final long regionWidth = myPyramid.getRegionWidth(level);
+            final long regionHeight = myPyramid.getRegionHeight(level);
+            final int firstColumn = (int) Math.max(0, Math.floor(left / regionWidth));
+            final int lastColumn = (int) Math.min(myPyramid.getColumnCount(level) - 1, Math.ceil((left + viewWidth) /
+                    regionWidth) - 1);
+            final int firstRow = (int) Math.max(0, Math.floor(top / regionHeight));
+            final int lastRow = (int) Math.min(myPyramid.getRowCount(level) - 1, Math.ceil((top + viewHeight) /
+                    regionHeight) - 1);
+            final int tileCount = tiles.size();
+
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    if (!myRequestedTiles.contains(getKey(level, column, row))) {
+                        final double x = getCenter(column, regionWidth, myPyramid.getWidth()) - myCenterX;
+                        final double y = getCenter(row, regionHeight, myPyramid.getHeight()) - myCenterY;
+
+                        tiles.add(new Tile(level, column, row, x * x + y * y));
+                    }
+                }
+            }
+
+            if (tiles.size() == tileCount) {
+                break;
+            }
+        }
+
+        tiles.sort(LOAD_ORDER);
+        urls = new ArrayList<>(tiles.size());
+
+        for (final Tile tile : tiles) {
+            myRequestedTiles.add(getKey(tile.myLevel, tile.myColumn, tile.myRow));
+            urls.add(myPyramid.getURL(tile.myLevel, tile.myColumn, tile.myRow));
+        }
+
+        return urls;
+    }
+
+    /**
+     * Gets the center of a tile's region along one dimension; the last tile in a row or column may be cut short.
+     */
+    private static double getCenter(final int aIndex, final long aRegionSize, final int aImageSize) {
+        final long start = aIndex * aRegionSize;
+        return (start + Math.min(start + aRegionSize, aImageSize)) / 2d;
+    }
+
+    private static long getKey(final int aLevel, final int aColumn, final int aRow) {
+        return (long) aLevel << 56 | (long) aColumn << 28 | aRow;
+    }
+
+    /**
+     * A tile that's visible in the view, and its squared distance from the center of the view.
+     */
+    private static final class Tile {
+
+        private final int myLevel;
+
+        private final int myColumn;
+
+        private final int myRow;
+
+        private final double myDistance;
+
+        private Tile(final int aLevel, final int aColumn, final int aRow, final double aDistance) {
+            myLevel = aLevel;
+            myColumn = aColumn;
+            myRow = aRow;
+            myDistance = aDistance;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simple parser for the tool's command line. Arguments of the form <code>--name=value</code> (or just
+ * <code>--name</code> for a flag) are options; everything else is a positional argument.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class Options {
+
+    private static final String PREFIX = "--";
+
+    private final List<String> myArgs;
+
+    private final Map<String, String> myOptions;
+
+    /**
+     * Creates a new options object from the supplied command line arguments.
+     *
+     * @param aArgs The command line arguments
+     */
+    public Options(final String... aArgs) {
+        myArgs = new ArrayList<>();
+        myOptions = new HashMap<>();
+
+        for (final String arg : aArgs) {
+            if (arg.startsWith(PREFIX) && arg.length() > PREFIX.length()) {
+                final int index = arg.indexOf('=');
+
+                if (index == -1) {
+                    myOptions.put(arg.substring(PREFIX.length()), Boolean.TRUE.toString());
+                } else {
+                    myOptions.put(arg.substring(PREFIX.length(), index), arg.substring(index + 1));
+                }
+            } else {
+                myArgs.add(arg);
+            }
+        }
+    }
+
+    /**
+     * Gets the positional (non-option) arguments.
+     *
+     * @return The positional arguments
+     */
+    public List<String> getArgs() {
+        return Collections.unmodifiableList(myArgs);
+    }
+
+    /**
+     * Gets the positional argument at the supplied index.
+     *
+     * @param aIndex The index of the positional argument
+     * @return The positional argument
+     */
+    public String getArg(final int aIndex) {
+        return myArgs.get(aIndex);
+    }
+
+    /**
+     * Gets the number of positional arguments.
+     *
+     * @return The number of positional arguments
+     */
+    public int size() {
+        return myArgs.size();
+    }
+
+    /**
+     * Returns whether the named option was supplied.
+     *
+     * @param aName The name of the option
+     * @return True if the option was supplied; else, false
+     */
+    public boolean has(final String aName) {
+        return myOptions.containsKey(aName);
+    }
+
+    /**
+     * Gets the value of the named option.
+     *
+     * @param aName The name of the option
+     * @param aDefault The value to return if the option wasn't supplied
+     * @return The value of the option
+     */
+    public String get(final String aName, final String aDefault) {
+        final String value = myOptions.get(aName);
+        return value == null ? aDefault : value;
+    }
+
+    /**
+     * Gets the value of the named option as a boolean.
+     *
+     * @param aName The name of the option
+     * @return True if the option was supplied and isn't set to false; else, false
+     */
+    public boolean getBoolean(final String aName) {
+        return Boolean.parseBoolean(get(aName, Boolean.FALSE.toString()));
+    }
+
+    /**
+     * Gets the value of the named option as an integer.
+     *
+     * @param aName The name of the option
+     * @param aDefault The value to return if the option wasn't supplied
+     * @return The value of the option
+     * @throws IllegalArgumentException If the supplied value isn't an integer
+     */
+    public int getInt(final String aName, final int aDefault) {
+        final String value = myOptions.get(aName);
+
+        try {
+            return value == null ? aDefault : Integer.parseInt(value);
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Option --" + aName + " should be an integer: " + value, details);
+        }
+    }
+
+    /**
+     * Gets the value of the named option as a double.
+     *
+     * @param aName The name of the option
+     * @param aDefault The value to return if the option wasn't supplied
+     * @return The value of the option
+     * @throws IllegalArgumentException If the supplied value isn't a number
+     */
+    public double getDouble(final String aName, final double aDefault) {
+        final String value = myOptions.get(aName);
+
+        try {
+            return value == null ? aDefault : Double.parseDouble(value);
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Option --" + aName + " should be a number: " + value, details);
+        }
+    }
+}
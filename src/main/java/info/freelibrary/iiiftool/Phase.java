@@ -0,0 +1,44 @@
+package info.freelibrary.iiiftool;
+
+/**
+ * The phases of a simulated viewer session, each of which is reported on separately.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum Phase {
+
+    /** Getting the manifest, measured from when the session was supposed to start */
+    MANIFEST("manifest phase"),
+
+    /** The time to the first thumbnail being shown, measured from when the session was supposed to start */
+    FIRST_THUMBNAIL("first thumbnail"),
+
+    /** Getting all the thumbnails that the viewer shows on load, measured from when the first thumbnail is known */
+    THUMBNAILS("thumbnails phase"),
+
+    /** Getting the info.json file for the first canvas' image */
+    INFO_JSON("info.json phase"),
+
+    /** Prefetching the info.json files of all the other canvases' images, once the first view is sharp */
+    INFO_PREFETCH("info.json prefetch"),
+
+    /** Getting the tiles of the image viewer's first view, until the image is sharp */
+    TILES("tiles phase"),
+
+    /** The whole page load, measured from when the session was supposed to start */
+    PAGE_LOAD("page load"),
+
+    /** The whole page load of a returning visitor's later visits, measured from when each visit started */
+    REPEAT_PAGE_LOAD("repeat page load");
+
+    private final String myLabel;
+
+    Phase(final String aLabel) {
+        myLabel = aLabel;
+    }
+
+    @Override
+    public String toString() {
+        return myLabel;
+    }
+}
@@ -0,0 +1,277 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * An HTTP/1.1 transport that manages its own pool of connections. Like a browser, it never has more than six
+ * connections open to a host; a request waits for a connection to become free if all six are busy. Every request is
+ * counted as either a pool hit (made on a kept-alive connection) or a pool miss (needing a new connection). Its
+ * connections can be shaped to a slower network; each viewer session then gets its own link.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class PooledTransport implements HttpTransport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledTransport.class);
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(30);
+
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+
+    /* Servers close idle keep-alive connections, so we don't reuse ones that have been idle for long */
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private final HttpProfile myProfile;
+
+    private final boolean myConnectionsAreReused;
+
+    private final ConnectionStats myStats;
+
+    private final ConcurrentMap<String, HostPool> myPools;
+
+    private final NetworkProfile myNetwork;
+
+    private final NetworkShaper myShaper;
+
+    /**
+     * Creates a new pooled transport.
+     *
+     * @param aProfile The HTTP profile that determines whether connections are reused
+     */
+    public PooledTransport(final HttpProfile aProfile) {
+        this(aProfile, NetworkProfile.NONE);
+    }
+
+    /**
+     * Creates a new pooled transport whose connections are shaped to the supplied network.
+     *
+     * @param aProfile The HTTP profile that determines whether connections are reused
+     * @param aNetwork The network that connections are shaped to
+     */
+    public PooledTransport(final HttpProfile aProfile, final NetworkProfile aNetwork) {
+        this(aProfile, aNetwork, new ConnectionStats(true));
+    }
+
+    private PooledTransport(final HttpProfile aProfile, final NetworkProfile aNetwork, final ConnectionStats aStats) {
+        myProfile = aProfile;
+        myConnectionsAreReused = aProfile != HttpProfile.NO_REUSE;
+        myStats = aStats;
+        myPools = new ConcurrentHashMap<>();
+        myNetwork = aNetwork;
+        myShaper = aNetwork.newShaper();
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final boolean aBodyKept)
+            throws IOException {
+        return get(aURL, aHeaders, aBodyKept, null);
+    }
+
+    @Override
+    public HttpResult get(final String aURL, final Map<String, String> aHeaders, final BodyReader aReader)
+            throws IOException {
+        return get(aURL, aHeaders, false, aReader);
+    }
+
+    private HttpResult get(final String aURL, final Map<String, String> aHeaders, final boolean aBodyKept,
+            final BodyReader aReader) throws IOException {
+        URL url = new URL(aURL);
+        HttpResult previous = null;
+        long elapsedTime = 0;
+
+        for (int redirectCount = 0;; redirectCount++) {
+            final HttpResult result = exchange(url, aHeaders, aBodyKept, aReader);
+            final String location = result.getHeader("location");
+
+            // Redirects are part of the request, but time spent waiting for a free connection isn't
+            elapsedTime += result.getElapsedTime();
+
+            if (previous != null) {
+                result.addPhaseTimes(previous);
+            }
+
+            previous = result;
+
+            if (!isRedirect(result.getStatus()) || location == null || redirectCount >= MAX_REDIRECTS) {
+                result.setElapsedTime(elapsedTime);
+                return result;
+            }
+
+            LOGGER.debug("Following redirect from {} to {}", url, location);
+            url = new URL(url, location);
+        }
+    }
+
+    /**
+     * Gets the supplied URL. This transport uses blocking sockets, so the returned future has already been completed
+     * on the calling thread.
+     */
+    @Override
+    public CompletableFuture<HttpResult> getAsync(final String aURL, final Map<String, String> aHeaders,
+            final boolean aBodyKept) {
+        final CompletableFuture<HttpResult> future = new CompletableFuture<>();
+
+        try {
+            future.complete(get(aURL, aHeaders, aBodyKept));
+        } catch (final IOException details) {
+            future.completeExceptionally(details);
+        }
+
+        return future;
+    }
+
+    @Override
+    public HttpTransport newSession() {
+        return new PooledTransport(myProfile, myNetwork, myStats);
+    }
+
+    @Override
+    public ConnectionStats getStats() {
+        return myStats;
+    }
+
+    @Override
+    public void close() {
+        for (final HostPool pool : myPools.values()) {
+            pool.close();
+        }
+    }
+
+    private HttpResult exchange(final URL aURL, final Map<String, String> aHeaders, final boolean aBodyKept,
+            final BodyReader aReader) throws IOException {
+        final HostPool pool = myPools.computeIfAbsent(getKey(aURL), key -> new HostPool());
+
+        HttpConnection connection = null;
+        HttpResult result = null;
+        final long startTime;
+
+        pool.acquire();
+        startTime = System.nanoTime();
+
+        try {
+            connection = myConnectionsAreReused ? pool.poll() : null;
+
+            if (connection != null) {
+                myStats.addPoolHit();
+
+                try {
+                    result = exchange(connection, aURL, true, aHeaders, aBodyKept, aReader);
+                } catch (final IOException details) {
+                    if (connection.hasResponseStarted()) {
+                        throw details;
+                    }
+
+                    // The server closed the idle connection, so the request can be retried on a new one
+                    LOGGER.debug("Pooled connection was stale: {}", details.getMessage());
+                    connection.close();
+                    connection = null;
+                }
+            } else {
+                myStats.addPoolMiss();
+            }
+
+            if (result == null) {
+                connection = HttpConnection.open(aURL, CONNECT_TIMEOUT, READ_TIMEOUT, myShaper);
+                myStats.addNewConnection();
+                result = exchange(connection, aURL, myConnectionsAreReused, aHeaders, aBodyKept, aReader);
+            }
+
+            result.setElapsedTime(System.nanoTime() - startTime);
+            return result;
+        } finally {
+            if (connection != null) {
+                if (result != null && connection.isReusable()) {
+                    pool.offer(connection);
+                } else {
+                    connection.close();
+                }
+            }
+
+            pool.release();
+        }
+    }
+
+    private static HttpResult exchange(final HttpConnection aConnection, final URL aURL, final boolean aKeepAlive,
+            final Map<String, String> aHeaders, final boolean aBodyKept, final BodyReader aReader)
+            throws IOException {
+        return aReader == null ? aConnection.exchange(aURL, aKeepAlive, aHeaders, aBodyKept) : aConnection.exchange(
+                aURL, aKeepAlive, aHeaders, aReader);
+    }
+
+    private static boolean isRedirect(final int aStatus) {
+        return aStatus == 301 || aStatus == 302 || aStatus == 303 || aStatus == 307 || aStatus == 308;
+    }
+
+    private static String getKey(final URL aURL) {
+        return aURL.getProtocol() + "://" + aURL.getHost() + ':' + (aURL.getPort() == -1 ? aURL.getDefaultPort()
+                : aURL.getPort());
+    }
+
+    /**
+     * The connections to a single host.
+     */
+    private static final class HostPool {
+
+        /* Requests wait, in the order they were made, for one of the host's connections to be free */
+        private final Semaphore myPermits = new Semaphore(HttpProfile.CONNECTIONS_PER_HOST, true);
+
+        private final Deque<HttpConnection> myIdleConnections = new ConcurrentLinkedDeque<>();
+
+        void acquire() throws IOException {
+            try {
+                myPermits.acquire();
+            } catch (final InterruptedException details) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a connection");
+            }
+        }
+
+        void release() {
+            myPermits.release();
+        }
+
+        /**
+         * Gets the most recently used idle connection, discarding any that have been idle too long to be trusted.
+         */
+        HttpConnection poll() {
+            HttpConnection connection;
+
+            while ((connection = myIdleConnections.pollFirst()) != null) {
+                if (connection.getIdleTime() < IDLE_TIMEOUT) {
+                    return connection;
+                }
+
+                connection.close();
+            }
+
+            return null;
+        }
+
+        void offer(final HttpConnection aConnection) {
+            myIdleConnections.offerFirst(aConnection);
+        }
+
+        void close() {
+            HttpConnection connection;
+
+            while ((connection = myIdleConnections.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package info.freelibrary.iiiftool;
+
+/**
+ * The phases of a single HTTP request, each of which is timed separately so that, when results change, which phase
+ * moved can be seen.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum RequestPhase {
+
+    /** Resolving the host's name; only requests that open a new connection have it */
+    DNS("dns"),
+
+    /** Making the TCP connection; only requests that open a new connection have it */
+    CONNECT("connect"),
+
+    /** The TLS handshake; only HTTPS requests that open a new connection have it */
+    TLS("tls"),
+
+    /** From when the request was sent until the first byte of the response arrived */
+    TTFB("ttfb"),
+
+    /** From the first byte of the response until the whole body had been read */
+    TRANSFER("transfer");
+
+    private final String myLabel;
+
+    RequestPhase(final String aLabel) {
+        myLabel = aLabel;
+    }
+
+    @Override
+    public String toString() {
+        return myLabel;
+    }
+}
@@ -0,0 +1,74 @@
+package info.freelibrary.iiiftool;
+
+/**
+ * The kinds of requests that a IIIF viewer makes, each of which is reported on separately.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum RequestType {
+
+    /** A request for a IIIF Presentation manifest */
+    MANIFEST("manifest"),
+
+    /** A request for a IIIF Image API info.json file */
+    INFO_JSON("info.json"),
+
+    /** A request for a canvas' thumbnail image */
+    THUMBNAIL("thumbnail"),
+
+    /** A request for an image tile */
+    TILE("tile");
+
+    private final String myLabel;
+
+    RequestType(final String aLabel) {
+        myLabel = aLabel;
+    }
+
+    @Override
+    public String toString() {
+        return myLabel;
+    }
+
+    /**
+     * Gets the type of request with the supplied name or label.
+     *
+     * @param aName The name or label of a type of request (e.g., <code>tile</code> or <code>info.json</code>)
+     * @return The type of request with the supplied name
+     * @throws IllegalArgumentException If there isn't a type of request with the supplied name
+     */
+    public static RequestType fromName(final String aName) {
+        for (final RequestType type : values()) {
+            if (type.myLabel.equalsIgnoreCase(aName) || type.name().equalsIgnoreCase(aName.replace('-', '_'))) {
+                return type;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown type of request: " + aName);
+    }
+
+    /**
+     * Gets the type of a request from its URL: manifests and info.json files by their names, and images by the
+     * pattern of Image API URLs; an image of the full region is taken to be a thumbnail and any other to be a tile.
+     *
+     * @param aURL A URL or the path of one
+     * @return The type of the request, or null if it's not a IIIF request
+     */
+    public static RequestType fromURL(final String aURL) {
+        final int queryIndex = aURL.indexOf('?');
+        final String path = queryIndex == -1 ? aURL : aURL.substring(0, queryIndex);
+        final String[] segments = path.split("/");
+        final int count = segments.length;
+
+        if (path.endsWith("/info.json")) {
+            return INFO_JSON;
+        } else if (path.endsWith("/manifest") || path.endsWith("/manifest.json")) {
+            return MANIFEST;
+        } else if (count < 5 || !segments[count - 1].matches("(default|color|gray|bitonal|native)\\.\\w+")) {
+            return null;
+        }
+
+        // An Image API URL ends with {region}/{size}/{rotation}/{quality}.{format}
+        return "full".equals(segments[count - 4]) || "square".equals(segments[count - 4]) ? THUMBNAIL : TILE;
+    }
+}
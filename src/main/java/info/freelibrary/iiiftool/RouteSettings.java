@@ -0,0 +1,181 @@
+package info.freelibrary.iiiftool;
+
+import java.net.HttpURLConnection;
+
+/**
+ * How the stand-in server responds to one type of request: the latency it adds before responding, the rate at which
+ * it sends the body, how often it fails, how big the images it sends are, and how long its responses can be cached.
+ * Settings can be changed while the server is running and take effect with the next request.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class RouteSettings {
+
+    private volatile LatencyModel myLatency;
+
+    private volatile long myBandwidth;
+
+    private volatile double myErrorRate;
+
+    private volatile int myErrorStatus;
+
+    private volatile int myBodySize;
+
+    private volatile int myMaxAge;
+
+    /**
+     * Creates new route settings that add no latency, don't limit bandwidth and never fail.
+     *
+     * @param aBodySize The size, in bytes, of the images sent on the route
+     */
+    RouteSettings(final int aBodySize) {
+        myLatency = LatencyModel.NONE;
+        myErrorStatus = HttpURLConnection.HTTP_UNAVAILABLE;
+        myBodySize = aBodySize;
+        myMaxAge = -1;
+    }
+
+    /**
+     * Sets the distribution of the latency that's added before each response's headers are sent.
+     *
+     * @param aLatency A latency model
+     * @return These route settings
+     */
+    public RouteSettings setLatency(final LatencyModel aLatency) {
+        myLatency = aLatency;
+        return this;
+    }
+
+    /**
+     * Gets the distribution of the latency that's added before each response's headers are sent.
+     *
+     * @return The latency model
+     */
+    public LatencyModel getLatency() {
+        return myLatency;
+    }
+
+    /**
+     * Sets the rate at which each response's body is sent.
+     *
+     * @param aBytesPerSecond The bandwidth in bytes per second, or zero for no limit
+     * @return These route settings
+     * @throws IllegalArgumentException If the bandwidth is negative
+     */
+    public RouteSettings setBandwidth(final long aBytesPerSecond) {
+        if (aBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bandwidth can't be negative: " + aBytesPerSecond);
+        }
+
+        myBandwidth = aBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Gets the rate at which each response's body is sent.
+     *
+     * @return The bandwidth in bytes per second, or zero if it's not limited
+     */
+    public long getBandwidth() {
+        return myBandwidth;
+    }
+
+    /**
+     * Sets the fraction of requests that fail.
+     *
+     * @param aErrorRate A fraction between zero and one
+     * @return These route settings
+     * @throws IllegalArgumentException If the rate isn't between zero and one
+     */
+    public RouteSettings setErrorRate(final double aErrorRate) {
+        if (aErrorRate < 0 || aErrorRate > 1) {
+            throw new IllegalArgumentException("Error rate should be between 0 and 1: " + aErrorRate);
+        }
+
+        myErrorRate = aErrorRate;
+        return this;
+    }
+
+    /**
+     * Gets the fraction of requests that fail.
+     *
+     * @return The error rate
+     */
+    public double getErrorRate() {
+        return myErrorRate;
+    }
+
+    /**
+     * Sets the HTTP status that failed requests get.
+     *
+     * @param aStatus An HTTP status code (503 by default)
+     * @return These route settings
+     */
+    public RouteSettings setErrorStatus(final int aStatus) {
+        myErrorStatus = aStatus;
+        return this;
+    }
+
+    /**
+     * Gets the HTTP status that failed requests get.
+     *
+     * @return The HTTP status code of failures
+     */
+    public int getErrorStatus() {
+        return myErrorStatus;
+    }
+
+    /**
+     * Sets the size of the images sent on the route. It doesn't apply to manifests and info.json files, whose size
+     * depends on their content.
+     *
+     * @param aBodySize The size of an image in bytes
+     * @return These route settings
+     * @throws IllegalArgumentException If the size is negative
+     */
+    public RouteSettings setBodySize(final int aBodySize) {
+        if (aBodySize < 0) {
+            throw new IllegalArgumentException("Body size can't be negative: " + aBodySize);
+        }
+
+        myBodySize = aBodySize;
+        return this;
+    }
+
+    /**
+     * Gets the size of the images sent on the route.
+     *
+     * @return The size of an image in bytes
+     */
+    public int getBodySize() {
+        return myBodySize;
+    }
+
+    /**
+     * Sets how long responses on the route can be cached before they have to be revalidated. Every response has an
+     * <code>ETag</code> and a <code>Last-Modified</code> date, so it can always be revalidated.
+     *
+     * @param aSeconds The <code>max-age</code> of the responses' <code>Cache-Control</code> header, or -1 for no
+     *        <code>Cache-Control</code> header
+     * @return These route settings
+     * @throws IllegalArgumentException If the max age is less than -1
+     */
+    public RouteSettings setMaxAge(final int aSeconds) {
+        if (aSeconds < -1) {
+            throw new IllegalArgumentException("Max age should be -1 (none) or more: " + aSeconds);
+        }
+
+        myMaxAge = aSeconds;
+        return this;
+    }
+
+    /**
+     * Gets how long responses on the route can be cached before they have to be revalidated.
+     *
+     * @return The <code>max-age</code> of the responses' <code>Cache-Control</code> header, or -1 if they don't have
+     *         one
+     */
+    public int getMaxAge() {
+        return myMaxAge;
+    }
+}
@@ -0,0 +1,417 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A comparison of two runs' event logs: a baseline and a candidate. For each type of request, the latency
+ * percentiles, the throughput and the error rate of the two runs are compared, each with a 95% confidence interval for
+ * the change, so that a difference that's just noise isn't mistaken for a regression.
+ * <p>
+ * A metric has regressed if it got worse by more than the threshold and the change is statistically significant (its
+ * confidence interval doesn't include zero). Latency percentiles get their intervals by bootstrapping; throughput and
+ * error rates, which are counts, get theirs from the normal approximation.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class RunComparison {
+
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    /* The z-score of a two-sided 95% confidence interval */
+    private static final double Z_95 = 1.96;
+
+    private static final int BOOTSTRAP_COUNT = 1000;
+
+    /*
+     * Larger runs are sampled down, as they're read, to a reservoir of this many requests. That keeps memory and time
+     * flat however long the runs were. The percentiles, their changes and the changes' intervals are all taken from
+     * the sample, so a verdict always agrees with the interval printed beside it, though the intervals are wider than
+     * the whole run's would be.
+     */
+    private static final int BOOTSTRAP_SIZE = 5000;
+
+    private final List<Difference> myDifferences;
+
+    private RunComparison(final List<Difference> aDifferences) {
+        myDifferences = Collections.unmodifiableList(aDifferences);
+    }
+
+    /**
+     * Compares the event logs of two runs.
+     *
+     * @param aBaseline The event log of the baseline run
+     * @param aCandidate The event log of the candidate run
+     * @param aThreshold The fraction (e.g., 0.1 for 10%) by which a metric must get worse to be a regression
+     * @return The comparison of the runs
+     * @throws IOException If either event log can't be read
+     */
+    public static RunComparison compare(final Path aBaseline, final Path aCandidate, final double aThreshold)
+            throws IOException {
+        final Map<RequestType, Run> baseline = Run.read(aBaseline);
+        final Map<RequestType, Run> candidate = Run.read(aCandidate);
+        final List<Difference> differences = new ArrayList<>();
+        final SplittableRandom random = new SplittableRandom(0);
+
+        for (final RequestType type : RequestType.values()) {
+            final Run before = baseline.get(type);
+            final Run after = candidate.get(type);
+
+            if (before == null || after == null) {
+                continue;
+            }
+
+            if (before.myTimes.length > 0 && after.myTimes.length > 0) {
+                comparePercentiles(type, before, after, aThreshold, random, differences);
+            }
+
+            differences.add(compareThroughput(type, before, after, aThreshold));
+            differences.add(compareErrors(type, before, after, aThreshold));
+        }
+
+        return new RunComparison(differences);
+    }
+
+    /**
+     * Gets the differences between the runs, for each type of request that both runs made.
+     *
+     * @return The differences between the runs
+     */
+    public List<Difference> getDifferences() {
+        return myDifferences;
+    }
+
+    /**
+     * Returns whether any metric regressed.
+     *
+     * @return True if the candidate run regressed; else, false
+     */
+    public boolean isRegression() {
+        return myDifferences.stream().anyMatch(Difference::isRegression);
+    }
+
+    /**
+     * Compares the latency percentiles of two runs' samples, bootstrapping each percentile's relative change.
+     */
+    private static void comparePercentiles(final RequestType aType, final Run aBefore, final Run aAfter,
+            final double aThreshold, final SplittableRandom aRandom, final List<Difference> aDifferences) {
+        final double[][] changes = new double[PERCENTILES.length][BOOTSTRAP_COUNT];
+        final long[] before = new long[aBefore.myTimes.length];
+        final long[] after = new long[aAfter.myTimes.length];
+
+        for (int sample = 0; sample < BOOTSTRAP_COUNT; sample++) {
+            resample(aBefore.myTimes, before, aRandom);
+            resample(aAfter.myTimes, after, aRandom);
+
+            for (int index = 0; index < PERCENTILES.length; index++) {
+                changes[index][sample] = change(percentile(before, PERCENTILES[index]), percentile(after,
+                        PERCENTILES[index]));
+            }
+        }
+
+        for (int index = 0; index < PERCENTILES.length; index++) {
+            final double baseline = percentile(aBefore.myTimes, PERCENTILES[index]);
+            final double candidate = percentile(aAfter.myTimes, PERCENTILES[index]);
+
+            Arrays.sort(changes[index]);
+            aDifferences.add(new Difference(aType, String.format(Locale.US, "p%.0f", PERCENTILES[index]), Unit.MILLIS,
+                    baseline / 1000, candidate / 1000, change(baseline, candidate), changes[index][(int) (
+                            BOOTSTRAP_COUNT * 0.025)], changes[index][(int) (BOOTSTRAP_COUNT * 0.975) - 1], true,
+                    aThreshold));
+        }
+    }
+
+    /**
+     * Compares the request rates of two runs. The counts are treated as Poisson, so the log of the rates' ratio has a
+     * standard error of sqrt(1/n1 + 1/n2).
+     */
+    private static Difference compareThroughput(final RequestType aType, final Run aBefore, final Run aAfter,
+            final double aThreshold) {
+        final double before = aBefore.myCount / aBefore.getSeconds();
+        final double after = aAfter.myCount / aAfter.getSeconds();
+        final double error = Z_95 * Math.sqrt(1d / aBefore.myCount + 1d / aAfter.myCount);
+        final double ratio = Math.log(after / before);
+
+        return new Difference(aType, "throughput", Unit.PER_SECOND, before, after, change(before, after), Math.exp(
+                ratio - error) - 1, Math.exp(ratio + error) - 1, false, aThreshold);
+    }
+
+    /**
+     * Compares the error rates of two runs with a two-proportion interval, relative to the baseline's rate.
+     */
+    private static Difference compareErrors(final RequestType aType, final Run aBefore, final Run aAfter,
+            final double aThreshold) {
+        final double before = (double) aBefore.myErrorCount / aBefore.myCount;
+        final double after = (double) aAfter.myErrorCount / aAfter.myCount;
+        final double error = Z_95 * Math.sqrt(before * (1 - before) / aBefore.myCount + after * (1 - after) /
+                aAfter.myCount);
+        // With no errors in the baseline, changes are relative to one error in it
+        final double scale = Math.max(before, 1d / aBefore.myCount);
+
+        return new Difference(aType, "errors", Unit.PERCENT, before * 100, after * 100, (after - before) / scale,
+                (after - before - error) / scale, (after - before + error) / scale, true, aThreshold);
+    }
+
+    private static void resample(final long[] aValues, final long[] aSample, final SplittableRandom aRandom) {
+        for (int index = 0; index < aSample.length; index++) {
+            aSample[index] = aValues[aRandom.nextInt(aValues.length)];
+        }
+
+        Arrays.sort(aSample);
+    }
+
+    /**
+     * Gets a percentile of sorted values, using the nearest rank.
+     */
+    private static double percentile(final long[] aSortedValues, final double aPercentile) {
+        final int rank = (int) Math.ceil(aPercentile / 100 * aSortedValues.length);
+        return aSortedValues[Math.max(rank - 1, 0)];
+    }
+
+    private static double change(final double aBefore, final double aAfter) {
+        return aBefore == 0 ? aAfter == 0 ? 0 : Double.POSITIVE_INFINITY : aAfter / aBefore - 1;
+    }
+
+    /**
+     * The units in which a metric is reported.
+     */
+    private enum Unit {
+
+        MILLIS("%.1f ms"), PER_SECOND("%.1f req/s"), PERCENT("%.2f%%");
+
+        private final String myFormat;
+
+        Unit(final String aFormat) {
+            myFormat = aFormat;
+        }
+
+        private String format(final double aValue) {
+            return String.format(Locale.US, myFormat, aValue);
+        }
+    }
+
+    /**
+     * The difference in one metric between the runs.
+     */
+    public static final class Difference {
+
+        private final RequestType myType;
+
+        private final String myMetric;
+
+        private final Unit myUnit;
+
+        private final double myBaseline;
+
+        private final double myCandidate;
+
+        private final double myChange;
+
+        private final double myLowerBound;
+
+        private final double myUpperBound;
+
+        private final boolean myIncreaseIsWorse;
+
+        private final double myThreshold;
+
+        private Difference(final RequestType aType, final String aMetric, final Unit aUnit, final double aBaseline,
+                final double aCandidate, final double aChange, final double aLowerBound, final double aUpperBound,
+                final boolean aIncreaseIsWorse, final double aThreshold) {
+            myType = aType;
+            myMetric = aMetric;
+            myUnit = aUnit;
+            myBaseline = aBaseline;
+            myCandidate = aCandidate;
+            myChange = aChange;
+            myLowerBound = aLowerBound;
+            myUpperBound = aUpperBound;
+            myIncreaseIsWorse = aIncreaseIsWorse;
+            myThreshold = aThreshold;
+        }
+
+        /**
+         * Gets the type of request whose metric this is.
+         *
+         * @return The type of request
+         */
+        public RequestType getType() {
+            return myType;
+        }
+
+        /**
+         * Gets the name of the metric (e.g., <code>p99</code>, <code>throughput</code> or <code>errors</code>).
+         *
+         * @return The name of the metric
+         */
+        public String getMetric() {
+            return myMetric;
+        }
+
+        /**
+         * Gets the change in the metric, relative to the baseline.
+         *
+         * @return The relative change (e.g., 0.1 for a 10% increase)
+         */
+        public double getChange() {
+            return myChange;
+        }
+
+        /**
+         * Returns whether the change is statistically significant, i.e., its 95% confidence interval doesn't include
+         * zero.
+         *
+         * @return True if the change is significant; else, false
+         */
+        public boolean isSignificant() {
+            return myLowerBound > 0 || myUpperBound < 0;
+        }
+
+        /**
+         * Returns whether the metric got significantly worse by more than the threshold.
+         *
+         * @return True if the metric regressed; else, false
+         */
+        public boolean isRegression() {
+            if (myIncreaseIsWorse) {
+                return myChange > myThreshold && myLowerBound > 0;
+            }
+
+            return -myChange > myThreshold && myUpperBound < 0;
+        }
+
+        @Override
+        public String toString() {
+            final String verdict = isRegression() ? " REGRESSION" : isSignificant() ? " (significant)" : "";
+
+            return String.format(Locale.US, "%s %s: %s -> %s (%s, 95%% CI %s to %s)%s", myType, myMetric, myUnit
+                    .format(myBaseline), myUnit.format(myCandidate), percent(myChange), percent(myLowerBound),
+                    percent(myUpperBound), verdict);
+        }
+
+        private static String percent(final double aChange) {
+            return Double.isInfinite(aChange) ? "+inf%" : String.format(Locale.US, "%+.1f%%", aChange * 100);
+        }
+    }
+
+    /**
+     * The requests of one type in a run.
+     */
+    private static final class Run {
+
+        /* A uniform sample of the elapsed times, in microseconds, which is sorted once the run has been read */
+        private long[] myTimes = new long[BOOTSTRAP_SIZE];
+
+        private final SplittableRandom myRandom = new SplittableRandom(0);
+
+        private long myTimeCount;
+
+        private long myCount;
+
+        private long myErrorCount;
+
+        private long myFirstTime = Long.MAX_VALUE;
+
+        private long myLastTime = Long.MIN_VALUE;
+
+        /**
+         * Reads an event log, grouping its requests by type.
+         */
+        private static Map<RequestType, Run> read(final Path aPath) throws IOException {
+            final Map<String, RequestType> types = new HashMap<>();
+            final Map<RequestType, Run> runs = new EnumMap<>(RequestType.class);
+            final Map<String, String> keys = new HashMap<>();
+
+            for (final RequestType type : RequestType.values()) {
+                types.put(type.toString(), type);
+            }
+
+            try (Reader file = Files.newBufferedReader(aPath, StandardCharsets.UTF_8);
+                    JsonReader reader = new JsonReader(file)) {
+                for (JsonReader.Token token = reader.next(); token != JsonReader.Token.END_DOCUMENT; token = reader
+                        .next()) {
+                    final Object event = ManifestIndex.read(reader, token, keys);
+
+                    if (!(event instanceof Map)) {
+                        throw new IOException("Event log has something other than events: " + aPath);
+                    }
+
+                    final Map<?, ?> fields = (Map<?, ?>) event;
+                    final RequestType type = types.get(fields.get(EventLog.TYPE));
+
+                    if (type != null) {
+                        runs.computeIfAbsent(type, key -> new Run()).add(fields);
+                    }
+                }
+            }
+
+            for (final Run run : runs.values()) {
+                run.myTimes = Arrays.copyOf(run.myTimes, (int) Math.min(run.myTimeCount, BOOTSTRAP_SIZE));
+                Arrays.sort(run.myTimes);
+            }
+
+            return runs;
+        }
+
+        private void add(final Map<?, ?> aEvent) {
+            final Object time = aEvent.get(EventLog.TIME);
+            final Object status = aEvent.get(EventLog.STATUS);
+            final Object elapsed = aEvent.get(EventLog.ELAPSED);
+
+            myCount += 1;
+
+            if (time instanceof Number) {
+                myFirstTime = Math.min(myFirstTime, ((Number) time).longValue());
+                myLastTime = Math.max(myLastTime, ((Number) time).longValue());
+            }
+
+            if (!(status instanceof Number) || ((Number) status).intValue() < 200 || ((Number) status)
+                    .intValue() >= 400) {
+                myErrorCount += 1;
+            }
+
+            if (elapsed instanceof Number) {
+                sample(((Number) elapsed).longValue());
+            }
+        }
+
+        /**
+         * Records an elapsed time, keeping it in the sample with the same chance as every time before it (Vitter's
+         * algorithm R).
+         */
+        private void sample(final long aMicros) {
+            if (myTimeCount < myTimes.length) {
+                myTimes[(int) myTimeCount] = aMicros;
+            } else {
+                final long index = myRandom.nextLong(myTimeCount + 1);
+
+                if (index < myTimes.length) {
+                    myTimes[(int) index] = aMicros;
+                }
+            }
+
+            myTimeCount += 1;
+        }
+
+        /**
+         * Gets the number of seconds over which the requests were made; events are logged to the millisecond, so a
+         * run is at least a millisecond long.
+         */
+        private double getSeconds() {
+            return Math.max(myLastTime - myFirstTime, 1) / 1000d;
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A load scenario: the manifests that viewer sessions load, how popular each one is, the mix of kinds of session and
+ * how long people think before each interaction. A scenario is written as a file of lines, with a <code>#</code>
+ * that starts a line or follows a space starting a comment (so the fragments of URLs are kept):
+ * <ul>
+ * <li><code>server https://iiif.example.edu/</code> sets the server that manifest IDs are resolved against</li>
+ * <li><code>pool featured weight=80 popularity=zipf:1.1</code> starts a pool of manifests, which gets the supplied
+ * share of sessions and whose manifests are drawn either by Zipf's law, ranked in the order they're listed, or
+ * uniformly (<code>popularity=uniform</code>, the default)</li>
+ * <li><code>manifest ark:/21198/z1234</code> adds a manifest, by ID or URL, to the current pool</li>
+ * <li><code>collection https://iiif.example.edu/collection/top</code> adds every manifest in a collection, and in the
+ * collections it contains, to the current pool</li>
+ * <li><code>mix viewer=80 thumbnails=15 manifest=5</code> sets the shares of the kinds of session (by default, they're
+ * all viewers)</li>
+ * <li><code>think lognormal:3000:20000</code> sets the think time before each interaction, as a latency model</li>
+ * <li><code>script zoom:2,pan:0.5:0</code> sets the viewer script, in place of the one on the command line</li>
+ * </ul>
+ * <p>
+ * Collections are expanded once, before the run, and sessions are then drawn in constant time from alias tables, so
+ * a scenario can spread a high session rate across many thousands of manifests.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class Scenario {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Scenario.class);
+
+    /* The most parsed manifests that are kept for reuse, however many manifests the scenario has */
+    private static final int MAX_CACHED_MANIFESTS = 1000;
+
+    private static final String ZIPF = "zipf:";
+
+    private static final String UNIFORM = "uniform";
+
+    private final List<Pool> myPools;
+
+    private final double[] myMix;
+
+    private final LatencyModel myThinkTime;
+
+    private final ViewerScript myScript;
+
+    private final AliasTable myPoolTable;
+
+    private final AliasTable myKindTable;
+
+    private Scenario(final List<Pool> aPools, final double[] aMix, final LatencyModel aThinkTime,
+            final ViewerScript aScript) {
+        final double[] weights = new double[aPools.size()];
+
+        for (int index = 0; index < weights.length; index++) {
+            weights[index] = aPools.get(index).myWeight;
+        }
+
+        myPools = Collections.unmodifiableList(aPools);
+        myMix = aMix;
+        myThinkTime = aThinkTime;
+        myScript = aScript;
+        myPoolTable = new AliasTable(weights);
+        myKindTable = new AliasTable(aMix);
+    }
+
+    /**
+     * Parses a scenario file. Its collections aren't read until the scenario is expanded.
+     *
+     * @param aFile A scenario file
+     * @return The parsed scenario
+     * @throws IOException If the file can't be read
+     * @throws IllegalArgumentException If a line of the file can't be parsed
+     */
+    public static Scenario parse(final Path aFile) throws IOException {
+        final List<String> lines = Files.readAllLines(aFile, StandardCharsets.UTF_8);
+        final List<Pool> pools = new ArrayList<>();
+        final double[] mix = new double[SessionKind.values().length];
+
+        LatencyModel thinkTime = LatencyModel.NONE;
+        ViewerScript script = null;
+        String server = null;
+        Pool pool = null;
+
+        mix[SessionKind.VIEWER.ordinal()] = 1;
+
+        for (int index = 0; index < lines.size(); index++) {
+            final String line = stripComment(lines.get(index));
+            final String[] parts = line.split("\\s+", 2);
+            final String keyword = parts[0].toLowerCase(Locale.US);
+            final String value = parts.length > 1 ? parts[1].trim() : "";
+
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            try {
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("'" + keyword + "' needs a value");
+                }
+
+                switch (keyword) {
+                    case "server":
+                        server = checkServer(value);
+                        break;
+                    case "pool":
+                        pool = Pool.parse(value.split("\\s+"));
+                        pools.add(pool);
+                        break;
+                    case "manifest":
+                        getPool(pool, keyword).myManifests.add(server == null ? checkURL(value) : DownloadTimer
+                                .getURL(server, value));
+                        break;
+                    case "collection":
+                        getPool(pool, keyword).myCollections.add(checkURL(value));
+                        break;
+                    case "mix":
+                        parseMix(value.split("\\s+"), mix);
+                        break;
+                    case "think":
+                        thinkTime = LatencyModel.parse(value);
+                        break;
+                    case "script":
+                        script = ViewerScript.parse(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown keyword '" + keyword + "'");
+                }
+            } catch (final IllegalArgumentException details) {
+                throw new IllegalArgumentException(aFile + ":" + (index + 1) + ": " + details.getMessage(), details);
+            }
+        }
+
+        for (final Pool parsed : pools) {
+            if (parsed.myManifests.isEmpty() && parsed.myCollections.isEmpty()) {
+                throw new IllegalArgumentException("Pool '" + parsed.myName + "' in " + aFile + " has no manifests");
+            }
+        }
+
+        if (pools.isEmpty()) {
+            throw new IllegalArgumentException("Scenario has no pools of manifests: " + aFile);
+        }
+
+        return new Scenario(pools, mix, thinkTime, script);
+    }
+
+    /**
+     * Expands the scenario's collections into the manifests they contain. A collection that's in more than one pool
+     * is only read once.
+     *
+     * @param aEngine The download engine that collections are requested on
+     * @return A scenario whose pools list only manifests
+     * @throws IOException If a collection can't be read
+     * @throws IllegalArgumentException If a pool's collections turn out to have no manifests
+     */
+    public Scenario expand(final DownloadEngine aEngine) throws IOException {
+        final Map<String, List<String>> collections = new HashMap<>();
+        final List<Pool> pools = new ArrayList<>(myPools.size());
+
+        try (HttpTransport transport = aEngine.getTransport().newSession()) {
+            final CollectionReader reader = new CollectionReader(aEngine, transport);
+
+            for (final Pool pool : myPools) {
+                final Set<String> manifests = new LinkedHashSet<>(pool.myManifests);
+
+                for (final String collection : pool.myCollections) {
+                    if (!collections.containsKey(collection)) {
+                        LOGGER.info("Expanding collection: {}", collection);
+                        collections.put(collection, reader.findManifests(collection));
+                    }
+
+                    manifests.addAll(collections.get(collection));
+                }
+
+                if (manifests.isEmpty()) {
+                    throw new IllegalArgumentException("Pool '" + pool.myName + "' has no manifests");
+                }
+
+                pools.add(new Pool(pool.myName, pool.myWeight, pool.myExponent, new ArrayList<>(manifests)));
+            }
+        }
+
+        final Scenario scenario = new Scenario(pools, myMix, myThinkTime, myScript);
+
+        LOGGER.info("Scenario has {} manifests in {} pools", scenario.getManifestCount(), pools.size());
+        return scenario;
+    }
+
+    /**
+     * Draws a viewer session: a pool by its share of sessions, a manifest by its popularity within the pool and a
+     * kind of session by its share of the mix.
+     *
+     * @param aTemplate A session that's configured as every session of the scenario should be
+     * @return A new viewer session
+     * @throws IllegalStateException If the scenario's collections haven't been expanded
+     */
+    public ViewerSession sample(final ViewerSession aTemplate) {
+        final Pool pool = myPools.get(myPoolTable.sample());
+
+        if (pool.myRanks == null) {
+            throw new IllegalStateException("Scenario's collections haven't been expanded");
+        }
+
+        return aTemplate.withManifest(pool.myManifests.get(pool.myRanks.sample()), SessionKind.values()[myKindTable
+                .sample()]);
+    }
+
+    /**
+     * Gets the number of manifests in the scenario, counting a manifest that's in more than one pool more than once.
+     * Manifests in collections that haven't been expanded aren't counted.
+     *
+     * @return The number of manifests
+     */
+    public int getManifestCount() {
+        int count = 0;
+
+        for (final Pool pool : myPools) {
+            count += pool.myManifests.size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets a cache for the parsed manifests of the scenario's sessions, which is big enough to hold every manifest
+     * (up to a limit).
+     *
+     * @return A new manifest cache
+     */
+    public ManifestCache newManifestCache() {
+        return new ManifestCache(Math.max(1, Math.min(getManifestCount(), MAX_CACHED_MANIFESTS)));
+    }
+
+    /**
+     * Gets the time people think before each interaction.
+     *
+     * @return A distribution of think times
+     */
+    public LatencyModel getThinkTime() {
+        return myThinkTime;
+    }
+
+    /**
+     * Gets the scenario's viewer script.
+     *
+     * @return The viewer script, or null if the scenario doesn't have one
+     */
+    public ViewerScript getScript() {
+        return myScript;
+    }
+
+    /**
+     * Strips a comment from a line. A <code>#</code> inside a word, like a URL's fragment, doesn't start one.
+     */
+    private static String stripComment(final String aLine) {
+        for (int index = aLine.indexOf('#'); index != -1; index = aLine.indexOf('#', index + 1)) {
+            if (index == 0 || Character.isWhitespace(aLine.charAt(index - 1))) {
+                return aLine.substring(0, index).trim();
+            }
+        }
+
+        return aLine.trim();
+    }
+
+    private static Pool getPool(final Pool aPool, final String aKeyword) {
+        if (aPool == null) {
+            throw new IllegalArgumentException("'" + aKeyword + "' should come after a 'pool'");
+        }
+
+        return aPool;
+    }
+
+    private static void parseMix(final String[] aShares, final double[] aMix) {
+        final double[] mix = new double[aMix.length];
+
+        double total = 0;
+
+        for (final String share : aShares) {
+            final String[] parts = share.split("=", 2);
+
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Mix should be kind=share: " + share);
+            }
+
+            mix[SessionKind.fromName(parts[0]).ordinal()] = parseNumber(parts[1], share);
+        }
+
+        // The shares can't be negative, so the mix can be drawn from if any of them is greater than zero
+        for (final double share : mix) {
+            total += share;
+        }
+
+        if (total <= 0) {
+            throw new IllegalArgumentException("Mix should have a share that's greater than zero");
+        }
+
+        System.arraycopy(mix, 0, aMix, 0, mix.length);
+    }
+
+    private static String checkServer(final String aURL) {
+        try {
+            return new URL(aURL).toExternalForm();
+        } catch (final MalformedURLException details) {
+            throw new IllegalArgumentException("Invalid server URL: " + aURL, details);
+        }
+    }
+
+    private static String checkURL(final String aURL) {
+        if (!aURL.startsWith("http://") && !aURL.startsWith("https://")) {
+            throw new IllegalArgumentException("Needs a 'server' to resolve the ID against: " + aURL);
+        }
+
+        return checkServer(aURL);
+    }
+
+    private static double parseNumber(final String aNumber, final String aSource) {
+        try {
+            final double number = Double.parseDouble(aNumber);
+
+            if (!Double.isFinite(number)) {
+                throw new IllegalArgumentException("Should be a number: " + aSource);
+            } else if (number < 0) {
+                throw new IllegalArgumentException("Can't be negative: " + aSource);
+            }
+
+            return number;
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Should be a number: " + aSource, details);
+        }
+    }
+
+    /**
+     * A weighted pool of manifests and the popularity of the manifests within it.
+     */
+    private static final class Pool {
+
+        private final String myName;
+
+        private final double myWeight;
+
+        /* The Zipf exponent of the manifests' popularity, where zero is uniform */
+        private final double myExponent;
+
+        private final List<String> myManifests;
+
+        private final List<String> myCollections;
+
+        /* The table that manifests are drawn from, once the pool has only manifests */
+        private final AliasTable myRanks;
+
+        private Pool(final String aName, final double aWeight, final double aExponent) {
+            myName = aName;
+            myWeight = aWeight;
+            myExponent = aExponent;
+            myManifests = new ArrayList<>();
+            myCollections = new ArrayList<>();
+            myRanks = null;
+        }
+
+        private Pool(final String aName, final double aWeight, final double aExponent, final List<String> aManifests) {
+            myName = aName;
+            myWeight = aWeight;
+            myExponent = aExponent;
+            myManifests = Collections.unmodifiableList(aManifests);
+            myCollections = Collections.emptyList();
+            myRanks = AliasTable.zipf(aManifests.size(), aExponent);
+        }
+
+        /**
+         * Parses a pool's name and its <code>weight</code> and <code>popularity</code> settings.
+         */
+        private static Pool parse(final String[] aParts) {
+            double weight = 1;
+            double exponent = 0;
+
+            for (int index = 1; index < aParts.length; index++) {
+                final String[] setting = aParts[index].split("=", 2);
+                final String value = setting.length > 1 ? setting[1].toLowerCase(Locale.US) : "";
+
+                if ("weight".equals(setting[0])) {
+                    weight = parseNumber(value, aParts[index]);
+                } else if ("popularity".equals(setting[0]) && value.startsWith(ZIPF)) {
+                    exponent = parseNumber(value.substring(ZIPF.length()), aParts[index]);
+                } else if ("popularity".equals(setting[0]) && UNIFORM.equals(value)) {
+                    exponent = 0;
+                } else {
+                    throw new IllegalArgumentException("Unknown pool setting: " + aParts[index]);
+                }
+            }
+
+            return new Pool(aParts[0], weight, exponent);
+        }
+    }
+}
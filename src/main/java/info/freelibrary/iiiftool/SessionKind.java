@@ -0,0 +1,40 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+
+/**
+ * The kinds of visit that a viewer session can make, from a full look at an image down to just fetching a manifest.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public enum SessionKind {
+
+    /** The manifest, thumbnails, info.json file and tiles, and then the viewer script */
+    VIEWER,
+
+    /** The manifest and its thumbnails, as when someone browses an object without opening an image */
+    THUMBNAILS,
+
+    /** Just the manifest, as a harvester or another site's viewer would request it */
+    MANIFEST;
+
+    /**
+     * Gets the session kind with the supplied name.
+     *
+     * @param aName The name of a session kind (e.g., <code>viewer</code>)
+     * @return The session kind with the supplied name
+     * @throws IllegalArgumentException If there isn't a session kind with the supplied name
+     */
+    public static SessionKind fromName(final String aName) {
+        try {
+            return valueOf(aName.toUpperCase(Locale.US));
+        } catch (final IllegalArgumentException details) {
+            throw new IllegalArgumentException("Unknown session kind: " + aName, details);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,498 @@
+package info.freelibrary.iiiftool;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A stand-in IIIF server, on the JDK's HTTP server, that serves synthetic manifests, info.json files, thumbnails and
+ * tiles. The latency, bandwidth and error rate of each type of request can be set, as can the number of requests that
+ * are served at once, so the tool's own overhead can be measured offline and its measurements checked against known,
+ * injected delays.
+ * <p>
+ * Every ID is a manifest: <code>/iiif/{id}/manifest</code> has a configurable number of canvases, each with an image
+ * service at <code>/iiif/{id}-{canvas}</code> whose thumbnail and tiles are JPEG images padded to the route's body
+ * size.
+ * </p>
+ * <p>
+ * Every response has an <code>ETag</code> and, as the content never changes, a <code>Last-Modified</code> date of
+ * when the server started, and conditional requests that match them get a 304. Each route can also set a
+ * <code>Cache-Control</code> max age.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class StandInServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StandInServer.class);
+
+    private static final String PREFIX = "/iiif";
+
+    private static final String MANIFEST = "/manifest";
+
+    private static final String INFO_JSON = "/info.json";
+
+    /* The size parameter of the thumbnails the manifests point to */
+    private static final String THUMBNAIL_SIZE = "150,";
+
+    private static final int DEFAULT_CANVAS_COUNT = 20;
+
+    private static final int DEFAULT_WIDTH = 6000;
+
+    private static final int DEFAULT_HEIGHT = 4000;
+
+    private static final int DEFAULT_THUMBNAIL_SIZE = 8 * 1024;
+
+    private static final int DEFAULT_TILE_SIZE = 150 * 1024;
+
+    /* The size of the chunks in which bandwidth-limited bodies are written */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private static final String JSON = "application/json";
+
+    private static final String JPEG = "image/jpeg";
+
+    /* The JDK's HTTP server writes headers and body separately, which Nagle's algorithm would delay by ~40 ms */
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+    static {
+        if (System.getProperty(NO_DELAY) == null) {
+            System.setProperty(NO_DELAY, Boolean.TRUE.toString());
+        }
+    }
+
+    private final HttpServer myServer;
+
+    private final ExecutorService myExecutor;
+
+    private final Map<RequestType, RouteSettings> mySettings;
+
+    private final Map<RequestType, LongAdder> myRequestCounts;
+
+    private final Map<RequestType, LongAdder> myErrorCounts;
+
+    /* Padded copies of a small JPEG image, keyed by their size */
+    private final Map<Integer, byte[]> myImages;
+
+    private final byte[] myImage;
+
+    /* The content never changes, so it's last modified when the server started */
+    private final Instant myLastModified;
+
+    private volatile int myCanvasCount;
+
+    private volatile int myWidth;
+
+    private volatile int myHeight;
+
+    /**
+     * Creates a new stand-in server that serves any number of requests at once. It isn't started until
+     * {@link #start()} is called.
+     *
+     * @param aPort The port to listen on, or zero for any free port
+     * @throws IOException If the server can't listen on the port
+     */
+    public StandInServer(final int aPort) throws IOException {
+        this(aPort, 0);
+    }
+
+    /**
+     * Creates a new stand-in server. It isn't started until {@link #start()} is called.
+     *
+     * @param aPort The port to listen on, or zero for any free port
+     * @param aConnectionLimit The number of requests served at once, or zero for no limit; other requests wait, as
+     *        they would at a server whose workers are all busy
+     * @throws IOException If the server can't listen on the port
+     */
+    public StandInServer(final int aPort, final int aConnectionLimit) throws IOException {
+        myServer = HttpServer.create(new InetSocketAddress(aPort), 0);
+        myExecutor = aConnectionLimit > 0 ? Executors.newFixedThreadPool(aConnectionLimit) : Executors
+                .newCachedThreadPool();
+        mySettings = new EnumMap<>(RequestType.class);
+        myRequestCounts = new EnumMap<>(RequestType.class);
+        myErrorCounts = new EnumMap<>(RequestType.class);
+        myImages = new ConcurrentHashMap<>();
+        myImage = createImage();
+        myLastModified = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        myCanvasCount = DEFAULT_CANVAS_COUNT;
+        myWidth = DEFAULT_WIDTH;
+        myHeight = DEFAULT_HEIGHT;
+
+        for (final RequestType type : RequestType.values()) {
+            mySettings.put(type, new RouteSettings(type == RequestType.TILE ? DEFAULT_TILE_SIZE
+                    : DEFAULT_THUMBNAIL_SIZE));
+            myRequestCounts.put(type, new LongAdder());
+            myErrorCounts.put(type, new LongAdder());
+        }
+
+        myServer.createContext(PREFIX + "/", this::handle);
+        myServer.setExecutor(myExecutor);
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @return This server
+     */
+    public StandInServer start() {
+        myServer.start();
+        LOGGER.info("Stand-in IIIF server listening at: {}", getURL());
+        return this;
+    }
+
+    /**
+     * Gets the URL of the server, to which the manifest IDs are appended.
+     *
+     * @return The server's URL
+     */
+    public String getURL() {
+        return "http://localhost:" + getPort() + PREFIX;
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return The server's port
+     */
+    public int getPort() {
+        return myServer.getAddress().getPort();
+    }
+
+    /**
+     * Gets the settings for a type of request, through which the server's responses to it are configured.
+     *
+     * @param aType A type of request
+     * @return The settings for the type of request
+     */
+    public RouteSettings getSettings(final RequestType aType) {
+        return mySettings.get(aType);
+    }
+
+    /**
+     * Sets the number of canvases in each manifest.
+     *
+     * @param aCanvasCount The number of canvases
+     * @return This server
+     * @throws IllegalArgumentException If the count is negative
+     */
+    public StandInServer setCanvasCount(final int aCanvasCount) {
+        if (aCanvasCount < 0) {
+            throw new IllegalArgumentException("Canvas count can't be negative: " + aCanvasCount);
+        }
+
+        myCanvasCount = aCanvasCount;
+        return this;
+    }
+
+    /**
+     * Gets the number of canvases in each manifest.
+     *
+     * @return The number of canvases
+     */
+    public int getCanvasCount() {
+        return myCanvasCount;
+    }
+
+    /**
+     * Sets the full size of each image, which determines how many tiles it has.
+     *
+     * @param aWidth The width of an image
+     * @param aHeight The height of an image
+     * @return This server
+     * @throws IllegalArgumentException If either dimension isn't positive
+     */
+    public StandInServer setImageSize(final int aWidth, final int aHeight) {
+        if (aWidth < 1 || aHeight < 1) {
+            throw new IllegalArgumentException("Image dimensions should be positive: " + aWidth + "x" + aHeight);
+        }
+
+        myWidth = aWidth;
+        myHeight = aHeight;
+        return this;
+    }
+
+    /**
+     * Gets the number of requests of a type that the server has received.
+     *
+     * @param aType A type of request
+     * @return The number of requests received
+     */
+    public long getRequestCount(final RequestType aType) {
+        return myRequestCounts.get(aType).sum();
+    }
+
+    /**
+     * Gets the number of requests of a type that the server has deliberately failed.
+     *
+     * @param aType A type of request
+     * @return The number of requests failed
+     */
+    public long getErrorCount(final RequestType aType) {
+        return myErrorCounts.get(aType).sum();
+    }
+
+    /**
+     * Stops the server, closing its connections.
+     */
+    @Override
+    public void close() {
+        myServer.stop(0);
+        myExecutor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange aExchange) throws IOException {
+        try {
+            final String path = aExchange.getRequestURI().getRawPath().substring(PREFIX.length() + 1);
+            final RequestType type = getType(path);
+
+            if (type == null) {
+                aExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+                return;
+            }
+
+            final RouteSettings settings = mySettings.get(type);
+            final long latency = settings.getLatency().sample();
+
+            myRequestCounts.get(type).increment();
+
+            if (latency > 0) {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            }
+
+            if (ThreadLocalRandom.current().nextDouble() < settings.getErrorRate()) {
+                myErrorCounts.get(type).increment();
+                aExchange.sendResponseHeaders(settings.getErrorStatus(), -1);
+            } else {
+                final String base = "http://" + getHost(aExchange) + PREFIX + "/";
+                final byte[] body;
+
+                switch (type) {
+                    case MANIFEST:
+                        body = getManifest(base, path.substring(0, path.length() - MANIFEST.length()));
+                        break;
+                    case INFO_JSON:
+                        body = getInfo(base + path.substring(0, path.length() - INFO_JSON.length()));
+                        break;
+                    default:
+                        body = myImages.computeIfAbsent(settings.getBodySize(), size -> Arrays.copyOf(myImage, Math
+                                .max(size, myImage.length)));
+                }
+
+                final Headers headers = aExchange.getResponseHeaders();
+                final String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+
+                headers.set("ETag", etag);
+                headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(myLastModified.atZone(
+                        ZoneOffset.UTC)));
+
+                if (settings.getMaxAge() >= 0) {
+                    headers.set("Cache-Control", "max-age=" + settings.getMaxAge());
+                }
+
+                if (isNotModified(aExchange.getRequestHeaders(), etag)) {
+                    aExchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                } else {
+                    headers.set("Content-Type", type == RequestType.MANIFEST || type == RequestType.INFO_JSON ? JSON
+                            : JPEG);
+                    aExchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                    write(aExchange.getResponseBody(), body, settings.getBandwidth());
+                }
+            }
+        } catch (final InterruptedException details) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(details.getMessage());
+        } finally {
+            aExchange.close();
+        }
+    }
+
+    /**
+     * Returns whether a conditional request's validators match the response, so it can be answered with a 304. As
+     * with any server, <code>If-None-Match</code> takes precedence over <code>If-Modified-Since</code>.
+     */
+    private boolean isNotModified(final Headers aHeaders, final String aETag) {
+        final String ifNoneMatch = aHeaders.getFirst("If-None-Match");
+        final String ifModifiedSince = aHeaders.getFirst("If-Modified-Since");
+
+        if (ifNoneMatch != null) {
+            for (final String etag : ifNoneMatch.split(",")) {
+                final String value = etag.trim();
+
+                if ("*".equals(value) || aETag.equals(value.startsWith("W/") ? value.substring(2) : value)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        if (ifModifiedSince != null) {
+            try {
+                return !myLastModified.isAfter(ZonedDateTime.parse(ifModifiedSince,
+                        DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+            } catch (final DateTimeParseException details) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Works out the type of a request from its path, returning null if it isn't a IIIF request.
+     */
+    private static RequestType getType(final String aPath) {
+        final String[] parts;
+
+        if (aPath.endsWith(MANIFEST) && aPath.length() > MANIFEST.length()) {
+            return RequestType.MANIFEST;
+        } else if (aPath.endsWith(INFO_JSON) && aPath.length() > INFO_JSON.length()) {
+            return RequestType.INFO_JSON;
+        }
+
+        // An image request's path is {id}/{region}/{size}/{rotation}/{quality}.{format}
+        parts = aPath.split("/");
+
+        if (parts.length < 5) {
+            return null;
+        }
+
+        return THUMBNAIL_SIZE.equals(parts[parts.length - 3]) ? RequestType.THUMBNAIL : RequestType.TILE;
+    }
+
+    private byte[] getManifest(final String aBase, final String aID) {
+        final StringBuilder json = new StringBuilder(256 + myCanvasCount * 640);
+        final int width = myWidth;
+        final int height = myHeight;
+
+        json.append("{\"@context\":\"http://iiif.io/api/presentation/2/context.json\",\"@id\":\"").append(aBase)
+                .append(aID).append("/manifest\",\"@type\":\"sc:Manifest\",\"label\":\"").append(aID).append(
+                        "\",\"sequences\":[{\"@type\":\"sc:Sequence\",\"canvases\":[");
+
+        for (int index = 0; index < myCanvasCount; index++) {
+            final String service = aBase + aID + "-" + index;
+            final String image = "{\"@id\":\"" + service + "/full/full/0/default.jpg\",\"@type\":\"dctypes:Image\"," +
+                    "\"format\":\"image/jpeg\",\"width\":" + width + ",\"height\":" + height + ",\"service\":{" +
+                    "\"@context\":\"http://iiif.io/api/image/2/context.json\",\"@id\":\"" + service + "\"," +
+                    "\"profile\":\"http://iiif.io/api/image/2/level1.json\"}}";
+
+            if (index > 0) {
+                json.append(',');
+            }
+
+            json.append("{\"@id\":\"").append(aBase).append(aID).append("/canvas/").append(index).append(
+                    "\",\"@type\":\"sc:Canvas\",\"label\":\"").append(index + 1).append("\",\"width\":").append(width)
+                    .append(",\"height\":").append(height).append(",\"thumbnail\":{\"@id\":\"").append(service)
+                    .append("/full/").append(THUMBNAIL_SIZE).append("/0/default.jpg\"},\"images\":[{\"@type\":")
+                    .append("\"oa:Annotation\",\"motivation\":\"sc:painting\",\"resource\":{\"@type\":\"oa:Choice\",")
+                    .append("\"default\":").append(image).append(",\"item\":[").append(image).append("]}}]}");
+        }
+
+        return json.append("]}]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] getInfo(final String aServiceID) {
+        final StringBuilder json = new StringBuilder(512);
+        final int width = myWidth;
+        final int height = myHeight;
+        final int tileSize = DownloadTimer.DEFAULT_TILE_SIZE;
+
+        json.append("{\"@context\":\"http://iiif.io/api/image/2/context.json\",\"@id\":\"").append(aServiceID).append(
+                "\",\"protocol\":\"http://iiif.io/api/image\",\"width\":").append(width).append(",\"height\":")
+                .append(height).append(",\"tiles\":[{\"width\":").append(tileSize).append(",\"scaleFactors\":[1");
+
+        // Scale factors go up until the whole image fits in one tile
+        for (int factor = 2; (long) factor / 2 * tileSize < Math.max(width, height); factor <<= 1) {
+            json.append(',').append(factor);
+        }
+
+        json.append("]}],\"profile\":[\"http://iiif.io/api/image/2/level1.json\"]}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a body, pacing it to the supplied bandwidth.
+     */
+    private static void write(final OutputStream aOutput, final byte[] aBody, final long aBandwidth)
+            throws IOException, InterruptedException {
+        final long startTime = System.nanoTime();
+
+        if (aBandwidth == 0) {
+            aOutput.write(aBody);
+            return;
+        }
+
+        for (int offset = 0; offset < aBody.length; offset += CHUNK_SIZE) {
+            final int length = Math.min(CHUNK_SIZE, aBody.length - offset);
+            final long due = startTime + (long) ((offset + length) * (double) TimeUnit.SECONDS.toNanos(1) /
+                    aBandwidth);
+            final long wait;
+
+            aOutput.write(aBody, offset, length);
+            aOutput.flush();
+            wait = due - System.nanoTime();
+
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private String getHost(final HttpExchange aExchange) {
+        final String host = aExchange.getRequestHeaders().getFirst("Host");
+        return host == null ? "localhost:" + getPort() : host;
+    }
+
+    /**
+     * Creates a small JPEG image, which is padded to the size of the images that are sent; decoders stop at the end
+     * of the image, so the padded images can still be validated.
+     */
+    private static byte[] createImage() {
+        final BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, (x * 4) << 16 | (y * 4) << 8 | 128);
+            }
+        }
+
+        try {
+            ImageIO.write(image, "jpg", bytes);
+        } catch (final IOException details) {
+            throw new UncheckedIOException(details);
+        }
+
+        return bytes.toByteArray();
+    }
+}
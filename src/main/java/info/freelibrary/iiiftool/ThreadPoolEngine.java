@@ -0,0 +1,35 @@
+package info.freelibrary.iiiftool;
+
+import java.util.concurrent.Executors;
+
+/**
+ * A download engine that runs downloads on a fixed size pool of platform threads.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ThreadPoolEngine extends BlockingEngine {
+
+    /**
+     * Creates a new thread pool download engine whose streamed requests are read on as many threads as are in the
+     * pool.
+     *
+     * @param aThreadCount The number of threads in the pool
+     * @param aTransport The transport from which each viewer session's transport is created
+     */
+    public ThreadPoolEngine(final int aThreadCount, final HttpTransport aTransport) {
+        this(aThreadCount, aThreadCount, aTransport);
+    }
+
+    /**
+     * Creates a new thread pool download engine. Streamed requests, like that of a manifest that's parsed as it's
+     * downloaded, are run on a pool of reader threads of their own so they can't starve the download pool; both
+     * pools are fixed in size.
+     *
+     * @param aThreadCount The number of threads in the pool
+     * @param aReaderCount The number of threads on which streamed requests are read
+     * @param aTransport The transport from which each viewer session's transport is created
+     */
+    public ThreadPoolEngine(final int aThreadCount, final int aReaderCount, final HttpTransport aTransport) {
+        super(Executors.newFixedThreadPool(aThreadCount), Executors.newFixedThreadPool(aReaderCount), aTransport);
+    }
+}
@@ -0,0 +1,365 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A benchmark of the tile sizes, formats and qualities that an image server could be set up to serve. For each
+ * combination, the tiles that OpenSeadragon requests to make the home view of the manifest's first image sharp are
+ * downloaded, over a fresh set of connections, and the bytes, the requests, the server's latencies and the time until
+ * the viewport is sharp are recorded. The combinations are run in rounds, in a new random order each round, so that
+ * drift in the server or the network over the run (caches filling, other traffic) is spread across all of them rather
+ * than landing on whichever ran last.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class TileMatrix {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TileMatrix.class);
+
+    /* The qualities and formats that the IIIF Image API defines */
+    private static final Set<String> QUALITIES = Set.of("default", "color", "gray", "bitonal");
+
+    private static final Set<String> FORMATS = Set.of("jpg", "tif", "png", "gif", "jp2", "pdf", "webp");
+
+    private final DownloadEngine myEngine;
+
+    private final Viewport myViewport;
+
+    private List<Integer> myTileSizes = List.of(256, 512, 1024);
+
+    private List<String> myFormats = List.of("jpg", "png", "webp");
+
+    private List<String> myQualities = List.of("default", "gray", "bitonal");
+
+    private int myRoundCount = 5;
+
+    private LiveMetrics myLiveMetrics;
+
+    /**
+     * Creates a new tile matrix.
+     *
+     * @param aEngine The download engine that the tiles are downloaded with
+     * @param aViewport The viewport whose home view is made sharp
+     */
+    public TileMatrix(final DownloadEngine aEngine, final Viewport aViewport) {
+        myEngine = aEngine;
+        myViewport = aViewport;
+    }
+
+    /**
+     * Sets the tile sizes to compare.
+     *
+     * @param aTileSizes The widths and heights of square tiles
+     * @return This tile matrix
+     * @throws IllegalArgumentException If there are no tile sizes or one isn't positive
+     */
+    public TileMatrix setTileSizes(final List<Integer> aTileSizes) {
+        if (aTileSizes.isEmpty() || aTileSizes.stream().anyMatch(size -> size < 1)) {
+            throw new IllegalArgumentException("Tile sizes should be positive: " + aTileSizes);
+        }
+
+        myTileSizes = List.copyOf(aTileSizes);
+        return this;
+    }
+
+    /**
+     * Sets the image formats to compare.
+     *
+     * @param aFormats IIIF image formats (e.g., <code>jpg</code>, <code>png</code> or <code>webp</code>)
+     * @return This tile matrix
+     * @throws IllegalArgumentException If there are no formats or one isn't a IIIF image format
+     */
+    public TileMatrix setFormats(final List<String> aFormats) {
+        myFormats = check(aFormats, FORMATS, "format");
+        return this;
+    }
+
+    /**
+     * Sets the image qualities to compare.
+     *
+     * @param aQualities IIIF image qualities (e.g., <code>default</code>, <code>gray</code> or <code>bitonal</code>)
+     * @return This tile matrix
+     * @throws IllegalArgumentException If there are no qualities or one isn't a IIIF image quality
+     */
+    public TileMatrix setQualities(final List<String> aQualities) {
+        myQualities = check(aQualities, QUALITIES, "quality");
+        return this;
+    }
+
+    /**
+     * Sets the number of rounds; each round runs every combination once.
+     *
+     * @param aRoundCount The number of rounds
+     * @return This tile matrix
+     * @throws IllegalArgumentException If the number of rounds isn't positive
+     */
+    public TileMatrix setRounds(final int aRoundCount) {
+        if (aRoundCount < 1) {
+            throw new IllegalArgumentException("The number of rounds should be positive: " + aRoundCount);
+        }
+
+        myRoundCount = aRoundCount;
+        return this;
+    }
+
+    /**
+     * Sets the live metrics that the tile requests are recorded in.
+     *
+     * @param aLiveMetrics Live metrics
+     * @return This tile matrix
+     */
+    public TileMatrix setLiveMetrics(final LiveMetrics aLiveMetrics) {
+        myLiveMetrics = aLiveMetrics;
+        return this;
+    }
+
+    /**
+     * Runs every combination of tile size, format and quality against the first image of the supplied manifest.
+     *
+     * @param aManifestURL The URL of a manifest
+     * @return The results of each combination, in order of tile size, then quality and then format
+     * @throws IOException If the manifest or the image's info.json file can't be read
+     */
+    public List<Cell> run(final String aManifestURL) throws IOException {
+        final List<String> services = ImageInfo.getServiceIDs(fetch(aManifestURL));
+        final List<Cell> cells = new ArrayList<>();
+        final TilePyramid image;
+        final List<Cell> order;
+        final String serviceID;
+
+        if (services.isEmpty()) {
+            throw new IOException("No image service found in: " + aManifestURL);
+        }
+
+        serviceID = services.get(0);
+        image = TilePyramid.fromInfo(serviceID, fetch(serviceID + "/info.json"), DownloadTimer.DEFAULT_TILE_SIZE);
+
+        for (final int size : myTileSizes) {
+            for (final String quality : myQualities) {
+                for (final String format : myFormats) {
+                    // A cell is recorded into by no more than a browser's connections to a host
+                    cells.add(new Cell(image.withTileSize(size).withFormat(quality, format), size, quality, format,
+                            new DownloadReport(null, myLiveMetrics, 1)));
+                }
+            }
+        }
+
+        order = new ArrayList<>(cells);
+
+        for (int round = 1; round <= myRoundCount; round++) {
+            LOGGER.info("Running round {} of {} ({} combinations)", round, myRoundCount, cells.size());
+            Collections.shuffle(order);
+
+            for (final Cell cell : order) {
+                runTrial(cell);
+            }
+        }
+
+        return cells;
+    }
+
+    /**
+     * Downloads the tiles of the home view, with a browser's per-host connection limit, over new connections, so
+     * that no combination gets connections that another warmed up.
+     */
+    private void runTrial(final Cell aCell) {
+        final List<String> tiles = new OpenSeadragonView(aCell.myPyramid, myViewport).getTiles();
+        final Iterator<String> urls = tiles.iterator();
+        final HttpTransport session = myEngine.getTransport().newSession();
+        final long startTime = System.nanoTime();
+
+        try {
+            DownloadWindow.downloadAll(myEngine, new Iterator<DownloadThread>() {
+
+                @Override
+                public boolean hasNext() {
+                    return urls.hasNext();
+                }
+
+                @Override
+                public DownloadThread next() {
+                    return new DownloadThread(urls.next(), RequestType.TILE, aCell.myReport, session);
+                }
+            }, HttpProfile.CONNECTIONS_PER_HOST).join();
+
+            aCell.myReport.addPhaseTime(Phase.TILES, System.nanoTime() - startTime);
+            aCell.myTileCount = tiles.size();
+        } finally {
+            session.close();
+        }
+    }
+
+    private ManifestIndex fetch(final String aURL) throws IOException {
+        final HttpResult result;
+
+        try {
+            result = myEngine.request(myEngine.getTransport(), aURL, true).join();
+        } catch (final CompletionException details) {
+            if (details.getCause() instanceof IOException) {
+                throw (IOException) details.getCause();
+            }
+
+            throw new IOException(details.getCause());
+        }
+
+        if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response status '" + result.getStatus() + "' for: " + aURL);
+        }
+
+        return ManifestIndex.parse(result.getJSON());
+    }
+
+    private static List<String> check(final List<String> aValues, final Set<String> aAllowed, final String aName) {
+        final List<String> values = new ArrayList<>(aValues.size());
+
+        for (final String value : aValues) {
+            final String name = value.toLowerCase(Locale.US);
+
+            if (!aAllowed.contains(name)) {
+                throw new IllegalArgumentException("Unknown IIIF image " + aName + ": " + value);
+            }
+
+            values.add(name);
+        }
+
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException("At least one IIIF image " + aName + " is needed");
+        }
+
+        return values;
+    }
+
+    /**
+     * The results of one combination of tile size, format and quality.
+     */
+    public static final class Cell {
+
+        /** The header of a table of results, whose rows are the cells' string forms */
+        public static final String HEADER = String.format(Locale.US, "%5s %-13s %5s %10s %9s %9s %9s %9s %9s %6s",
+                "size", "format", "tiles", "KB/view", "ttfb p50", "ttfb p90", "ttfb p99", "view p50", "view p90",
+                "errors");
+
+        private static final String ROW = "%5d %-13s %5d %10.1f %9.1f %9.1f %9.1f %9.1f %9.1f %6d";
+
+        private static final double MICROS_PER_MILLI = 1000d;
+
+        private final TilePyramid myPyramid;
+
+        private final int myTileSize;
+
+        private final String myQuality;
+
+        private final String myFormat;
+
+        private final DownloadReport myReport;
+
+        private int myTileCount;
+
+        private Cell(final TilePyramid aPyramid, final int aTileSize, final String aQuality, final String aFormat,
+                final DownloadReport aReport) {
+            myPyramid = aPyramid;
+            myTileSize = aTileSize;
+            myQuality = aQuality;
+            myFormat = aFormat;
+            myReport = aReport;
+        }
+
+        /**
+         * Gets the width and height of the combination's tiles.
+         *
+         * @return The tile size
+         */
+        public int getTileSize() {
+            return myTileSize;
+        }
+
+        /**
+         * Gets the IIIF image quality of the combination's tiles.
+         *
+         * @return The tile quality
+         */
+        public String getQuality() {
+            return myQuality;
+        }
+
+        /**
+         * Gets the IIIF image format of the combination's tiles.
+         *
+         * @return The tile format
+         */
+        public String getFormat() {
+            return myFormat;
+        }
+
+        /**
+         * Gets the number of tiles that are requested to make the viewport sharp.
+         *
+         * @return The number of tile requests in each trial
+         */
+        public int getTileCount() {
+            return myTileCount;
+        }
+
+        /**
+         * Gets the mean number of bytes that were downloaded to make the viewport sharp.
+         *
+         * @return The mean number of bytes downloaded in each trial
+         */
+        public long getByteCount() {
+            final long trials = getTimeToViewport().getCount();
+            return trials == 0 ? 0 : myReport.getByteCount(RequestType.TILE) / trials;
+        }
+
+        /**
+         * Gets the number of tile requests that failed or got an error status, over all the trials.
+         *
+         * @return The number of failed tile requests
+         */
+        public long getErrorCount() {
+            return myReport.getErrorCount(RequestType.TILE);
+        }
+
+        /**
+         * Gets the server's latencies: the times from sending each tile request until its first byte arrived.
+         *
+         * @return A snapshot of the times to first byte, expressed in microseconds
+         */
+        public HistogramSnapshot getServerLatency() {
+            return myReport.getTimes(RequestType.TILE, RequestPhase.TTFB);
+        }
+
+        /**
+         * Gets the times from the first tile request until every tile in the viewport had been downloaded.
+         *
+         * @return A snapshot of the times to a sharp viewport, expressed in microseconds
+         */
+        public HistogramSnapshot getTimeToViewport() {
+            return myReport.getTimes(Phase.TILES);
+        }
+
+        @Override
+        public String toString() {
+            final HistogramSnapshot latency = getServerLatency();
+            final HistogramSnapshot viewport = getTimeToViewport();
+
+            return String.format(Locale.US, ROW, myTileSize, myQuality + "." + myFormat, myTileCount, getByteCount() /
+                    1024d, toMillis(latency, 50), toMillis(latency, 90), toMillis(latency, 99), toMillis(viewport, 50),
+                    toMillis(viewport, 90), getErrorCount());
+        }
+
+        private static double toMillis(final HistogramSnapshot aTimes, final double aPercentile) {
+            return aTimes.getValueAtPercentile(aPercentile) / MICROS_PER_MILLI;
+        }
+    }
+}
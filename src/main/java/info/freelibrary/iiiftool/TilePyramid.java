@@ -0,0 +1,463 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The pyramid of tiles that a IIIF image server offers for an image, as described by the image's info.json file. The
+ * pyramid is just arithmetic: no tile is created until it's asked for, and a tile's URL is only formatted when it's
+ * needed, so walking the whole of a gigapixel image's pyramid takes no more memory than walking a small one's.
+ * <p>
+ * Levels are numbered from the lowest resolution (zero) to the full resolution, which is the order a viewer like
+ * OpenSeadragon fills them in; tiles within a level are numbered by their column and row. If the info.json file
+ * doesn't advertise any tiles, the levels are made from the sizes it advertises (each a single, whole-image tile) or,
+ * failing that, from default sized tiles at power of two scale factors. Tiles are requested as default quality JPEGs
+ * unless another quality or format is asked for.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class TilePyramid implements Iterable<String> {
+
+    /* The part of the IIIF request that follows the size; tiles aren't rotated */
+    private static final String ROTATION = "/0/";
+
+    private static final String DEFAULT_QUALITY = "default";
+
+    private static final String DEFAULT_FORMAT = "jpg";
+
+    private static final String FULL = "full";
+
+    private final String myServiceID;
+
+    private final int myWidth;
+
+    private final int myHeight;
+
+    /* For each level: the scale factor, the size of a tile's region in full image pixels and the level's size */
+    private final double[] myScales;
+
+    private final long[] myRegionWidths;
+
+    private final long[] myRegionHeights;
+
+    private final int[] myLevelWidths;
+
+    private final int[] myLevelHeights;
+
+    private final String myQuality;
+
+    private final String myFormat;
+
+    /**
+     * Creates a new tile pyramid from the tiles that an image server advertises.
+     *
+     * @param aServiceID The ID of the image's IIIF image service
+     * @param aWidth The full width of the image
+     * @param aHeight The full height of the image
+     * @param aTileWidth The width of a tile
+     * @param aTileHeight The height of a tile
+     * @param aScaleFactors The scale factors at which tiles are offered
+     * @throws IllegalArgumentException If a dimension or scale factor isn't positive or there are no scale factors
+     */
+    public TilePyramid(final String aServiceID, final int aWidth, final int aHeight, final int aTileWidth,
+            final int aTileHeight, final int... aScaleFactors) {
+        final int[] factors = Arrays.stream(aScaleFactors).distinct().sorted().toArray();
+        final int count = factors.length;
+
+        checkSize(aWidth, aHeight);
+        checkSize(aTileWidth, aTileHeight);
+
+        if (count == 0 || factors[0] < 1) {
+            throw new IllegalArgumentException("Scale factors should be positive: " + Arrays.toString(aScaleFactors));
+        }
+
+        myServiceID = aServiceID;
+        myWidth = aWidth;
+        myHeight = aHeight;
+        myScales = new double[count];
+        myRegionWidths = new long[count];
+        myRegionHeights = new long[count];
+        myLevelWidths = new int[count];
+        myLevelHeights = new int[count];
+        myQuality = DEFAULT_QUALITY;
+        myFormat = DEFAULT_FORMAT;
+
+        // The largest scale factor gives the lowest resolution, which is level zero
+        for (int level = 0; level < count; level++) {
+            final int factor = factors[count - level - 1];
+
+            myScales[level] = factor;
+            myRegionWidths[level] = (long) aTileWidth * factor;
+            myRegionHeights[level] = (long) aTileHeight * factor;
+            myLevelWidths[level] = (int) Math.ceil((double) aWidth / factor);
+            myLevelHeights[level] = (int) Math.ceil((double) aHeight / factor);
+        }
+    }
+
+    /**
+     * Creates a new tile pyramid from the whole-image sizes that an image server advertises.
+     *
+     * @param aServiceID The ID of the image's IIIF image service
+     * @param aWidth The full width of the image
+     * @param aHeight The full height of the image
+     * @param aSizes The widths and heights, as pairs, of the sizes at which the whole image is offered
+     */
+    private TilePyramid(final String aServiceID, final int aWidth, final int aHeight, final List<int[]> aSizes) {
+        final int count = aSizes.size();
+
+        checkSize(aWidth, aHeight);
+
+        myServiceID = aServiceID;
+        myWidth = aWidth;
+        myHeight = aHeight;
+        myScales = new double[count];
+        myRegionWidths = new long[count];
+        myRegionHeights = new long[count];
+        myLevelWidths = new int[count];
+        myLevelHeights = new int[count];
+        myQuality = DEFAULT_QUALITY;
+        myFormat = DEFAULT_FORMAT;
+
+        aSizes.sort((size1, size2) -> Integer.compare(size1[0], size2[0]));
+
+        for (int level = 0; level < count; level++) {
+            final int[] size = aSizes.get(level);
+
+            checkSize(size[0], size[1]);
+
+            myScales[level] = (double) aWidth / size[0];
+            myRegionWidths[level] = aWidth;
+            myRegionHeights[level] = aHeight;
+            myLevelWidths[level] = size[0];
+            myLevelHeights[level] = size[1];
+        }
+    }
+
+    /**
+     * Creates a copy of a tile pyramid whose tiles are requested in another quality and format.
+     *
+     * @param aPyramid The tile pyramid to copy
+     * @param aQuality The quality of the tiles
+     * @param aFormat The format of the tiles
+     */
+    private TilePyramid(final TilePyramid aPyramid, final String aQuality, final String aFormat) {
+        myServiceID = aPyramid.myServiceID;
+        myWidth = aPyramid.myWidth;
+        myHeight = aPyramid.myHeight;
+        myScales = aPyramid.myScales;
+        myRegionWidths = aPyramid.myRegionWidths;
+        myRegionHeights = aPyramid.myRegionHeights;
+        myLevelWidths = aPyramid.myLevelWidths;
+        myLevelHeights = aPyramid.myLevelHeights;
+        myQuality = aQuality;
+        myFormat = aFormat;
+    }
+
+    /**
+     * Creates a tile pyramid from an image's info.json file. The image service's ID is taken from the info.json file
+     * if it has one.
+     *
+     * @param aServiceID The ID of the image's IIIF image service, which is used if the info.json file doesn't have one
+     * @param aInfo The image's parsed info.json file
+     * @param aDefaultTileSize The size of the tiles to use if the info.json file doesn't advertise any tiles or sizes
+     * @return The image's tile pyramid
+     * @throws NoSuchElementException If the info.json file doesn't have the image's width and height
+     */
+    public static TilePyramid fromInfo(final String aServiceID, final ManifestIndex aInfo,
+            final int aDefaultTileSize) {
+        return fromInfo(ImageInfo.parse(aServiceID, aInfo), aDefaultTileSize);
+    }
+
+    /**
+     * Creates a tile pyramid from an image's metadata.
+     *
+     * @param aInfo The image's metadata, from its info.json file
+     * @param aDefaultTileSize The size of the tiles to use if the info.json file doesn't advertise any tiles or sizes
+     * @return The image's tile pyramid
+     */
+    public static TilePyramid fromInfo(final ImageInfo aInfo, final int aDefaultTileSize) {
+        final String serviceID = aInfo.getServiceID();
+        final int width = aInfo.getWidth();
+        final int height = aInfo.getHeight();
+
+        if (aInfo.hasTiles()) {
+            return new TilePyramid(serviceID, width, height, aInfo.getTileWidth(), aInfo.getTileHeight(), aInfo
+                    .getScaleFactors());
+        } else if (!aInfo.getSizes().isEmpty()) {
+            return new TilePyramid(serviceID, width, height, new ArrayList<>(aInfo.getSizes()));
+        }
+
+        return new TilePyramid(serviceID, width, height, aDefaultTileSize, aDefaultTileSize, getScaleFactors(width,
+                height, aDefaultTileSize));
+    }
+
+    /**
+     * Gets a pyramid of the same image whose tiles are requested in another quality and format. The pyramid's levels
+     * and tiles are shared, not copied.
+     *
+     * @param aQuality The quality of the tiles (e.g., <code>default</code>, <code>gray</code> or <code>bitonal</code>)
+     * @param aFormat The format of the tiles (e.g., <code>jpg</code>, <code>png</code> or <code>webp</code>)
+     * @return A tile pyramid whose tiles are requested in the supplied quality and format
+     */
+    public TilePyramid withFormat(final String aQuality, final String aFormat) {
+        return new TilePyramid(this, aQuality, aFormat);
+    }
+
+    /**
+     * Gets a pyramid of the same image made from square tiles of another size, at power of two scale factors. Image
+     * servers that support arbitrary regions can serve tiles of any size, whatever their info.json files advertise.
+     *
+     * @param aTileSize The width and height of a tile
+     * @return A tile pyramid made from tiles of the supplied size
+     * @throws IllegalArgumentException If the tile size isn't positive
+     */
+    public TilePyramid withTileSize(final int aTileSize) {
+        return new TilePyramid(myServiceID, myWidth, myHeight, aTileSize, aTileSize, getScaleFactors(myWidth,
+                myHeight, aTileSize)).withFormat(myQuality, myFormat);
+    }
+
+    /**
+     * Gets the ID of the image's IIIF image service, which the tile URLs start with.
+     *
+     * @return The image service's ID
+     */
+    public String getServiceID() {
+        return myServiceID;
+    }
+
+    /**
+     * Gets the full width of the image.
+     *
+     * @return The image's width
+     */
+    public int getWidth() {
+        return myWidth;
+    }
+
+    /**
+     * Gets the full height of the image.
+     *
+     * @return The image's height
+     */
+    public int getHeight() {
+        return myHeight;
+    }
+
+    /**
+     * Gets the number of levels in the pyramid.
+     *
+     * @return The number of levels
+     */
+    public int getLevelCount() {
+        return myScales.length;
+    }
+
+    /**
+     * Gets the scale factor of the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The level's scale factor
+     */
+    public double getScaleFactor(final int aLevel) {
+        return myScales[aLevel];
+    }
+
+    /**
+     * Gets the width of the image at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The width of the image at that level
+     */
+    public int getLevelWidth(final int aLevel) {
+        return myLevelWidths[aLevel];
+    }
+
+    /**
+     * Gets the height of the image at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The height of the image at that level
+     */
+    public int getLevelHeight(final int aLevel) {
+        return myLevelHeights[aLevel];
+    }
+
+    /**
+     * Gets the width of a tile's region, in full image pixels, at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The width of a tile's region at that level
+     */
+    public long getRegionWidth(final int aLevel) {
+        return myRegionWidths[aLevel];
+    }
+
+    /**
+     * Gets the height of a tile's region, in full image pixels, at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The height of a tile's region at that level
+     */
+    public long getRegionHeight(final int aLevel) {
+        return myRegionHeights[aLevel];
+    }
+
+    /**
+     * Gets the number of columns of tiles at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The number of columns of tiles
+     */
+    public int getColumnCount(final int aLevel) {
+        return (int) ((myWidth + myRegionWidths[aLevel] - 1) / myRegionWidths[aLevel]);
+    }
+
+    /**
+     * Gets the number of rows of tiles at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The number of rows of tiles
+     */
+    public int getRowCount(final int aLevel) {
+        return (int) ((myHeight + myRegionHeights[aLevel] - 1) / myRegionHeights[aLevel]);
+    }
+
+    /**
+     * Gets the number of tiles at the supplied level.
+     *
+     * @param aLevel A level, from zero (the lowest resolution)
+     * @return The number of tiles at that level
+     */
+    public long getTileCount(final int aLevel) {
+        return (long) getColumnCount(aLevel) * getRowCount(aLevel);
+    }
+
+    /**
+     * Gets the number of tiles in the whole pyramid.
+     *
+     * @return The number of tiles in the pyramid
+     */
+    public long getTileCount() {
+        long count = 0;
+
+        for (int level = 0; level < myScales.length; level++) {
+            count += getTileCount(level);
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the URL of a tile.
+     *
+     * @param aLevel The tile's level, from zero (the lowest resolution)
+     * @param aColumn The tile's column, from zero
+     * @param aRow The tile's row, from zero
+     * @return The tile's URL
+     * @throws IndexOutOfBoundsException If there is no such tile
+     */
+    public String getURL(final int aLevel, final int aColumn, final int aRow) {
+        final long x;
+        final long y;
+        final long width;
+        final long height;
+        final StringBuilder url;
+
+        if (aLevel < 0 || aLevel >= myScales.length || aColumn < 0 || aColumn >= getColumnCount(aLevel) ||
+                aRow < 0 || aRow >= getRowCount(aLevel)) {
+            throw new IndexOutOfBoundsException("No tile at level " + aLevel + ", column " + aColumn + ", row " +
+                    aRow);
+        }
+
+        x = aColumn * myRegionWidths[aLevel];
+        y = aRow * myRegionHeights[aLevel];
+        width = Math.min(myRegionWidths[aLevel], myWidth - x);
+        height = Math.min(myRegionHeights[aLevel], myHeight - y);
+        url = new StringBuilder(myServiceID.length() + 56).append(myServiceID).append('/');
+
+        // The canonical form of the IIIF image API is used, so tiles are requested the way that viewers request them
+        if (width == myWidth && height == myHeight) {
+            url.append(FULL).append('/').append(myLevelWidths[aLevel]);
+        } else {
+            url.append(x).append(',').append(y).append(',').append(width).append(',').append(height).append('/');
+            url.append((long) Math.ceil(width / myScales[aLevel]));
+        }
+
+        return url.append(',').append(ROTATION).append(myQuality).append('.').append(myFormat).toString();
+    }
+
+    /**
+     * Iterates over the URLs of all the tiles in the pyramid, from the lowest resolution level to the highest and,
+     * within a level, row by row.
+     *
+     * @return An iterator over the pyramid's tile URLs
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            private int myLevel;
+
+            private int myColumn;
+
+            private int myRow;
+
+            @Override
+            public boolean hasNext() {
+                return myLevel < myScales.length;
+            }
+
+            @Override
+            public String next() {
+                final String url;
+
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                url = getURL(myLevel, myColumn, myRow);
+
+                if (++myColumn == getColumnCount(myLevel)) {
+                    myColumn = 0;
+
+                    if (++myRow == getRowCount(myLevel)) {
+                        myRow = 0;
+                        myLevel += 1;
+                    }
+                }
+
+                return url;
+            }
+        };
+    }
+
+    /**
+     * Gets the power of two scale factors at which tiles of the supplied size are needed to cover the image, as an
+     * image server that doesn't advertise its tiles would be expected to offer them.
+     */
+    private static int[] getScaleFactors(final int aWidth, final int aHeight, final int aTileSize) {
+        final int longDim = Math.max(aWidth, aHeight);
+        int count = 1;
+
+        while (count < Integer.SIZE - 1 && (long) aTileSize << (count - 1) < longDim) {
+            count += 1;
+        }
+
+        final int[] factors = new int[count];
+
+        for (int index = 0; index < count; index++) {
+            factors[index] = 1 << index;
+        }
+
+        return factors;
+    }
+
+    private static void checkSize(final int aWidth, final int aHeight) {
+        if (aWidth < 1 || aHeight < 1) {
+            throw new IllegalArgumentException("Sizes should be positive: " + aWidth + "x" + aHeight);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package info.freelibrary.iiiftool;
+
+/**
+ * A request read from a recorded trace: when it was made, by which session and for what URL.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class TraceEntry {
+
+    private final long myTime;
+
+    private final String mySession;
+
+    private final String myURL;
+
+    /**
+     * Creates a new trace entry.
+     *
+     * @param aTime When the request was made, in milliseconds since the epoch
+     * @param aSession The key of the session (e.g., a HAR page or a client's address) that made the request
+     * @param aURL The requested URL, which may be just a path if the trace doesn't record the host
+     */
+    TraceEntry(final long aTime, final String aSession, final String aURL) {
+        myTime = aTime;
+        mySession = aSession;
+        myURL = aURL;
+    }
+
+    /**
+     * Gets when the request was made.
+     *
+     * @return When the request was made, in milliseconds since the epoch
+     */
+    long getTime() {
+        return myTime;
+    }
+
+    /**
+     * Gets the key of the session that made the request.
+     *
+     * @return The session's key
+     */
+    String getSession() {
+        return mySession;
+    }
+
+    /**
+     * Gets the requested URL.
+     *
+     * @return The requested URL
+     */
+    String getURL() {
+        return myURL;
+    }
+
+    @Override
+    public String toString() {
+        return myTime + " " + mySession + " " + myURL;
+    }
+}
@@ -0,0 +1,53 @@
+package info.freelibrary.iiiftool;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A reader of the GET requests in a recorded trace. Traces are read an entry at a time, so even very large ones are
+ * streamed from disk rather than being loaded into memory.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+interface TraceReader extends AutoCloseable {
+
+    /**
+     * Reads the next GET request in the trace.
+     *
+     * @return The next request, or null if there are no more
+     * @throws IOException If the trace can't be read
+     */
+    TraceEntry next() throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Opens a trace, which is read as a HAR file if its name ends with <code>.har</code> and as an access log if it
+     * doesn't. Either can be gzipped, if its name ends with <code>.gz</code>.
+     *
+     * @param aPath The trace file
+     * @return A reader of the trace
+     * @throws IOException If the trace can't be opened
+     */
+    static TraceReader open(final Path aPath) throws IOException {
+        String name = aPath.getFileName().toString().toLowerCase(Locale.US);
+        final BufferedReader reader;
+
+        if (name.endsWith(".gz")) {
+            name = name.substring(0, name.length() - ".gz".length());
+            reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(aPath)),
+                    StandardCharsets.UTF_8));
+        } else {
+            reader = Files.newBufferedReader(aPath, StandardCharsets.UTF_8);
+        }
+
+        return name.endsWith(".har") ? new HarReader(reader) : new AccessLogReader(reader);
+    }
+}
@@ -0,0 +1,321 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A replayer of recorded traffic: a browser's HAR export or an image server's access log. The trace is rebuilt into
+ * sessions, each of which gets its own connections and, like a browser, has no more than a few requests in flight at
+ * a time. Requests are started at their recorded times (sped up by a multiplier) or, at a speed of zero, as fast as
+ * the sessions can make them. Only IIIF requests are replayed; the trace's other requests are skipped.
+ * <p>
+ * The trace is streamed from disk and read no further ahead than the requests that are waiting on their sessions,
+ * which are limited in number, so even very large logs can be replayed.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class TraceReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraceReplayer.class);
+
+    /* How long a session can be idle, in the trace's time, before its next request starts a new session */
+    private static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    /* How many requests are read between sweeps for sessions that have timed out */
+    private static final int SWEEP_INTERVAL = 10_000;
+
+    private final DownloadEngine myEngine;
+
+    private final double mySpeed;
+
+    private final int myMaxPending;
+
+    private final Semaphore myPermits;
+
+    private URI myTarget;
+
+    private EventLog myEventLog;
+
+    private LiveMetrics myLiveMetrics;
+
+    /**
+     * Creates a new trace replayer.
+     *
+     * @param aEngine The download engine that the requests are run on
+     * @param aSpeed How many times faster than recorded to replay the trace, or zero to replay it as fast as possible
+     * @param aMaxPending The most requests that can be waiting on their sessions or in flight at a time
+     * @throws IllegalArgumentException If the speed is negative or the maximum isn't positive
+     */
+    public TraceReplayer(final DownloadEngine aEngine, final double aSpeed, final int aMaxPending) {
+        if (aSpeed < 0 || aMaxPending < 1) {
+            throw new IllegalArgumentException("Speed can't be negative and the most pending requests must be " +
+                    "positive");
+        }
+
+        myEngine = aEngine;
+        mySpeed = aSpeed;
+        myMaxPending = aMaxPending;
+        myPermits = new Semaphore(aMaxPending);
+    }
+
+    /**
+     * Sets the server that the trace's requests are sent to, in place of the one they were recorded from. Traces
+     * that only record paths, like access logs, need a target.
+     *
+     * @param aTarget The base URL (scheme, host and port) of the target server
+     * @return This trace replayer
+     * @throws IllegalArgumentException If the target isn't a valid URL
+     */
+    public TraceReplayer setTarget(final String aTarget) {
+        myTarget = URI.create(aTarget);
+
+        if (myTarget.getScheme() == null || myTarget.getRawAuthority() == null) {
+            throw new IllegalArgumentException("Target should be a URL like https://example.edu: " + aTarget);
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the event log that the replayed requests are written to.
+     *
+     * @param aEventLog An event log
+     * @return This trace replayer
+     */
+    public TraceReplayer setEventLog(final EventLog aEventLog) {
+        myEventLog = aEventLog;
+        return this;
+    }
+
+    /**
+     * Sets the live metrics that the replayed requests are recorded in.
+     *
+     * @param aLiveMetrics Live metrics
+     * @return This trace replayer
+     */
+    public TraceReplayer setLiveMetrics(final LiveMetrics aLiveMetrics) {
+        myLiveMetrics = aLiveMetrics;
+        return this;
+    }
+
+    /**
+     * Replays a trace, returning a report of the replayed requests once they've all finished.
+     *
+     * @param aTrace A HAR file or access log
+     * @return A report of the replayed requests
+     * @throws IOException If the trace can't be read
+     * @throws InterruptedException If interrupted while replaying
+     */
+    public DownloadReport replay(final Path aTrace) throws IOException, InterruptedException {
+        final DownloadReport report = new DownloadReport(myEventLog, myLiveMetrics);
+        final Map<String, Session> sessions = new HashMap<>();
+        final long startTime = System.nanoTime();
+
+        long firstTime = Long.MIN_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        long sessionCount = 0;
+        long replayedCount = 0;
+        long skippedCount = 0;
+
+        LOGGER.info("Replaying {} at {}", aTrace, mySpeed == 0 ? "full speed" : mySpeed + "x");
+
+        try (TraceReader reader = TraceReader.open(aTrace)) {
+            TraceEntry entry;
+
+            while ((entry = reader.next()) != null) {
+                final RequestType type = RequestType.fromURL(entry.getURL());
+                final String url;
+
+                Session session;
+
+                if (type == null) {
+                    skippedCount += 1;
+                    continue;
+                } else if (firstTime == Long.MIN_VALUE) {
+                    firstTime = entry.getTime();
+                }
+
+                url = resolve(entry.getURL());
+                session = sessions.get(entry.getSession());
+                lastTime = Math.max(lastTime, entry.getTime());
+
+                if (mySpeed > 0) {
+                    waitUntil(startTime + (long) (TimeUnit.MILLISECONDS.toNanos(entry.getTime() - firstTime) /
+                            mySpeed));
+                }
+
+                if (session == null || entry.getTime() - session.myLastTime > SESSION_TIMEOUT) {
+                    if (session != null) {
+                        session.retire();
+                    }
+
+                    session = new Session(report.forSession(++sessionCount));
+                    sessions.put(entry.getSession(), session);
+                }
+
+                session.myLastTime = entry.getTime();
+                myPermits.acquire();
+                session.add(url, type);
+
+                if (++replayedCount % SWEEP_INTERVAL == 0) {
+                    sweep(sessions, entry.getTime());
+                }
+            }
+        } finally {
+            // Whatever happened, the requests that were started are allowed to finish
+            myPermits.acquire(myMaxPending);
+            myPermits.release(myMaxPending);
+
+            for (final Session session : sessions.values()) {
+                session.retire();
+            }
+        }
+
+        LOGGER.info("Replayed {} requests in {} sessions ({} secs of trace in {} secs); skipped {} non-IIIF requests",
+                replayedCount, sessionCount, replayedCount == 0 ? 0 : TimeUnit.MILLISECONDS.toSeconds(lastTime -
+                        firstTime), TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime), skippedCount);
+
+        return report;
+    }
+
+    /**
+     * Retires the sessions that have timed out, so that a long trace's finished sessions aren't kept in memory.
+     */
+    private static void sweep(final Map<String, Session> aSessions, final long aTime) {
+        final Iterator<Session> iterator = aSessions.values().iterator();
+
+        while (iterator.hasNext()) {
+            final Session session = iterator.next();
+
+            if (aTime - session.myLastTime > SESSION_TIMEOUT) {
+                session.retire();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Resolves a recorded URL against the target server, if there is one.
+     */
+    private String resolve(final String aURL) throws IOException {
+        if (myTarget == null) {
+            if (aURL.startsWith("/")) {
+                throw new IOException("Trace only records paths, so a target server is needed: " + aURL);
+            }
+
+            return aURL;
+        }
+
+        try {
+            final URI url = new URI(aURL);
+            return myTarget.getScheme() + "://" + myTarget.getRawAuthority() + url.getRawPath() + (url
+                    .getRawQuery() == null ? "" : "?" + url.getRawQuery());
+        } catch (final URISyntaxException details) {
+            throw new IOException("Trace has an invalid URL: " + aURL, details);
+        }
+    }
+
+    private static void waitUntil(final long aTime) throws InterruptedException {
+        long wait;
+
+        while ((wait = aTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(wait);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * A session rebuilt from the trace. Its requests are queued and started in order, with no more in flight than a
+     * browser would have.
+     */
+    private final class Session {
+
+        private final DownloadReport myReport;
+
+        private final HttpTransport myTransport;
+
+        private final Queue<DownloadThread> myQueue = new ArrayDeque<>();
+
+        /* When the session last made a request, in the trace's time; only read and written by the replaying thread */
+        private long myLastTime;
+
+        private int myActiveCount;
+
+        private boolean mySessionIsRetired;
+
+        private Session(final DownloadReport aReport) {
+            myReport = aReport;
+            myTransport = myEngine.getTransport().newSession();
+        }
+
+        /**
+         * Queues a request, starting it if the session has room for it.
+         */
+        private void add(final String aURL, final RequestType aType) {
+            synchronized (this) {
+                myQueue.add(new DownloadThread(aURL, aType, myReport, myTransport));
+            }
+
+            drain();
+        }
+
+        /**
+         * Closes the session's connections once its requests have finished.
+         */
+        private synchronized void retire() {
+            mySessionIsRetired = true;
+
+            if (myActiveCount == 0 && myQueue.isEmpty()) {
+                myTransport.close();
+            }
+        }
+
+        /**
+         * Starts queued requests until the session has as many in flight as a browser would.
+         */
+        private void drain() {
+            while (true) {
+                final DownloadThread download;
+
+                synchronized (this) {
+                    if (myActiveCount >= HttpProfile.CONNECTIONS_PER_HOST || myQueue.isEmpty()) {
+                        return;
+                    }
+
+                    download = myQueue.poll();
+                    myActiveCount += 1;
+                }
+
+                myEngine.download(download).whenComplete((result, error) -> {
+                    synchronized (this) {
+                        myActiveCount -= 1;
+
+                        if (mySessionIsRetired && myActiveCount == 0 && myQueue.isEmpty()) {
+                            myTransport.close();
+                        }
+                    }
+
+                    myPermits.release();
+                    drain();
+                });
+            }
+        }
+    }
+}
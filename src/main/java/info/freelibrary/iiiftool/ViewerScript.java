@@ -0,0 +1,168 @@
+package info.freelibrary.iiiftool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A scripted sequence of the interactions a person has with an image viewer once its first view is sharp: zooming,
+ * panning, going back to the home view and pausing. A script is written as a comma separated list of steps:
+ * <ul>
+ * <li><code>zoom:2</code> zooms in (or, below one, out) by a factor, about the center of the viewport</li>
+ * <li><code>pan:0.5:-0.25</code> pans by fractions of the viewport's width and height (right and down are
+ * positive)</li>
+ * <li><code>home</code> goes back to the home view, with the whole image in the viewport</li>
+ * <li><code>wait:500</code> pauses for a number of milliseconds</li>
+ * </ul>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class ViewerScript {
+
+    /** A script with no interactions: the viewer just shows its first view */
+    public static final ViewerScript NONE = new ViewerScript(Collections.emptyList());
+
+    private final List<Step> mySteps;
+
+    private ViewerScript(final List<Step> aSteps) {
+        mySteps = Collections.unmodifiableList(aSteps);
+    }
+
+    /**
+     * Parses a script.
+     *
+     * @param aScript A comma separated list of steps (e.g., <code>zoom:2,pan:0.5:0,wait:500,home</code>)
+     * @return The parsed script
+     * @throws IllegalArgumentException If a step can't be parsed
+     */
+    public static ViewerScript parse(final String aScript) {
+        final List<Step> steps = new ArrayList<>();
+
+        for (final String step : aScript.split(",")) {
+            if (!step.isBlank()) {
+                steps.add(Step.parse(step.trim()));
+            }
+        }
+
+        return steps.isEmpty() ? NONE : new ViewerScript(steps);
+    }
+
+    /**
+     * Gets the script's steps, in order.
+     *
+     * @return The script's steps
+     */
+    public List<Step> getSteps() {
+        return mySteps;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder script = new StringBuilder();
+
+        for (final Step step : mySteps) {
+            script.append(script.length() == 0 ? "" : ",").append(step);
+        }
+
+        return script.toString();
+    }
+
+    /**
+     * The kinds of steps in a script.
+     */
+    public enum Action {
+
+        /** Zooming in or out about the center of the viewport */
+        ZOOM,
+
+        /** Panning by fractions of the viewport's size */
+        PAN,
+
+        /** Going back to the home view */
+        HOME,
+
+        /** Pausing before the next step */
+        WAIT
+    }
+
+    /**
+     * A step in a script.
+     */
+    public static final class Step {
+
+        private final Action myAction;
+
+        private final double myX;
+
+        private final double myY;
+
+        private Step(final Action aAction, final double aX, final double aY) {
+            myAction = aAction;
+            myX = aX;
+            myY = aY;
+        }
+
+        /**
+         * Gets the step's action.
+         *
+         * @return The step's action
+         */
+        public Action getAction() {
+            return myAction;
+        }
+
+        /**
+         * Gets the zoom factor, the horizontal fraction of the viewport to pan by, or the milliseconds to wait.
+         *
+         * @return The step's first value
+         */
+        public double getX() {
+            return myX;
+        }
+
+        /**
+         * Gets the vertical fraction of the viewport to pan by.
+         *
+         * @return The step's second value
+         */
+        public double getY() {
+            return myY;
+        }
+
+        @Override
+        public String toString() {
+            final String action = myAction.name().toLowerCase(Locale.US);
+
+            switch (myAction) {
+                case ZOOM:
+                case WAIT:
+                    return action + ":" + HistogramSnapshot.format(myX);
+                case PAN:
+                    return action + ":" + HistogramSnapshot.format(myX) + ":" + HistogramSnapshot.format(myY);
+                default:
+                    return action;
+            }
+        }
+
+        private static Step parse(final String aStep) {
+            final String[] parts = aStep.toLowerCase(Locale.US).split(":");
+
+            try {
+                if (parts.length == 1 && "home".equals(parts[0])) {
+                    return new Step(Action.HOME, 0, 0);
+                } else if (parts.length == 2 && "zoom".equals(parts[0]) && Double.parseDouble(parts[1]) > 0) {
+                    return new Step(Action.ZOOM, Double.parseDouble(parts[1]), 0);
+                } else if (parts.length == 3 && "pan".equals(parts[0])) {
+                    return new Step(Action.PAN, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+                } else if (parts.length == 2 && "wait".equals(parts[0]) && Double.parseDouble(parts[1]) >= 0) {
+                    return new Step(Action.WAIT, Double.parseDouble(parts[1]), 0);
+                }
+            } catch (final NumberFormatException details) {
+                throw new IllegalArgumentException("Viewer script step has an invalid number: " + aStep, details);
+            }
+
+            throw new IllegalArgumentException("Unknown viewer script step: " + aStep);
+        }
+    }
+}
@@ -0,0 +1,615 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.freelibrary.util.Logger;
+import info.freelibrary.util.LoggerFactory;
+
+/**
+ * A simulated viewer session: the manifest, the thumbnails, the first canvas' info.json file and the tiles that
+ * OpenSeadragon requests, in a viewport of a given size, until its first view is sharp, which is what the first view
+ * within Mirador downloads. A script of zooms and pans can then be played, each of which is timed until the image is
+ * sharp again. A session never blocks a thread while it waits on its downloads; each phase is started when the one
+ * before it completes.
+ * <p>
+ * By default, the manifest is parsed as it's downloaded and each thumbnail is queued for download as soon as it's
+ * read, so the thumbnails phase overlaps the manifest phase and the memory that's used doesn't grow with the size of
+ * the manifest. Alternatively, the whole manifest can be downloaded and parsed before any thumbnails are requested;
+ * parsed manifests are then reused by later sessions, if the manifest hasn't changed.
+ * </p>
+ * <p>
+ * A session can have a simulated browser cache, and can be a returning visitor who comes back for more visits after
+ * being away for a while. Each visit is made on new connections, but with the cache that the earlier visits filled,
+ * so that how well the server's cache headers work for returning visitors can be measured.
+ * </p>
+ * <p>
+ * Not every session is a full viewer: a session can stop after the thumbnails or after the manifest (see
+ * {@link SessionKind}), and can pause for a think time before each interaction of its script. Sessions of different
+ * kinds, on different manifests, can be made from one configured session with {@link #withManifest}.
+ * </p>
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ViewerSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ViewerSession.class);
+
+    private static final String THUMBNAIL_QUERY = "?sequences?*?canvases?*?thumbnail";
+
+    /* The number of windows' worth of thumbnails that can be queued while the manifest is being read */
+    private static final int QUEUED_WINDOWS = 2;
+
+    /* OpenSeadragon doesn't limit its tile requests by default, which leaves the limit to the browser */
+    private static final int TILE_LIMIT = HttpProfile.CONNECTIONS_PER_HOST;
+
+    /* Each session that's started gets its own ID, by which its requests can be found in the event log */
+    private static final AtomicLong SESSION_IDS = new AtomicLong();
+
+    private final String myManifestURL;
+
+    private final int myDownloaderCount;
+
+    private final boolean myImagesAreValidated;
+
+    private final boolean myManifestIsStreamed;
+
+    private final ManifestCache myManifests;
+
+    private Viewport myViewport = Viewport.DEFAULT;
+
+    private ViewerScript myScript = ViewerScript.NONE;
+
+    private CacheProfile myCacheProfile = CacheProfile.NONE;
+
+    private int myVisitCount = 1;
+
+    private long myRevisitDelay;
+
+    private SessionKind myKind = SessionKind.VIEWER;
+
+    private LatencyModel myThinkTime = LatencyModel.NONE;
+
+    /* The number of other canvases' info.json files fetched at a time once the first view is sharp, or zero for none */
+    private int myInfoPrefetch;
+
+    /**
+     * Creates a new viewer session, which parses its manifest as it's downloaded.
+     *
+     * @param aManifestURL The URL of the manifest that the viewer loads
+     * @param aDownloaderCount The number of thumbnails that are downloaded at the same time
+     * @param aValidation Whether downloaded images should be decoded to confirm they're valid
+     */
+    public ViewerSession(final String aManifestURL, final int aDownloaderCount, final boolean aValidation) {
+        this(aManifestURL, aDownloaderCount, aValidation, true, new ManifestCache());
+    }
+
+    /**
+     * Creates a new viewer session.
+     *
+     * @param aManifestURL The URL of the manifest that the viewer loads
+     * @param aDownloaderCount The number of thumbnails that are downloaded at the same time
+     * @param aValidation Whether downloaded images should be decoded to confirm they're valid
+     * @param aStreaming Whether the manifest is parsed as it's downloaded, rather than once it's been downloaded
+     * @param aManifestCache A cache of parsed manifests, which is used if manifests aren't parsed as they're
+     *        downloaded
+     */
+    public ViewerSession(final String aManifestURL, final int aDownloaderCount, final boolean aValidation,
+            final boolean aStreaming, final ManifestCache aManifestCache) {
+        myManifestURL = aManifestURL;
+        myDownloaderCount = aDownloaderCount;
+        myImagesAreValidated = aValidation;
+        myManifestIsStreamed = aStreaming;
+        myManifests = aManifestCache;
+    }
+
+    /**
+     * Sets the viewport that the image viewer is shown in, which determines the tiles that it requests.
+     *
+     * @param aViewport A viewport
+     * @return This viewer session
+     */
+    public ViewerSession setViewport(final Viewport aViewport) {
+        myViewport = aViewport;
+        return this;
+    }
+
+    /**
+     * Sets the script of interactions with the image viewer that are played once its first view is sharp.
+     *
+     * @param aScript A viewer script
+     * @return This viewer session
+     */
+    public ViewerSession setScript(final ViewerScript aScript) {
+        myScript = aScript;
+        return this;
+    }
+
+    /**
+     * Sets the size of each session's simulated browser cache.
+     *
+     * @param aCacheProfile A cache profile
+     * @return This viewer session
+     */
+    public ViewerSession setCache(final CacheProfile aCacheProfile) {
+        myCacheProfile = aCacheProfile;
+        return this;
+    }
+
+    /**
+     * Sets the number of visits that each session makes and how long the visitor is away between them. The time
+     * away isn't waited out; the browser cache's clock is moved forward instead.
+     *
+     * @param aVisitCount The number of visits each session makes
+     * @param aSeconds The number of seconds between the end of one visit and the start of the next
+     * @return This viewer session
+     * @throws IllegalArgumentException If the number of visits isn't positive or the time away is negative
+     */
+    public ViewerSession setVisits(final int aVisitCount, final long aSeconds) {
+        if (aVisitCount < 1 || aSeconds < 0) {
+            throw new IllegalArgumentException("Visits should be positive and the time between them can't be " +
+                    "negative: " + aVisitCount + ", " + aSeconds);
+        }
+
+        myVisitCount = aVisitCount;
+        myRevisitDelay = TimeUnit.SECONDS.toMillis(aSeconds);
+        return this;
+    }
+
+    /**
+     * Sets the kind of visit that the session makes: a full viewer, or one that stops after the thumbnails or after
+     * the manifest.
+     *
+     * @param aKind A session kind
+     * @return This viewer session
+     */
+    public ViewerSession setKind(final SessionKind aKind) {
+        myKind = aKind;
+        return this;
+    }
+
+    /**
+     * Sets how long the person pauses, to look at the image, before each interaction of the viewer script.
+     *
+     * @param aThinkTime A distribution of think times
+     * @return This viewer session
+     */
+    public ViewerSession setThinkTime(final LatencyModel aThinkTime) {
+        myThinkTime = aThinkTime;
+        return this;
+    }
+
+    /**
+     * Sets whether, once the first view is sharp, the info.json files of all the manifest's other canvases are
+     * fetched, as a viewer that shows any canvas on demand would, and how many are fetched at a time. Their time is
+     * recorded as the info.json prefetch phase, before the viewer script is played.
+     *
+     * @param aConcurrency The number of info.json files fetched at a time, or zero to fetch only the first canvas'
+     * @return This viewer session
+     * @throws IllegalArgumentException If the number is negative
+     */
+    public ViewerSession setInfoPrefetch(final int aConcurrency) {
+        if (aConcurrency < 0) {
+            throw new IllegalArgumentException("Info.json prefetch can't be negative: " + aConcurrency);
+        }
+
+        myInfoPrefetch = aConcurrency;
+        return this;
+    }
+
+    /**
+     * Creates a session that's configured like this one, and shares its manifest cache, but that loads a different
+     * manifest and makes a different kind of visit.
+     *
+     * @param aManifestURL The URL of the manifest that the new session loads
+     * @param aKind The kind of visit the new session makes
+     * @return A new viewer session
+     */
+    public ViewerSession withManifest(final String aManifestURL, final SessionKind aKind) {
+        final ViewerSession session = new ViewerSession(aManifestURL, myDownloaderCount, myImagesAreValidated,
+                myManifestIsStreamed, myManifests);
+
+        session.myViewport = myViewport;
+        session.myScript = myScript;
+        session.myCacheProfile = myCacheProfile;
+        session.myVisitCount = myVisitCount;
+        session.myRevisitDelay = myRevisitDelay;
+        session.myThinkTime = myThinkTime;
+        session.myInfoPrefetch = myInfoPrefetch;
+        session.myKind = aKind;
+        return session;
+    }
+
+    /**
+     * Gets the script of interactions with the image viewer that are played once its first view is sharp.
+     *
+     * @return The viewer script
+     */
+    public ViewerScript getScript() {
+        return myScript;
+    }
+
+    /**
+     * Starts the viewer session, recording its downloads and phases in the supplied report. The manifest phase, the
+     * time to the first thumbnail and the whole page load are measured from the supplied intended start time, rather
+     * than from when the session actually started, so that time spent waiting to start is not hidden from the
+     * results. A session that can't be completed is recorded in the report as a failed session. A returning
+     * visitor's later visits are recorded as repeat page loads; their other phases and interactions aren't recorded.
+     * Sessions that stop before the tiles don't record a page load.
+     *
+     * @param aEngine The download engine the session's downloads are run on
+     * @param aReport The report into which the session's times are recorded
+     * @param aStartTime The {@link System#nanoTime()} at which the session was supposed to start
+     * @return A future that completes when the session has finished
+     */
+    public CompletableFuture<Void> start(final DownloadEngine aEngine, final DownloadReport aReport,
+            final long aStartTime) {
+        final DownloadReport report = aReport.forSession(SESSION_IDS.incrementAndGet());
+        final BrowserCache cache = myCacheProfile.newCache();
+        final HttpTransport session = aEngine.getTransport().newSession();
+        final HttpTransport transport = cache == null ? session : new CachingTransport(session, cache);
+
+        return visit(new Visit(aEngine, transport, report, aStartTime, 1), cache).whenComplete((result, error) -> {
+            transport.close();
+
+            if (cache != null) {
+                cache.close();
+            }
+
+            if (error != null) {
+                LOGGER.warn("Viewer session failed: {}", error.getMessage());
+                aReport.addFailedSession();
+            }
+        });
+    }
+
+    /**
+     * Makes a visit and then, if the visitor returns, the visits that follow it.
+     */
+    private CompletableFuture<Void> visit(final Visit aVisit, final BrowserCache aCache) {
+        return load(aVisit).thenCompose(done -> {
+            if (aVisit.myNumber == myVisitCount) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // The visitor comes back later, once their connections have been closed (where the transport's sessions
+            // have connections of their own) and their cache has aged
+            aVisit.myTransport.close();
+
+            if (aCache != null) {
+                aCache.advance(myRevisitDelay);
+            }
+
+            return visit(new Visit(aVisit.myEngine, aVisit.myTransport, aVisit.myReport, System.nanoTime(),
+                    aVisit.myNumber + 1), aCache);
+        });
+    }
+
+    /**
+     * Loads the viewer: the manifest, its thumbnails, the first canvas' info.json file and its tiles, then the other
+     * canvases' info.json files (if they're prefetched), and then plays the viewer script. Sessions of other kinds
+     * stop once they have what they came for.
+     */
+    private CompletableFuture<Void> load(final Visit aVisit) {
+        LOGGER.debug("Getting manifest: {}", myManifestURL);
+
+        if (myKind == SessionKind.MANIFEST) {
+            return aVisit.getJSON(myManifestURL, RequestType.MANIFEST).thenAccept(json -> aVisit.addPhaseTime(
+                    Phase.MANIFEST, System.nanoTime() - aVisit.myStartTime));
+        }
+
+        return (myManifestIsStreamed ? streamManifest(aVisit) : getManifest(aVisit)).thenCompose(services -> {
+            final long thumbnailsTime = System.nanoTime();
+
+            aVisit.addPhaseTime(Phase.THUMBNAILS, thumbnailsTime - aVisit.getThumbnailsStart(thumbnailsTime));
+
+            if (myKind == SessionKind.THUMBNAILS) {
+                return CompletableFuture.completedFuture(null);
+            } else if (services.isEmpty()) {
+                throw new CompletionException(new IOException("No image service found in: " + myManifestURL));
+            }
+
+            // We also want to load the initial tiles for the image that OSD will load
+            return aVisit.getInfo(services.get(0)).thenCompose(info -> {
+                final long infoTime = System.nanoTime();
+
+                aVisit.addPhaseTime(Phase.INFO_JSON, infoTime - thumbnailsTime);
+                return getTiles(aVisit, info, infoTime).thenCompose(view -> prefetch(aVisit, services).thenCompose(
+                        done -> interact(aVisit, view, 0)));
+            });
+        });
+    }
+
+    /**
+     * Downloads the whole manifest, then parses it and downloads its thumbnails.
+     *
+     * @return A future that completes, with the IDs of the canvases' image services, once the thumbnails have been
+     *         downloaded
+     */
+    private CompletableFuture<List<String>> getManifest(final Visit aVisit) {
+        return aVisit.getJSON(myManifestURL, RequestType.MANIFEST).thenCompose(json -> {
+            final ManifestIndex manifest;
+            final List<String> thumbnails;
+            final List<String> services;
+
+            aVisit.addPhaseTime(Phase.MANIFEST, System.nanoTime() - aVisit.myStartTime);
+
+            manifest = parse(json);
+            thumbnails = manifest.getList(THUMBNAIL_QUERY);
+            services = ImageInfo.getServiceIDs(manifest);
+
+            LOGGER.debug("Requesting {} thumbnail images", thumbnails.size());
+
+            aVisit.startThumbnails();
+            return aVisit.download(thumbnails.iterator(), RequestType.THUMBNAIL, myDownloaderCount).thenApply(
+                    done -> services);
+        });
+    }
+
+    /**
+     * Parses the manifest as it's downloaded, queuing each thumbnail for download as soon as it's read. The manifest
+     * stops being read while the queue is full, so the manifest's time includes any time spent waiting on the
+     * thumbnails to catch up. Only the first canvas' image service is kept, unless the others' info.json files are
+     * prefetched.
+     *
+     * @return A future that completes, with the IDs of the canvases' image services, once the thumbnails have been
+     *         downloaded
+     */
+    private CompletableFuture<List<String>> streamManifest(final Visit aVisit) {
+        final DownloadQueue queue = new DownloadQueue(myDownloaderCount * QUEUED_WINDOWS);
+        final Set<String> services = new LinkedHashSet<>();
+        final CompletableFuture<Void> thumbnails = DownloadWindow.downloadAll(aVisit.myEngine, queue,
+                myDownloaderCount, aVisit::finishThumbnail);
+        final ManifestReader reader = new ManifestReader().on(THUMBNAIL_QUERY, thumbnail -> {
+            aVisit.startThumbnails();
+            queue.put(aVisit.newDownload(thumbnail, RequestType.THUMBNAIL));
+        });
+
+        for (final String path : ImageInfo.SERVICE_PATHS) {
+            reader.on(path, id -> {
+                if (services.isEmpty() || myInfoPrefetch > 0) {
+                    services.add(id);
+                }
+            });
+        }
+
+        aVisit.myReport.startRequest(RequestType.MANIFEST);
+
+        return aVisit.myEngine.stream(aVisit.myTransport, myManifestURL, reader).handle((result, error) -> {
+            // Whatever happened to the manifest, no more thumbnails are coming
+            queue.finish();
+
+            if (error != null) {
+                aVisit.myReport.addError(RequestType.MANIFEST, myManifestURL, error);
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(
+                        error);
+            }
+
+            aVisit.myReport.addDownload(RequestType.MANIFEST, result);
+            aVisit.addPhaseTime(Phase.MANIFEST, System.nanoTime() - aVisit.myStartTime);
+
+            if (result.getStatus() != HttpURLConnection.HTTP_OK) {
+                throw new CompletionException(new IOException("Unexpected response status '" + result.getStatus() +
+                        "' for: " + myManifestURL));
+            }
+
+            return new ArrayList<>(services);
+        }).thenCombine(thumbnails, (ids, done) -> ids);
+    }
+
+    /**
+     * Gets the tiles that OpenSeadragon requests for the first view, until the image is sharp.
+     *
+     * @return A future that completes, with the viewer's view, once the image is sharp
+     */
+    private CompletableFuture<OpenSeadragonView> getTiles(final Visit aVisit, final ImageInfo aInfo,
+            final long aPhaseStart) {
+        final TilePyramid pyramid = TilePyramid.fromInfo(aInfo, DownloadTimer.DEFAULT_TILE_SIZE);
+        final OpenSeadragonView view = new OpenSeadragonView(pyramid, myViewport);
+        final List<String> tiles = view.getTiles();
+
+        LOGGER.debug("Requesting {} tile images from: {}", tiles.size(), pyramid.getServiceID());
+
+        return aVisit.download(tiles.iterator(), RequestType.TILE, TILE_LIMIT).thenApply(done -> {
+            final long endTime = System.nanoTime();
+
+            aVisit.addPhaseTime(Phase.TILES, endTime - aPhaseStart);
+            aVisit.addPhaseTime(Phase.PAGE_LOAD, endTime - aVisit.myStartTime);
+            return view;
+        });
+    }
+
+    /**
+     * Fetches the info.json files of all the manifest's canvases but the first, whose is already in hand, if they're
+     * prefetched.
+     */
+    private CompletableFuture<Void> prefetch(final Visit aVisit, final List<String> aServices) {
+        final long startTime = System.nanoTime();
+
+        if (myInfoPrefetch == 0 || aServices.size() < 2) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return aVisit.getInfos(aServices.subList(1, aServices.size())).thenAccept(infos -> aVisit.addPhaseTime(
+                Phase.INFO_PREFETCH, System.nanoTime() - startTime));
+    }
+
+    /**
+     * Plays the viewer script from the supplied step, timing how long it takes each interaction's view to be sharp.
+     * The think time before an interaction isn't part of its time.
+     */
+    private CompletableFuture<Void> interact(final Visit aVisit, final OpenSeadragonView aView, final int aIndex) {
+        final List<ViewerScript.Step> steps = myScript.getSteps();
+        final ViewerScript.Step step;
+
+        if (aIndex == steps.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        step = steps.get(aIndex);
+
+        if (step.getAction() == ViewerScript.Action.WAIT) {
+            return pause(TimeUnit.MILLISECONDS.toNanos((long) step.getX())).thenCompose(done -> interact(aVisit,
+                    aView, aIndex + 1));
+        }
+
+        return pause(myThinkTime.sample()).thenCompose(thought -> {
+            final long startTime = System.nanoTime();
+            final List<String> tiles = aView.apply(step).getTiles();
+
+            LOGGER.debug("Requesting {} tile images after {}", tiles.size(), step);
+
+            return aVisit.download(tiles.iterator(), RequestType.TILE, TILE_LIMIT).thenCompose(done -> {
+                aVisit.addInteractionTime(aIndex + 1, System.nanoTime() - startTime);
+                return interact(aVisit, aView, aIndex + 1);
+            });
+        });
+    }
+
+    /**
+     * Gets a future that completes after the supplied number of nanoseconds, without blocking a thread.
+     */
+    private static CompletableFuture<Void> pause(final long aNanos) {
+        if (aNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            // Nothing to do but wait
+        }, CompletableFuture.delayedExecutor(aNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Parses the session's downloaded manifest, using the manifest cache.
+     */
+    private ManifestIndex parse(final String aJSON) {
+        try {
+            return myManifests.get(myManifestURL, aJSON);
+        } catch (final IOException details) {
+            throw new CompletionException(details);
+        }
+    }
+
+    /**
+     * A single visit of the viewer session: the engine, connections and report that its downloads use.
+     */
+    private final class Visit {
+
+        private final DownloadEngine myEngine;
+
+        private final HttpTransport myTransport;
+
+        private final DownloadReport myReport;
+
+        private final InfoFetcher myInfos;
+
+        private final long myStartTime;
+
+        /* The visit's number, from one; later visits are made by a returning visitor */
+        private final int myNumber;
+
+        private final AtomicBoolean myThumbnailIsShown = new AtomicBoolean();
+
+        /* When the first thumbnail was known, which is when the thumbnails phase starts */
+        private volatile long myThumbnailsStart;
+
+        private Visit(final DownloadEngine aEngine, final HttpTransport aTransport, final DownloadReport aReport,
+                final long aStartTime, final int aNumber) {
+            myEngine = aEngine;
+            myTransport = aTransport;
+            myReport = aReport;
+            myInfos = new InfoFetcher(aEngine, Math.max(1, myInfoPrefetch), null);
+            myStartTime = aStartTime;
+            myNumber = aNumber;
+        }
+
+        /**
+         * Records the time of a phase of the visit; a returning visitor's visits only record their page loads.
+         */
+        private void addPhaseTime(final Phase aPhase, final long aNanos) {
+            if (myNumber == 1) {
+                myReport.addPhaseTime(aPhase, aNanos);
+            } else if (aPhase == Phase.PAGE_LOAD) {
+                myReport.addPhaseTime(Phase.REPEAT_PAGE_LOAD, aNanos);
+            }
+        }
+
+        private void addInteractionTime(final int aInteraction, final long aNanos) {
+            if (myNumber == 1) {
+                myReport.addInteractionTime(aInteraction, aNanos);
+            }
+        }
+
+        private CompletableFuture<String> getJSON(final String aURL, final RequestType aType) {
+            return myEngine.getJSON(myTransport, aURL, aType, myReport);
+        }
+
+        private CompletableFuture<ImageInfo> getInfo(final String aServiceID) {
+            return myInfos.fetch(myTransport, aServiceID, myReport);
+        }
+
+        private CompletableFuture<List<ImageInfo>> getInfos(final List<String> aServiceIDs) {
+            return myInfos.fetchAll(myTransport, aServiceIDs, myReport);
+        }
+
+        private DownloadThread newDownload(final String aURL, final RequestType aType) {
+            return new DownloadThread(aURL, aType, myReport, myTransport, myImagesAreValidated);
+        }
+
+        /**
+         * Downloads the supplied URLs, with no more than the supplied number in flight at a time.
+         */
+        private CompletableFuture<Void> download(final Iterator<String> aURLs, final RequestType aType,
+                final int aLimit) {
+            return DownloadWindow.downloadAll(myEngine, new Iterator<DownloadThread>() {
+
+                @Override
+                public boolean hasNext() {
+                    return aURLs.hasNext();
+                }
+
+                @Override
+                public DownloadThread next() {
+                    return newDownload(aURLs.next(), aType);
+                }
+            }, aLimit, this::finishThumbnail);
+        }
+
+        /**
+         * Starts the thumbnails phase, if it hasn't already been started.
+         */
+        private void startThumbnails() {
+            if (myThumbnailsStart == 0) {
+                myThumbnailsStart = System.nanoTime();
+            }
+        }
+
+        /**
+         * Gets when the thumbnails phase started or, if there were no thumbnails, the supplied time.
+         */
+        private long getThumbnailsStart(final long aDefault) {
+            final long start = myThumbnailsStart;
+            return start == 0 ? aDefault : start;
+        }
+
+        /**
+         * Records the time to the first thumbnail, if the supplied download is the first thumbnail to be shown.
+         */
+        private void finishThumbnail(final DownloadThread aDownload) {
+            if (aDownload.getType() == RequestType.THUMBNAIL && aDownload.getStatus() == HttpURLConnection.HTTP_OK &&
+                    myThumbnailIsShown.compareAndSet(false, true)) {
+                addPhaseTime(Phase.FIRST_THUMBNAIL, System.nanoTime() - myStartTime);
+            }
+        }
+    }
+}
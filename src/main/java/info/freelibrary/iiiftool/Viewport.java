@@ -0,0 +1,113 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Locale;
+
+/**
+ * The viewport of a simulated image viewer: its size on the page, in CSS pixels, and the device pixel ratio of the
+ * screen it's shown on. Tiles are chosen to be sharp in device pixels, so a high density screen needs higher
+ * resolution tiles than a standard one of the same size.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public final class Viewport {
+
+    /** A laptop-sized viewer, which is the default */
+    public static final Viewport DEFAULT = new Viewport(1280, 800, 1);
+
+    private final int myWidth;
+
+    private final int myHeight;
+
+    private final double myPixelRatio;
+
+    /**
+     * Creates a new viewport.
+     *
+     * @param aWidth The viewport's width in CSS pixels
+     * @param aHeight The viewport's height in CSS pixels
+     * @param aPixelRatio The number of device pixels in a CSS pixel
+     * @throws IllegalArgumentException If the size or the pixel ratio isn't positive
+     */
+    public Viewport(final int aWidth, final int aHeight, final double aPixelRatio) {
+        if (aWidth < 1 || aHeight < 1 || aPixelRatio <= 0) {
+            throw new IllegalArgumentException("Viewport size and pixel ratio should be positive: " + aWidth + "x" +
+                    aHeight + "@" + aPixelRatio);
+        }
+
+        myWidth = aWidth;
+        myHeight = aHeight;
+        myPixelRatio = aPixelRatio;
+    }
+
+    /**
+     * Parses a viewport from its size and device pixel ratio.
+     *
+     * @param aSize The viewport's size in CSS pixels (e.g., <code>1280x800</code>)
+     * @param aPixelRatio The number of device pixels in a CSS pixel
+     * @return The viewport
+     * @throws IllegalArgumentException If the size can't be parsed or the pixel ratio isn't positive
+     */
+    public static Viewport parse(final String aSize, final double aPixelRatio) {
+        final String[] size = aSize.toLowerCase(Locale.US).split("x");
+
+        try {
+            if (size.length == 2) {
+                return new Viewport(Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()), aPixelRatio);
+            }
+        } catch (final NumberFormatException details) {
+            throw new IllegalArgumentException("Viewport size should be like 1280x800: " + aSize, details);
+        }
+
+        throw new IllegalArgumentException("Viewport size should be like 1280x800: " + aSize);
+    }
+
+    /**
+     * Gets the viewport's width in CSS pixels.
+     *
+     * @return The viewport's width
+     */
+    public int getWidth() {
+        return myWidth;
+    }
+
+    /**
+     * Gets the viewport's height in CSS pixels.
+     *
+     * @return The viewport's height
+     */
+    public int getHeight() {
+        return myHeight;
+    }
+
+    /**
+     * Gets the number of device pixels in a CSS pixel.
+     *
+     * @return The device pixel ratio
+     */
+    public double getPixelRatio() {
+        return myPixelRatio;
+    }
+
+    /**
+     * Gets the viewport's width in device pixels.
+     *
+     * @return The viewport's device width
+     */
+    public double getDeviceWidth() {
+        return myWidth * myPixelRatio;
+    }
+
+    /**
+     * Gets the viewport's height in device pixels.
+     *
+     * @return The viewport's device height
+     */
+    public double getDeviceHeight() {
+        return myHeight * myPixelRatio;
+    }
+
+    @Override
+    public String toString() {
+        return myWidth + "x" + myHeight + "@" + HistogramSnapshot.format(myPixelRatio) + "x";
+    }
+}
@@ -0,0 +1,41 @@
+package info.freelibrary.iiiftool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A download engine that runs each download on its own virtual thread. Virtual threads are cheap enough that tens of
+ * thousands of blocked downloads don't distort the measurements the way that the same number of platform threads
+ * would. This engine needs a JDK 21 (or later) runtime; it's looked up reflectively so the tool still builds and runs
+ * with JDK 11.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class VirtualThreadEngine extends BlockingEngine {
+
+    private static final String FACTORY_METHOD = "newVirtualThreadPerTaskExecutor";
+
+    /**
+     * Creates a new virtual thread download engine.
+     *
+     * @param aTransport The transport from which each viewer session's transport is created
+     * @throws UnsupportedOperationException If the current runtime doesn't support virtual threads
+     */
+    public VirtualThreadEngine(final HttpTransport aTransport) {
+        this(newExecutor(), aTransport);
+    }
+
+    private VirtualThreadEngine(final ExecutorService aExecutor, final HttpTransport aTransport) {
+        super(aExecutor, aExecutor, aTransport);
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(FACTORY_METHOD).invoke(null);
+        } catch (final NoSuchMethodException | IllegalAccessException | InvocationTargetException details) {
+            throw new UnsupportedOperationException("Virtual threads need a JDK 21 runtime; this is " + System
+                    .getProperty("java.version"), details);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package info.freelibrary.iiiftool;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The progress of a cache warming run, kept in a local file so that a run that's stopped can be resumed where it
+ * left off. Progress is recorded as the index of the manifest being warmed and the position, within that manifest,
+ * before which everything has been warmed.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+final class WarmCheckpoint {
+
+    private static final String URL = "url";
+
+    private static final String MANIFEST = "manifest";
+
+    private static final String POSITION = "position";
+
+    private final Path myPath;
+
+    private String myURL;
+
+    private int myManifest;
+
+    private long myPosition;
+
+    /**
+     * Creates a new checkpoint.
+     *
+     * @param aPath The file in which the checkpoint is kept
+     */
+    WarmCheckpoint(final Path aPath) {
+        myPath = aPath;
+    }
+
+    /**
+     * Loads the checkpoint of an earlier run that warmed the supplied URL, if there is one.
+     *
+     * @param aURL The URL of the manifest or collection being warmed
+     * @return True if there was a checkpoint for the supplied URL; else, false
+     * @throws IOException If the checkpoint file can't be read
+     */
+    boolean load(final String aURL) throws IOException {
+        final Properties properties = new Properties();
+
+        myURL = aURL;
+        myManifest = 0;
+        myPosition = 0;
+
+        if (!Files.exists(myPath)) {
+            return false;
+        }
+
+        try (Reader reader = Files.newBufferedReader(myPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        if (!aURL.equals(properties.getProperty(URL))) {
+            return false;
+        }
+
+        try {
+            myManifest = Integer.parseInt(properties.getProperty(MANIFEST, "0"));
+            myPosition = Long.parseLong(properties.getProperty(POSITION, "0"));
+        } catch (final NumberFormatException details) {
+            throw new IOException("Checkpoint file is corrupt: " + myPath, details);
+        }
+
+        return true;
+    }
+
+    /**
+     * Saves the supplied progress. The file is replaced in a single step, so a crash can't leave it half written.
+     *
+     * @param aManifest The index of the manifest being warmed
+     * @param aPosition The position, within the manifest, before which everything has been warmed
+     * @throws IOException If the checkpoint file can't be written
+     */
+    void save(final int aManifest, final long aPosition) throws IOException {
+        final Path temp = myPath.resolveSibling(myPath.getFileName() + ".tmp");
+        final Properties properties = new Properties();
+
+        properties.setProperty(URL, myURL);
+        properties.setProperty(MANIFEST, Integer.toString(aManifest));
+        properties.setProperty(POSITION, Long.toString(aPosition));
+
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "IIIF cache warming progress");
+        }
+
+        Files.move(temp, myPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        myManifest = aManifest;
+        myPosition = aPosition;
+    }
+
+    /**
+     * Deletes the checkpoint, once a run has finished.
+     *
+     * @throws IOException If the checkpoint file can't be deleted
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(myPath);
+    }
+
+    /**
+     * Gets the index of the manifest that was being warmed.
+     *
+     * @return The index of the manifest
+     */
+    int getManifest() {
+        return myManifest;
+    }
+
+    /**
+     * Gets the position, within the manifest that was being warmed, before which everything has been warmed.
+     *
+     * @return The position within the manifest
+     */
+    long getPosition() {
+        return myPosition;
+    }
+
+    /**
+     * Gets the file in which the checkpoint is kept.
+     *
+     * @return The checkpoint file
+     */
+    Path getPath() {
+        return myPath;
+    }
+}
@@ -0,0 +1,165 @@
+package info.freelibrary.iiiftool;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A report of a cache warming run. Thumbnails, info.json files and each level of the image pyramids (numbered from
+ * the lowest resolution, zero) are reported separately, so how fast each was warmed and how many failed can be seen.
+ * A report can be added to from many threads at once.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class WarmReport {
+
+    /** The stage in which thumbnails are warmed */
+    public static final int THUMBNAILS = -2;
+
+    /** The stage in which info.json files are warmed */
+    public static final int INFO_JSON = -1;
+
+    private final NavigableMap<Integer, Stage> myStages = new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a completed request to the report.
+     *
+     * @param aStage The stage, {@link #THUMBNAILS}, {@link #INFO_JSON} or a pyramid level, of the request
+     * @param aStartTime The {@link System#nanoTime()} at which the request started
+     * @param aNanos The number of nanoseconds the request took
+     * @param aByteCount The number of bytes that were downloaded
+     * @param aStatus The HTTP status code of the response
+     */
+    public void addRequest(final int aStage, final long aStartTime, final long aNanos, final long aByteCount,
+            final int aStatus) {
+        final Stage stage = getStage(aStage, aStartTime);
+
+        stage.myHistogram.recordNanos(aNanos);
+        stage.myByteCount.add(aByteCount);
+        stage.myEndTime.accumulate(aStartTime + aNanos);
+
+        if (aStatus < 200 || aStatus >= 400) {
+            stage.myFailureCount.increment();
+        }
+    }
+
+    /**
+     * Adds a failed request, one for which no response was received, to the report.
+     *
+     * @param aStage The stage, {@link #THUMBNAILS}, {@link #INFO_JSON} or a pyramid level, of the request
+     * @param aStartTime The {@link System#nanoTime()} at which the request started
+     */
+    public void addFailure(final int aStage, final long aStartTime) {
+        final Stage stage = getStage(aStage, aStartTime);
+
+        stage.myFailureCount.increment();
+        stage.myEndTime.accumulate(System.nanoTime());
+    }
+
+    /**
+     * Gets the stages that have been reported on, in the order they're warmed.
+     *
+     * @return The reported stages
+     */
+    public Iterable<Integer> getStages() {
+        return myStages.keySet();
+    }
+
+    /**
+     * Gets a snapshot of the request times of the supplied stage.
+     *
+     * @param aStage A stage
+     * @return A snapshot of the stage's request times
+     */
+    public HistogramSnapshot getTimes(final int aStage) {
+        final Stage stage = myStages.get(aStage);
+        return stage == null ? new HistogramSnapshot() : stage.myHistogram.snapshot();
+    }
+
+    /**
+     * Gets the number of bytes that were downloaded in the supplied stage.
+     *
+     * @param aStage A stage
+     * @return The number of bytes downloaded
+     */
+    public long getByteCount(final int aStage) {
+        final Stage stage = myStages.get(aStage);
+        return stage == null ? 0 : stage.myByteCount.sum();
+    }
+
+    /**
+     * Gets the number of requests that failed in the supplied stage.
+     *
+     * @param aStage A stage
+     * @return The number of failed requests
+     */
+    public long getFailureCount(final int aStage) {
+        final Stage stage = myStages.get(aStage);
+        return stage == null ? 0 : stage.myFailureCount.sum();
+    }
+
+    /**
+     * Gets the number of nanoseconds from the start of the supplied stage's first request to the end of its last.
+     *
+     * @param aStage A stage
+     * @return The stage's elapsed time
+     */
+    public long getElapsedTime(final int aStage) {
+        final Stage stage = myStages.get(aStage);
+        return stage == null ? 0 : Math.max(0, stage.myEndTime.get() - stage.myStartTime.get());
+    }
+
+    /**
+     * Gets the label of the supplied stage.
+     *
+     * @param aStage A stage
+     * @return The stage's label
+     */
+    public static String getLabel(final int aStage) {
+        switch (aStage) {
+            case THUMBNAILS:
+                return RequestType.THUMBNAIL.toString();
+            case INFO_JSON:
+                return RequestType.INFO_JSON.toString();
+            default:
+                return "level " + aStage;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+
+        for (final Map.Entry<Integer, Stage> entry : myStages.entrySet()) {
+            builder.append(getLabel(entry.getKey())).append(": ").append(entry.getValue().myHistogram.snapshot())
+                    .append(System.lineSeparator());
+        }
+
+        return builder.toString();
+    }
+
+    private Stage getStage(final int aStage, final long aStartTime) {
+        final Stage stage = myStages.computeIfAbsent(aStage, key -> new Stage());
+
+        stage.myStartTime.accumulate(aStartTime);
+        return stage;
+    }
+
+    /**
+     * The requests of a single stage.
+     */
+    private static final class Stage {
+
+        private final LatencyHistogram myHistogram = new LatencyHistogram();
+
+        private final LongAdder myByteCount = new LongAdder();
+
+        private final LongAdder myFailureCount = new LongAdder();
+
+        private final LongAccumulator myStartTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+        private final LongAccumulator myEndTime = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+}
@@ -17,6 +17,8 @@ import org.basex.query.value.item.Item;
 
 /**
  * A little convenience class because I find XQuery so much nicer than JsonPath. The methods expect one liner XQueries.
+ * Each call parses the supplied JSON again, so documents that are queried more than once should be parsed into a
+ * {@link ManifestIndex} instead. A BaseX context isn't safe to share between threads, so each thread gets its own.
  *
  * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
  */
@@ -24,17 +26,23 @@ public class XQueryUtils {
 
     private static final String QUERY = "declare variable $json as xs:string external;";
 
-    private static final Context CONTEXT = new Context();
+    private static final ThreadLocal<Context> CONTEXT = ThreadLocal.withInitial(Context::new);
 
     private XQueryUtils() {
     }
 
+    /**
+     * Gets the items that the supplied XQuery selects from the supplied JSON document.
+     *
+     * @param aJson A JSON document
+     * @param aXQuery A query to run against the parsed document
+     * @return The selected items as strings
+     */
     public static final List<String> getList(final String aJson, final String aXQuery) {
-        final QueryProcessor qp = new QueryProcessor(QUERY + " parse-json($json)" + aXQuery, CONTEXT);
         final List<String> list = new ArrayList<>();
         final Iter iter;
 
-        try {
+        try (QueryProcessor qp = new QueryProcessor(QUERY + " parse-json($json)" + aXQuery, CONTEXT.get())) {
             Item item;
 
             qp.bind("json", aJson);
@@ -50,13 +58,19 @@ public class XQueryUtils {
         return list;
     }
 
+    /**
+     * Gets the serialized result of running the supplied XQuery against the supplied JSON document.
+     *
+     * @param aJson A JSON document
+     * @param aXQuery A query to run against the parsed document
+     * @return The serialized result of the query
+     */
     public static final String getValue(final String aJson, final String aXQuery) {
-        final QueryProcessor qp = new QueryProcessor(QUERY + " parse-json($json)" + aXQuery, CONTEXT);
         final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         final String value;
         final Iter iter;
 
-        try {
+        try (QueryProcessor qp = new QueryProcessor(QUERY + " parse-json($json)" + aXQuery, CONTEXT.get())) {
             qp.bind("json", aJson);
             iter = qp.iter();
 
@@ -0,0 +1,126 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that alias tables draw indexes in proportion to their weights.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class AliasTableTest {
+
+    /* Enough draws that the shares below are well within their tolerance */
+    private static final int DRAW_COUNT = 100_000;
+
+    private static final double TOLERANCE = 0.02;
+
+    /**
+     * Tests that indexes are drawn in proportion to their weights, and that an index without weight is never drawn.
+     */
+    @Test
+    public void testWeights() {
+        final AliasTable table = new AliasTable(1, 0, 3);
+        final double[] shares = draw(table);
+
+        assertEquals(3, table.size());
+        assertEquals(0.25, shares[0], TOLERANCE);
+        assertEquals(0, shares[1], 0);
+        assertEquals(0.75, shares[2], TOLERANCE);
+    }
+
+    /**
+     * Tests that a table with one index always draws it.
+     */
+    @Test
+    public void testSingleIndex() {
+        final AliasTable table = new AliasTable(0.5);
+
+        for (int count = 0; count < 1_000; count++) {
+            assertEquals(0, table.sample());
+        }
+    }
+
+    /**
+     * Tests that each rank of a Zipf table is drawn less often than the one before it, in proportion to one over its
+     * rank.
+     */
+    @Test
+    public void testZipf() {
+        final double[] shares = draw(AliasTable.zipf(4, 1));
+        final double total = 1 + 1 / 2d + 1 / 3d + 1 / 4d;
+
+        for (int index = 0; index < shares.length; index++) {
+            assertEquals(1d / (index + 1) / total, shares[index], TOLERANCE);
+
+            if (index > 0) {
+                assertTrue("Rank " + index + " is drawn too often", shares[index] < shares[index - 1]);
+            }
+        }
+    }
+
+    /**
+     * Tests that a Zipf table with an exponent of zero draws every index equally.
+     */
+    @Test
+    public void testUniformZipf() {
+        for (final double share : draw(AliasTable.zipf(5, 0))) {
+            assertEquals(0.2, share, TOLERANCE);
+        }
+    }
+
+    /**
+     * Tests that a table can't be created without weights.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoWeights() {
+        new AliasTable();
+    }
+
+    /**
+     * Tests that a table can't be created with a negative weight.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeWeight() {
+        new AliasTable(1, -1);
+    }
+
+    /**
+     * Tests that a table can't be created with a weight that isn't a number.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNaNWeight() {
+        new AliasTable(1, Double.NaN);
+    }
+
+    /**
+     * Tests that a table can't be created when all its weights are zero.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWeights() {
+        new AliasTable(0, 0);
+    }
+
+    /**
+     * Tests that a Zipf table can't have a negative exponent.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeExponent() {
+        AliasTable.zipf(3, -1);
+    }
+
+    /**
+     * Gets the share of draws that went to each of a table's indexes.
+     */
+    private static double[] draw(final AliasTable aTable) {
+        final double[] shares = new double[aTable.size()];
+
+        for (int count = 0; count < DRAW_COUNT; count++) {
+            shares[aTable.sample()] += 1d / DRAW_COUNT;
+        }
+
+        return shares;
+    }
+}
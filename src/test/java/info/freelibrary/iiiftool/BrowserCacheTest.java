@@ -0,0 +1,239 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how a browser cache works out its responses' freshness and revalidates them.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class BrowserCacheTest {
+
+    private static final String URL = "https://example.org/iiif/image/info.json";
+
+    private static final byte[] BODY = "{\"width\": 1000}".getBytes(StandardCharsets.UTF_8);
+
+    private static final long MEMORY_LIMIT = 1024;
+
+    /* A margin that keeps the tests' clock readings clear of a freshness boundary */
+    private static final long MARGIN = TimeUnit.SECONDS.toMillis(5);
+
+    private BrowserCache myCache;
+
+    /**
+     * Creates a browser cache that keeps its responses in memory only.
+     */
+    @Before
+    public void setUp() {
+        myCache = new BrowserCache(MEMORY_LIMIT, null, 0);
+    }
+
+    /**
+     * Empties the browser cache.
+     */
+    @After
+    public void tearDown() {
+        myCache.close();
+    }
+
+    /**
+     * Tests that a response is fresh for its <code>max-age</code>, less its <code>Age</code>.
+     */
+    @Test
+    public void testMaxAge() {
+        final BrowserCache.Entry entry = myCache.put(URL, headers("cache-control", "public, max-age=60", "age",
+                "20"), BODY);
+
+        assertTrue(myCache.isFresh(entry));
+        myCache.advance(TimeUnit.SECONDS.toMillis(40) - MARGIN);
+        assertTrue(myCache.isFresh(entry));
+        myCache.advance(MARGIN * 2);
+        assertFalse(myCache.isFresh(entry));
+    }
+
+    /**
+     * Tests that a response is fresh until its <code>Expires</code> date, relative to its <code>Date</code>, and
+     * that an invalid <code>Expires</code> date means it's already stale.
+     */
+    @Test
+    public void testExpires() {
+        final ZonedDateTime date = ZonedDateTime.now(ZoneOffset.UTC);
+        final BrowserCache.Entry entry = myCache.put(URL, headers("date", format(date), "expires", format(date
+                .plusMinutes(2))), BODY);
+
+        assertTrue(myCache.isFresh(entry));
+        myCache.advance(TimeUnit.MINUTES.toMillis(2) + MARGIN);
+        assertFalse(myCache.isFresh(entry));
+        assertFalse(myCache.isFresh(myCache.put(URL, headers("date", format(date), "expires", "0"), BODY)));
+    }
+
+    /**
+     * Tests that <code>max-age</code> takes precedence over <code>Expires</code>.
+     */
+    @Test
+    public void testMaxAgeOverExpires() {
+        final ZonedDateTime date = ZonedDateTime.now(ZoneOffset.UTC);
+        final BrowserCache.Entry entry = myCache.put(URL, headers("cache-control", "max-age=10", "date", format(date),
+                "expires", format(date.plusDays(1))), BODY);
+
+        myCache.advance(TimeUnit.SECONDS.toMillis(10) + MARGIN);
+        assertFalse(myCache.isFresh(entry));
+    }
+
+    /**
+     * Tests that a response without explicit freshness is fresh for a tenth of the time since it was last modified.
+     */
+    @Test
+    public void testHeuristicFreshness() {
+        final ZonedDateTime date = ZonedDateTime.now(ZoneOffset.UTC);
+        final BrowserCache.Entry entry = myCache.put(URL, headers("date", format(date), "last-modified", format(date
+                .minusDays(10))), BODY);
+
+        myCache.advance(TimeUnit.HOURS.toMillis(23));
+        assertTrue(myCache.isFresh(entry));
+        myCache.advance(TimeUnit.HOURS.toMillis(2));
+        assertFalse(myCache.isFresh(entry));
+    }
+
+    /**
+     * Tests that a <code>no-cache</code> response is stored but always has to be revalidated, and that a
+     * <code>no-store</code> response isn't stored at all.
+     */
+    @Test
+    public void testNoCacheAndNoStore() {
+        final Map<String, List<String>> noStore = headers("cache-control", "no-store, max-age=60");
+        final BrowserCache.Entry entry = myCache.put(URL, headers("cache-control", "No-Cache", "etag", "\"v1\""),
+                BODY);
+
+        assertNotNull(entry);
+        assertFalse(myCache.isFresh(entry));
+        assertFalse(myCache.isStorable(noStore));
+        assertNull(myCache.put(URL, noStore, BODY));
+
+        // The response that couldn't be stored still replaced the old one
+        assertNull(myCache.get(URL));
+    }
+
+    /**
+     * Tests that a response's validators become the headers of its conditional request.
+     */
+    @Test
+    public void testValidators() {
+        final String lastModified = format(ZonedDateTime.now(ZoneOffset.UTC).minusDays(1));
+        final Map<String, String> validators = myCache.put(URL, headers("etag", "W/\"v1\"", "last-modified",
+                lastModified), BODY).getValidators();
+
+        assertEquals(2, validators.size());
+        assertEquals("W/\"v1\"", validators.get("If-None-Match"));
+        assertEquals(lastModified, validators.get("If-Modified-Since"));
+        assertTrue(myCache.put(URL, headers("cache-control", "max-age=60"), BODY).getValidators().isEmpty());
+    }
+
+    /**
+     * Tests that a 304 response makes a stale response fresh again, updating its headers but not its body or the
+     * headers that describe the 304's own body.
+     */
+    @Test
+    public void testRevalidation() {
+        final BrowserCache.Entry stale = myCache.put(URL, headers("cache-control", "max-age=60", "etag", "\"v1\"",
+                "content-length", Integer.toString(BODY.length)), BODY);
+        final BrowserCache.Entry fresh;
+
+        myCache.advance(TimeUnit.SECONDS.toMillis(60) + MARGIN);
+        assertFalse(myCache.isFresh(stale));
+
+        fresh = myCache.revalidate(stale, headers("cache-control", "max-age=120", "etag", "\"v2\"", "content-length",
+                "0"));
+
+        assertTrue(myCache.isFresh(fresh));
+        assertArrayEquals(BODY, fresh.getBody());
+        assertEquals("\"v2\"", fresh.getValidators().get("If-None-Match"));
+        assertEquals(List.of(Integer.toString(BODY.length)), fresh.getHeaders().get("content-length"));
+        assertSame(fresh, myCache.get(URL));
+    }
+
+    /**
+     * Tests which responses might be stored, judging from their headers alone.
+     */
+    @Test
+    public void testStorable() {
+        assertTrue(myCache.isStorable(headers()));
+        assertTrue(myCache.isStorable(headers("content-length", Long.toString(MEMORY_LIMIT))));
+        assertTrue(myCache.isStorable(headers("content-length", "unknown")));
+        assertFalse(myCache.isStorable(headers("content-length", Long.toString(MEMORY_LIMIT + 1))));
+        assertNull(myCache.put(URL, headers("cache-control", "max-age=60"), new byte[(int) MEMORY_LIMIT + 1]));
+    }
+
+    /**
+     * Tests that the least recently used response is pushed out of memory, and is dropped without a spill directory
+     * but brought back from disk with one.
+     *
+     * @throws IOException If the spill directory can't be created or cleaned up
+     */
+    @Test
+    public void testEviction() throws IOException {
+        final Path spillRoot = Files.createTempDirectory("browser-cache-test");
+        final byte[] half = new byte[(int) MEMORY_LIMIT / 2 + 1];
+        final Map<String, List<String>> headers = headers("cache-control", "max-age=60");
+
+        myCache.put("a", headers, half);
+        myCache.put("b", headers, half);
+        assertNull(myCache.get("a"));
+        assertNotNull(myCache.get("b"));
+
+        try (BrowserCache cache = new BrowserCache(MEMORY_LIMIT, spillRoot, MEMORY_LIMIT * 4)) {
+            cache.put("a", headers, half);
+            cache.put("b", headers, half);
+            assertArrayEquals(half, cache.get("a").getBody());
+
+            // Bringing back the first pushed out the second
+            assertArrayEquals(half, cache.get("b").getBody());
+        } finally {
+            try (Stream<Path> files = Files.list(spillRoot)) {
+                assertEquals(0, files.count());
+            }
+
+            Files.delete(spillRoot);
+        }
+    }
+
+    /**
+     * Builds response headers, keyed by their lower-case names, from names and values.
+     */
+    private static Map<String, List<String>> headers(final String... aNamesAndValues) {
+        final Map<String, List<String>> headers = new HashMap<>();
+
+        for (int index = 0; index < aNamesAndValues.length; index += 2) {
+            headers.put(aNamesAndValues[index], List.of(aNamesAndValues[index + 1]));
+        }
+
+        return headers;
+    }
+
+    private static String format(final ZonedDateTime aDate) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(aDate);
+    }
+}
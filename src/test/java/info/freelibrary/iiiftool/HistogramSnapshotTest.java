@@ -0,0 +1,175 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests the compact form in which histogram snapshots are sent between a worker and its coordinator.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class HistogramSnapshotTest {
+
+    /**
+     * Tests that a snapshot with values across the histogram's whole range is read back as it was written.
+     *
+     * @throws IOException If the snapshot can't be written or read
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final LatencyHistogram histogram = new LatencyHistogram(1);
+        final HistogramSnapshot snapshot;
+        final HistogramSnapshot copy;
+
+        for (long value = 0; value <= LatencyHistogram.MAX_VALUE; value = value * 3 + 1) {
+            histogram.record(value);
+        }
+
+        // A bucket whose count needs more than one byte
+        for (int count = 0; count < 300; count++) {
+            histogram.record(1_000);
+        }
+
+        histogram.record(LatencyHistogram.MAX_VALUE);
+        snapshot = histogram.snapshot();
+        copy = HistogramSnapshot.read(toInput(toBytes(snapshot)));
+
+        assertArrayEquals(snapshot.getCounts(), copy.getCounts());
+        assertEquals(snapshot.getCount(), copy.getCount());
+        assertEquals(snapshot.getSum(), copy.getSum());
+        assertEquals(LatencyHistogram.MAX_VALUE, copy.getMax());
+    }
+
+    /**
+     * Tests that numbers at the edges of each byte length, including the largest long, are read back as written.
+     *
+     * @throws IOException If the snapshot can't be written or read
+     */
+    @Test
+    public void testNumberSizes() throws IOException {
+        for (final long number : new long[] { 0, 127, 128, 16_383, 16_384, Integer.MAX_VALUE, Long.MAX_VALUE }) {
+            final long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+            final HistogramSnapshot copy;
+
+            counts[LatencyHistogram.BUCKET_COUNT - 1] = number == 0 ? 1 : number;
+            copy = HistogramSnapshot.read(toInput(toBytes(new HistogramSnapshot(counts, number, number))));
+
+            assertArrayEquals(counts, copy.getCounts());
+            assertEquals(number, copy.getSum());
+            assertEquals(number, copy.getMax());
+        }
+    }
+
+    /**
+     * Tests that an empty snapshot takes one byte for its bucket count and one each for its sum and maximum.
+     *
+     * @throws IOException If the snapshot can't be written or read
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        final byte[] bytes = toBytes(new HistogramSnapshot());
+        final HistogramSnapshot copy = HistogramSnapshot.read(toInput(bytes));
+
+        assertEquals(3, bytes.length);
+        assertEquals(0, copy.getCount());
+        assertEquals(0, copy.getValueAtPercentile(99));
+    }
+
+    /**
+     * Tests that merging a snapshot that was read back is the same as merging the original.
+     *
+     * @throws IOException If the snapshot can't be written or read
+     */
+    @Test
+    public void testMerge() throws IOException {
+        final LatencyHistogram first = new LatencyHistogram(1);
+        final LatencyHistogram second = new LatencyHistogram(1);
+        final HistogramSnapshot expected;
+        final HistogramSnapshot merged;
+
+        for (int value = 1; value <= 100; value++) {
+            first.record(value);
+            second.record(value * 1_000);
+        }
+
+        expected = first.snapshot().merge(second.snapshot());
+        first.add(HistogramSnapshot.read(toInput(toBytes(second.snapshot()))));
+        merged = first.snapshot();
+
+        assertEquals(200, merged.getCount());
+        assertEquals(100_000, merged.getMax());
+        assertEquals(100, merged.getValueAtPercentile(50));
+        assertEquals(expected.getSum(), merged.getSum());
+        assertArrayEquals(expected.getCounts(), merged.getCounts());
+    }
+
+    /**
+     * Tests that a snapshot claiming more buckets than a histogram has is rejected.
+     *
+     * @throws IOException If the snapshot is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testTooManyBuckets() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        // The bucket count, as a two byte number, is one more than there are buckets
+        bytes.write(LatencyHistogram.BUCKET_COUNT + 1 & 0x7F | 0x80);
+        bytes.write(LatencyHistogram.BUCKET_COUNT + 1 >>> 7);
+        HistogramSnapshot.read(toInput(bytes.toByteArray()));
+    }
+
+    /**
+     * Tests that a bucket past the end of the histogram is rejected.
+     *
+     * @throws IOException If the snapshot is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testBucketOutOfRange() throws IOException {
+        final long[] counts = new long[LatencyHistogram.BUCKET_COUNT];
+        final byte[] bytes;
+
+        counts[LatencyHistogram.BUCKET_COUNT - 1] = 1;
+        counts[LatencyHistogram.BUCKET_COUNT - 2] = 1;
+        bytes = toBytes(new HistogramSnapshot(counts, 0, 0));
+
+        // The second bucket's gap, which is 1, is changed so that it's past the end
+        bytes[4] = (byte) 0x7F;
+        HistogramSnapshot.read(toInput(bytes));
+    }
+
+    /**
+     * Tests that a snapshot that's cut short is rejected.
+     *
+     * @throws IOException If the snapshot is rejected
+     */
+    @Test(expected = EOFException.class)
+    public void testTruncated() throws IOException {
+        final LatencyHistogram histogram = new LatencyHistogram(1);
+        final byte[] bytes;
+
+        histogram.record(42);
+        bytes = toBytes(histogram.snapshot());
+        HistogramSnapshot.read(toInput(Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    private static byte[] toBytes(final HistogramSnapshot aSnapshot) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        aSnapshot.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static DataInputStream toInput(final byte[] aBytes) {
+        return new DataInputStream(new ByteArrayInputStream(aBytes));
+    }
+}
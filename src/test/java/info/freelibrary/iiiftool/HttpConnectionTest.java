@@ -0,0 +1,97 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how a connection reads the different kinds of response bodies.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class HttpConnectionTest {
+
+    private static final int TIMEOUT = 5000;
+
+    private static final String BODY = "{\"id\": \"close-delimited\"}";
+
+    private ServerSocket myServer;
+
+    private Thread myResponder;
+
+    /**
+     * Starts a server, on any free port, that answers one request with a body that has no length and isn't chunked,
+     * so that the body runs until the server closes the connection.
+     *
+     * @throws IOException If the server can't be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        myServer = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        myResponder = new Thread(() -> {
+            try (Socket socket = myServer.accept()) {
+                final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                        StandardCharsets.ISO_8859_1));
+                final OutputStream output = socket.getOutputStream();
+
+                // Reads the request's headers, up to the blank line that ends them
+                for (String line = input.readLine(); line != null && !line.isEmpty(); line = input.readLine()) {
+                    // Nothing else to do with the request
+                }
+
+                output.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n\r\n" + BODY).getBytes(
+                        StandardCharsets.ISO_8859_1));
+                output.flush();
+            } catch (final IOException details) {
+                // The test fails on the client side
+            }
+        });
+        myResponder.start();
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws Exception If the server can't be stopped
+     */
+    @After
+    public void tearDown() throws Exception {
+        myServer.close();
+        myResponder.join(TIMEOUT);
+    }
+
+    /**
+     * Tests that a body that runs until the server closes the connection is read whole, and that the connection
+     * isn't reused after it.
+     *
+     * @throws IOException If the request fails
+     */
+    @Test
+    public void testCloseDelimitedBody() throws IOException {
+        final URL url = new URL("http://localhost:" + myServer.getLocalPort() + "/manifest");
+
+        try (HttpConnection connection = HttpConnection.open(url, TIMEOUT, TIMEOUT, null)) {
+            final HttpResult result = connection.exchange(url, true, Map.of(), true);
+
+            assertEquals(200, result.getStatus());
+            assertArrayEquals(BODY.getBytes(StandardCharsets.ISO_8859_1), result.getBody());
+            assertEquals(BODY.length(), result.getByteCount());
+            assertFalse(connection.isReusable());
+        }
+    }
+}
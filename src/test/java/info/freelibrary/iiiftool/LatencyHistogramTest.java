@@ -0,0 +1,127 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the bucketing and recording of latency histograms.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class LatencyHistogramTest {
+
+    /* Values below this are recorded exactly */
+    private static final int EXACT_LIMIT = LatencyHistogram.SUB_BUCKET_COUNT << 1;
+
+    /**
+     * Tests that small values each get a bucket of their own.
+     */
+    @Test
+    public void testExactBuckets() {
+        for (int value = 0; value < EXACT_LIMIT; value++) {
+            assertEquals(value, LatencyHistogram.indexOf(value));
+            assertEquals(value, LatencyHistogram.lowestValueAt(value));
+            assertEquals(value, LatencyHistogram.highestValueAt(value));
+        }
+    }
+
+    /**
+     * Tests the buckets on either side of the first one that holds more than one value.
+     */
+    @Test
+    public void testFirstWideBucket() {
+        assertEquals(EXACT_LIMIT - 1, LatencyHistogram.indexOf(EXACT_LIMIT - 1));
+        assertEquals(EXACT_LIMIT, LatencyHistogram.indexOf(EXACT_LIMIT));
+        assertEquals(EXACT_LIMIT, LatencyHistogram.indexOf(EXACT_LIMIT + 1));
+        assertEquals(EXACT_LIMIT + 1, LatencyHistogram.indexOf(EXACT_LIMIT + 2));
+        assertEquals(EXACT_LIMIT, LatencyHistogram.lowestValueAt(EXACT_LIMIT));
+        assertEquals(EXACT_LIMIT + 1, LatencyHistogram.highestValueAt(EXACT_LIMIT));
+    }
+
+    /**
+     * Tests that the buckets cover every value up to the maximum, with no gaps or overlaps, and that each bucket's
+     * bounds fall in it.
+     */
+    @Test
+    public void testBucketsAreContiguous() {
+        assertEquals(0, LatencyHistogram.lowestValueAt(0));
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValueAt(LatencyHistogram.BUCKET_COUNT - 1));
+
+        for (int index = 0; index < LatencyHistogram.BUCKET_COUNT; index++) {
+            final long lowest = LatencyHistogram.lowestValueAt(index);
+            final long highest = LatencyHistogram.highestValueAt(index);
+
+            assertEquals(index, LatencyHistogram.indexOf(lowest));
+            assertEquals(index, LatencyHistogram.indexOf(highest));
+
+            if (index > 0) {
+                assertEquals(LatencyHistogram.highestValueAt(index - 1) + 1, lowest);
+            }
+        }
+    }
+
+    /**
+     * Tests that every bucket is within the histogram's precision of the values it counts.
+     */
+    @Test
+    public void testBucketPrecision() {
+        for (int index = EXACT_LIMIT; index < LatencyHistogram.BUCKET_COUNT; index++) {
+            final long lowest = LatencyHistogram.lowestValueAt(index);
+            final long width = LatencyHistogram.highestValueAt(index) - lowest + 1;
+
+            assertTrue("Bucket " + index + " is too wide", width * LatencyHistogram.SUB_BUCKET_COUNT <= lowest);
+        }
+    }
+
+    /**
+     * Tests that values outside the histogram's range are clamped to it.
+     */
+    @Test
+    public void testClamping() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final HistogramSnapshot snapshot;
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        snapshot = histogram.snapshot();
+
+        assertEquals(2, snapshot.getCount());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMax());
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getValueAtPercentile(100));
+    }
+
+    /**
+     * Tests that percentiles are within the histogram's precision of the recorded values, however many stripes the
+     * histogram has.
+     */
+    @Test
+    public void testPercentiles() {
+        for (final int stripeCount : new int[] { 1, 3, LatencyHistogram.MAX_STRIPES }) {
+            final LatencyHistogram histogram = new LatencyHistogram(stripeCount);
+            final HistogramSnapshot snapshot;
+
+            for (int value = 1; value <= 10_000; value++) {
+                histogram.record(value);
+            }
+
+            snapshot = histogram.snapshot();
+
+            assertEquals(10_000, snapshot.getCount());
+            assertEquals(10_000L * 10_001 / 2, snapshot.getSum());
+            assertEquals(10_000, snapshot.getMax());
+            assertEquals(5_000, snapshot.getValueAtPercentile(50), 5_000 / LatencyHistogram.SUB_BUCKET_COUNT);
+            assertEquals(9_900, snapshot.getValueAtPercentile(99), 9_900 / LatencyHistogram.SUB_BUCKET_COUNT);
+        }
+    }
+
+    /**
+     * Tests that a histogram can't be created without stripes.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoStripes() {
+        new LatencyHistogram(0);
+    }
+}
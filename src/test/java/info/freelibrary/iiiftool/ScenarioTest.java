@@ -0,0 +1,182 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the parsing of scenario files.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class ScenarioTest {
+
+    private Path myFile;
+
+    /**
+     * Creates an empty scenario file.
+     *
+     * @throws IOException If the file can't be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        myFile = Files.createTempFile("scenario-test", ".txt");
+    }
+
+    /**
+     * Deletes the scenario file.
+     *
+     * @throws IOException If the file can't be deleted
+     */
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(myFile);
+    }
+
+    /**
+     * Tests that manifests are counted whether they're IDs on a server or full URLs, and that a scenario without a
+     * think time or script gets the defaults.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testManifests() throws IOException {
+        final Scenario scenario = parse("server https://example.org/iiif", "pool popular weight=3 popularity=zipf:1",
+                "manifest ark:/21198/z1", "manifest https://other.org/iiif/z2/manifest", "pool rare",
+                "manifest ark:/21198/z1", "collection https://example.org/collection/1");
+
+        assertEquals(3, scenario.getManifestCount());
+        assertSame(LatencyModel.NONE, scenario.getThinkTime());
+        assertNull(scenario.getScript());
+    }
+
+    /**
+     * Tests that whole-line and trailing comments are stripped, but that a <code>#</code> inside a word, like a
+     * URL's fragment, is kept.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testComments() throws IOException {
+        final Scenario scenario = parse("# A scenario with comments", "pool main # The only pool",
+                "   # An indented comment", "manifest https://example.org/iiif/z1/manifest#canvas-2 # A fragment",
+                "mix viewer=1\tmanifest=1 # Half just get the manifest");
+
+        assertEquals(1, scenario.getManifestCount());
+        assertRejected("Should be a number: viewer=1#2", "pool main", "manifest https://example.org/m", "mix " +
+                "viewer=1#2");
+    }
+
+    /**
+     * Tests that a scenario's think time and script are parsed.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testThinkTimeAndScript() throws IOException {
+        final Scenario scenario = parse("think uniform:500:2000", "script zoom:2, pan:0.5:0, home", "pool main",
+                "manifest https://example.org/m");
+
+        assertTrue(scenario.getThinkTime() != LatencyModel.NONE);
+        assertNotNull(scenario.getScript());
+        assertTrue(scenario.getScript() != ViewerScript.NONE);
+    }
+
+    /**
+     * Tests that a mix has to have a share that's greater than zero.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testEmptyMix() throws IOException {
+        assertRejected(":3: Mix should have a share that's greater than zero", "pool main",
+                "manifest https://example.org/m", "mix viewer=0 thumbnails=0 manifest=0");
+    }
+
+    /**
+     * Tests that a mix's shares have to be numbers that aren't negative.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testBadMixShares() throws IOException {
+        assertRejected("Can't be negative: viewer=-1", "pool main", "manifest https://example.org/m",
+                "mix viewer=-1 manifest=2");
+        assertRejected("Should be a number: viewer=NaN", "pool main", "manifest https://example.org/m",
+                "mix viewer=NaN");
+        assertRejected("Should be a number: viewer=Infinity", "pool main", "manifest https://example.org/m",
+                "mix viewer=Infinity");
+        assertRejected("Mix should be kind=share: viewer", "pool main", "manifest https://example.org/m",
+                "mix viewer");
+        assertRejected("Unknown session kind: browser", "pool main", "manifest https://example.org/m",
+                "mix browser=1");
+    }
+
+    /**
+     * Tests that a line that can't be parsed is rejected, along with where in the file it is.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testBadLines() throws IOException {
+        assertRejected(":2: Unknown keyword 'manifests'", "pool main", "manifests https://example.org/m");
+        assertRejected(":1: 'manifest' should come after a 'pool'", "manifest https://example.org/m");
+        assertRejected(":2: Needs a 'server'", "pool main", "manifest ark:/21198/z1");
+        assertRejected(":1: 'pool' needs a value", "pool", "manifest https://example.org/m");
+        assertRejected(":1: Unknown pool setting: size=3", "pool main size=3", "manifest https://example.org/m");
+        assertRejected(":1: Can't be negative: popularity=zipf:-1", "pool main popularity=zipf:-1",
+                "manifest https://example.org/m");
+    }
+
+    /**
+     * Tests that a scenario has to have a pool, and that each of its pools has to have manifests.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test
+    public void testMissingManifests() throws IOException {
+        assertRejected("Scenario has no pools of manifests", "# Nothing but a comment");
+        assertRejected("Pool 'empty'", "pool main", "manifest https://example.org/m", "pool empty");
+    }
+
+    /**
+     * Tests that sessions can't be drawn from a scenario until its collections have been expanded.
+     *
+     * @throws IOException If the scenario file can't be read
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testSampleBeforeExpanding() throws IOException {
+        parse("pool main", "manifest https://example.org/m").sample(new ViewerSession("https://example.org/m", 1,
+                false));
+    }
+
+    private Scenario parse(final String... aLines) throws IOException {
+        Files.write(myFile, List.of(aLines), StandardCharsets.UTF_8);
+        return Scenario.parse(myFile);
+    }
+
+    /**
+     * Checks that a scenario is rejected with a message that contains the expected text.
+     */
+    private void assertRejected(final String aMessage, final String... aLines) throws IOException {
+        try {
+            parse(aLines);
+            fail("Scenario wasn't rejected: " + aMessage);
+        } catch (final IllegalArgumentException details) {
+            assertTrue(details.getMessage(), details.getMessage().contains(aMessage));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the tool's measurements match the latency and errors that the stand-in server injects.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class StandInServerTest {
+
+    /* The latency injected into every tile response, in milliseconds */
+    private static final int TILE_LATENCY = 200;
+
+    /* How far above the injected latency a measurement may be, in milliseconds, on a loaded build machine */
+    private static final int TOLERANCE = 250;
+
+    private static final int SESSION_COUNT = 3;
+
+    private static final long MICROS_PER_MILLI = 1000;
+
+    private StandInServer myServer;
+
+    private DownloadEngine myEngine;
+
+    /**
+     * Starts a stand-in server, on any free port, and a download engine to run viewer sessions against it.
+     *
+     * @throws IOException If the server can't be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        myServer = new StandInServer(0).start();
+        myEngine = EngineType.POOL.newEngine(DownloadTimer.DEFAULT_DOWNLOADER_COUNT, HttpProfile.BROWSER);
+    }
+
+    /**
+     * Stops the download engine and the stand-in server.
+     *
+     * @throws Exception If the download engine can't be closed
+     */
+    @After
+    public void tearDown() throws Exception {
+        myEngine.close();
+        myServer.close();
+    }
+
+    /**
+     * Tests that the time to first byte of tiles is the latency the server injects into them.
+     *
+     * @throws Exception If a viewer session can't be run
+     */
+    @Test
+    public void testTileLatency() throws Exception {
+        final DownloadReport report = new DownloadReport();
+        final HistogramSnapshot ttfb;
+        final long median;
+
+        myServer.getSettings(RequestType.TILE).setLatency(LatencyModel.fixed(TILE_LATENCY));
+
+        runSessions(report);
+
+        ttfb = report.getTimes(RequestType.TILE, RequestPhase.TTFB);
+        median = ttfb.getValueAtPercentile(50) / MICROS_PER_MILLI;
+
+        assertEquals(0, report.getFailedSessionCount());
+        assertTrue("No tiles were requested", ttfb.getCount() > 0);
+        assertEquals(myServer.getRequestCount(RequestType.TILE), report.getTimes(RequestType.TILE).getCount());
+        assertTrue("Median tile TTFB " + median + " ms is below the injected latency", median >= TILE_LATENCY);
+        assertTrue("Median tile TTFB " + median + " ms is too far above the injected latency", median <=
+                TILE_LATENCY + TOLERANCE);
+
+        // Nothing else was slowed down
+        assertTrue(report.getTimes(RequestType.MANIFEST).getValueAtPercentile(50) / MICROS_PER_MILLI <
+                TILE_LATENCY);
+    }
+
+    /**
+     * Tests that the errors the server injects are reported as errors, and fail the sessions that hit them.
+     *
+     * @throws Exception If a viewer session can't be run
+     */
+    @Test
+    public void testInjectedErrors() throws Exception {
+        final DownloadReport report = new DownloadReport();
+
+        myServer.getSettings(RequestType.INFO_JSON).setErrorRate(1);
+
+        runSessions(report);
+
+        assertEquals(SESSION_COUNT, report.getFailedSessionCount());
+        assertEquals(myServer.getErrorCount(RequestType.INFO_JSON), report.getErrorCount(RequestType.INFO_JSON));
+        assertEquals(0, report.getTimes(RequestType.TILE).getCount());
+    }
+
+    /**
+     * Runs viewer sessions one after another; sessions that fail are counted in the report rather than thrown.
+     */
+    private void runSessions(final DownloadReport aReport) throws Exception {
+        final String manifest = DownloadTimer.getURL(myServer.getURL(), "stand-in");
+
+        for (int count = 0; count < SESSION_COUNT; count++) {
+            new ViewerSession(manifest, DownloadTimer.DEFAULT_DOWNLOADER_COUNT, false).start(myEngine, aReport, System
+                    .nanoTime()).handle((result, error) -> result).get(1, TimeUnit.MINUTES);
+        }
+    }
+}
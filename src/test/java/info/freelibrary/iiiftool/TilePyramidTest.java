@@ -0,0 +1,160 @@
+package info.freelibrary.iiiftool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+/**
+ * Tests the levels, tile counts and tile URLs of tile pyramids.
+ *
+ * @author <a href="mailto:ksclarke@ksclarke.io">Kevin S. Clarke</a>
+ */
+public class TilePyramidTest {
+
+    private static final String ID = "https://example.org/iiif/image";
+
+    /* A landscape image, with tiles that are twice as wide as they are high, offered at three scale factors */
+    private static final String TILED_INFO = "{\"id\": \"" + ID + "\", \"width\": 1000, \"height\": 700, " +
+            "\"tiles\": [{\"width\": 512, \"height\": 256, \"scaleFactors\": [4, 1, 2]}]}";
+
+    /**
+     * Tests the levels of a pyramid of non-square tiles, from the lowest resolution to the full resolution.
+     */
+    @Test
+    public void testLevels() {
+        final TilePyramid pyramid = new TilePyramid(ID, 1000, 700, 512, 256, 1, 2, 4);
+
+        assertEquals(3, pyramid.getLevelCount());
+        assertLevel(pyramid, 0, 4, 250, 175, 1, 1);
+        assertLevel(pyramid, 1, 2, 500, 350, 1, 2);
+        assertLevel(pyramid, 2, 1, 1000, 700, 2, 3);
+        assertEquals(9, pyramid.getTileCount());
+    }
+
+    /**
+     * Tests the URLs of whole-image, edge and inner tiles of non-square tiles.
+     */
+    @Test
+    public void testURLs() {
+        final TilePyramid pyramid = new TilePyramid(ID, 1000, 700, 512, 256, 1, 2, 4);
+
+        assertEquals(ID + "/full/250,/0/default.jpg", pyramid.getURL(0, 0, 0));
+        assertEquals(ID + "/0,0,1000,512/500,/0/default.jpg", pyramid.getURL(1, 0, 0));
+        assertEquals(ID + "/0,512,1000,188/500,/0/default.jpg", pyramid.getURL(1, 0, 1));
+        assertEquals(ID + "/0,256,512,256/512,/0/default.jpg", pyramid.getURL(2, 0, 1));
+        assertEquals(ID + "/512,512,488,188/488,/0/default.jpg", pyramid.getURL(2, 1, 2));
+        assertEquals(ID + "/512,512,488,188/488,/0/gray.png", pyramid.withFormat("gray", "png").getURL(2, 1, 2));
+    }
+
+    /**
+     * Tests that the tiles and scale factors that an info.json file declares are used, in whatever order the scale
+     * factors are listed.
+     *
+     * @throws IOException If the info.json file can't be parsed
+     */
+    @Test
+    public void testDeclaredScaleFactors() throws IOException {
+        final TilePyramid pyramid = TilePyramid.fromInfo("https://other.org/unused", ManifestIndex.parse(TILED_INFO),
+                DownloadTimer.DEFAULT_TILE_SIZE);
+
+        assertEquals(ID, pyramid.getServiceID());
+        assertEquals(3, pyramid.getLevelCount());
+        assertLevel(pyramid, 0, 4, 250, 175, 1, 1);
+        assertLevel(pyramid, 2, 1, 1000, 700, 2, 3);
+        assertEquals(ID + "/512,512,488,188/488,/0/default.jpg", pyramid.getURL(2, 1, 2));
+    }
+
+    /**
+     * Tests that an info.json file with sizes but no tiles gets a level, of one whole-image tile, for each size.
+     *
+     * @throws IOException If the info.json file can't be parsed
+     */
+    @Test
+    public void testDeclaredSizes() throws IOException {
+        final TilePyramid pyramid = TilePyramid.fromInfo(ID, ManifestIndex.parse("{\"width\": 1000, \"height\": " +
+                "700, \"sizes\": [{\"width\": 500, \"height\": 350}, {\"width\": 125, \"height\": 88}]}"),
+                DownloadTimer.DEFAULT_TILE_SIZE);
+
+        assertEquals(2, pyramid.getLevelCount());
+        assertLevel(pyramid, 0, 8, 125, 88, 1, 1);
+        assertLevel(pyramid, 1, 2, 500, 350, 1, 1);
+        assertEquals(ID + "/full/125,/0/default.jpg", pyramid.getURL(0, 0, 0));
+        assertEquals(ID + "/full/500,/0/default.jpg", pyramid.getURL(1, 0, 0));
+    }
+
+    /**
+     * Tests that an info.json file with neither tiles nor sizes gets default sized tiles at power of two scale
+     * factors, down to a level that fits in a single tile.
+     *
+     * @throws IOException If the info.json file can't be parsed
+     */
+    @Test
+    public void testDefaultTiles() throws IOException {
+        final TilePyramid pyramid = TilePyramid.fromInfo(ID, ManifestIndex.parse("{\"width\": 1000, \"height\": " +
+                "700}"), 256);
+
+        assertEquals(3, pyramid.getLevelCount());
+        assertLevel(pyramid, 0, 4, 250, 175, 1, 1);
+        assertLevel(pyramid, 1, 2, 500, 350, 2, 2);
+        assertLevel(pyramid, 2, 1, 1000, 700, 4, 3);
+        assertEquals(ID + "/768,512,232,188/232,/0/default.jpg", pyramid.getURL(2, 3, 2));
+    }
+
+    /**
+     * Tests that the iterator visits every tile, level by level and row by row, and then stops.
+     */
+    @Test
+    public void testIterator() {
+        final TilePyramid pyramid = new TilePyramid(ID, 1000, 700, 512, 256, 1, 2, 4);
+        final Iterator<String> iterator = pyramid.iterator();
+        final List<String> urls = new ArrayList<>();
+
+        iterator.forEachRemaining(urls::add);
+
+        assertEquals(9, urls.size());
+        assertEquals(pyramid.getURL(0, 0, 0), urls.get(0));
+        assertEquals(pyramid.getURL(2, 1, 0), urls.get(4));
+        assertEquals(pyramid.getURL(2, 0, 1), urls.get(5));
+        assertEquals(pyramid.getURL(2, 1, 2), urls.get(8));
+
+        try {
+            iterator.next();
+            fail("Iterator went past the last tile");
+        } catch (final NoSuchElementException details) {
+            // Expected
+        }
+    }
+
+    /**
+     * Tests that a tile outside the pyramid is rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testNoSuchTile() {
+        new TilePyramid(ID, 1000, 700, 512, 256, 1, 2, 4).getURL(2, 2, 0);
+    }
+
+    /**
+     * Tests that a pyramid can't have a scale factor that isn't positive.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadScaleFactor() {
+        new TilePyramid(ID, 1000, 700, 512, 256, 0, 1);
+    }
+
+    private static void assertLevel(final TilePyramid aPyramid, final int aLevel, final double aScale,
+            final int aWidth, final int aHeight, final int aColumnCount, final int aRowCount) {
+        assertEquals(aScale, aPyramid.getScaleFactor(aLevel), 0);
+        assertEquals(aWidth, aPyramid.getLevelWidth(aLevel));
+        assertEquals(aHeight, aPyramid.getLevelHeight(aLevel));
+        assertEquals(aColumnCount, aPyramid.getColumnCount(aLevel));
+        assertEquals(aRowCount, aPyramid.getRowCount(aLevel));
+        assertEquals((long) aColumnCount * aRowCount, aPyramid.getTileCount(aLevel));
+    }
+}